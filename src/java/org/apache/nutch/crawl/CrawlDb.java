@@ -48,6 +48,9 @@ public class CrawlDb extends Configured implements Tool {
 
   public static final String CRAWLDB_PURGE_404 = "db.update.purge.404";
 
+  /** Write updates as a delta, see {@link CrawlDbDeltas}. */
+  public static final String CRAWLDB_UPDATE_DELTA = "db.update.delta";
+
   public static final String CURRENT_NAME = "current";
   
   public static final String LOCK_NAME = ".locked";
@@ -64,6 +67,14 @@ public class CrawlDb extends Configured implements Tool {
   }
   
   public void update(Path crawlDb, Path[] segments, boolean normalize, boolean filter, boolean additionsAllowed, boolean force) throws IOException {
+    boolean delta = getConf().getBoolean(CRAWLDB_UPDATE_DELTA, false);
+    update(crawlDb, segments, normalize, filter, additionsAllowed, force, delta);
+  }
+
+  public void update(Path crawlDb, Path[] segments, boolean normalize, boolean filter, boolean additionsAllowed, boolean force, boolean delta) throws IOException {
+    if (delta && updateDelta(crawlDb, segments, normalize, filter, additionsAllowed, force)) {
+      return;
+    }
     FileSystem fs = FileSystem.get(getConf());
     Path lock = new Path(crawlDb, LOCK_NAME);
     LockUtil.createLockFile(fs, lock, force);
@@ -76,6 +87,10 @@ public class CrawlDb extends Configured implements Tool {
     job.setBoolean(CrawlDbFilter.URL_NORMALIZING, normalize);
 
     boolean url404Purging = job.getBoolean(CRAWLDB_PURGE_404, false);
+    boolean combineLinked = job.getBoolean(CrawlDbCombiner.CRAWLDB_COMBINE_LINKED, false);
+    if (combineLinked) {
+      job.setCombinerClass(CrawlDbCombiner.class);
+    }
 
     if (LOG.isInfoEnabled()) {
       LOG.info("CrawlDb update: starting at " + sdf.format(start));
@@ -85,6 +100,7 @@ public class CrawlDb extends Configured implements Tool {
       LOG.info("CrawlDb update: URL normalizing: " + normalize);
       LOG.info("CrawlDb update: URL filtering: " + filter);
       LOG.info("CrawlDb update: 404 purging: " + url404Purging);
+      LOG.info("CrawlDb update: combining linked entries: " + combineLinked);
     }
 
     for (int i = 0; i < segments.length; i++) {
@@ -115,6 +131,78 @@ public class CrawlDb extends Configured implements Tool {
     LOG.info("CrawlDb update: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
   }
 
+  /**
+   * Update the CrawlDb by writing a delta which contains only the records
+   * changed by the segments. Existing records are neither normalized nor
+   * filtered, and purging of gone pages takes effect at compaction only.
+   * @return false if a delta can't be written and a full update is needed
+   */
+  private boolean updateDelta(Path crawlDb, Path[] segments, boolean normalize, boolean filter, boolean additionsAllowed, boolean force) throws IOException {
+    JobConf job = CrawlDbDeltas.createDeltaJob(getConf(), crawlDb);
+    if (job == null) {
+      LOG.info("CrawlDb update: delta update not possible.");
+      return false;
+    }
+    FileSystem fs = FileSystem.get(getConf());
+    Path lock = new Path(crawlDb, LOCK_NAME);
+    LockUtil.createLockFile(fs, lock, force);
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+
+    job.setJobName("crawldb delta " + crawlDb);
+    job.setBoolean(CRAWLDB_ADDITIONS_ALLOWED, additionsAllowed);
+    job.setBoolean(CrawlDbFilter.URL_FILTERING, filter);
+    job.setBoolean(CrawlDbFilter.URL_NORMALIZING, normalize);
+    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setMapperClass(CrawlDbFilter.class);
+    job.setReducerClass(CrawlDbDeltaReducer.class);
+    if (job.getBoolean(CrawlDbCombiner.CRAWLDB_COMBINE_LINKED, false)) {
+      job.setCombinerClass(CrawlDbCombiner.class);
+    }
+
+    if (LOG.isInfoEnabled()) {
+      LOG.info("CrawlDb update: starting at " + sdf.format(start));
+      LOG.info("CrawlDb update: db: " + crawlDb);
+      LOG.info("CrawlDb update: segments: " + Arrays.asList(segments));
+      LOG.info("CrawlDb update: additions allowed: " + additionsAllowed);
+      LOG.info("CrawlDb update: URL normalizing: " + normalize);
+      LOG.info("CrawlDb update: URL filtering: " + filter);
+      LOG.info("CrawlDb update: writing delta");
+    }
+
+    for (int i = 0; i < segments.length; i++) {
+      Path fetch = new Path(segments[i], CrawlDatum.FETCH_DIR_NAME);
+      Path parse = new Path(segments[i], CrawlDatum.PARSE_DIR_NAME);
+      if (fs.exists(fetch) && fs.exists(parse)) {
+        FileInputFormat.addInputPath(job, fetch);
+        FileInputFormat.addInputPath(job, parse);
+      } else {
+        LOG.info(" - skipping invalid segment " + segments[i]);
+      }
+    }
+
+    Path tempDelta = FileOutputFormat.getOutputPath(job);
+    boolean locked = true;
+    try {
+      JobClient.runJob(job);
+      Path newDelta = CrawlDbDeltas.installDelta(job, crawlDb);
+      LOG.info("CrawlDb update: added delta " + newDelta);
+      CrawlDbCompactor compactor = new CrawlDbCompactor(getConf());
+      if (getConf().getBoolean(CrawlDbCompactor.COMPACT_AUTO, true)
+          && compactor.needsCompaction(crawlDb)) {
+        // releases the lock
+        locked = false;
+        compactor.compactLocked(crawlDb);
+      }
+    } finally {
+      if (fs.exists(tempDelta)) fs.delete(tempDelta, true);
+      if (locked) LockUtil.removeLockFile(fs, lock);
+    }
+    long end = System.currentTimeMillis();
+    LOG.info("CrawlDb update: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+    return true;
+  }
+
   public static JobConf createJob(Configuration config, Path crawlDb)
     throws IOException {
     Path newCrawlDb =
@@ -125,11 +213,8 @@ public class CrawlDb extends Configured implements Tool {
     job.setJobName("crawldb " + crawlDb);
 
 
-    Path current = new Path(crawlDb, CURRENT_NAME);
-    if (FileSystem.get(job).exists(current)) {
-      FileInputFormat.addInputPath(job, current);
-    }
-    job.setInputFormat(SequenceFileInputFormat.class);
+    // the new db will contain all current deltas
+    CrawlDbInputFormat.addCrawlDb(job, crawlDb);
 
     job.setMapperClass(CrawlDbFilter.class);
     job.setReducerClass(CrawlDbReducer.class);
@@ -159,6 +244,8 @@ public class CrawlDb extends Configured implements Tool {
     fs.mkdirs(crawlDb);
     fs.rename(newCrawlDb, current);
     if (!preserveBackup && fs.exists(old)) fs.delete(old, true);
+    // deltas read by the job are now part of the new db
+    CrawlDbDeltas.removeDeltas(fs, CrawlDbInputFormat.getDeltas(job, crawlDb));
     Path lock = new Path(crawlDb, LOCK_NAME);
     LockUtil.removeLockFile(fs, lock);
   }
@@ -170,7 +257,7 @@ public class CrawlDb extends Configured implements Tool {
 
   public int run(String[] args) throws Exception {
     if (args.length < 2) {
-      System.err.println("Usage: CrawlDb <crawldb> (-dir <segments> | <seg1> <seg2> ...) [-force] [-normalize] [-filter] [-noAdditions]");
+      System.err.println("Usage: CrawlDb <crawldb> (-dir <segments> | <seg1> <seg2> ...) [-force] [-normalize] [-filter] [-noAdditions] [-delta]");
       System.err.println("\tcrawldb\tCrawlDb to update");
       System.err.println("\t-dir segments\tparent directory containing all segments to update from");
       System.err.println("\tseg1 seg2 ...\tlist of segment names to update from");
@@ -178,6 +265,7 @@ public class CrawlDb extends Configured implements Tool {
       System.err.println("\t-normalize\tuse URLNormalizer on urls in CrawlDb and segment (usually not needed)");
       System.err.println("\t-filter\tuse URLFilters on urls in CrawlDb and segment");
       System.err.println("\t-noAdditions\tonly update already existing URLs, don't add any newly discovered URLs");
+      System.err.println("\t-delta\twrite only the changed records as a new delta of the CrawlDb");
 
       return -1;
     }
@@ -187,6 +275,7 @@ public class CrawlDb extends Configured implements Tool {
     boolean url404Purging = false;
     final FileSystem fs = FileSystem.get(getConf());
     boolean additionsAllowed = getConf().getBoolean(CRAWLDB_ADDITIONS_ALLOWED, true);
+    boolean delta = getConf().getBoolean(CRAWLDB_UPDATE_DELTA, false);
     HashSet<Path> dirs = new HashSet<Path>();
     for (int i = 1; i < args.length; i++) {
       if (args[i].equals("-normalize")) {
@@ -197,6 +286,8 @@ public class CrawlDb extends Configured implements Tool {
         force = true;
       } else if (args[i].equals("-noAdditions")) {
         additionsAllowed = false;
+      } else if (args[i].equals("-delta")) {
+        delta = true;
       } else if (args[i].equals("-dir")) {
         FileStatus[] paths = fs.listStatus(new Path(args[++i]), HadoopFSUtil.getPassDirectoriesFilter(fs));
         dirs.addAll(Arrays.asList(HadoopFSUtil.getPaths(paths)));
@@ -205,7 +296,7 @@ public class CrawlDb extends Configured implements Tool {
       }
     }
     try {
-      update(new Path(args[0]), dirs.toArray(new Path[dirs.size()]), normalize, filter, additionsAllowed, force);
+      update(new Path(args[0]), dirs.toArray(new Path[dirs.size()]), normalize, filter, additionsAllowed, force, delta);
       return 0;
     } catch (Exception e) {
       LOG.error("CrawlDb update: " + StringUtils.stringifyException(e));
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Logging imports
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.scoring.ScoringFilterException;
+import org.apache.nutch.scoring.ScoringFilters;
+
+/**
+ * Combiner for the CrawlDb update job. It collapses the
+ * {@link CrawlDatum#STATUS_LINKED} entries of a URL map-side, so that only
+ * one record per URL and map task needs to be shuffled to
+ * {@link CrawlDbReducer}. If all scoring filters are
+ * {@link org.apache.nutch.scoring.InlinkCombiningScoringFilter}s (see
+ * {@link ScoringFilters#combineInlinkScores(Text, List, CrawlDatum)}) the
+ * best scoring <code>db.update.max.inlinks</code> entries, which the reducer
+ * would use, are merged into a single CrawlDatum, otherwise only these
+ * entries are kept. All other entries are passed through unchanged.
+ *
+ * <p>The combined entries of several map tasks are again capped by the
+ * reducer, so for URLs with more than <code>db.update.max.inlinks</code>
+ * inlinks in total the combined scores may differ from a job without
+ * combiner, see <code>db.update.combine.linked</code>.</p>
+ */
+public class CrawlDbCombiner implements Reducer<Text, CrawlDatum, Text, CrawlDatum> {
+  public static final Logger LOG = LoggerFactory.getLogger(CrawlDbCombiner.class);
+
+  public static final String CRAWLDB_COMBINE_LINKED = "db.update.combine.linked";
+
+  private CrawlDbReducer.InlinkPriorityQueue linked = null;
+  private ScoringFilters scfilters = null;
+  private List<CrawlDatum> linkList = new ArrayList<CrawlDatum>();
+  private DataOutputBuffer buffer = new DataOutputBuffer();
+
+  public void configure(JobConf job) {
+    scfilters = new ScoringFilters(job);
+    int maxLinks = job.getInt("db.update.max.inlinks", 10000);
+    linked = new CrawlDbReducer.InlinkPriorityQueue(maxLinks);
+  }
+
+  public void close() {}
+
+  public void reduce(Text key, Iterator<CrawlDatum> values,
+                     OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+    throws IOException {
+
+    linkList.clear();
+    while (values.hasNext()) {
+      CrawlDatum datum = values.next();
+      if (datum.getStatus() != CrawlDatum.STATUS_LINKED) {
+        output.collect(key, datum);
+        continue;
+      }
+      // values are reused by the framework, keep a copy
+      CrawlDatum link = new CrawlDatum();
+      link.set(datum);
+      linkList.add(link);
+    }
+
+    if (linkList.size() < 2) {
+      if (linkList.size() == 1) output.collect(key, linkList.get(0));
+      return;
+    }
+    int numInlinks = linkList.size();
+
+    // the reducer only uses the best db.update.max.inlinks entries, the
+    // others must not contribute to the combined score either
+    linked.clear();
+    for (int i = 0; i < linkList.size(); i++) {
+      linked.insert(linkList.get(i));
+    }
+    linkList.clear();
+    int numLinks = linked.size();
+    for (int i = 0; i < numLinks; i++) {
+      linkList.add(linked.pop());
+    }
+    // popped best first, as in the reducer
+    CrawlDatum best = linkList.get(0);
+
+    // try to merge the inlinks into one
+    if (numLinks > 1) {
+      CrawlDatum merged = new CrawlDatum();
+      merged.set(best);
+      if (combineInlinkScores(key, linkList, merged)) {
+        output.collect(key, merged);
+        countSaved(key, linkList, numInlinks - 1, reporter);
+        return;
+      }
+    }
+
+    // keep only the inlinks the reducer would use
+    for (int i = 0; i < numLinks; i++) {
+      output.collect(key, linkList.get(i));
+    }
+    countSaved(key, linkList, numInlinks - numLinks, reporter);
+  }
+
+  /**
+   * Lets the scoring filters merge the inlinks.
+   * @return false if the inlinks must be kept separate
+   */
+  boolean combineInlinkScores(Text key, List<CrawlDatum> inlinked,
+      CrawlDatum merged) {
+    try {
+      return scfilters.combineInlinkScores(key, inlinked, merged);
+    } catch (ScoringFilterException e) {
+      if (LOG.isWarnEnabled()) {
+        LOG.warn("Couldn't combine inlink scores, key=" + key + ": " + e);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Update counters with the number of records and (approximate) serialized
+   * bytes which don't need to be shuffled.
+   */
+  private void countSaved(Text key, List<CrawlDatum> links, int dropped,
+      Reporter reporter) throws IOException {
+    if (dropped <= 0) return;
+    buffer.reset();
+    key.write(buffer);
+    long keyBytes = buffer.getLength();
+    long bytes = 0;
+    // the records dropped are not necessarily the ones at hand, but the
+    // serialized size of linked datums differs only by their metadata
+    for (int i = 0; i < dropped; i++) {
+      buffer.reset();
+      links.get(i % links.size()).write(buffer);
+      bytes += keyBytes + buffer.getLength();
+    }
+    reporter.getCounter("CrawlDB combiner", "linked records combined").increment(dropped);
+    reporter.getCounter("CrawlDB combiner", "shuffle bytes saved").increment(bytes);
+  }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import org.apache.nutch.util.LockUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.TimingUtil;
+
+/**
+ * Folds the deltas of a CrawlDb (see {@link CrawlDbDeltas}) into a new
+ * base. Compaction is needed because every delta adds a seek per lookup and
+ * a merge input per read; it is due when the number of deltas exceeds
+ * <code>db.compact.max.deltas</code> or their total size exceeds
+ * <code>db.compact.max.delta.ratio</code> times the size of the base.
+ */
+public class CrawlDbCompactor extends Configured implements Tool {
+  public static final Logger LOG = LoggerFactory.getLogger(CrawlDbCompactor.class);
+
+  public static final String COMPACT_MAX_DELTAS = "db.compact.max.deltas";
+
+  public static final String COMPACT_MAX_DELTA_RATIO = "db.compact.max.delta.ratio";
+
+  public static final String COMPACT_AUTO = "db.compact.auto";
+
+  public CrawlDbCompactor() {}
+
+  public CrawlDbCompactor(Configuration conf) {
+    setConf(conf);
+  }
+
+  /** Returns true if the deltas of a CrawlDb exceed the configured limits. */
+  public boolean needsCompaction(Path crawlDb) throws IOException {
+    FileSystem fs = FileSystem.get(getConf());
+    Path[] deltas = CrawlDbDeltas.getDeltas(fs, crawlDb);
+    if (deltas.length == 0) return false;
+    int maxDeltas = getConf().getInt(COMPACT_MAX_DELTAS, 8);
+    if (maxDeltas >= 0 && deltas.length > maxDeltas) return true;
+    float maxRatio = getConf().getFloat(COMPACT_MAX_DELTA_RATIO, 0.25f);
+    if (maxRatio < 0) return false;
+    Path current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    long baseSize = fs.exists(current) ? fs.getContentSummary(current).getLength() : 0;
+    return CrawlDbDeltas.getSize(fs, deltas) > maxRatio * baseSize;
+  }
+
+  /**
+   * Compact a CrawlDb.
+   * @param always compact if there are any deltas, otherwise only if
+   * {@link #needsCompaction(Path)}
+   * @param force force compaction even if the CrawlDb appears to be locked
+   * @return true if the CrawlDb has been compacted
+   */
+  public boolean compact(Path crawlDb, boolean always, boolean force) throws IOException {
+    FileSystem fs = FileSystem.get(getConf());
+    if (CrawlDbDeltas.getDeltas(fs, crawlDb).length == 0) {
+      LOG.info("CrawlDb compact: no deltas in " + crawlDb);
+      return false;
+    }
+    if (!always && !needsCompaction(crawlDb)) {
+      LOG.info("CrawlDb compact: deltas of " + crawlDb + " within limits");
+      return false;
+    }
+    Path lock = new Path(crawlDb, CrawlDb.LOCK_NAME);
+    LockUtil.createLockFile(fs, lock, force);
+    compactLocked(crawlDb);
+    return true;
+  }
+
+  /**
+   * Run the compaction job. The caller must hold the lock of the CrawlDb,
+   * which is released when the new base has been installed or if the job
+   * fails.
+   */
+  void compactLocked(Path crawlDb) throws IOException {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    FileSystem fs = FileSystem.get(getConf());
+    Path lock = new Path(crawlDb, CrawlDb.LOCK_NAME);
+
+    JobConf job = CrawlDb.createJob(getConf(), crawlDb);
+    job.setJobName("crawldb compact " + crawlDb);
+    Path[] deltas = CrawlDbInputFormat.getDeltas(job, crawlDb);
+    if (LOG.isInfoEnabled()) {
+      LOG.info("CrawlDb compact: starting at " + sdf.format(start));
+      LOG.info("CrawlDb compact: db: " + crawlDb + ", deltas: " + deltas.length);
+    }
+    try {
+      JobClient.runJob(job);
+    } catch (IOException e) {
+      LockUtil.removeLockFile(fs, lock);
+      Path outPath = FileOutputFormat.getOutputPath(job);
+      if (fs.exists(outPath)) fs.delete(outPath, true);
+      throw e;
+    }
+    CrawlDb.install(job, crawlDb);
+    long end = System.currentTimeMillis();
+    LOG.info("CrawlDb compact: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(NutchConfiguration.create(), new CrawlDbCompactor(), args);
+    System.exit(res);
+  }
+
+  public int run(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: CrawlDbCompactor <crawldb> [-threshold] [-force]");
+      System.err.println("\tcrawldb\tCrawlDb to compact");
+      System.err.println("\t-threshold\tonly compact if the deltas exceed " + COMPACT_MAX_DELTAS
+          + " or " + COMPACT_MAX_DELTA_RATIO);
+      System.err.println("\t-force\tforce compaction even if CrawlDb appears to be locked (CAUTION advised)");
+      return -1;
+    }
+    boolean always = true;
+    boolean force = false;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("-threshold")) {
+        always = false;
+      } else if (args[i].equals("-force")) {
+        force = true;
+      } else {
+        System.err.println("Unknown argument: " + args[i]);
+        return -1;
+      }
+    }
+    try {
+      compact(new Path(args[0]), always, force);
+      return 0;
+    } catch (Exception e) {
+      LOG.error("CrawlDb compact: " + StringUtils.stringifyException(e));
+      return -1;
+    }
+  }
+}
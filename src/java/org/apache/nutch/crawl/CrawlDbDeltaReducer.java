@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Reducer of a delta CrawlDb update. The job only reads segment data, the
+ * existing record of each URL is looked up in the base and the deltas of
+ * the CrawlDb and merged by {@link CrawlDbReducer}. Only new or changed
+ * records are emitted, they form a new delta of the CrawlDb.
+ */
+public class CrawlDbDeltaReducer extends CrawlDbReducer {
+
+  private CrawlDbDeltas.ChangedRecords changes;
+
+  public void configure(JobConf job) {
+    super.configure(job);
+    try {
+      changes = new CrawlDbDeltas.ChangedRecords(job, "CrawlDB delta");
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public void close() {
+    super.close();
+    changes.close();
+  }
+
+  public void reduce(Text key, Iterator<CrawlDatum> values,
+                     OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+    throws IOException {
+    super.reduce(key, changes.withExisting(key, values), changes.getCapture(),
+        reporter);
+    changes.collectChanged(key, output, reporter);
+  }
+}
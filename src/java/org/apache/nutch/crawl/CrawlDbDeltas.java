@@ -0,0 +1,400 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.util.HadoopFSUtil;
+import org.apache.nutch.util.NutchJob;
+
+/**
+ * Support for CrawlDb deltas. Besides the <code>current</code> MapFile set
+ * (the "base"), a CrawlDb may contain sorted delta runs under
+ * <code>deltas/</code>, each partitioned exactly like the base. A record
+ * in a newer delta replaces the record for the same URL in older deltas and
+ * in the base. Deltas are folded into the base by any job which rewrites
+ * the whole CrawlDb (see {@link CrawlDb#createJob(Configuration, Path)}
+ * and {@link CrawlDbCompactor}).
+ */
+public class CrawlDbDeltas {
+  public static final Logger LOG = LoggerFactory.getLogger(CrawlDbDeltas.class);
+
+  public static final String DELTAS_NAME = "deltas";
+
+  /** Layers (base and deltas) looked up by jobs writing a new delta. */
+  public static final String DELTA_LAYERS = "crawldb.delta.layers";
+
+  private static final String DELTA_PREFIX = "delta-";
+
+  private static final PathFilter PARTS_FILTER = new PathFilter() {
+    public boolean accept(Path path) {
+      return path.getName().startsWith("part-");
+    }
+  };
+
+  private static final PathFilter DELTAS_FILTER = new PathFilter() {
+    public boolean accept(Path path) {
+      return path.getName().startsWith(DELTA_PREFIX);
+    }
+  };
+
+  /** Returns the deltas of a CrawlDb, oldest first. */
+  public static Path[] getDeltas(FileSystem fs, Path crawlDb) throws IOException {
+    Path dir = new Path(crawlDb, DELTAS_NAME);
+    if (!fs.exists(dir)) return new Path[0];
+    Path[] deltas = HadoopFSUtil.getPaths(fs.listStatus(dir, DELTAS_FILTER));
+    Arrays.sort(deltas);
+    return deltas;
+  }
+
+  /** Returns the path for a new delta, sorting after all existing ones. */
+  public static Path newDeltaPath(FileSystem fs, Path crawlDb) throws IOException {
+    long time = System.currentTimeMillis();
+    Path[] deltas = getDeltas(fs, crawlDb);
+    if (deltas.length > 0) {
+      String last = deltas[deltas.length - 1].getName().substring(DELTA_PREFIX.length());
+      time = Math.max(time, Long.parseLong(last) + 1);
+    }
+    return new Path(new Path(crawlDb, DELTAS_NAME),
+        DELTA_PREFIX + String.format("%015d", time));
+  }
+
+  /** Returns the MapFile parts of a base or a delta, sorted by name. */
+  public static Path[] getParts(FileSystem fs, Path dir) throws IOException {
+    FileStatus[] stats = fs.listStatus(dir, PARTS_FILTER);
+    if (stats == null) return new Path[0];
+    Path[] parts = HadoopFSUtil.getPaths(stats);
+    Arrays.sort(parts);
+    return parts;
+  }
+
+  /** Delete deltas, e.g. after they have been folded into a new base. */
+  public static void removeDeltas(FileSystem fs, Path[] deltas) throws IOException {
+    for (int i = 0; i < deltas.length; i++) {
+      if (fs.exists(deltas[i])) fs.delete(deltas[i], true);
+    }
+  }
+
+  /**
+   * Returns the parts with number <code>part</code> of each layer, in the
+   * order of the layers (base first, then deltas from oldest to newest).
+   * @throws IOException if the layers are not partitioned the same way.
+   */
+  public static Path[] getLayerParts(FileSystem fs, Path[] layers, int part)
+    throws IOException {
+    Path[] res = new Path[layers.length];
+    int numParts = -1;
+    for (int i = 0; i < layers.length; i++) {
+      Path[] parts = getParts(fs, layers[i]);
+      if (numParts == -1) {
+        numParts = parts.length;
+      } else if (parts.length != numParts) {
+        throw new IOException("Incompatible partitioning: " + layers[i] +
+            " has " + parts.length + " parts, expected " + numParts);
+      }
+      res[i] = parts[part];
+    }
+    return res;
+  }
+
+  /**
+   * Point lookups in one partition of a base and its deltas. Keys should be
+   * requested in increasing order, so that readers only seek forward.
+   */
+  public static class Lookup implements Closeable {
+    private MapFile.Reader[] readers;
+
+    /**
+     * @param parts part directories of each layer, oldest first, as
+     * returned by {@link CrawlDbDeltas#getLayerParts(FileSystem, Path[], int)}.
+     */
+    public Lookup(FileSystem fs, Path[] parts, Configuration conf) throws IOException {
+      readers = new MapFile.Reader[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+        readers[i] = new MapFile.Reader(fs, parts[i].toString(), conf);
+      }
+    }
+
+    /** Returns the newest version of a record, or null if not found. */
+    public CrawlDatum get(Text key, CrawlDatum val) throws IOException {
+      for (int i = readers.length - 1; i >= 0; i--) {
+        if (readers[i].get(key, val) != null) return val;
+      }
+      return null;
+    }
+
+    public void close() throws IOException {
+      for (int i = 0; i < readers.length; i++) {
+        readers[i].close();
+      }
+    }
+  }
+
+  /**
+   * Iterates over one partition of a base and its deltas in key order,
+   * merging the sorted layers on the fly. If a key is present in several
+   * layers only the newest record is returned.
+   */
+  public static class MergingReader implements Closeable {
+    private SequenceFile.Reader[] readers;
+    private Text[] keys;
+    private CrawlDatum[] values;
+    private boolean[] valid;
+    private long length = 0;
+
+    /**
+     * @param parts part directories of each layer, oldest first, as
+     * returned by {@link CrawlDbDeltas#getLayerParts(FileSystem, Path[], int)}.
+     */
+    public MergingReader(FileSystem fs, Path[] parts, Configuration conf) throws IOException {
+      int n = parts.length;
+      readers = new SequenceFile.Reader[n];
+      keys = new Text[n];
+      values = new CrawlDatum[n];
+      valid = new boolean[n];
+      for (int i = 0; i < n; i++) {
+        Path data = new Path(parts[i], MapFile.DATA_FILE_NAME);
+        length += fs.getFileStatus(data).getLen();
+        readers[i] = new SequenceFile.Reader(fs, data, conf);
+        keys[i] = new Text();
+        values[i] = new CrawlDatum();
+        valid[i] = readers[i].next(keys[i], values[i]);
+      }
+    }
+
+    /** Read the next record, returns false at the end of the input. */
+    public boolean next(Text key, CrawlDatum value) throws IOException {
+      // find the smallest key, the newest layer wins on equal keys
+      int min = -1;
+      for (int i = 0; i < readers.length; i++) {
+        if (!valid[i]) continue;
+        if (min == -1 || keys[i].compareTo(keys[min]) <= 0) min = i;
+      }
+      if (min == -1) return false;
+      key.set(keys[min]);
+      value.set(values[min]);
+      // skip older versions of this key
+      for (int i = 0; i < readers.length; i++) {
+        if (valid[i] && keys[i].equals(key)) {
+          valid[i] = readers[i].next(keys[i], values[i]);
+        }
+      }
+      return true;
+    }
+
+    /** Total number of bytes in all layers. */
+    public long getLength() {
+      return length;
+    }
+
+    /** Number of bytes read so far. */
+    public long getPosition() throws IOException {
+      long pos = 0;
+      for (int i = 0; i < readers.length; i++) {
+        pos += readers[i].getPosition();
+      }
+      return pos;
+    }
+
+    public void close() throws IOException {
+      for (int i = 0; i < readers.length; i++) {
+        readers[i].close();
+      }
+    }
+  }
+
+  /**
+   * Create a job writing a new delta of a CrawlDb. The job has as many
+   * reducers as the CrawlDb has parts, and uses the default partitioner, so
+   * that the output is partitioned like the db. Reducers can look up the
+   * existing records of their partition with {@link #openLookup(JobConf)}.
+   * @return the job, or null if a delta can't be written (there is no db
+   * yet, or a local job runner can't reproduce the partitioning).
+   */
+  public static JobConf createDeltaJob(Configuration config, Path crawlDb)
+    throws IOException {
+    FileSystem fs = FileSystem.get(config);
+    Path current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    if (!fs.exists(current)) {
+      LOG.info("CrawlDb " + crawlDb + " doesn't exist yet, can't write a delta.");
+      return null;
+    }
+    int numParts = getParts(fs, current).length;
+    JobConf job = new NutchJob(config);
+    if ("local".equals(job.get("mapred.job.tracker")) && numParts != 1) {
+      LOG.info("Jobtracker is 'local' and CrawlDb " + crawlDb + " has " + numParts
+          + " parts, can't write a delta.");
+      return null;
+    }
+    Path[] layers = getLayers(crawlDb, getDeltas(fs, crawlDb));
+    String[] names = new String[layers.length];
+    for (int i = 0; i < layers.length; i++) {
+      names[i] = fs.makeQualified(layers[i]).toString();
+    }
+    job.setStrings(DELTA_LAYERS, names);
+    job.setNumReduceTasks(numParts);
+
+    Path tempDelta = new Path(crawlDb,
+        "delta-temp-" + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+    FileOutputFormat.setOutputPath(job, tempDelta);
+    job.setOutputFormat(MapFileOutputFormat.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(CrawlDatum.class);
+    job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+    return job;
+  }
+
+  /** Install the output of a job created by {@link #createDeltaJob(Configuration, Path)}. */
+  public static Path installDelta(JobConf job, Path crawlDb) throws IOException {
+    FileSystem fs = FileSystem.get(job);
+    Path delta = newDeltaPath(fs, crawlDb);
+    fs.mkdirs(delta.getParent());
+    fs.rename(FileOutputFormat.getOutputPath(job), delta);
+    return delta;
+  }
+
+  /**
+   * Open a lookup over the existing records of the partition processed by
+   * the current reduce task of a job created by
+   * {@link #createDeltaJob(Configuration, Path)}.
+   */
+  public static Lookup openLookup(JobConf job) throws IOException {
+    String[] names = job.getStrings(DELTA_LAYERS);
+    Path[] layers = new Path[names.length];
+    for (int i = 0; i < names.length; i++) {
+      layers[i] = new Path(names[i]);
+    }
+    int part = job.getInt("mapred.task.partition", 0);
+    FileSystem fs = FileSystem.get(job);
+    return new Lookup(fs, getLayerParts(fs, layers, part), job);
+  }
+
+  /**
+   * Helper for the reducers of jobs created by
+   * {@link #createDeltaJob(Configuration, Path)}. The reducer merges the
+   * values of a key with the existing record, looked up in the base and the
+   * deltas of the CrawlDb, into a capturing collector, and only new or
+   * changed records are emitted:
+   * <pre>
+   *   super.reduce(key, changes.withExisting(key, values),
+   *       changes.getCapture(), reporter);
+   *   changes.collectChanged(key, output, reporter);
+   * </pre>
+   */
+  public static class ChangedRecords {
+    private Lookup lookup;
+    private String counterGroup;
+    private CrawlDatum oldValue = new CrawlDatum();
+    private CrawlDatum old;
+    private List<CrawlDatum> valueList = new ArrayList<CrawlDatum>();
+    private CrawlDatum result;
+    private OutputCollector<Text, CrawlDatum> capture = new OutputCollector<Text, CrawlDatum>() {
+      public void collect(Text key, CrawlDatum value) {
+        result = value;
+      }
+    };
+
+    /**
+     * @param counterGroup group of the counters of added, updated and
+     * unchanged urls.
+     */
+    public ChangedRecords(JobConf job, String counterGroup) throws IOException {
+      this.counterGroup = counterGroup;
+      lookup = openLookup(job);
+    }
+
+    /** Returns the values of a key, followed by its existing record if any. */
+    public Iterator<CrawlDatum> withExisting(Text key, Iterator<CrawlDatum> values)
+      throws IOException {
+      valueList.clear();
+      while (values.hasNext()) {
+        CrawlDatum val = new CrawlDatum();
+        val.set(values.next());
+        valueList.add(val);
+      }
+      old = lookup.get(key, oldValue);
+      if (old != null) valueList.add(old);
+      result = null;
+      return valueList.iterator();
+    }
+
+    /** Returns the collector the merged record of a key is passed to. */
+    public OutputCollector<Text, CrawlDatum> getCapture() {
+      return capture;
+    }
+
+    /** Emit the merged record of a key if it differs from the existing one. */
+    public void collectChanged(Text key, OutputCollector<Text, CrawlDatum> output,
+        Reporter reporter) throws IOException {
+      if (result == null) return;
+      if (old != null && old.equals(result)) {
+        reporter.getCounter(counterGroup, "urls unchanged").increment(1);
+        return;
+      }
+      reporter.getCounter(counterGroup, old == null ? "urls added" : "urls updated").increment(1);
+      output.collect(key, result);
+    }
+
+    public void close() {
+      try {
+        lookup.close();
+      } catch (IOException e) {
+        LOG.warn("Error closing CrawlDb readers: " + e);
+      }
+    }
+  }
+
+  /** Returns the total size in bytes of a list of layers. */
+  public static long getSize(FileSystem fs, Path[] layers) throws IOException {
+    long size = 0;
+    for (int i = 0; i < layers.length; i++) {
+      size += fs.getContentSummary(layers[i]).getLength();
+    }
+    return size;
+  }
+
+  /** Returns base and deltas as a list of layers, oldest first. */
+  public static Path[] getLayers(Path crawlDb, Path[] deltas) {
+    List<Path> layers = new ArrayList<Path>(deltas.length + 1);
+    layers.add(new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    layers.addAll(Arrays.asList(deltas));
+    return layers.toArray(new Path[layers.size()]);
+  }
+}
@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+
+/**
+ * Input format for jobs reading a CrawlDb which may have deltas (see
+ * {@link CrawlDbDeltas}). CrawlDbs added with
+ * {@link #addCrawlDb(JobConf, Path)} are read one split per partition,
+ * merging the base and its deltas on the fly so that each URL is seen
+ * exactly once, with its newest record. All other input paths (e.g.
+ * segment data) are read as with {@link SequenceFileInputFormat}.
+ */
+public class CrawlDbInputFormat extends SequenceFileInputFormat<Text, CrawlDatum> {
+
+  public static final String CRAWLDB_CURRENT = "crawldb.input.current";
+
+  public static final String CRAWLDB_DELTAS = "crawldb.input.deltas.";
+
+  /**
+   * A partition of a CrawlDb base with the same partition of its deltas.
+   * As for a {@link org.apache.hadoop.mapred.FileSplit}, the locations are
+   * only known where the split is created, they are not serialized.
+   */
+  public static class CrawlDbSplit implements InputSplit {
+    private Path[] parts;
+    private long length;
+    private String[] hosts = new String[0];
+
+    public CrawlDbSplit() { }
+
+    public CrawlDbSplit(Path[] parts, long length) {
+      this.parts = parts;
+      this.length = length;
+    }
+
+    /**
+     * @param hosts the hosts storing the base part, see
+     * {@link CrawlDbInputFormat#getHosts(FileSystem, Path)}.
+     */
+    public CrawlDbSplit(Path[] parts, long length, String[] hosts) {
+      this(parts, length);
+      this.hosts = hosts;
+    }
+
+    public Path[] getParts() {
+      return parts;
+    }
+
+    public long getLength() throws IOException {
+      return length;
+    }
+
+    public String[] getLocations() throws IOException {
+      return hosts;
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      length = in.readLong();
+      parts = new Path[in.readInt()];
+      for (int i = 0; i < parts.length; i++) {
+        parts[i] = new Path(Text.readString(in));
+      }
+    }
+
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(length);
+      out.writeInt(parts.length);
+      for (int i = 0; i < parts.length; i++) {
+        Text.writeString(out, parts[i].toString());
+      }
+    }
+
+    public String toString() {
+      return Arrays.asList(parts).toString();
+    }
+  }
+
+  private static class CrawlDbRecordReader implements RecordReader<Text, CrawlDatum> {
+    private CrawlDbDeltas.MergingReader reader;
+
+    public CrawlDbRecordReader(JobConf job, CrawlDbSplit split) throws IOException {
+      reader = new CrawlDbDeltas.MergingReader(FileSystem.get(job), split.getParts(), job);
+    }
+
+    public boolean next(Text key, CrawlDatum value) throws IOException {
+      return reader.next(key, value);
+    }
+
+    public Text createKey() {
+      return new Text();
+    }
+
+    public CrawlDatum createValue() {
+      return new CrawlDatum();
+    }
+
+    public long getPos() throws IOException {
+      return reader.getPosition();
+    }
+
+    public float getProgress() throws IOException {
+      if (reader.getLength() == 0) return 1.0f;
+      return Math.min(1.0f, (float) reader.getPosition() / reader.getLength());
+    }
+
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  /**
+   * Add a CrawlDb to the input of a job, together with its current deltas,
+   * and set this class as the input format.
+   * @return the deltas which will be read by the job, oldest first
+   */
+  public static Path[] addCrawlDb(JobConf job, Path crawlDb) throws IOException {
+    FileSystem fs = crawlDb.getFileSystem(job);
+    Path current = fs.makeQualified(new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    Path[] deltas = new Path[0];
+    if (fs.exists(current)) {
+      FileInputFormat.addInputPath(job, current);
+      deltas = CrawlDbDeltas.getDeltas(fs, crawlDb);
+    }
+    if (deltas.length > 0) {
+      String[] names = new String[deltas.length];
+      for (int i = 0; i < deltas.length; i++) {
+        names[i] = fs.makeQualified(deltas[i]).toString();
+      }
+      String[] dbs = job.getStrings(CRAWLDB_CURRENT, new String[0]);
+      List<String> all = new ArrayList<String>(Arrays.asList(dbs));
+      all.add(current.toString());
+      job.setStrings(CRAWLDB_CURRENT, all.toArray(new String[all.size()]));
+      job.setStrings(CRAWLDB_DELTAS + current.toString(), names);
+    }
+    job.setInputFormat(CrawlDbInputFormat.class);
+    return deltas;
+  }
+
+  /** Returns the deltas of a CrawlDb registered in a job, oldest first. */
+  public static Path[] getDeltas(JobConf job, Path crawlDb) throws IOException {
+    FileSystem fs = crawlDb.getFileSystem(job);
+    Path current = fs.makeQualified(new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    String[] names = job.getStrings(CRAWLDB_DELTAS + current.toString(), new String[0]);
+    Path[] deltas = new Path[names.length];
+    for (int i = 0; i < names.length; i++) {
+      deltas[i] = new Path(names[i]);
+    }
+    return deltas;
+  }
+
+  public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+    String[] dbs = job.getStrings(CRAWLDB_CURRENT);
+    if (dbs == null || dbs.length == 0) {
+      return super.getSplits(job, numSplits);
+    }
+    Set<String> merged = new HashSet<String>(Arrays.asList(dbs));
+    FileSystem fs = FileSystem.get(job);
+    List<Path> others = new ArrayList<Path>();
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+    for (Path input : FileInputFormat.getInputPaths(job)) {
+      Path current = input.getFileSystem(job).makeQualified(input);
+      if (!merged.contains(current.toString())) {
+        others.add(input);
+        continue;
+      }
+      String[] names = job.getStrings(CRAWLDB_DELTAS + current.toString());
+      Path[] layers = new Path[names.length + 1];
+      layers[0] = current;
+      for (int i = 0; i < names.length; i++) {
+        layers[i + 1] = new Path(names[i]);
+      }
+      int numParts = CrawlDbDeltas.getParts(fs, current).length;
+      for (int i = 0; i < numParts; i++) {
+        Path[] parts = CrawlDbDeltas.getLayerParts(fs, layers, i);
+        long length = 0;
+        for (int j = 0; j < parts.length; j++) {
+          length += fs.getContentSummary(parts[j]).getLength();
+        }
+        splits.add(new CrawlDbSplit(parts, length, getHosts(fs, parts[0])));
+      }
+    }
+    if (others.size() > 0) {
+      JobConf otherJob = new JobConf(job);
+      FileInputFormat.setInputPaths(otherJob, others.toArray(new Path[others.size()]));
+      splits.addAll(Arrays.asList(super.getSplits(otherJob, numSplits)));
+    }
+    return splits.toArray(new InputSplit[splits.size()]);
+  }
+
+  /**
+   * Returns the hosts storing the data of a MapFile part, the hosts with the
+   * most bytes of it first. The base is the largest layer of a split, so
+   * its part decides where the split is best read.
+   */
+  static String[] getHosts(FileSystem fs, Path part) throws IOException {
+    FileStatus stat = fs.getFileStatus(new Path(part, MapFile.DATA_FILE_NAME));
+    BlockLocation[] blocks = fs.getFileBlockLocations(stat, 0, stat.getLen());
+    final Map<String, Long> bytes = new HashMap<String, Long>();
+    if (blocks != null) {
+      for (BlockLocation block : blocks) {
+        for (String host : block.getHosts()) {
+          Long sum = bytes.get(host);
+          bytes.put(host, (sum == null ? 0 : sum) + block.getLength());
+        }
+      }
+    }
+    List<String> hosts = new ArrayList<String>(bytes.keySet());
+    Collections.sort(hosts, new Comparator<String>() {
+      public int compare(String a, String b) {
+        return bytes.get(b).compareTo(bytes.get(a));
+      }
+    });
+    return hosts.toArray(new String[hosts.size()]);
+  }
+
+  public RecordReader<Text, CrawlDatum> getRecordReader(InputSplit split,
+      JobConf job, Reporter reporter) throws IOException {
+    if (split instanceof CrawlDbSplit) {
+      reporter.setStatus(split.toString());
+      return new CrawlDbRecordReader(job, (CrawlDbSplit) split);
+    }
+    return super.getRecordReader(split, job, reporter);
+  }
+}
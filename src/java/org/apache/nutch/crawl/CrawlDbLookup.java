@@ -0,0 +1,462 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// Commons Logging imports
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.nutch.util.NutchConfiguration;
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.bio.SocketConnector;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+/**
+ * Long-lived random access to a CrawlDb. Unlike {@link CrawlDbReader#get},
+ * which is meant for one-off lookups, this class keeps the MapFile readers
+ * of all parts open (with their indexes loaded in memory, see
+ * <code>io.map.index.skip</code>), and keeps recently requested records in
+ * an LRU cache bounded by <code>db.lookup.cache.mb</code>. Batch lookups
+ * sort the requested URLs per part, so that consecutive seeks mostly move
+ * forward within the same data block.
+ *
+ * <p>Deltas of the CrawlDb (see {@link CrawlDbDeltas}) are looked up
+ * newest first, before the base.</p>
+ *
+ * <p>Instances are thread-safe. The CrawlDb is reopened automatically when
+ * it has been replaced or a delta has been added (e.g. by updatedb),
+ * checked at most every
+ * <code>db.lookup.refresh.interval</code> seconds. Lookups hold a read lock
+ * on the open readers, reopening waits for running lookups to finish, so
+ * that records of a replaced CrawlDb are never cached after the reopen.</p>
+ *
+ * <p>Running this class from the command line starts a small HTTP server,
+ * answering <code>GET /?url=...&amp;url=...</code> (or a POST with one URL
+ * per line) in the same format as <code>readdb -url</code>. It listens on
+ * <code>db.lookup.host</code>, by default on the loopback interface only.</p>
+ */
+public class CrawlDbLookup implements Closeable {
+
+  public static final Logger LOG = LoggerFactory.getLogger(CrawlDbLookup.class);
+
+  public static final String CACHE_SIZE = "db.lookup.cache.mb";
+
+  public static final String REFRESH_INTERVAL = "db.lookup.refresh.interval";
+
+  public static final String HOST = "db.lookup.host";
+
+  public static final String PORT = "db.lookup.port";
+
+  /** Estimated per-entry overhead of the cache, in bytes. */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private static final HashPartitioner<Text, CrawlDatum> PARTITIONER =
+    new HashPartitioner<Text, CrawlDatum>();
+
+  /** Cache entry, <code>datum</code> is null for URLs not in the db. */
+  private static class CacheEntry {
+    CrawlDatum datum;
+    int size;
+
+    CacheEntry(CrawlDatum datum, int size) {
+      this.datum = datum;
+      this.size = size;
+    }
+  }
+
+  private Configuration conf;
+  private Path crawlDb;
+  private Path current;
+  private FileSystem fs;
+  /** Readers per part, of the base and the deltas, oldest first. */
+  private MapFile.Reader[][] readers;
+  /** Held for reading while readers are used, for writing to replace them. */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private long modificationTime;
+  private long refreshInterval;
+  private long lastRefreshCheck;
+
+  private final LinkedHashMap<String, CacheEntry> cache =
+    new LinkedHashMap<String, CacheEntry>(1024, 0.75f, true);
+  private long maxCacheBytes;
+  private long cacheBytes = 0;
+
+  private long lookups = 0;
+  private long hits = 0;
+  private long found = 0;
+
+  public CrawlDbLookup(Path crawlDb, Configuration conf) throws IOException {
+    this.conf = conf;
+    this.crawlDb = crawlDb;
+    this.current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    this.fs = current.getFileSystem(conf);
+    this.maxCacheBytes = conf.getLong(CACHE_SIZE, 64) * 1024L * 1024L;
+    this.refreshInterval = conf.getLong(REFRESH_INTERVAL, 60) * 1000L;
+    lock.writeLock().lock();
+    try {
+      openReaders();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Must be called with the write lock held. */
+  private void openReaders() throws IOException {
+    synchronized (this) {
+      modificationTime = getModificationTime();
+      lastRefreshCheck = System.currentTimeMillis();
+    }
+    Path[] layers = CrawlDbDeltas.getLayers(crawlDb, CrawlDbDeltas.getDeltas(fs, crawlDb));
+    int numParts = CrawlDbDeltas.getParts(fs, current).length;
+    readers = new MapFile.Reader[numParts][];
+    for (int i = 0; i < numParts; i++) {
+      Path[] parts = CrawlDbDeltas.getLayerParts(fs, layers, i);
+      readers[i] = new MapFile.Reader[parts.length];
+      for (int j = 0; j < parts.length; j++) {
+        readers[i][j] = new MapFile.Reader(fs, parts[j].toString(), conf);
+        // load the index now, rather than on the first lookup
+        readers[i][j].midKey();
+      }
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("CrawlDbLookup: opened " + numParts + " parts of " + current
+          + " with " + (layers.length - 1) + " deltas");
+    }
+  }
+
+  /** Changes when the base is replaced or deltas are added or removed. */
+  private long getModificationTime() throws IOException {
+    long time = fs.getFileStatus(current).getModificationTime();
+    Path deltas = new Path(crawlDb, CrawlDbDeltas.DELTAS_NAME);
+    if (fs.exists(deltas)) {
+      time = Math.max(time, fs.getFileStatus(deltas).getModificationTime());
+    }
+    return time;
+  }
+
+  /** Must be called with the write lock held. */
+  private void closeReaders() {
+    if (readers == null) return;
+    for (int i = 0; i < readers.length; i++) {
+      for (int j = 0; j < readers[i].length; j++) {
+        try {
+          readers[i][j].close();
+        } catch (Exception e) {
+          LOG.warn("Error closing " + current + ": " + e);
+        }
+      }
+    }
+    readers = null;
+  }
+
+  /** Reopen the readers and clear the cache if the db has been replaced. */
+  private void checkRefresh() throws IOException {
+    if (refreshInterval <= 0) return;
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      if (now - lastRefreshCheck < refreshInterval) return;
+      lastRefreshCheck = now;
+      if (getModificationTime() == modificationTime) return;
+    }
+    reopen();
+  }
+
+  /** Close and reopen the CrawlDb, discarding all cached records. */
+  public void reopen() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (readers == null) throw new IOException("CrawlDbLookup is closed");
+      LOG.info("CrawlDbLookup: reopening " + current);
+      closeReaders();
+      clearCache();
+      openReaders();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the current state of a URL.
+   * @return a copy of the datum, or null if the URL is not in the db.
+   */
+  public CrawlDatum get(String url) throws IOException {
+    Map<String, CrawlDatum> res = get(Collections.singletonList(url));
+    return res.get(url);
+  }
+
+  /**
+   * Get the current state of several URLs at once.
+   * @return a map with the URLs found in the db, in the order of the
+   * request. Missing URLs are mapped to null.
+   */
+  public Map<String, CrawlDatum> get(Collection<String> urls) throws IOException {
+    checkRefresh();
+    // the cache is only filled and read while holding the read lock, so
+    // that it never mixes records from before and after a reopen
+    lock.readLock().lock();
+    try {
+      if (readers == null) throw new IOException("CrawlDbLookup is closed");
+      return get(urls, readers);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Must be called with the read lock held. */
+  private Map<String, CrawlDatum> get(Collection<String> urls,
+      MapFile.Reader[][] parts) throws IOException {
+    LinkedHashMap<String, CrawlDatum> res = new LinkedHashMap<String, CrawlDatum>();
+    List<Text> misses = new ArrayList<Text>();
+    synchronized (cache) {
+      for (String url : urls) {
+        lookups++;
+        CacheEntry entry = cache.get(url);
+        if (entry != null) {
+          hits++;
+          res.put(url, copy(entry.datum));
+        } else {
+          res.put(url, null);
+          misses.add(new Text(url));
+        }
+      }
+    }
+    if (misses.isEmpty()) return res;
+
+    // group by part and sort, so that seeks in each part move forward
+    Collections.sort(misses);
+    List<List<Text>> byPart = new ArrayList<List<Text>>(parts.length);
+    for (int i = 0; i < parts.length; i++) {
+      byPart.add(new ArrayList<Text>());
+    }
+    for (Text url : misses) {
+      byPart.get(PARTITIONER.getPartition(url, null, parts.length)).add(url);
+    }
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    for (int i = 0; i < parts.length; i++) {
+      List<Text> keys = byPart.get(i);
+      if (keys.isEmpty()) continue;
+      // readers are shared by concurrent lookups, but not thread-safe
+      synchronized (parts[i]) {
+        for (Text key : keys) {
+          CrawlDatum datum = get(parts[i], key);
+          String url = key.toString();
+          res.put(url, copy(datum));
+          cache(url, datum, buffer);
+        }
+      }
+    }
+    return res;
+  }
+
+  /** Look up a key in the layers of a part, newest first. */
+  private static CrawlDatum get(MapFile.Reader[] layers, Text key) throws IOException {
+    CrawlDatum datum = new CrawlDatum();
+    for (int i = layers.length - 1; i >= 0; i--) {
+      if (layers[i].get(key, datum) != null) return datum;
+    }
+    return null;
+  }
+
+  private void cache(String url, CrawlDatum datum, DataOutputBuffer buffer)
+    throws IOException {
+    int size = ENTRY_OVERHEAD + 2 * url.length();
+    if (datum != null) {
+      buffer.reset();
+      datum.write(buffer);
+      size += buffer.getLength();
+    }
+    synchronized (cache) {
+      if (datum != null) found++;
+      CacheEntry old = cache.put(url, new CacheEntry(datum, size));
+      if (old != null) cacheBytes -= old.size;
+      cacheBytes += size;
+      Iterator<CacheEntry> it = cache.values().iterator();
+      while (cacheBytes > maxCacheBytes && it.hasNext()) {
+        cacheBytes -= it.next().size;
+        it.remove();
+      }
+    }
+  }
+
+  private static CrawlDatum copy(CrawlDatum datum) {
+    if (datum == null) return null;
+    CrawlDatum res = new CrawlDatum();
+    res.set(datum);
+    return res;
+  }
+
+  /** Remove all records from the cache. */
+  public void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+      cacheBytes = 0;
+    }
+  }
+
+  /** Returns a short summary of lookup and cache statistics. */
+  public String getStats() {
+    synchronized (cache) {
+      return "lookups=" + lookups + ", cache hits=" + hits +
+        ", found in db=" + found + ", cached records=" + cache.size() +
+        ", cache bytes=" + cacheBytes + "/" + maxCacheBytes;
+    }
+  }
+
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      closeReaders();
+      clearCache();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Serves lookups over HTTP. */
+  public static class LookupHandler extends AbstractHandler {
+    private CrawlDbLookup lookup;
+
+    public LookupHandler(CrawlDbLookup lookup) {
+      this.lookup = lookup;
+    }
+
+    public void handle(String target, HttpServletRequest req,
+        HttpServletResponse res, int dispatch) throws IOException,
+        ServletException {
+      Request baseRequest = (req instanceof Request) ? (Request)req :
+        HttpConnection.getCurrentConnection().getRequest();
+      baseRequest.setHandled(true);
+      res.setContentType("text/plain; charset=UTF-8");
+      res.setCharacterEncoding("UTF-8");
+      PrintWriter out = res.getWriter();
+      if ("/stats".equals(target)) {
+        res.setStatus(HttpServletResponse.SC_OK);
+        out.println(lookup.getStats());
+        return;
+      }
+      List<String> urls = new ArrayList<String>();
+      String[] params = req.getParameterValues("url");
+      if (params != null) urls.addAll(Arrays.asList(params));
+      if ("POST".equals(req.getMethod())) {
+        BufferedReader reader = req.getReader();
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.length() > 0) urls.add(line);
+        }
+      }
+      if (urls.isEmpty()) {
+        res.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing url parameter");
+        return;
+      }
+      try {
+        Map<String, CrawlDatum> data = lookup.get(urls);
+        res.setStatus(HttpServletResponse.SC_OK);
+        for (Map.Entry<String, CrawlDatum> e : data.entrySet()) {
+          out.println("URL: " + e.getKey());
+          if (e.getValue() != null) {
+            out.println(e.getValue());
+          } else {
+            out.println("not found");
+            out.println();
+          }
+        }
+      } catch (IOException e) {
+        LOG.warn(StringUtils.stringifyException(e));
+        res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: CrawlDbLookup <crawldb> [-host <host>] [-port <nnn>] [-url <url> ...]");
+      System.err.println("\t<crawldb>\tdirectory name where crawldb is located");
+      System.err.println("\t-host <host>\taddress the HTTP lookup service listens on (default: db.lookup.host)");
+      System.err.println("\t-port <nnn>\tport of the HTTP lookup service (default: db.lookup.port)");
+      System.err.println("\t-url <url>\tprint information on <url> to System.out and exit.");
+      System.err.println("\t\t\tCan be specified multiple times.");
+      return;
+    }
+    Configuration conf = NutchConfiguration.create();
+    String host = conf.get(HOST, "127.0.0.1");
+    int port = conf.getInt(PORT, 8182);
+    List<String> urls = new ArrayList<String>();
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("-host")) {
+        host = args[++i];
+      } else if (args[i].equals("-port")) {
+        port = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-url")) {
+        urls.add(args[++i]);
+      } else {
+        System.err.println("Unknown argument: " + args[i]);
+        return;
+      }
+    }
+    CrawlDbLookup lookup = new CrawlDbLookup(new Path(args[0]), conf);
+    if (!urls.isEmpty()) {
+      for (Map.Entry<String, CrawlDatum> e : lookup.get(urls).entrySet()) {
+        System.out.println("URL: " + e.getKey());
+        System.out.println(e.getValue() != null ? e.getValue() : "not found");
+      }
+      lookup.close();
+      return;
+    }
+
+    Server server = new Server();
+    SocketConnector connector = new SocketConnector();
+    connector.setHost(host);
+    connector.setPort(port);
+    connector.setResolveNames(false);
+    server.addConnector(connector);
+    server.addHandler(new LookupHandler(lookup));
+    LOG.info("CrawlDbLookup: serving " + args[0] + " on " + host + ":" + port);
+    server.start();
+    server.join();
+  }
+}
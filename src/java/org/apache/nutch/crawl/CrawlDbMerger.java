@@ -121,7 +121,7 @@ public class CrawlDbMerger extends Configured implements Tool {
     JobConf job = createMergeJob(getConf(), output, normalize, filter);
     for (int i = 0; i < dbs.length; i++) {
       if (LOG.isInfoEnabled()) { LOG.info("Adding " + dbs[i]); }
-      FileInputFormat.addInputPath(job, new Path(dbs[i], CrawlDb.CURRENT_NAME));
+      CrawlDbInputFormat.addCrawlDb(job, dbs[i]);
     }
     JobClient.runJob(job);
     FileSystem fs = FileSystem.get(getConf());
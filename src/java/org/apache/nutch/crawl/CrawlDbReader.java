@@ -20,6 +20,7 @@ package org.apache.nutch.crawl;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Closeable;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Date;
 import java.util.Iterator;
@@ -58,9 +59,12 @@ import org.apache.hadoop.mapred.lib.HashPartitioner;
 import org.apache.hadoop.mapred.lib.IdentityMapper;
 import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.util.Progressable;
+import org.apache.nutch.util.HyperLogLog;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.QuantileSketch;
 import org.apache.nutch.util.StringUtil;
+import org.apache.nutch.util.URLUtil;
 
 /**
  * Read utility for the CrawlDB.
@@ -72,22 +76,47 @@ public class CrawlDbReader implements Closeable {
 
   public static final Logger LOG = LoggerFactory.getLogger(CrawlDbReader.class);
 
-  private MapFile.Reader[] readers = null;
+  /** Compute score and fetch interval quantiles, and distinct hosts and domains. */
+  public static final String STATS_SKETCHES = "db.reader.stats.sketches";
+
+  /** Relative accuracy of the score and fetch interval quantiles. */
+  public static final String STATS_SKETCH_ACCURACY = "db.reader.stats.sketch.accuracy";
+
+  private static final double[] QUANTILES = { 0.01, 0.05, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99 };
+
+  /** Readers of the base and the deltas of the CrawlDb, oldest first. */
+  private MapFile.Reader[][] readers = null;
+  
+  /** Keys of quantile sketch buckets and histogram bins, merged by summing. */
+  private static boolean isBucket(String k) {
+    return k.startsWith("scq ") || k.startsWith("fiq ") || k.startsWith("fid ");
+  }
+
+  /** Keys of HyperLogLog registers, merged by taking the maximum. */
+  private static boolean isRegister(String k) {
+    return k.startsWith("hlh ") || k.startsWith("hld ");
+  }
   
   private void openReaders(String crawlDb, Configuration config) throws IOException {
     if (readers != null) return;
     FileSystem fs = FileSystem.get(config);
-    readers = MapFileOutputFormat.getReaders(fs, new Path(crawlDb,
-        CrawlDb.CURRENT_NAME), config);
+    Path[] layers = CrawlDbDeltas.getLayers(new Path(crawlDb),
+        CrawlDbDeltas.getDeltas(fs, new Path(crawlDb)));
+    readers = new MapFile.Reader[layers.length][];
+    for (int i = 0; i < layers.length; i++) {
+      readers[i] = MapFileOutputFormat.getReaders(fs, layers[i], config);
+    }
   }
   
   private void closeReaders() {
     if (readers == null) return;
     for (int i = 0; i < readers.length; i++) {
-      try {
-        readers[i].close();
-      } catch (Exception e) {
-        
+      for (int j = 0; j < readers[i].length; j++) {
+        try {
+          readers[i][j].close();
+        } catch (Exception e) {
+          
+        }
       }
     }
   }
@@ -148,12 +177,53 @@ public class CrawlDbReader implements Closeable {
   public static class CrawlDbStatMapper implements Mapper<Text, CrawlDatum, Text, LongWritable> {
     LongWritable COUNT_1 = new LongWritable(1);
     private boolean sort = false;
+    private boolean sketches = false;
+    private QuantileSketch scoreSketch;
+    private QuantileSketch intervalSketch;
+    private HyperLogLog hosts;
+    private HyperLogLog domains;
+    /** Fetch interval histogram, index 0 for intervals below one day. */
+    private long[] intervalDays;
+    private OutputCollector<Text, LongWritable> output;
     public void configure(JobConf job) {
       sort = job.getBoolean("db.reader.stats.sort", false );
+      sketches = job.getBoolean(STATS_SKETCHES, true);
+      if (sketches) {
+        float accuracy = job.getFloat(STATS_SKETCH_ACCURACY, 0.01f);
+        scoreSketch = new QuantileSketch(accuracy);
+        intervalSketch = new QuantileSketch(accuracy);
+        hosts = new HyperLogLog();
+        domains = new HyperLogLog();
+        intervalDays = new long[33];
+      }
+    }
+    public void close() throws IOException {
+      if (!sketches || output == null) return;
+      // sketches are aggregated in memory and emitted once per map task
+      for (Map.Entry<String, Long> e : scoreSketch.getBuckets().entrySet()) {
+        output.collect(new Text("scq " + e.getKey()), new LongWritable(e.getValue()));
+      }
+      for (Map.Entry<String, Long> e : intervalSketch.getBuckets().entrySet()) {
+        output.collect(new Text("fiq " + e.getKey()), new LongWritable(e.getValue()));
+      }
+      for (int i = 0; i < intervalDays.length; i++) {
+        if (intervalDays[i] > 0) {
+          output.collect(new Text("fid " + (i - 1)), new LongWritable(intervalDays[i]));
+        }
+      }
+      emitRegisters("hlh ", hosts);
+      emitRegisters("hld ", domains);
+    }
+    private void emitRegisters(String prefix, HyperLogLog hll) throws IOException {
+      for (int i = 0; i < hll.size(); i++) {
+        if (hll.getRegister(i) > 0) {
+          output.collect(new Text(prefix + i), new LongWritable(hll.getRegister(i)));
+        }
+      }
     }
-    public void close() {}
     public void map(Text key, CrawlDatum value, OutputCollector<Text, LongWritable> output, Reporter reporter)
             throws IOException {
+      this.output = output;
       output.collect(new Text("T"), COUNT_1);
       output.collect(new Text("status " + value.getStatus()), COUNT_1);
       output.collect(new Text("retry " + value.getRetriesSinceFetch()), COUNT_1);
@@ -163,6 +233,21 @@ public class CrawlDbReader implements Closeable {
         String host = u.getHost();
         output.collect(new Text("status " + value.getStatus() + " " + host), COUNT_1);
       }
+      if (sketches) {
+        scoreSketch.add(value.getScore());
+        intervalSketch.add(value.getFetchInterval());
+        // fetch interval histogram, in power-of-two ranges of days
+        int days = value.getFetchInterval() / FetchSchedule.SECONDS_PER_DAY;
+        intervalDays[days > 0 ? 32 - Integer.numberOfLeadingZeros(days) : 0]++;
+        try {
+          URL u = new URL(key.toString());
+          hosts.add(u.getHost());
+          String domain = URLUtil.getDomainName(u);
+          if (domain != null) domains.add(domain);
+        } catch (MalformedURLException e) {
+          // skip for host and domain counts
+        }
+      }
     }
   }
   
@@ -176,7 +261,13 @@ public class CrawlDbReader implements Closeable {
         throws IOException {
       val.set(0L);
       String k = ((Text)key).toString();
-      if (!k.equals("s")) {
+      if (isRegister(k)) {
+        while (values.hasNext()) {
+          LongWritable cnt = (LongWritable)values.next();
+          if (cnt.get() > val.get()) val.set(cnt.get());
+        }
+        output.collect(key, val);
+      } else if (!k.equals("s")) {
         while (values.hasNext()) {
           LongWritable cnt = (LongWritable)values.next();
           val.set(val.get() + cnt.get());
@@ -214,7 +305,7 @@ public class CrawlDbReader implements Closeable {
         }
         // output sum
         output.collect(key, new LongWritable(sum));
-      } else if (k.startsWith("status") || k.startsWith("retry")) {
+      } else if (k.startsWith("status") || k.startsWith("retry") || isBucket(k)) {
         LongWritable cnt = new LongWritable();
         while (values.hasNext()) {
           LongWritable val = (LongWritable)values.next();
@@ -242,6 +333,13 @@ public class CrawlDbReader implements Closeable {
           cnt.set(cnt.get() + val.get());
         }
         output.collect(key, cnt);
+      } else if (isRegister(k)) {
+        LongWritable cnt = new LongWritable();
+        while (values.hasNext()) {
+          LongWritable val = (LongWritable)values.next();
+          if (cnt.get() < val.get()) cnt.set(val.get());
+        }
+        output.collect(key, cnt);
       }
     }
   }
@@ -300,8 +398,7 @@ public class CrawlDbReader implements Closeable {
     job.setJobName("stats " + crawlDb);
     job.setBoolean("db.reader.stats.sort", sort);
 
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
-    job.setInputFormat(SequenceFileInputFormat.class);
+    CrawlDbInputFormat.addCrawlDb(job, new Path(crawlDb));
 
     job.setMapperClass(CrawlDbStatMapper.class);
     job.setCombinerClass(CrawlDbStatCombiner.class);
@@ -336,7 +433,7 @@ public class CrawlDbReader implements Closeable {
           if (k.equals("scn")) val.set(Long.MAX_VALUE);
           stats.put(k, val);
         }
-        if (k.equals("scx")) {
+        if (k.equals("scx") || isRegister(k)) {
           if (val.get() < value.get()) val.set(value.get());
         } else if (k.equals("scn")) {
           if (val.get() > value.get()) val.set(value.get());          
@@ -347,11 +444,55 @@ public class CrawlDbReader implements Closeable {
       reader.close();
     }
     
+    // rebuild the sketches, removing their buckets from the plain counters
+    float accuracy = config.getFloat(STATS_SKETCH_ACCURACY, 0.01f);
+    QuantileSketch scoreSketch = new QuantileSketch(accuracy);
+    QuantileSketch intervalSketch = new QuantileSketch(accuracy);
+    HyperLogLog hosts = new HyperLogLog();
+    HyperLogLog domains = new HyperLogLog();
+    TreeMap<Integer, Long> intervalHist = new TreeMap<Integer, Long>();
+    Iterator<Map.Entry<String, LongWritable>> it = stats.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, LongWritable> entry = it.next();
+      String k = entry.getKey();
+      if (!isBucket(k) && !isRegister(k)) continue;
+      String bucket = k.substring(4);
+      long val = entry.getValue().get();
+      if (k.startsWith("scq ")) {
+        scoreSketch.add(bucket, val);
+      } else if (k.startsWith("fiq ")) {
+        intervalSketch.add(bucket, val);
+      } else if (k.startsWith("fid ")) {
+        intervalHist.put(Integer.parseInt(bucket), val);
+      } else if (k.startsWith("hlh ")) {
+        hosts.merge(Integer.parseInt(bucket), (int) val);
+      } else if (k.startsWith("hld ")) {
+        domains.merge(Integer.parseInt(bucket), (int) val);
+      }
+      it.remove();
+    }
+
     if (LOG.isInfoEnabled()) {
       LOG.info("Statistics for CrawlDb: " + crawlDb);
       LongWritable totalCnt = stats.get("T");
       stats.remove("T");
       LOG.info("TOTAL urls:\t" + totalCnt.get());
+      if (scoreSketch.getCount() > 0) {
+        LOG.info("distinct hosts (approx.):\t" + hosts.cardinality());
+        LOG.info("distinct domains (approx.):\t" + domains.cardinality());
+        for (double q : QUANTILES) {
+          LOG.info("score quantile " + q + ":\t" + (float) scoreSketch.getQuantile(q));
+        }
+        for (double q : QUANTILES) {
+          LOG.info("fetch interval quantile " + q + ":\t"
+              + (float) (intervalSketch.getQuantile(q) / FetchSchedule.SECONDS_PER_DAY) + " days");
+        }
+        for (Map.Entry<Integer, Long> entry : intervalHist.entrySet()) {
+          int bin = entry.getKey();
+          String range = bin < 0 ? "< 1" : (1 << bin) + " - " + ((1 << (bin + 1)) - 1);
+          LOG.info("fetch interval " + range + " days:\t" + entry.getValue());
+        }
+      }
       for (Map.Entry<String, LongWritable> entry : stats.entrySet()) {
         String k = entry.getKey();
         LongWritable val = entry.getValue();
@@ -379,9 +520,13 @@ public class CrawlDbReader implements Closeable {
     Text key = new Text(url);
     CrawlDatum val = new CrawlDatum();
     openReaders(crawlDb, config);
-    CrawlDatum res = (CrawlDatum)MapFileOutputFormat.getEntry(readers,
-        new HashPartitioner<Text, CrawlDatum>(), key, val);
-    return res;
+    // newest delta first
+    for (int i = readers.length - 1; i >= 0; i--) {
+      CrawlDatum res = (CrawlDatum)MapFileOutputFormat.getEntry(readers[i],
+          new HashPartitioner<Text, CrawlDatum>(), key, val);
+      if (res != null) return res;
+    }
+    return null;
   }
 
   public void readUrl(String crawlDb, String url, Configuration config) throws IOException {
@@ -405,8 +550,7 @@ public class CrawlDbReader implements Closeable {
     JobConf job = new NutchJob(config);
     job.setJobName("dump " + crawlDb);
 
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
-    job.setInputFormat(SequenceFileInputFormat.class);
+    CrawlDbInputFormat.addCrawlDb(job, new Path(crawlDb));
     FileOutputFormat.setOutputPath(job, outFolder);
 
     if (format.equals("csv")) {
@@ -476,8 +620,7 @@ public class CrawlDbReader implements Closeable {
 
     JobConf job = new NutchJob(config);
     job.setJobName("topN prepare " + crawlDb);
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
-    job.setInputFormat(SequenceFileInputFormat.class);
+    CrawlDbInputFormat.addCrawlDb(job, new Path(crawlDb));
     job.setMapperClass(CrawlDbTopNMapper.class);
     job.setReducerClass(IdentityReducer.class);
 
@@ -58,7 +58,9 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
     linked = new InlinkPriorityQueue(maxLinks);
   }
 
-  public void close() {}
+  public void close() {
+    scfilters.close();
+  }
 
   public void reduce(Text key, Iterator<CrawlDatum> values,
                      OutputCollector<Text, CrawlDatum> output, Reporter reporter)
@@ -294,20 +296,21 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
     output.collect(key, result);
     reporter.getCounter("CrawlDB status", CrawlDatum.getStatusName(result.getStatus())).increment(1);
   }
-  
-}
 
-class InlinkPriorityQueue extends PriorityQueue<CrawlDatum> {
-  
-  public InlinkPriorityQueue(int maxSize) {
-    initialize(maxSize);
-  }
-  
-  /** Determines the ordering of objects in this priority queue. **/
-  protected boolean lessThan(Object arg0, Object arg1) {
-    CrawlDatum candidate = (CrawlDatum) arg0;
-    CrawlDatum least = (CrawlDatum) arg1;
-    return candidate.getScore() > least.getScore();
+  /** Keeps the best scoring inlinks, shared with {@link CrawlDbCombiner}. */
+  static class InlinkPriorityQueue extends PriorityQueue<CrawlDatum> {
+    
+    public InlinkPriorityQueue(int maxSize) {
+      initialize(maxSize);
+    }
+    
+    /** Determines the ordering of objects in this priority queue. **/
+    protected boolean lessThan(Object arg0, Object arg1) {
+      CrawlDatum candidate = (CrawlDatum) arg0;
+      CrawlDatum least = (CrawlDatum) arg1;
+      return candidate.getScore() > least.getScore();
+    }
+    
   }
-  
+
 }
@@ -165,7 +165,9 @@ public class Generator extends Configured implements Tool {
       segCounts = new int[maxNumSegments];
     }
 
-    public void close() {}
+    public void close() {
+      scfilters.close();
+    }
 
     /** Select & invert subset due for fetch. */
     public void map(Text key, CrawlDatum value,
@@ -533,8 +535,7 @@ public class Generator extends Configured implements Tool {
     job.setBoolean(GENERATOR_NORMALISE, norm);
     job.setInt(GENERATOR_MAX_NUM_SEGMENTS, maxNumSegments);
 
-    FileInputFormat.addInputPath(job, new Path(dbDir, CrawlDb.CURRENT_NAME));
-    job.setInputFormat(SequenceFileInputFormat.class);
+    CrawlDbInputFormat.addCrawlDb(job, dbDir);
 
     job.setMapperClass(Selector.class);
     job.setPartitionerClass(Selector.class);
@@ -591,8 +592,8 @@ public class Generator extends Configured implements Tool {
         Path subGenDir = new Path(segmpaths, CrawlDatum.GENERATE_DIR_NAME);
         FileInputFormat.addInputPath(job, subGenDir);
       }
-      FileInputFormat.addInputPath(job, new Path(dbDir, CrawlDb.CURRENT_NAME));
-      job.setInputFormat(SequenceFileInputFormat.class);
+      // fold in the deltas, install() removes them afterwards
+      CrawlDbInputFormat.addCrawlDb(job, dbDir);
       job.setMapperClass(CrawlDbUpdater.class);
       job.setReducerClass(CrawlDbUpdater.class);
       job.setOutputFormat(MapFileOutputFormat.class);
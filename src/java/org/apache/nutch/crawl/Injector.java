@@ -35,6 +35,7 @@ import org.apache.nutch.net.*;
 import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
+import org.apache.nutch.util.LockUtil;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
@@ -59,6 +60,9 @@ public class Injector extends Configured implements Tool {
   /** metadata key reserved for setting a fixed custom fetchInterval for a specific URL */
   public static String nutchFixedFetchIntervalMDName = "nutch.fetchInterval.fixed";
 
+  /** Write injected urls as a delta, see {@link CrawlDbDeltas}. */
+  public static final String INJECT_INCREMENTAL = "db.injector.incremental";
+
   /** Normalize and filter injected urls. */
   public static class InjectMapper implements Mapper<WritableComparable, Text, Text, CrawlDatum> {
     private URLNormalizers urlNormalizers;
@@ -241,6 +245,38 @@ public class Injector extends Configured implements Tool {
     }
   }
 
+  /**
+   * Merges injected entries with the existing records looked up in the base
+   * and deltas of the CrawlDb, and only emits the records which are new or
+   * changed. Used for incremental injection, where the output becomes a new
+   * delta with the same partitioning as the CrawlDb.
+   */
+  public static class InjectDeltaReducer extends InjectReducer {
+    private CrawlDbDeltas.ChangedRecords changes;
+
+    public void configure(JobConf job) {
+      super.configure(job);
+      try {
+        changes = new CrawlDbDeltas.ChangedRecords(job, "Injector");
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void close() {
+      super.close();
+      changes.close();
+    }
+
+    public void reduce(Text key, Iterator<CrawlDatum> values,
+                       OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+      throws IOException {
+      super.reduce(key, changes.withExisting(key, values), changes.getCapture(),
+          reporter);
+      changes.collectChanged(key, output, reporter);
+    }
+  }
+
   public Injector() {}
   
   public Injector(Configuration conf) {
@@ -248,6 +284,10 @@ public class Injector extends Configured implements Tool {
   }
   
   public void inject(Path crawlDb, Path urlDir) throws IOException {
+    inject(crawlDb, urlDir, getConf().getBoolean(INJECT_INCREMENTAL, false));
+  }
+
+  public void inject(Path crawlDb, Path urlDir, boolean incremental) throws IOException {
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     long start = System.currentTimeMillis();
     if (LOG.isInfoEnabled()) {
@@ -256,6 +296,12 @@ public class Injector extends Configured implements Tool {
       LOG.info("Injector: urlDir: " + urlDir);
     }
 
+    if (incremental && injectDelta(crawlDb, urlDir)) {
+      long end = System.currentTimeMillis();
+      LOG.info("Injector: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+      return;
+    }
+
     Path tempDir =
       new Path(getConf().get("mapred.temp.dir", ".") +
                "/inject-temp-"+
@@ -295,6 +341,42 @@ public class Injector extends Configured implements Tool {
     LOG.info("Injector: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
   }
 
+  /**
+   * Inject urls as a new delta of the CrawlDb, without rewriting it.
+   * @return false if the CrawlDb doesn't support deltas and a full merge
+   * is needed.
+   */
+  private boolean injectDelta(Path crawlDb, Path urlDir) throws IOException {
+    FileSystem fs = FileSystem.get(getConf());
+    JobConf job = CrawlDbDeltas.createDeltaJob(getConf(), crawlDb);
+    if (job == null) {
+      LOG.info("Injector: incremental injection not possible.");
+      return false;
+    }
+
+    Path lock = new Path(crawlDb, CrawlDb.LOCK_NAME);
+    LockUtil.createLockFile(fs, lock, false);
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Injector: Writing injected urls as a crawl db delta.");
+    }
+    job.setJobName("inject delta " + urlDir);
+    FileInputFormat.addInputPath(job, urlDir);
+    job.setMapperClass(InjectMapper.class);
+    job.setReducerClass(InjectDeltaReducer.class);
+    job.setLong("injector.current.time", System.currentTimeMillis());
+
+    Path tempDelta = FileOutputFormat.getOutputPath(job);
+    try {
+      JobClient.runJob(job);
+      Path delta = CrawlDbDeltas.installDelta(job, crawlDb);
+      LOG.info("Injector: added delta " + delta);
+    } finally {
+      if (fs.exists(tempDelta)) fs.delete(tempDelta, true);
+      LockUtil.removeLockFile(fs, lock);
+    }
+    return true;
+  }
+
   public static void main(String[] args) throws Exception {
     int res = ToolRunner.run(NutchConfiguration.create(), new Injector(), args);
     System.exit(res);
@@ -302,11 +384,18 @@ public class Injector extends Configured implements Tool {
   
   public int run(String[] args) throws Exception {
     if (args.length < 2) {
-      System.err.println("Usage: Injector <crawldb> <url_dir>");
+      System.err.println("Usage: Injector <crawldb> <url_dir> [-incremental]");
+      System.err.println("\t-incremental\twrite injected urls as a crawl db delta instead of rewriting the db");
       return -1;
     }
+    boolean incremental = getConf().getBoolean(INJECT_INCREMENTAL, false);
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].equals("-incremental")) {
+        incremental = true;
+      }
+    }
     try {
-      inject(new Path(args[0]), new Path(args[1]));
+      inject(new Path(args[0]), new Path(args[1]), incremental);
       return 0;
     } catch (Exception e) {
       LOG.error("Injector: " + StringUtils.stringifyException(e));
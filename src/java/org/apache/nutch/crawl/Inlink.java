@@ -33,6 +33,11 @@ public class Inlink implements Writable {
     this.anchor = anchor;
   }
 
+  public void set(String fromUrl, String anchor) {
+    this.fromUrl = fromUrl;
+    this.anchor = anchor;
+  }
+
   public void readFields(DataInput in) throws IOException {
     fromUrl = Text.readString(in);
     anchor = Text.readString(in);
@@ -23,42 +23,188 @@ import java.util.*;
 
 import org.apache.hadoop.io.*;
 
-/** A list of {@link Inlink}s. */
+/**
+ * A list of {@link Inlink}s.
+ *
+ * <p>Inlinks can be serialized in a compact form (see
+ * {@link #setCompact(boolean)}): the from-URLs are sorted and front-coded,
+ * i.e. each URL only stores the bytes following the prefix it shares with
+ * the previous one, and each distinct anchor is stored once. Both forms are
+ * read transparently. Inlinks read in the compact form keep it in memory and
+ * are only decoded while iterating, until they are modified.</p>
+ */
 public class Inlinks implements Writable {
+  /** Starts the compact form, the plain form starts with the number of inlinks. */
+  private static final int COMPACT_MARKER = -1;
+
   private HashSet<Inlink> inlinks = new HashSet<Inlink>(1);
 
-  public void add(Inlink inlink) { inlinks.add(inlink); }
+  /** The compact form as read, or null if the inlinks are in the set. */
+  private byte[] packed;
+  private int packedSize;
+
+  private boolean compact = false;
+
+  /** Whether to use the compact form when writing. */
+  public void setCompact(boolean compact) { this.compact = compact; }
 
-  public void add(Inlinks inlinks) { this.inlinks.addAll(inlinks.inlinks); }
+  public boolean isCompact() { return compact; }
+
+  public void add(Inlink inlink) {
+    unpack();
+    inlinks.add(inlink);
+  }
+
+  public void add(Inlinks inlinks) {
+    unpack();
+    Iterator<Inlink> it = inlinks.iterator();
+    while (it.hasNext()) {
+      this.inlinks.add(it.next());
+    }
+  }
 
   public Iterator<Inlink> iterator() {
+    if (packed != null) {
+      try {
+        return new PackedIterator(packed, packedSize);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
     return this.inlinks.iterator();
   }
   
-  public int size() { return inlinks.size(); }
+  public int size() { return packed != null ? packedSize : inlinks.size(); }
 
-  public void clear() { inlinks.clear(); }
+  public void clear() {
+    packed = null;
+    inlinks.clear();
+  }
 
   public void readFields(DataInput in) throws IOException {
     int length = in.readInt();
-    inlinks.clear();
+    clear();
+    if (length == COMPACT_MARKER) {
+      packedSize = WritableUtils.readVInt(in);
+      packed = new byte[WritableUtils.readVInt(in)];
+      in.readFully(packed);
+      compact = true;
+      return;
+    }
+    compact = false;
     for (int i = 0; i < length; i++) {
       add(Inlink.read(in));
     }
   }
 
   public void write(DataOutput out) throws IOException {
-    out.writeInt(inlinks.size());
-    Iterator<Inlink> it = inlinks.iterator();
+    if (compact) {
+      byte[] bytes = packed != null ? packed : pack();
+      out.writeInt(COMPACT_MARKER);
+      WritableUtils.writeVInt(out, size());
+      WritableUtils.writeVInt(out, bytes.length);
+      out.write(bytes);
+      return;
+    }
+    out.writeInt(size());
+    Iterator<Inlink> it = iterator();
     while (it.hasNext()) {
       it.next().write(out);
     }
   }
 
+  /** Move the inlinks from the compact form into the set. */
+  private void unpack() {
+    if (packed == null) return;
+    Iterator<Inlink> it = iterator();
+    packed = null;
+    while (it.hasNext()) {
+      inlinks.add(it.next());
+    }
+  }
+
+  private byte[] pack() throws IOException {
+    Inlink[] sorted = inlinks.toArray(new Inlink[inlinks.size()]);
+    Arrays.sort(sorted, new Comparator<Inlink>() {
+      public int compare(Inlink a, Inlink b) {
+        int c = a.getFromUrl().compareTo(b.getFromUrl());
+        return c != 0 ? c : a.getAnchor().compareTo(b.getAnchor());
+      }
+    });
+    LinkedHashMap<String, Integer> anchors = new LinkedHashMap<String, Integer>();
+    for (Inlink inlink : sorted) {
+      if (!anchors.containsKey(inlink.getAnchor())) {
+        anchors.put(inlink.getAnchor(), anchors.size());
+      }
+    }
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    WritableUtils.writeVInt(buffer, anchors.size());
+    for (String anchor : anchors.keySet()) {
+      Text.writeString(buffer, anchor);
+    }
+    byte[] prev = new byte[0];
+    for (Inlink inlink : sorted) {
+      byte[] url = inlink.getFromUrl().getBytes("UTF-8");
+      int shared = 0;
+      int max = Math.min(prev.length, url.length);
+      while (shared < max && prev[shared] == url[shared]) shared++;
+      WritableUtils.writeVInt(buffer, shared);
+      WritableUtils.writeVInt(buffer, url.length - shared);
+      buffer.write(url, shared, url.length - shared);
+      WritableUtils.writeVInt(buffer, anchors.get(inlink.getAnchor()));
+      prev = url;
+    }
+    byte[] res = new byte[buffer.getLength()];
+    System.arraycopy(buffer.getData(), 0, res, 0, res.length);
+    return res;
+  }
+
+  /** Decodes the compact form. */
+  private static class PackedIterator implements Iterator<Inlink> {
+    private DataInputBuffer in = new DataInputBuffer();
+    private String[] anchors;
+    private byte[] url = new byte[256];
+    private int remaining;
+
+    PackedIterator(byte[] packed, int size) throws IOException {
+      in.reset(packed, packed.length);
+      anchors = new String[WritableUtils.readVInt(in)];
+      for (int i = 0; i < anchors.length; i++) {
+        anchors[i] = Text.readString(in);
+      }
+      remaining = size;
+    }
+
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    public Inlink next() {
+      if (remaining <= 0) throw new NoSuchElementException();
+      try {
+        int shared = WritableUtils.readVInt(in);
+        int suffix = WritableUtils.readVInt(in);
+        if (shared + suffix > url.length) {
+          url = Arrays.copyOf(url, Math.max(shared + suffix, 2 * url.length));
+        }
+        in.readFully(url, shared, suffix);
+        String anchor = anchors[WritableUtils.readVInt(in)];
+        remaining--;
+        return new Inlink(new String(url, 0, shared + suffix, "UTF-8"), anchor);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   public String toString() {
     StringBuffer buffer = new StringBuffer();
     buffer.append("Inlinks:\n");
-    Iterator<Inlink> it = inlinks.iterator();
+    Iterator<Inlink> it = iterator();
     while (it.hasNext()) {
       buffer.append(" ");
       buffer.append(it.next());
@@ -73,7 +219,7 @@ public class Inlinks implements Writable {
     HashMap<String, Set<String>> domainToAnchors =
       new HashMap<String, Set<String>>();
     ArrayList<String> results = new ArrayList<String>();
-    Iterator<Inlink> it = inlinks.iterator();
+    Iterator<Inlink> it = iterator();
     while (it.hasNext()) {
       Inlink inlink = it.next();
       String anchor = inlink.getAnchor();
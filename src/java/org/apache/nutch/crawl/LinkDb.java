@@ -52,11 +52,29 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
 
   public static final String CURRENT_NAME = "current";
   public static final String LOCK_NAME = ".locked";
+  public static final String RUNS_NAME = "runs";
+
+  /** Store the links of new segments as a separate run, merged at read time. */
+  public static final String LINKDB_INCREMENTAL = "linkdb.incremental";
+
+  /** Number of runs above which the runs are merged into the LinkDb. */
+  public static final String LINKDB_MAX_RUNS = "linkdb.compact.max.runs";
+
+  private static final String MERGED_RUNS = "linkdb.merged.runs.";
+
+  private static final String RUN_PREFIX = "run-";
+
+  private static final PathFilter RUNS_FILTER = new PathFilter() {
+    public boolean accept(Path path) {
+      return path.getName().startsWith(RUN_PREFIX);
+    }
+  };
 
   private int maxAnchorLength;
   private boolean ignoreInternalLinks;
   private URLFilters urlFilters;
   private URLNormalizers urlNormalizers;
+  private HashSet<String> seen = new HashSet<String>();
   
   public LinkDb() {}
   
@@ -100,7 +118,11 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
     }
     if (fromUrl == null) return; // discard all outlinks
     Outlink[] outlinks = parseData.getOutlinks();
+    // collect() serializes immediately, key and value are reused
     Inlinks inlinks = new Inlinks();
+    Inlink inlink = new Inlink();
+    Text target = new Text();
+    seen.clear();
     for (int i = 0; i < outlinks.length; i++) {
       Outlink outlink = outlinks[i];
       String toUrl = outlink.getToUrl();
@@ -128,14 +150,21 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
         }
       }
       if (toUrl == null) continue;
-      inlinks.clear();
       String anchor = outlink.getAnchor();        // truncate long anchors
       if (anchor.length() > maxAnchorLength) {
         anchor = anchor.substring(0, maxAnchorLength);
       }
-      inlinks.add(new Inlink(fromUrl, anchor));   // collect inverted link
-      output.collect(new Text(toUrl), inlinks);
+      if (!seen.add(toUrl + '\n' + anchor)) {   // same link twice on a page
+        continue;
+      }
+      inlinks.clear();
+      inlink.set(fromUrl, anchor);
+      inlinks.add(inlink);                        // collect inverted link
+      target.set(toUrl);
+      output.collect(target, inlinks);
     }
+    if (urlNormalizers != null) urlNormalizers.reportCache(reporter);
+    if (urlFilters != null) urlFilters.reportCache(reporter);
   }
 
   private String getHost(String url) {
@@ -153,11 +182,29 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
   }
 
   public void invert(Path linkDb, Path[] segments, boolean normalize, boolean filter, boolean force) throws IOException {
+    boolean incremental = getConf().getBoolean(LINKDB_INCREMENTAL, false);
+    invert(linkDb, segments, normalize, filter, force, incremental);
+  }
+
+  /**
+   * Invert the links of segments.
+   * @param incremental if true and the LinkDb exists, store the inverted
+   * links as a new run of the LinkDb instead of merging them with the whole
+   * LinkDb. Runs are merged at read time, and into the LinkDb once there are
+   * more than <code>linkdb.compact.max.runs</code> of them.
+   */
+  public void invert(Path linkDb, Path[] segments, boolean normalize, boolean filter, boolean force, boolean incremental) throws IOException {
     JobConf job = LinkDb.createJob(getConf(), linkDb, normalize, filter);
     Path lock = new Path(linkDb, LOCK_NAME);
     FileSystem fs = FileSystem.get(getConf());
     LockUtil.createLockFile(fs, lock, force);
     Path currentLinkDb = new Path(linkDb, CURRENT_NAME);
+    incremental = incremental && fs.exists(currentLinkDb);
+    if (incremental) {
+      // there is no merge job, normalize and filter the new links now
+      job.setBoolean(LinkDbFilter.URL_FILTERING, filter);
+      job.setBoolean(LinkDbFilter.URL_NORMALIZING, normalize);
+    }
 
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     long start = System.currentTimeMillis();
@@ -166,6 +213,7 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
       LOG.info("LinkDb: linkdb: " + linkDb);
       LOG.info("LinkDb: URL normalize: " + normalize);
       LOG.info("LinkDb: URL filter: " + filter);
+      LOG.info("LinkDb: incremental: " + incremental);
       if (job.getBoolean(IGNORE_INTERNAL_LINKS, true)) {
         LOG.info("LinkDb: internal links will be ignored.");
       }
@@ -183,14 +231,28 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
       LockUtil.removeLockFile(fs, lock);
       throw e;
     }
-    if (fs.exists(currentLinkDb)) {
+    if (incremental) {
+      Path run = newRunPath(fs, linkDb);
+      fs.mkdirs(run.getParent());
+      fs.rename(FileOutputFormat.getOutputPath(job), run);
+      LOG.info("LinkDb: added run " + run);
+      if (getRuns(fs, linkDb).length > getConf().getInt(LINKDB_MAX_RUNS, 8)) {
+        compactLocked(linkDb);
+      } else {
+        LockUtil.removeLockFile(fs, lock);
+      }
+      long end = System.currentTimeMillis();
+      LOG.info("LinkDb: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+      return;
+    }
+    if (fs.exists(currentLinkDb) || getRuns(fs, linkDb).length > 0) {
       if (LOG.isInfoEnabled()) {
         LOG.info("LinkDb: merging with existing linkdb: " + linkDb);
       }
       // try to merge
       Path newLinkDb = FileOutputFormat.getOutputPath(job);
       job = LinkDbMerger.createMergeJob(getConf(), linkDb, normalize, filter);
-      FileInputFormat.addInputPath(job, currentLinkDb);
+      addLinkDb(job, linkDb);
       FileInputFormat.addInputPath(job, newLinkDb);
       try {
         JobClient.runJob(job);
@@ -207,6 +269,94 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
     LOG.info("LinkDb: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
   }
 
+  /**
+   * Merge the runs of a LinkDb into a new LinkDb.
+   * @return false if there are no runs to merge
+   */
+  public boolean compact(Path linkDb, boolean force) throws IOException {
+    FileSystem fs = FileSystem.get(getConf());
+    if (getRuns(fs, linkDb).length == 0) {
+      LOG.info("LinkDb compact: no runs in " + linkDb);
+      return false;
+    }
+    LockUtil.createLockFile(fs, new Path(linkDb, LOCK_NAME), force);
+    compactLocked(linkDb);
+    return true;
+  }
+
+  /** Merge the runs of a locked LinkDb, and release the lock. */
+  private void compactLocked(Path linkDb) throws IOException {
+    FileSystem fs = FileSystem.get(getConf());
+    JobConf job = LinkDbMerger.createMergeJob(getConf(), linkDb, false, false);
+    Path[] layers = addLinkDb(job, linkDb);
+    LOG.info("LinkDb compact: merging " + (layers.length - 1) + " runs into " + linkDb);
+    try {
+      JobClient.runJob(job);
+    } catch (IOException e) {
+      LockUtil.removeLockFile(fs, new Path(linkDb, LOCK_NAME));
+      Path outPath = FileOutputFormat.getOutputPath(job);
+      if (fs.exists(outPath)) fs.delete(outPath, true);
+      throw e;
+    }
+    LinkDb.install(job, linkDb);
+  }
+
+  /** Returns the runs of a LinkDb, oldest first. */
+  public static Path[] getRuns(FileSystem fs, Path linkDb) throws IOException {
+    Path dir = new Path(linkDb, RUNS_NAME);
+    if (!fs.exists(dir)) return new Path[0];
+    Path[] runs = HadoopFSUtil.getPaths(fs.listStatus(dir, RUNS_FILTER));
+    Arrays.sort(runs);
+    return runs;
+  }
+
+  /**
+   * Returns the parts of a LinkDb which contain inlinks: the LinkDb itself,
+   * if it exists, followed by its runs. Each part is a partitioned MapFile
+   * set, the inlinks of a URL are the union of its inlinks in all parts.
+   */
+  public static Path[] getLayers(FileSystem fs, Path linkDb) throws IOException {
+    List<Path> layers = new ArrayList<Path>();
+    Path current = new Path(linkDb, CURRENT_NAME);
+    if (fs.exists(current)) layers.add(current);
+    layers.addAll(Arrays.asList(getRuns(fs, linkDb)));
+    return layers.toArray(new Path[layers.size()]);
+  }
+
+  /**
+   * Add a LinkDb and its runs to the input of a job. The job has to merge
+   * the inlinks of a URL from several inputs, e.g. using {@link LinkDbMerger}.
+   * If the output of the job is installed with {@link #install(JobConf, Path)}
+   * the runs are removed.
+   * @return the inputs added
+   */
+  public static Path[] addLinkDb(JobConf job, Path linkDb) throws IOException {
+    FileSystem fs = linkDb.getFileSystem(job);
+    Path[] layers = getLayers(fs, linkDb);
+    for (int i = 0; i < layers.length; i++) {
+      FileInputFormat.addInputPath(job, layers[i]);
+    }
+    Path[] runs = getRuns(fs, linkDb);
+    if (runs.length > 0) {
+      String[] names = new String[runs.length];
+      for (int i = 0; i < runs.length; i++) {
+        names[i] = fs.makeQualified(runs[i]).toString();
+      }
+      job.setStrings(MERGED_RUNS + fs.makeQualified(linkDb), names);
+    }
+    return layers;
+  }
+
+  private static Path newRunPath(FileSystem fs, Path linkDb) throws IOException {
+    long time = System.currentTimeMillis();
+    Path[] runs = getRuns(fs, linkDb);
+    if (runs.length > 0) {
+      String last = runs[runs.length - 1].getName().substring(RUN_PREFIX.length());
+      time = Math.max(time, Long.parseLong(last) + 1);
+    }
+    return new Path(new Path(linkDb, RUNS_NAME), RUN_PREFIX + String.format("%015d", time));
+  }
+
   private static JobConf createJob(Configuration config, Path linkDb, boolean normalize, boolean filter) {
     Path newLinkDb =
       new Path("linkdb-" +
@@ -254,6 +404,12 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
     fs.mkdirs(linkDb);
     fs.rename(newLinkDb, current);
     if (fs.exists(old)) fs.delete(old, true);
+    // runs read by the job are now part of the new db
+    String[] runs = job.getStrings(MERGED_RUNS + fs.makeQualified(linkDb), new String[0]);
+    for (int i = 0; i < runs.length; i++) {
+      Path run = new Path(runs[i]);
+      if (fs.exists(run)) fs.delete(run, true);
+    }
     LockUtil.removeLockFile(fs, new Path(linkDb, LOCK_NAME));
   }
 
@@ -264,13 +420,15 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
 
   public int run(String[] args) throws Exception {
     if (args.length < 2) {
-      System.err.println("Usage: LinkDb <linkdb> (-dir <segmentsDir> | <seg1> <seg2> ...) [-force] [-noNormalize] [-noFilter]");
+      System.err.println("Usage: LinkDb <linkdb> (-dir <segmentsDir> | <seg1> <seg2> ... | -compact) [-force] [-noNormalize] [-noFilter] [-incremental]");
       System.err.println("\tlinkdb\toutput LinkDb to create or update");
       System.err.println("\t-dir segmentsDir\tparent directory of several segments, OR");
       System.err.println("\tseg1 seg2 ...\t list of segment directories");
       System.err.println("\t-force\tforce update even if LinkDb appears to be locked (CAUTION advised)");
       System.err.println("\t-noNormalize\tdon't normalize link URLs");
       System.err.println("\t-noFilter\tdon't apply URLFilters to link URLs");
+      System.err.println("\t-incremental\tstore the links of the segments as a new run of the LinkDb");
+      System.err.println("\t-compact\tmerge all runs of the LinkDb");
       return -1;
     }
     Path segDir = null;
@@ -280,6 +438,8 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
     boolean filter = true;
     boolean normalize = true;
     boolean force = false;
+    boolean compact = false;
+    boolean incremental = getConf().getBoolean(LINKDB_INCREMENTAL, false);
     for (int i = 1; i < args.length; i++) {
       if (args[i].equals("-dir")) {
         FileStatus[] paths = fs.listStatus(new Path(args[++i]), HadoopFSUtil.getPassDirectoriesFilter(fs));
@@ -290,10 +450,18 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
         filter = false;
       } else if (args[i].equalsIgnoreCase("-force")) {
         force = true;
+      } else if (args[i].equalsIgnoreCase("-incremental")) {
+        incremental = true;
+      } else if (args[i].equalsIgnoreCase("-compact")) {
+        compact = true;
       } else segs.add(new Path(args[i]));
     }
     try {
-      invert(db, segs.toArray(new Path[segs.size()]), normalize, filter, force);
+      if (compact) {
+        compact(db, force);
+      } else {
+        invert(db, segs.toArray(new Path[segs.size()]), normalize, filter, force, incremental);
+      }
       return 0;
     } catch (Exception e) {
       LOG.error("LinkDb: " + StringUtils.stringifyException(e));
@@ -17,8 +17,11 @@
 package org.apache.nutch.crawl;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Random;
 
@@ -29,7 +32,6 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
@@ -54,7 +56,8 @@ import org.apache.nutch.util.TimingUtil;
  * only one LinkDb should be specified in arguments.</p>
  * <p>If more than one LinkDb contains information about the same URL,
  * all inlinks are accumulated, but only at most <code>db.max.inlinks</code>
- * inlinks will ever be added.</p>
+ * inlinks will ever be added, and at most <code>db.max.inlinks.per.host</code>
+ * inlinks from the same host.</p>
  * <p>If activated, URLFilters will be applied to both the target URLs and
  * to any incoming link URL. If a target URL is prohibited, all
  * inlinks to that target will be removed, including the target URL. If
@@ -66,7 +69,13 @@ import org.apache.nutch.util.TimingUtil;
 public class LinkDbMerger extends Configured implements Tool, Reducer<Text, Inlinks, Text, Inlinks> {
   private static final Logger LOG = LoggerFactory.getLogger(LinkDbMerger.class);
   
+  public static final String MAX_INLINKS_PER_HOST = "db.max.inlinks.per.host";
+
+  public static final String INLINKS_COMPACT = "db.inlinks.compact";
+
   private int maxInlinks;
+  private int maxInlinksPerHost;
+  private boolean compact;
   
   public LinkDbMerger() {
     
@@ -77,26 +86,66 @@ public class LinkDbMerger extends Configured implements Tool, Reducer<Text, Inli
   }
 
   public void reduce(Text key, Iterator<Inlinks> values, OutputCollector<Text, Inlinks> output, Reporter reporter) throws IOException {
+    Inlinks result = merge(values, reporter);
+    if (result.size() == 0) return;
+    output.collect(key, result);
+  }
 
+  /**
+   * Merges the inlinks of a URL found in several LinkDbs, or in the runs of
+   * a LinkDb, keeping at most <code>db.max.inlinks</code> inlinks, and at
+   * most <code>db.max.inlinks.per.host</code> from the same host.
+   */
+  public Inlinks merge(Iterator<Inlinks> values, Reporter reporter) {
     Inlinks result = new Inlinks();
-
-    while (values.hasNext()) {
-      Inlinks inlinks = values.next();
-
-      int end = Math.min(maxInlinks - result.size(), inlinks.size());
-      Iterator<Inlink> it = inlinks.iterator();
-      int i = 0;
-      while(it.hasNext() && i++ < end) {
-        result.add(it.next());
+    result.setCompact(compact);
+    HashMap<String, int[]> hostCounts = null;
+    if (maxInlinksPerHost > 0) hostCounts = new HashMap<String, int[]>();
+
+    while (values.hasNext() && result.size() < maxInlinks) {
+      Iterator<Inlink> it = values.next().iterator();
+      while (it.hasNext() && result.size() < maxInlinks) {
+        Inlink inlink = it.next();
+        if (hostCounts == null) {
+          result.add(inlink);
+          continue;
+        }
+        String host = getHost(inlink.getFromUrl());
+        int[] count = hostCounts.get(host);
+        if (count == null) {
+          count = new int[1];
+          hostCounts.put(host, count);
+        }
+        if (count[0] >= maxInlinksPerHost) {
+          reporter.incrCounter("LinkDb", "inlinks dropped per host", 1);
+          continue;
+        }
+        int size = result.size();
+        result.add(inlink);
+        if (result.size() > size) count[0]++;
       }
     }
-    if (result.size() == 0) return;
-    output.collect(key, result);
-    
+    return result;
+  }
+
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    if (conf == null) return;
+    maxInlinks = conf.getInt("db.max.inlinks", 10000);
+    maxInlinksPerHost = conf.getInt(MAX_INLINKS_PER_HOST, -1);
+    compact = conf.getBoolean(INLINKS_COMPACT, false);
   }
 
   public void configure(JobConf job) {
-    maxInlinks = job.getInt("db.max.inlinks", 10000);
+    setConf(job);
+  }
+
+  private static String getHost(String url) {
+    try {
+      return new URL(url).getHost().toLowerCase();
+    } catch (MalformedURLException e) {
+      return url;
+    }
   }
 
   public void close() throws IOException { }
@@ -108,7 +157,7 @@ public class LinkDbMerger extends Configured implements Tool, Reducer<Text, Inli
 
     JobConf job = createMergeJob(getConf(), output, normalize, filter);
     for (int i = 0; i < dbs.length; i++) {
-      FileInputFormat.addInputPath(job, new Path(dbs[i], LinkDb.CURRENT_NAME));      
+      LinkDb.addLinkDb(job, dbs[i]);
     }
     JobClient.runJob(job);
     FileSystem fs = FileSystem.get(getConf());
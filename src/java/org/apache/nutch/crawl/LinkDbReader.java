@@ -36,7 +36,9 @@ import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.io.Closeable;
 
 /** . */
@@ -47,7 +49,10 @@ public class LinkDbReader extends Configured implements Tool, Closeable {
 
   private FileSystem fs;
   private Path directory;
-  private MapFile.Reader[] readers;
+  /** Readers of the LinkDb and its runs. */
+  private MapFile.Reader[][] readers;
+  /** Applies the inlink limits when merging the runs. */
+  private LinkDbMerger merger;
 
   public LinkDbReader() {
     
@@ -72,21 +77,37 @@ public class LinkDbReader extends Configured implements Tool, Closeable {
 
   public Inlinks getInlinks(Text url) throws IOException {
 
-    if (readers == null) {
-      synchronized(this) {
-        readers = MapFileOutputFormat.getReaders
-          (fs, new Path(directory, LinkDb.CURRENT_NAME), getConf());
+    synchronized(this) {
+      if (readers == null) {
+        Path[] layers = LinkDb.getLayers(fs, directory);
+        readers = new MapFile.Reader[layers.length][];
+        for (int i = 0; i < layers.length; i++) {
+          readers[i] = MapFileOutputFormat.getReaders(fs, layers[i], getConf());
+        }
       }
     }
-    
-    return (Inlinks)MapFileOutputFormat.getEntry
-      (readers, PARTITIONER, url, new Inlinks());
+
+    // union of the inlinks found in the LinkDb and its runs
+    List<Inlinks> layers = new ArrayList<Inlinks>(readers.length);
+    for (int i = 0; i < readers.length; i++) {
+      Inlinks inlinks = (Inlinks)MapFileOutputFormat.getEntry
+        (readers[i], PARTITIONER, url, new Inlinks());
+      if (inlinks != null) layers.add(inlinks);
+    }
+    if (layers.isEmpty()) return null;
+    if (layers.size() == 1) return layers.get(0);
+    synchronized (this) {
+      if (merger == null) merger = new LinkDbMerger(getConf());
+    }
+    return merger.merge(layers.iterator(), Reporter.NULL);
   }
   
   public void close() throws IOException {
     if (readers != null) {
       for (int i = 0; i < readers.length; i++) {
-        readers[i].close();
+        for (int j = 0; j < readers[i].length; j++) {
+          readers[i][j].close();
+        }
       }
     }
   }
@@ -103,8 +124,10 @@ public class LinkDbReader extends Configured implements Tool, Closeable {
     JobConf job = new NutchJob(getConf());
     job.setJobName("read " + linkdb);
 
-    FileInputFormat.addInputPath(job, new Path(linkdb, LinkDb.CURRENT_NAME));
+    LinkDb.addLinkDb(job, new Path(linkdb));
     job.setInputFormat(SequenceFileInputFormat.class);
+    // merge the inlinks of the runs
+    job.setReducerClass(LinkDbMerger.class);
 
     FileOutputFormat.setOutputPath(job, outFolder);
     job.setOutputFormat(TextOutputFormat.class);
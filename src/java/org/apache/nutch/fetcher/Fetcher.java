@@ -44,7 +44,11 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.FileSplit;
@@ -55,12 +59,14 @@ import org.apache.hadoop.mapred.MapRunnable;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.crawl.SignatureComparator;
 import org.apache.nutch.crawl.SignatureFactory;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.Nutch;
@@ -147,6 +153,11 @@ public class Fetcher extends Configured implements Tool,
   public static final String PROTOCOL_REDIR = "protocol";
 
   public static final Logger LOG = LoggerFactory.getLogger(Fetcher.class);
+
+  /** Skip parsing of pages whose raw content did not change. */
+  public static final String SKIP_UNMODIFIED = "fetcher.skip.unmodified";
+
+  public static final String SKIP_COUNTER_GROUP = "ParseSkip";
   
   	//
   	private static final Map<String, ItemIndexProcessor> itemIndexProcessorMap = new HashMap<String, ItemIndexProcessor>();
@@ -673,6 +684,7 @@ public class Fetcher extends Configured implements Tool,
 
     private int outlinksDepthDivisor;
     private boolean skipTruncated;
+    private boolean skipUnmodified;
     
     public FetcherThread(Configuration conf) {
       this.setDaemon(true);                       // don't hang JVM on exit
@@ -682,6 +694,7 @@ public class Fetcher extends Configured implements Tool,
       this.scfilters = new ScoringFilters(conf);
       this.parseUtil = new ParseUtil(conf);
       this.skipTruncated = conf.getBoolean(ParseSegment.SKIP_TRUNCATED, true);
+      this.skipUnmodified = conf.getBoolean(SKIP_UNMODIFIED, false);
       this.protocolFactory = new ProtocolFactory(conf);
       this.normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_FETCHER);
       this.maxCrawlDelay = conf.getInt("fetcher.max.crawl.delay", 30) * 1000;
@@ -1036,9 +1049,42 @@ public class Fetcher extends Configured implements Tool,
       return output(key, datum, content, pstatus, status, 0);
     }
 
+    /**
+     * Checks whether the raw content is the same as at the last fetch, and
+     * stores its hash in the datum for the next fetch. Pages refetched by
+     * force have no signature and are never considered unmodified.
+     */
+    private boolean isUnmodified(CrawlDatum datum, Content content) {
+      byte[] data = content.getContent();
+      if (data == null || data.length == 0) {
+        return false;
+      }
+      byte[] rawSignature = MD5Hash.digest(data).getDigest();
+      Writable previous = datum.getMetaData().put(
+          Nutch.WRITABLE_RAW_SIGNATURE_KEY, new BytesWritable(rawSignature));
+      if (datum.getSignature() == null || !(previous instanceof BytesWritable)) {
+        return false;
+      }
+      BytesWritable prev = (BytesWritable)previous;
+      return SignatureComparator._compare(prev.getBytes(), 0, prev.getLength(),
+          rawSignature, 0, rawSignature.length) == 0;
+    }
+
     private ParseStatus output(Text key, CrawlDatum datum,
                         Content content, ProtocolStatus pstatus, int status, int outlinkDepth) {
 
+      if (skipUnmodified && content != null
+          && status == CrawlDatum.STATUS_FETCH_SUCCESS) {
+        if (isUnmodified(datum, content)) {
+          // same bytes as last time, keep the previous parse and signature
+          status = CrawlDatum.STATUS_FETCH_NOTMODIFIED;
+          content = null;
+          reporter.incrCounter(SKIP_COUNTER_GROUP, "unmodified", 1);
+        } else {
+          reporter.incrCounter(SKIP_COUNTER_GROUP, "modified", 1);
+        }
+      }
+
       datum.setStatus(status);
       datum.setFetchTime(System.currentTimeMillis());
       if (pstatus != null) datum.getMetaData().put(Nutch.WRITABLE_PROTO_STATUS_KEY, pstatus);
@@ -1466,7 +1512,15 @@ public class Fetcher extends Configured implements Tool,
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(NutchWritable.class);
 
-    JobClient.runJob(job);
+    RunningJob running = JobClient.runJob(job);
+    if (getConf().getBoolean(SKIP_UNMODIFIED, false)) {
+      Counters.Group skips = running.getCounters().getGroup(SKIP_COUNTER_GROUP);
+      long unmodified = skips.getCounter("unmodified");
+      long total = unmodified + skips.getCounter("modified");
+      LOG.info("Fetcher: " + unmodified + " of " + total
+          + " pages unmodified, not parsed in segment " + segment.getName()
+          + (total > 0 ? String.format(" (%.1f%%)", 100.0 * unmodified / total) : ""));
+    }
 
     long end = System.currentTimeMillis();
     LOG.info("Fetcher: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
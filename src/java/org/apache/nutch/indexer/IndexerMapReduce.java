@@ -17,8 +17,10 @@
 package org.apache.nutch.indexer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,11 +35,11 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.nutch.crawl.CrawlDatum;
-import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbInputFormat;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.crawl.LinkDb;
+import org.apache.nutch.crawl.LinkDbMerger;
 import org.apache.nutch.crawl.NutchWritable;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.Nutch;
@@ -67,6 +69,7 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
   private boolean deleteRobotsNoIndex = false;
   private IndexingFilters filters;
   private ScoringFilters scfilters;
+  private LinkDbMerger linkDbMerger;
 
   // using normalizers and/or filters
   private boolean normalize = false;
@@ -80,6 +83,7 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
     setConf(job);
     this.filters = new IndexingFilters(getConf());
     this.scfilters = new ScoringFilters(getConf());
+    this.linkDbMerger = new LinkDbMerger(getConf());
     this.delete = job.getBoolean(INDEXER_DELETE, false);
     this.deleteRobotsNoIndex = job.getBoolean(INDEXER_DELETE_ROBOTS_NOINDEX, false);
     this.skip = job.getBoolean(INDEXER_SKIP_NOTMODIFIED, false);
@@ -164,6 +168,7 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
                      OutputCollector<Text, NutchIndexAction> output, Reporter reporter)
     throws IOException {
     Inlinks inlinks = null;
+    List<Inlinks> inlinkRuns = null;
     CrawlDatum dbDatum = null;
     CrawlDatum fetchDatum = null;
     ParseData parseData = null;
@@ -172,7 +177,16 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
     while (values.hasNext()) {
       final Writable value = values.next().get(); // unwrap
       if (value instanceof Inlinks) {
-        inlinks = (Inlinks)value;
+        if (inlinks == null) {
+          inlinks = (Inlinks)value;
+        } else {
+          // inlinks from several runs of the linkdb
+          if (inlinkRuns == null) {
+            inlinkRuns = new ArrayList<Inlinks>();
+            inlinkRuns.add(inlinks);
+          }
+          inlinkRuns.add((Inlinks)value);
+        }
       } else if (value instanceof CrawlDatum) {
         final CrawlDatum datum = (CrawlDatum)value;
         if (CrawlDatum.hasDbStatus(datum)) {
@@ -240,6 +254,11 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
       return;                                     // only have inlinks
     }
 
+    if (inlinkRuns != null) {
+      // the union of the runs, limited as when merging the linkdb
+      inlinks = linkDbMerger.merge(inlinkRuns.iterator(), reporter);
+    }
+
     // Whether to skip DB_NOTMODIFIED pages
     if (skip && dbDatum.getStatus() == CrawlDatum.STATUS_DB_NOTMODIFIED) {
       reporter.incrCounter("IndexerStatus", "Skipped", 1);
@@ -308,7 +327,7 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
 
   public static void initMRJob(Path crawlDb, Path linkDb,
                            Collection<Path> segments,
-                           JobConf job) {
+                           JobConf job) throws IOException {
 
     LOG.info("IndexerMapReduce: crawldb: " + crawlDb);
     
@@ -323,12 +342,10 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
       FileInputFormat.addInputPath(job, new Path(segment, ParseText.DIR_NAME));
     }
 
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    CrawlDbInputFormat.addCrawlDb(job, crawlDb);
     
     if (linkDb!=null)
-	  FileInputFormat.addInputPath(job, new Path(linkDb, LinkDb.CURRENT_NAME));
-    
-    job.setInputFormat(SequenceFileInputFormat.class);
+	  LinkDb.addLinkDb(job, linkDb);
 
     job.setMapperClass(IndexerMapReduce.class);
     job.setReducerClass(IndexerMapReduce.class);
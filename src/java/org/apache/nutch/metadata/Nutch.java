@@ -51,6 +51,11 @@ public interface Nutch {
   
   public static final String FETCH_STATUS_KEY = "_fst_";
 
+  /** MD5 hash of the raw content of the last fetch, used to skip parsing. */
+  public static final String RAW_SIGNATURE_KEY = "_rsig_";
+
+  public static final Text WRITABLE_RAW_SIGNATURE_KEY = new Text(RAW_SIGNATURE_KEY);
+
   /** Sites may request that search engines don't provide access to cached documents. */
   public static final String CACHING_FORBIDDEN_KEY = "caching.forbidden";
 
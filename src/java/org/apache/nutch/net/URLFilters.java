@@ -28,11 +28,15 @@ import org.apache.nutch.plugin.PluginRepository;
 import org.apache.nutch.util.ObjectCache;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
 /** Creates and caches {@link URLFilter} implementing plugins.*/
 public class URLFilters {
 
   public static final String URLFILTER_ORDER = "urlfilter.order";
+  /** Max. number of filter results memoized per task, 0 to disable. */
+  public static final String URLFILTER_CACHE_SIZE = "urlfilter.cache.size";
   private URLFilter[] filters;
+  private URLMemo memo;
 
   public URLFilters(Configuration conf) {
     String order = conf.get(URLFILTER_ORDER);
@@ -78,16 +82,29 @@ public class URLFilters {
       }
       this.filters = (URLFilter[]) objectCache.getObject(URLFilter.class.getName());
     }
+    memo = URLMemo.forCache(objectCache, URLFilter.class.getName() + "_memo",
+        conf.getInt(URLFILTER_CACHE_SIZE, 10000));
   }
 
   /** Run all defined filters. Assume logical AND. */
   public String filter(String urlString) throws URLFilterException {
+    String key = urlString;
+    if (memo != null && key != null) {
+      String cached = memo.get(key);
+      if (cached != null) return URLMemo.unwrap(cached);
+    }
     for (int i = 0; i < this.filters.length; i++) {
       if (urlString == null)
-        return null;
+        break;
       urlString = this.filters[i].filter(urlString);
 
     }
+    if (memo != null && key != null) memo.put(key, urlString);
     return urlString;
   }
+
+  /** Report memo hits and misses to the counters of a task. */
+  public void reportCache(Reporter reporter) {
+    if (memo != null) memo.report(reporter, "filter");
+  }
 }
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net;
+
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.util.LRUCache;
+import org.apache.nutch.util.ObjectCache;
+
+/**
+ * Bounded LRU memo of URL normalization or filtering results. Popular link
+ * targets (site navigation, footers) occur over and over in the outlinks of
+ * a segment, the memo avoids running the same normalizer and filter chains
+ * on them again. A memo is shared by all {@link URLNormalizers} or
+ * {@link URLFilters} instances created from the same configuration, i.e.
+ * usually by all users within a task. Instances are thread-safe: all
+ * threads of a task, e.g. all fetcher threads, share a single map guarded
+ * by the lock of the memo. It is only held for a hash lookup or insert,
+ * which is short compared to the normalizer or filter chain it saves.
+ */
+public class URLMemo {
+
+  /** Stored for URLs rejected by a filter or normalizer. */
+  private static final String REJECTED = new String("");
+
+  private final LRUCache<String, String> map;
+  private long hits = 0;
+  private long misses = 0;
+
+  public URLMemo(int maxEntries) {
+    map = new LRUCache<String, String>(maxEntries);
+  }
+
+  /**
+   * Look up a memoized result.
+   * @return null if not memoized, otherwise a value to be passed to
+   * {@link #unwrap(String)}
+   */
+  public synchronized String get(String key) {
+    String value = map.get(key);
+    if (value == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return value;
+  }
+
+  /** Memoize a result, which may be null. */
+  public synchronized void put(String key, String value) {
+    map.put(key, value == null ? REJECTED : value);
+  }
+
+  /** Returns the result represented by a value returned by {@link #get(String)}. */
+  public static String unwrap(String value) {
+    return value == REJECTED ? null : value;
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  /**
+   * Add the hits and misses since the last call to counters of a task, and
+   * reset them.
+   * @param name prefix of the counter names
+   */
+  public void report(Reporter reporter, String name) {
+    long h, m;
+    synchronized (this) {
+      h = hits;
+      m = misses;
+      hits = 0;
+      misses = 0;
+    }
+    if (h > 0) reporter.incrCounter("URL memo", name + " hits", h);
+    if (m > 0) reporter.incrCounter("URL memo", name + " misses", m);
+  }
+
+  /**
+   * Returns the memo stored under <code>key</code> in the object cache of a
+   * configuration, creating it if needed.
+   * @return the memo, or null if <code>maxEntries</code> is not positive
+   */
+  static URLMemo forCache(ObjectCache objectCache, String key, int maxEntries) {
+    if (maxEntries <= 0) return null;
+    synchronized (objectCache) {
+      URLMemo memo = (URLMemo) objectCache.getObject(key);
+      if (memo == null) {
+        memo = new URLMemo(maxEntries);
+        objectCache.setObject(key, memo);
+      }
+      return memo;
+    }
+  }
+}
@@ -31,6 +31,7 @@ import java.util.Vector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.nutch.plugin.Extension;
 import org.apache.nutch.plugin.ExtensionPoint;
 import org.apache.nutch.plugin.PluginRepository;
@@ -98,6 +99,9 @@ public final class URLNormalizers {
   /** Scope used when indexing URLs. */
   public static final String SCOPE_INDEXER = "indexer";
 
+  /** Max. number of normalized URLs memoized per task and scope, 0 to disable. */
+  public static final String URLNORMALIZER_CACHE_SIZE = "urlnormalizer.cache.size";
+
   public static final Logger LOG = LoggerFactory.getLogger(URLNormalizers.class);
 
   /* Empty extension list for caching purposes. */
@@ -113,6 +117,8 @@ public final class URLNormalizers {
   
   private int loopCount;
 
+  private URLMemo memo;
+
   public URLNormalizers(Configuration conf, String scope) {
     this.conf = conf;
     this.extensionPoint = PluginRepository.get(conf).getExtensionPoint(
@@ -136,6 +142,8 @@ public final class URLNormalizers {
     }
     
     loopCount = conf.getInt("urlnormalizer.loop.count", 1);
+    memo = URLMemo.forCache(objectCache, URLNormalizer.X_POINT_ID + "_memo_" + scope,
+        conf.getInt(URLNORMALIZER_CACHE_SIZE, 10000));
   }
 
   /**
@@ -278,6 +286,20 @@ public final class URLNormalizers {
    */
   public String normalize(String urlString, String scope)
           throws MalformedURLException {
+    if (memo == null || urlString == null) {
+      return doNormalize(urlString, scope);
+    }
+    // the scope is passed to the normalizers, it is part of the key
+    String key = scope + '\n' + urlString;
+    String cached = memo.get(key);
+    if (cached != null) return URLMemo.unwrap(cached);
+    String result = doNormalize(urlString, scope);
+    memo.put(key, result);
+    return result;
+  }
+
+  private String doNormalize(String urlString, String scope)
+          throws MalformedURLException {
     // optionally loop several times, and break if no further changes
     String initialString = urlString;
     for (int k = 0; k < loopCount; k++) {
@@ -291,4 +313,9 @@ public final class URLNormalizers {
     }
     return urlString;
   }
+
+  /** Report memo hits and misses to the counters of a task. */
+  public void reportCache(Reporter reporter) {
+    if (memo != null) memo.report(reporter, "normalizer");
+  }
 }
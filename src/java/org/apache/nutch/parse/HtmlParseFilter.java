@@ -37,6 +37,9 @@ public interface HtmlParseFilter extends Pluggable, Configurable {
   final static String X_POINT_ID = HtmlParseFilter.class.getName();
 
   /** Adds metadata or otherwise modifies a parse of HTML content, given
-   * the DOM tree of a page. */
+   * the DOM tree of a page. The DOM is null if the implementation declares
+   * the parameter <code>dom</code> as <code>false</code> in its plugin.xml
+   * and the parser does not build one, see
+   * {@link HtmlParseFilters#needsDocument()}. */
   ParseResult filter(Content content, ParseResult parseResult, HTMLMetaTags metaTags, DocumentFragment doc);
 }
@@ -19,6 +19,8 @@ package org.apache.nutch.parse;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.plugin.*;
@@ -31,9 +33,20 @@ import org.w3c.dom.DocumentFragment;
 public class HtmlParseFilters {
 
   private HtmlParseFilter[] htmlParseFilters;
+
+  /** Whether one of the filters needs the DOM of a page. */
+  private boolean needsDocument;
   
   public static final String HTMLPARSEFILTER_ORDER = "htmlparsefilter.order";
 
+  /**
+   * Name of the extension parameter by which a filter declares that it does
+   * not use the DOM, so a parser can skip building one.
+   */
+  public static final String DOM_PARAMETER = "dom";
+
+  private static final String NO_DOM_KEY = HtmlParseFilter.class.getName() + ".nodom";
+
   public HtmlParseFilters(Configuration conf) {
         String order = conf.get(HTMLPARSEFILTER_ORDER);
         ObjectCache objectCache = ObjectCache.get(conf);
@@ -49,6 +62,7 @@ public class HtmlParseFilters {
           }
             HashMap<String, HtmlParseFilter> filterMap =
               new HashMap<String, HtmlParseFilter>();
+            HashSet<String> noDom = new HashSet<String>();
             try {
                 ExtensionPoint point = PluginRepository.get(conf).getExtensionPoint(HtmlParseFilter.X_POINT_ID);
                 if (point == null)
@@ -60,7 +74,11 @@ public class HtmlParseFilters {
                     if (!filterMap.containsKey(parseFilter.getClass().getName())) {
                         filterMap.put(parseFilter.getClass().getName(), parseFilter);
                     }
+                    if ("false".equalsIgnoreCase(extension.getAttribute(DOM_PARAMETER))) {
+                        noDom.add(parseFilter.getClass().getName());
+                    }
                 }
+                objectCache.setObject(NO_DOM_KEY, noDom);
                 HtmlParseFilter[] htmlParseFilters = filterMap.values().toArray(new HtmlParseFilter[filterMap.size()]);
                 /*
                  * If no ordered filters required, just get the filters in an
@@ -87,8 +105,25 @@ public class HtmlParseFilters {
             }
             this.htmlParseFilters = (HtmlParseFilter[]) objectCache.getObject(HtmlParseFilter.class.getName());
         }
+        Set<?> noDom = (Set<?>) objectCache.getObject(NO_DOM_KEY);
+        for (HtmlParseFilter filter : htmlParseFilters) {
+          if (noDom == null || !noDom.contains(filter.getClass().getName())) {
+            needsDocument = true;
+          }
+        }
     }                  
 
+  /**
+   * Returns true if one of the filters needs the DOM passed to
+   * {@link #filter(Content, ParseResult, HTMLMetaTags, DocumentFragment)}.
+   * Filters declare that they do not by the parameter <code>dom</code> set
+   * to <code>false</code> in their plugin.xml, and get a null DOM if the
+   * parser does not build one.
+   */
+  public boolean needsDocument() {
+    return needsDocument;
+  }
+
   /** Run all defined filters. */
   public ParseResult filter(Content content, ParseResult parseResult, HTMLMetaTags metaTags, DocumentFragment doc) {
 
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchThreadFactory;
+
+/**
+ * Runs the {@link ParseSegment} mapper in several threads of a map task, as
+ * parsing is CPU bound. Each thread has its own {@link ParseSegment}, and
+ * {@link ParserFactory} gives each thread its own parser instances, while the
+ * other plugins and the {@link ParserSandbox} are shared by the task. At most <code>parser.threads.window</code> records are
+ * in flight, the results are collected by the task thread either in input
+ * order or as soon as they are parsed, depending on
+ * <code>parser.threads.ordered</code>. The parse times are reported per
+ * content type in the counter group <code>ParseTime</code>.
+ */
+public class MultithreadedParseRunner
+  implements MapRunnable<WritableComparable<?>, Content, Text, ParseImpl> {
+
+  public static final Logger LOG = LoggerFactory.getLogger(MultithreadedParseRunner.class);
+
+  public static final String THREADS = "parser.threads";
+  public static final String WINDOW = "parser.threads.window";
+  public static final String ORDERED = "parser.threads.ordered";
+
+  public static final String TIME_COUNTER_GROUP = "ParseTime";
+
+  /** Upper bounds in milliseconds of the parse time histogram buckets. */
+  private static final long[] TIME_BUCKETS = { 10, 100, 1000, 10000 };
+
+  /** Content types beyond this number are counted as "other". */
+  private static final int MAX_CONTENT_TYPES = 16;
+
+  private JobConf job;
+  private int numThreads;
+  private int window;
+  private boolean ordered;
+  private final List<ParseSegment> mappers = Collections.synchronizedList(new ArrayList<ParseSegment>());
+  private final Set<String> contentTypes = new HashSet<String>();
+
+  private final ThreadLocal<ParseSegment> mapper = new ThreadLocal<ParseSegment>() {
+    protected ParseSegment initialValue() {
+      ParseSegment parseSegment = new ParseSegment();
+      parseSegment.configure(job);
+      mappers.add(parseSegment);
+      return parseSegment;
+    }
+  };
+
+  /**
+   * The output of one record, buffered until collected by the task thread.
+   */
+  private static class Output
+    implements OutputCollector<Text, ParseImpl> {
+
+    private List<Text> keys = new ArrayList<Text>(1);
+    private List<ParseImpl> values = new ArrayList<ParseImpl>(1);
+
+    public void collect(Text key, ParseImpl value) {
+      keys.add(key);
+      values.add(value);
+    }
+
+    void collectTo(OutputCollector<Text, ParseImpl> output)
+      throws IOException {
+      for (int i = 0; i < keys.size(); i++) {
+        output.collect(keys.get(i), values.get(i));
+      }
+    }
+  }
+
+  public void configure(JobConf job) {
+    this.job = job;
+    numThreads = Math.max(1, job.getInt(THREADS, 1));
+    window = job.getInt(WINDOW, 0);
+    if (window < numThreads) {
+      window = 4 * numThreads;
+    }
+    ordered = job.getBoolean(ORDERED, true);
+  }
+
+  /**
+   * Returns the name of the counter for a parse of a content type.
+   */
+  private String getTimeCounter(String contentType, long time) {
+    String type = (contentType == null) ? "unknown" : contentType;
+    synchronized (contentTypes) {
+      if (!contentTypes.contains(type)) {
+        if (contentTypes.size() < MAX_CONTENT_TYPES) {
+          contentTypes.add(type);
+        }
+        else {
+          type = "other";
+        }
+      }
+    }
+    for (long bucket : TIME_BUCKETS) {
+      if (time < bucket) {
+        return type + " <" + bucket + "ms";
+      }
+    }
+    return type + " >=" + TIME_BUCKETS[TIME_BUCKETS.length - 1] + "ms";
+  }
+
+  public void run(RecordReader<WritableComparable<?>, Content> input,
+    OutputCollector<Text, ParseImpl> output, final Reporter reporter)
+    throws IOException {
+
+    LOG.info("MultithreadedParseRunner: " + numThreads + " threads, window "
+      + window + (ordered ? ", ordered" : ", unordered"));
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+      new NutchThreadFactory("ParseSegment", null, true));
+    CompletionService<Output> completion = new ExecutorCompletionService<Output>(executor);
+    LinkedList<Future<Output>> inFlight = new LinkedList<Future<Output>>();
+
+    try {
+      while (true) {
+        // the record reader reuses its objects, so use new ones each time
+        final WritableComparable<?> key = input.createKey();
+        final Content value = input.createValue();
+        if (!input.next(key, value)) {
+          break;
+        }
+        Callable<Output> task = new Callable<Output>() {
+          public Output call()
+            throws Exception {
+            Output buffer = new Output();
+            long start = System.currentTimeMillis();
+            mapper.get().map(key, value, buffer, reporter);
+            long time = System.currentTimeMillis() - start;
+            reporter.incrCounter(TIME_COUNTER_GROUP,
+              getTimeCounter(value.getContentType(), time), 1);
+            return buffer;
+          }
+        };
+        inFlight.add(ordered ? executor.submit(task) : completion.submit(task));
+        while (inFlight.size() >= window) {
+          collectNext(completion, inFlight, output, reporter);
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        collectNext(completion, inFlight, output, reporter);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+      synchronized (mappers) {
+        for (ParseSegment parseSegment : mappers) {
+          parseSegment.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits for the next record to be parsed, the oldest one if the output is
+   * ordered, and collects its output.
+   */
+  private void collectNext(CompletionService<Output> completion,
+    LinkedList<Future<Output>> inFlight,
+    OutputCollector<Text, ParseImpl> output, Reporter reporter)
+    throws IOException {
+    try {
+      Future<Output> future;
+      if (ordered) {
+        future = inFlight.getFirst();
+        while (true) {
+          try {
+            future.get(10, TimeUnit.SECONDS);
+            break;
+          }
+          catch (TimeoutException e) {
+            reporter.progress();
+          }
+        }
+        inFlight.removeFirst();
+      }
+      else {
+        while ((future = completion.poll(10, TimeUnit.SECONDS)) == null) {
+          reporter.progress();
+        }
+        inFlight.remove(future);
+      }
+      future.get().collectTo(output);
+      reporter.progress();
+    }
+    catch (InterruptedException e) {
+      throw new IOException("Interrupted waiting for parses: " + e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new IOException("Error parsing: " + cause);
+    }
+  }
+}
@@ -65,6 +65,10 @@ public class Outlink implements Writable {
     this.toUrl = toUrl;
   }
 
+  public void setAnchor(String anchor) {
+    this.anchor = (anchor == null) ? "" : anchor;
+  }
+
   public boolean equals(Object o) {
     if (!(o instanceof Outlink))
       return false;
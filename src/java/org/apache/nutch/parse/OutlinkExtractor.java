@@ -25,23 +25,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.oro.text.regex.MatchResult;
-import org.apache.oro.text.regex.Pattern;
-import org.apache.oro.text.regex.PatternCompiler;
-import org.apache.oro.text.regex.PatternMatcher;
-import org.apache.oro.text.regex.PatternMatcherInput;
-import org.apache.oro.text.regex.Perl5Compiler;
-import org.apache.oro.text.regex.Perl5Matcher;
 
 /**
  * Extractor to extract {@link org.apache.nutch.parse.Outlink}s 
- * / URLs from plain text using Regular Expressions.
- * 
- * @see <a
- *      href="http://wiki.java.net/bin/view/Javapedia/RegularExpressions">Comparison
- *      of different regexp-Implementations </a>
- * @see <a href="http://regex.info/java.html">Overview about Java Regexp APIs
- *      </a>
+ * / URLs from plain text.
+ *
+ * <p>The text is scanned once: at each colon the scheme before it and the
+ * rest of the url after it are matched by hand, giving the same urls as the
+ * regular expression {@link #URL_PATTERN} in linear time.</p>
  * 
  * @author Stephan Strittmatter - http://www.sybit.de
  * @version 1.0
@@ -51,19 +42,110 @@ public class OutlinkExtractor {
   private static final Logger LOG = LoggerFactory.getLogger(OutlinkExtractor.class);
 
   /**
-   * Regex pattern to get URLs within a plain text.
+   * Regex pattern to get URLs within a plain text, as matched by the scanner.
    * 
    * @see <a
    *      href="http://www.truerwords.net/articles/ut/urlactivation.html">http://www.truerwords.net/articles/ut/urlactivation.html
    *      </a>
    */
-  private static final String URL_PATTERN = 
+  public static final String URL_PATTERN = 
     "([A-Za-z][A-Za-z0-9+.-]{1,120}:[A-Za-z0-9/](([A-Za-z0-9$_.+!*,;/?:@&~=-])|%[A-Fa-f0-9]{2}){1,333}(#([a-zA-Z0-9][a-zA-Z0-9$_.+!*,;/?:@&~=%-]{0,1000}))?)";
 
+  private static final int MAX_SCHEME_TAIL = 120;
+  private static final int MAX_URL_PARTS = 333;
+  private static final int MAX_FRAGMENT_TAIL = 1000;
+
+  private static final boolean[] ALNUM = new boolean[128];
+  private static final boolean[] SCHEME = new boolean[128];
+  private static final boolean[] URL = new boolean[128];
+  private static final boolean[] FRAGMENT = new boolean[128];
+  private static final boolean[] HEX = new boolean[128];
+
+  static {
+    for (char c = 0; c < 128; c++) {
+      ALNUM[c] = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9');
+      HEX[c] = (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')
+        || (c >= '0' && c <= '9');
+    }
+    set(SCHEME, "+.-");
+    set(URL, "$_.+!*,;/?:@&~=-");
+    set(FRAGMENT, "$_.+!*,;/?:@&~=%-");
+  }
+
+  private static void set(boolean[] table, String chars) {
+    for (int i = 0; i < 128; i++) {
+      table[i] = ALNUM[i] || chars.indexOf(i) >= 0;
+    }
+  }
+
+  private static boolean is(boolean[] table, char c) {
+    return c < 128 && table[c];
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * Returns the start of the leftmost scheme ending at a colon, not before
+   * <code>from</code>, or -1 if there is none.
+   */
+  private static int schemeStart(String text, int from, int colon) {
+    int min = Math.max(from, colon - 1 - MAX_SCHEME_TAIL);
+    int p = colon - 1;
+    while (p >= min && is(SCHEME, text.charAt(p))) {
+      p--;
+    }
+    // the scheme is a letter followed by at least one scheme character
+    for (int q = p + 1; q <= colon - 2; q++) {
+      if (isLetter(text.charAt(q))) {
+        return q;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the end of the url whose scheme ends at a colon, or -1 if there
+   * is no url.
+   */
+  private static int urlEnd(String text, int colon) {
+    int n = text.length();
+    int i = colon + 1;
+    if (i >= n || !(is(ALNUM, text.charAt(i)) || text.charAt(i) == '/')) {
+      return -1;
+    }
+    i++;
+    int parts = 0;
+    while (parts < MAX_URL_PARTS && i < n) {
+      char c = text.charAt(i);
+      if (is(URL, c)) {
+        i++;
+      } else if (c == '%' && i + 2 < n && is(HEX, text.charAt(i + 1))
+          && is(HEX, text.charAt(i + 2))) {
+        i += 3;
+      } else {
+        break;
+      }
+      parts++;
+    }
+    if (parts == 0) {
+      return -1;
+    }
+    if (i + 1 < n && text.charAt(i) == '#' && is(ALNUM, text.charAt(i + 1))) {
+      i += 2;
+      int tail = 0;
+      while (tail < MAX_FRAGMENT_TAIL && i < n && is(FRAGMENT, text.charAt(i))) {
+        i++;
+        tail++;
+      }
+    }
+    return i;
+  }
+
   /**
    * Extracts <code>Outlink</code> from given plain text.
-   * Applying this method to non-plain-text can result in extremely lengthy
-   * runtimes for parasitic cases (postscript is a known example).
    * @param plainText  the plain text from wich URLs should be extracted.
    * 
    * @return Array of <code>Outlink</code>s within found in plainText
@@ -82,55 +164,32 @@ public class OutlinkExtractor {
    * @return Array of <code>Outlink</code>s within found in plainText
    */
   public static Outlink[] getOutlinks(final String plainText, String anchor, Configuration conf) {
-    long start = System.currentTimeMillis();
+    if (plainText == null) {
+      return new Outlink[0];
+    }
     final List<Outlink> outlinks = new ArrayList<Outlink>();
 
-    try {
-      final PatternCompiler cp = new Perl5Compiler();
-      final Pattern pattern = cp.compile(URL_PATTERN,
-          Perl5Compiler.CASE_INSENSITIVE_MASK | Perl5Compiler.READ_ONLY_MASK
-              | Perl5Compiler.MULTILINE_MASK);
-      final PatternMatcher matcher = new Perl5Matcher();
-
-      final PatternMatcherInput input = new PatternMatcherInput(plainText);
-
-      MatchResult result;
-      String url;
-
-      //loop the matches
-      while (matcher.contains(input, pattern)) {
-        // if this is taking too long, stop matching
-        //   (SHOULD really check cpu time used so that heavily loaded systems
-        //   do not unnecessarily hit this limit.)
-        if (System.currentTimeMillis() - start >= 60000L) {
-          if (LOG.isWarnEnabled()) {
-            LOG.warn("Time limit exceeded for getOutLinks");
-          }
-          break;
-        }
-        result = matcher.getMatch();
-        url = result.group(0);
-        try {
-          outlinks.add(new Outlink(url, anchor));
-        } catch (MalformedURLException mue) {
-          LOG.warn("Invalid url: '" + url + "', skipping.");
-        }
+    // urls do not overlap, the next one starts after the end of the last
+    int from = 0;
+    int colon = plainText.indexOf(':');
+    while (colon >= 0) {
+      int start = schemeStart(plainText, from, colon);
+      int end = (start < 0) ? -1 : urlEnd(plainText, colon);
+      if (end < 0) {
+        colon = plainText.indexOf(':', colon + 1);
+        continue;
       }
-    } catch (Exception ex) {
-      // if the matcher fails (perhaps a malformed URL) we just log it and move on
-      if (LOG.isErrorEnabled()) { LOG.error("getOutlinks", ex); }
-    }
-
-    final Outlink[] retval;
-
-    //create array of the Outlinks
-    if (outlinks != null && outlinks.size() > 0) {
-      retval = outlinks.toArray(new Outlink[0]);
-    } else {
-      retval = new Outlink[0];
+      String url = plainText.substring(start, end);
+      try {
+        outlinks.add(new Outlink(url, anchor));
+      } catch (MalformedURLException mue) {
+        LOG.warn("Invalid url: '" + url + "', skipping.");
+      }
+      from = end;
+      colon = plainText.indexOf(':', end);
     }
 
-    return retval;
+    return outlinks.toArray(new Outlink[outlinks.size()]);
   }
   
 
@@ -37,7 +37,10 @@ import org.apache.nutch.util.NutchConfiguration;
 public final class ParseData extends VersionedWritable {
   public static final String DIR_NAME = "parse_data";
 
-  private final static byte VERSION = 5;
+  private final static byte VERSION = 6;
+
+  /** The last version with outlinks written one by one. */
+  public final static byte LEGACY_VERSION = 5;
 
   private String title;
   private Outlink[] outlinks;
@@ -122,41 +125,116 @@ public final class ParseData extends VersionedWritable {
 
     version = in.readByte();
     // incompatible change from UTF8 (version < 5) to Text
-    if (version != VERSION)
+    if (version != VERSION && version != LEGACY_VERSION)
       throw new VersionMismatchException(VERSION, version);
     status = ParseStatus.read(in);
     title = Text.readString(in);                   // read title
 
-    int numOutlinks = in.readInt();    
+    if (version == LEGACY_VERSION) {
+      int numOutlinks = in.readInt();
+      outlinks = new Outlink[numOutlinks];
+      for (int i = 0; i < numOutlinks; i++) {
+        outlinks[i] = Outlink.read(in);
+      }
+    } else {
+      readOutlinks(in);
+    }
+
+    contentMeta.clear();
+    contentMeta.readFields(in);
+    parseMeta.clear();
+    parseMeta.readFields(in);
+  }
+
+  /**
+   * Reads outlinks written by {@link #writeOutlinks(DataOutput)}.
+   */
+  private void readOutlinks(DataInput in) throws IOException {
+    int numOutlinks = WritableUtils.readVInt(in);
+    String[] anchors = new String[WritableUtils.readVInt(in)];
+    for (int i = 0; i < anchors.length; i++) {
+      anchors[i] = Text.readString(in);
+    }
     outlinks = new Outlink[numOutlinks];
+    String previous = "";
     for (int i = 0; i < numOutlinks; i++) {
-      outlinks[i] = Outlink.read(in);
+      int prefix = WritableUtils.readVInt(in);
+      String url = previous.substring(0, prefix).concat(Text.readString(in));
+      outlinks[i] = new Outlink();
+      outlinks[i].setUrl(url);
+      outlinks[i].setAnchor(anchors[WritableUtils.readVInt(in)]);
+      previous = url;
     }
-    
-    if (version < 3) {
-      int propertyCount = in.readInt();             // read metadata
-      contentMeta.clear();
-      for (int i = 0; i < propertyCount; i++) {
-        contentMeta.add(Text.readString(in), Text.readString(in));
+  }
+
+  /**
+   * Writes the outlinks as a block: first the distinct anchors, then for each
+   * outlink the length of the prefix it shares with the previous url, the rest
+   * of the url and the number of its anchor. The outlinks of a page mostly
+   * point to the same few hosts and repeat a few anchors, like "more" or the
+   * navigation of a site.
+   */
+  private void writeOutlinks(DataOutput out) throws IOException {
+    Map<String, Integer> anchorIds = new HashMap<String, Integer>();
+    List<String> anchors = new ArrayList<String>();
+    int[] ids = new int[outlinks.length];
+    for (int i = 0; i < outlinks.length; i++) {
+      String anchor = outlinks[i].getAnchor();
+      Integer id = anchorIds.get(anchor);
+      if (id == null) {
+        id = anchors.size();
+        anchorIds.put(anchor, id);
+        anchors.add(anchor);
       }
-    } else {
-      contentMeta.clear();
-      contentMeta.readFields(in);
+      ids[i] = id;
+    }
+
+    WritableUtils.writeVInt(out, outlinks.length);
+    WritableUtils.writeVInt(out, anchors.size());
+    for (String anchor : anchors) {
+      Text.writeString(out, anchor);
     }
-    if (version > 3) {
-      parseMeta.clear();
-      parseMeta.readFields(in);
+    String previous = "";
+    for (int i = 0; i < outlinks.length; i++) {
+      String url = outlinks[i].getToUrl();
+      int max = Math.min(previous.length(), url.length());
+      int prefix = 0;
+      while (prefix < max && previous.charAt(prefix) == url.charAt(prefix)) {
+        prefix++;
+      }
+      // do not split a surrogate pair
+      if (prefix > 0 && Character.isHighSurrogate(url.charAt(prefix - 1))) {
+        prefix--;
+      }
+      WritableUtils.writeVInt(out, prefix);
+      Text.writeString(out, url.substring(prefix));
+      WritableUtils.writeVInt(out, ids[i]);
+      previous = url;
     }
   }
 
   public final void write(DataOutput out) throws IOException {
-    out.writeByte(VERSION);                       // write version
+    write(out, VERSION);
+  }
+
+  /**
+   * Writes in the given version, either the current one or
+   * {@link #LEGACY_VERSION} for readers which do not know the current one.
+   */
+  public final void write(DataOutput out, byte version) throws IOException {
+    if (version != VERSION && version != LEGACY_VERSION)
+      throw new VersionMismatchException(VERSION, version);
+    out.writeByte(version);                       // write version
     status.write(out);                            // write status
     Text.writeString(out, title);                 // write title
 
-    out.writeInt(outlinks.length);                // write outlinks
-    for (int i = 0; i < outlinks.length; i++) {
-      outlinks[i].write(out);
+    if (version == LEGACY_VERSION) {
+      out.writeInt(outlinks.length);              // write outlinks
+      for (int i = 0; i < outlinks.length; i++) {
+        outlinks[i].write(out);
+      }
+    } else {
+      writeOutlinks(out);
     }
     contentMeta.write(out);                      // write content metadata
     parseMeta.write(out);
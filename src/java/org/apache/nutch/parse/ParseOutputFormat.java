@@ -40,7 +40,11 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 
 import org.apache.hadoop.util.Progressable;
@@ -107,6 +111,9 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
     final boolean isParsing = job.getBoolean("fetcher.parse", true);
     final int maxOutlinks = (maxOutlinksPerPage < 0) ? Integer.MAX_VALUE
                                                      : maxOutlinksPerPage;
+    final int maxOutlinksPerHost = job.getInt("db.max.outlinks.per.host", -1);
+    final boolean capBeforeFilter =
+      job.getBoolean("db.max.outlinks.per.page.before.filter", false);
     final CompressionType compType = SequenceFileOutputFormat.getOutputCompressionType(job);
     Path out = FileOutputFormat.getOutputPath(job);
     
@@ -116,9 +123,12 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
     
     final String[] parseMDtoCrawlDB = job.get("db.parsemeta.to.crawldb","").split(" *, *");
     
+    // text compresses much better over many records than record by record
+    final CompressionType textCompType = CompressionType.valueOf(
+        job.get("parse.text.compression.type", CompressionType.BLOCK.toString()));
     final MapFile.Writer textOut =
       new MapFile.Writer(job, fs, text.toString(), Text.class, ParseText.class,
-          CompressionType.RECORD, progress);
+          textCompType, progress);
     
     final MapFile.Writer dataOut =
       new MapFile.Writer(job, fs, data.toString(), Text.class, ParseData.class,
@@ -216,21 +226,54 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
             fromHost = null;
           }
 
+          // with the cap before filtering, outlinks beyond it are not even
+          // normalized
+          int toScan = capBeforeFilter ? outlinksToStore : links.length;
           int validCount = 0;
           CrawlDatum adjust = null;
           List<Entry<Text, CrawlDatum>> targets = new ArrayList<Entry<Text, CrawlDatum>>(outlinksToStore);
           List<Outlink> outlinkList = new ArrayList<Outlink>(outlinksToStore);
-          for (int i = 0; i < links.length && validCount < outlinksToStore; i++) {
+          // normalized urls of the raw urls seen so far, null if filtered
+          Map<String, String> normalized = new HashMap<String, String>();
+          Set<String> targetUrls = new HashSet<String>();
+          Map<String, Integer> hostCounts = (maxOutlinksPerHost > 0)
+            ? new HashMap<String, Integer>() : null;
+          for (int i = 0; i < toScan && validCount < outlinksToStore; i++) {
             String toUrl = links[i].getToUrl();
 
+            // cap the outlinks to one host, before the expensive normalizing
+            if (hostCounts != null) {
+              String toHost = URLUtil.getHost(toUrl);
+              Integer count = hostCounts.get(toHost);
+              if (count != null && count >= maxOutlinksPerHost) {
+                continue;
+              }
+              hostCounts.put(toHost, count == null ? 1 : count + 1);
+            }
+
             // Only normalize and filter if fetcher.parse = false
             if (!isParsing) {
-              toUrl = ParseOutputFormat.filterNormalize(fromUrl, toUrl, fromHost, ignoreExternalLinks, filters, normalizers);
+              if (normalized.containsKey(toUrl)) {
+                toUrl = normalized.get(toUrl);
+              } else {
+                String rawUrl = toUrl;
+                toUrl = ParseOutputFormat.filterNormalize(fromUrl, toUrl, fromHost, ignoreExternalLinks, filters, normalizers);
+                normalized.put(rawUrl, toUrl);
+              }
               if (toUrl == null) {
                 continue;
               }
             }
 
+            // OVerwrite URL in Outlink object with normalized URL (NUTCH-1174)
+            links[i].setUrl(toUrl);
+            outlinkList.add(links[i]);
+            validCount++;
+
+            // a page linking several times to a url passes its score once
+            if (!targetUrls.add(toUrl)) {
+              continue;
+            }
             CrawlDatum target = new CrawlDatum(CrawlDatum.STATUS_LINKED, interval);
             Text targetUrl = new Text(toUrl);
             try {
@@ -242,11 +285,6 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
             }
 
             targets.add(new SimpleEntry(targetUrl, target));
-
-            // OVerwrite URL in Outlink object with normalized URL (NUTCH-1174)
-            links[i].setUrl(toUrl);
-            outlinkList.add(links[i]);
-            validCount++;
           }
 
           try {
@@ -284,6 +322,8 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
           textOut.close();
           dataOut.close();
           crawlOut.close();
+          if (normalizers != null) normalizers.reportCache(reporter);
+          if (filters != null) filters.reportCache(reporter);
         }
         
       };
@@ -98,6 +98,9 @@ public class ParseSegment extends Configured implements Tool,
     } catch (Exception e) {
       LOG.warn("Error parsing: " + key + ": " + StringUtils.stringifyException(e));
       return;
+    } finally {
+      ParserSandbox.report(reporter);
+      EncodingDetector.report(reporter);
     }
 
     for (Entry<Text, Parse> entry : parseResult) {
@@ -199,6 +202,9 @@ public class ParseSegment extends Configured implements Tool,
     job.set(Nutch.SEGMENT_NAME_KEY, segment.getName());
     job.setInputFormat(SequenceFileInputFormat.class);
     job.setMapperClass(ParseSegment.class);
+    if (job.getInt(MultithreadedParseRunner.THREADS, 1) > 1) {
+      job.setMapRunnerClass(MultithreadedParseRunner.class);
+    }
     job.setReducerClass(ParseSegment.class);
     
     FileOutputFormat.setOutputPath(job, segment);
@@ -220,7 +226,7 @@ public class ParseSegment extends Configured implements Tool,
   public int run(String[] args) throws Exception {
     Path segment;
 
-    String usage = "Usage: ParseSegment segment [-noFilter] [-noNormalize]";
+    String usage = "Usage: ParseSegment segment [-noFilter] [-noNormalize] [-threads n]";
 
     if (args.length == 0) {
       System.err.println(usage);
@@ -235,6 +241,9 @@ public class ParseSegment extends Configured implements Tool,
           getConf().setBoolean("parse.filter.urls", false);
         } else if ("-nonormalize".equalsIgnoreCase(param)) {
           getConf().setBoolean("parse.normalize.urls", false);
+        } else if ("-threads".equalsIgnoreCase(param) && i + 1 < args.length) {
+          getConf().setInt(MultithreadedParseRunner.THREADS,
+              Integer.parseInt(args[++i]));
         }
       }
     }
@@ -18,13 +18,13 @@ package org.apache.nutch.parse;
 
 // Commons Logging imports
 
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.fetcher.Fetcher;
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.util.NutchThreadFactory;
 import org.slf4j.Logger;
@@ -36,7 +36,13 @@ import org.slf4j.LoggerFactory;
  * as iterating through a preferred list of {@link Parser}s to obtain
  * {@link Parse} objects.
  * 
- * Use ThreadPoolExecutor instead of Executors.newCachedThreadPool avoid OOM for create too many thread
+ * Use ThreadPoolExecutor instead of Executors.newCachedThreadPool avoid OOM for create too many thread.
+ * Parses are handed off to an idle or new thread, never queued, so that
+ * parser.timeout only counts the parse itself. The pool keeps a thread for
+ * each thread calling it, i.e. parser.threads threads of a
+ * {@link MultithreadedParseRunner} or fetcher.threads.fetch threads of a
+ * parsing Fetcher. If all parser.maxThread threads are busy, e.g. with parses
+ * which ignore their timeout, the caller parses itself, without a timeout.
  *
  * @author mattmann
  * @author J&eacute;r&ocirc;me Charron
@@ -47,20 +53,19 @@ public class ParseUtil {
   /* our log stream */
   public static final Logger LOG = LoggerFactory.getLogger(ParseUtil.class);
   private ParserFactory parserFactory;
+  /** Runs the parsers in worker JVMs if parser.sandbox is set. */
+  private ParserSandbox sandbox = null;
   /** Parser timeout set to 30 sec by default. Set -1 to deactivate **/
   
   public static final int DEFAULT_MIN_THREAD = 4;
   public static int DEFAULT_MAX_THREAD = 32;
-  public static int DEFAULT_MAX_WORK_QUEUE_SIZE = 2048;
   public static long MAX_KEEP_ALIVE_TIME = 60;
   
   private static int minThread = DEFAULT_MIN_THREAD;
   private static int maxThread = DEFAULT_MAX_THREAD;
-  private static int workQueueSize = DEFAULT_MAX_WORK_QUEUE_SIZE;
   private static long keepAliveTime = MAX_KEEP_ALIVE_TIME;							// s
   
   private static int maxParseTime = 30;
-  private static BlockingQueue<Runnable> workQueue;	//
   private static ThreadPoolExecutor threadPool;
   
   private static Object _threadPool_lock_ = new Object();
@@ -74,17 +79,26 @@ public class ParseUtil {
    */
   public ParseUtil(Configuration conf) {
     this.parserFactory = new ParserFactory(conf);
+    if (conf.getBoolean(ParserSandbox.SANDBOX, false)) {
+      this.sandbox = ParserSandbox.get(conf);
+    }
     synchronized(_threadPool_lock_) {
     	if(!_threadPool_inited_) {
 		    maxParseTime = conf.getInt("parser.timeout", 30);
-		    minThread = conf.getInt("parser.minThread", DEFAULT_MIN_THREAD);
-		    maxThread = conf.getInt("parser.maxThread", DEFAULT_MAX_THREAD);
-		    workQueueSize = conf.getInt("parser.workQueueSize", DEFAULT_MAX_WORK_QUEUE_SIZE);
+		    int callers = conf.getInt(MultithreadedParseRunner.THREADS, 1);
+		    if (Fetcher.isParsing(conf)) {
+		      callers = Math.max(callers, conf.getInt("fetcher.threads.fetch", 10));
+		    }
+		    minThread = Math.max(conf.getInt("parser.minThread", DEFAULT_MIN_THREAD),
+		        callers);
+		    maxThread = Math.max(conf.getInt("parser.maxThread", DEFAULT_MAX_THREAD),
+		        minThread);
 		    keepAliveTime = conf.getLong("parser.keepAliveTime", MAX_KEEP_ALIVE_TIME);
-		    workQueue = new LinkedBlockingQueue<Runnable>(workQueueSize);
 		    threadPool = new ThreadPoolExecutor(minThread, maxThread,
 		            keepAliveTime, TimeUnit.SECONDS,
-		            workQueue, new NutchThreadFactory("HTML-Parser", null, true));
+		            new SynchronousQueue<Runnable>(),
+		            new NutchThreadFactory("HTML-Parser", null, true),
+		            new ThreadPoolExecutor.CallerRunsPolicy());
 		    _threadPool_inited_ = true;
     	}
     }
@@ -102,6 +116,9 @@ public class ParseUtil {
    * @throws ParseException If no suitable parser is found to perform the parse.
    */
   public ParseResult parse(Content content) throws ParseException {
+    if (sandbox != null) {
+      return sandbox.parse(content, null);
+    }
     Parser[] parsers = null;
     
     try {
@@ -157,6 +174,9 @@ public class ParseUtil {
    */
   public ParseResult parseByExtensionId(String extId, Content content)
   throws ParseException {
+    if (sandbox != null) {
+      return sandbox.parse(content, extId);
+    }
     Parser p = null;
     
     try {
@@ -187,20 +207,16 @@ public class ParseUtil {
 
   private ParseResult runParser(Parser p, Content content) {
     ParseCallable pc = new ParseCallable(p, content);
+    // parsed by the calling thread if all threads of the pool are busy
     Future<ParseResult> task = threadPool.submit(pc);
-    LOG.warn("Parser.threadPool:");
-    LOG.warn(String.format("corePoolSize:%d\n" +
-    		"maximumPoolSize:%d\n" +
-    		"activeCount:%d\n" +
-    		"poolSize:%d\n" +
-    		"workQueueSize:%d\n" +
-    		"workQueueRemainingCapacity:%d", 
-    		threadPool.getCorePoolSize(), 
-    		threadPool.getMaximumPoolSize(), 
-    		threadPool.getActiveCount(), 
-    		threadPool.getPoolSize(),
-    		threadPool.getQueue().size(),
-    		threadPool.getQueue().remainingCapacity()));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Parser.threadPool: corePoolSize:%d " +
+          "maximumPoolSize:%d activeCount:%d poolSize:%d",
+          threadPool.getCorePoolSize(),
+          threadPool.getMaximumPoolSize(),
+          threadPool.getActiveCount(),
+          threadPool.getPoolSize()));
+    }
     ParseResult res = null;
     try {
       res = task.get(maxParseTime, TimeUnit.SECONDS);
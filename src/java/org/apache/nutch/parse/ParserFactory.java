@@ -19,9 +19,11 @@ package org.apache.nutch.parse;
 // JDK imports
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // Commons Logging imports
 import org.slf4j.Logger;
@@ -49,11 +51,36 @@ public final class ParserFactory {
   
   /** Empty extension list for caching purposes. */
   private final List EMPTY_EXTENSION_LIST = Collections.EMPTY_LIST;
+
+  /** Cached for content types without any parser. */
+  private static final Parser[] NO_PARSERS = new Parser[0];
+
+  /**
+   * Maximum number of distinct content type strings whose parsers are
+   * cached, servers send all kinds of broken content types.
+   */
+  private static final int MAX_RESOLVED = 1024;
   
   private Configuration conf;
   private ExtensionPoint extensionPoint;
   private ParsePluginList parsePluginList;
 
+  /** Parsers by content type, shared by all factories of a configuration. */
+  private ConcurrentHashMap<String, Parser[]> resolved;
+
+  /**
+   * The parsers of one thread, used instead of the shared ones if
+   * parser.threads is above 1, as parsers need not be thread-safe.
+   */
+  private static class ThreadParsers {
+    final ConcurrentHashMap<String, Parser[]> resolved = new ConcurrentHashMap<String, Parser[]>();
+    final Map<String, Parser> instances = new HashMap<String, Parser>();
+  }
+
+  /** Null if the parsers are shared between threads. */
+  private ThreadLocal<ThreadParsers> threadParsers;
+
+  @SuppressWarnings("unchecked")
   public ParserFactory(Configuration conf) {
     this.conf = conf;
     ObjectCache objectCache = ObjectCache.get(conf);
@@ -64,6 +91,26 @@ public final class ParserFactory {
       this.parsePluginList = new ParsePluginsReader().parse(conf);
       objectCache.setObject(ParsePluginList.class.getName(), this.parsePluginList);
     }
+    synchronized (objectCache) {
+      String key = ParserFactory.class.getName() + ".resolved";
+      this.resolved = (ConcurrentHashMap<String, Parser[]>) objectCache.getObject(key);
+      if (this.resolved == null) {
+        this.resolved = new ConcurrentHashMap<String, Parser[]>();
+        objectCache.setObject(key, this.resolved);
+      }
+      if (conf.getInt(MultithreadedParseRunner.THREADS, 1) > 1) {
+        key = ParserFactory.class.getName() + ".threadParsers";
+        this.threadParsers = (ThreadLocal<ThreadParsers>) objectCache.getObject(key);
+        if (this.threadParsers == null) {
+          this.threadParsers = new ThreadLocal<ThreadParsers>() {
+            protected ThreadParsers initialValue() {
+              return new ThreadParsers();
+            }
+          };
+          objectCache.setObject(key, this.threadParsers);
+        }
+      }
+    }
 
     if (this.extensionPoint == null) {
       throw new RuntimeException("x point " + Parser.X_POINT_ID + " not found.");
@@ -97,16 +144,41 @@ public final class ParserFactory {
    *         <code>parse-rtf</code> were enabled via
    *         <code>plugin.includes</code>, then this ordered Array would
    *         consist of two {@link Parser} interfaces,
-   *         <code>[parse-html, parse-rtf]</code>.
+   *         <code>[parse-html, parse-rtf]</code>. The array is cached per
+   *         content type and shared, it must not be modified. If
+   *         <code>parser.threads</code> is above 1, each thread gets its
+   *         own parser instances.
    */
   public Parser[] getParsers(String contentType, String url)
   throws ParserNotFound {
+
+    // resolved parsers are shared, callers must not modify the array
+    String key = (contentType == null) ? "" : contentType;
+    ConcurrentHashMap<String, Parser[]> resolved = (threadParsers == null)
+        ? this.resolved : threadParsers.get().resolved;
+    Parser[] parsers = resolved.get(key);
+    if (parsers == null) {
+      parsers = resolveParsers(contentType);
+      if (resolved.size() < MAX_RESOLVED) {
+        resolved.putIfAbsent(key, parsers);
+      }
+    }
+    if (parsers == NO_PARSERS) {
+      throw new ParserNotFound(url, contentType);
+    }
+    return parsers;
+  }
+
+  /**
+   * Instantiates the parsers for a content type.
+   * @return the parsers, or {@link #NO_PARSERS} if none are mapped to the
+   * content type
+   */
+  private Parser[] resolveParsers(String contentType) {
     
     List<Parser> parsers = null;
     List<Extension> parserExts = null;
     
-    ObjectCache objectCache = ObjectCache.get(conf);
-    
     // TODO once the MimeTypes is available
     // parsers = getExtensions(MimeUtils.map(contentType));
     // if (parsers != null) {
@@ -117,22 +189,14 @@ public final class ParserFactory {
 
     parserExts = getExtensions(contentType);
     if (parserExts == null) {
-      throw new ParserNotFound(url, contentType);
+      return NO_PARSERS;
     }
 
-    parsers = new Vector<Parser>(parserExts.size());
+    parsers = new ArrayList<Parser>(parserExts.size());
     for (Iterator i=parserExts.iterator(); i.hasNext(); ){
       Extension ext = (Extension) i.next();
-      Parser p = null;
       try {
-        //check to see if we've cached this parser instance yet
-        p = (Parser) objectCache.getObject(ext.getId());
-        if (p == null) {
-          // go ahead and instantiate it and then cache it
-          p = (Parser) ext.getExtensionInstance();
-          objectCache.setObject(ext.getId(),p);
-        }
-        parsers.add(p);
+        parsers.add(getInstance(ext));
       } catch (PluginRuntimeException e) {
         if (LOG.isWarnEnabled()) {
           LOG.warn("ParserFactory:PluginRuntimeException when "
@@ -143,7 +207,7 @@ public final class ParserFactory {
         }
       }
     }
-    return parsers.toArray(new Parser[]{});
+    return parsers.toArray(new Parser[parsers.size()]);
   }
     
   /**
@@ -171,8 +235,6 @@ public final class ParserFactory {
     Extension[] extensions = this.extensionPoint.getExtensions();
     Extension parserExt = null;
 
-    ObjectCache objectCache = ObjectCache.get(conf);
-    
     if (id != null) {
       parserExt = getExtension(extensions, id);
     }
@@ -184,24 +246,42 @@ public final class ParserFactory {
       throw new ParserNotFound("No Parser Found for id [" + id + "]");
     }
     
-    // first check the cache	    	   
-    if (objectCache.getObject(parserExt.getId()) != null) {
-      return (Parser) objectCache.getObject(parserExt.getId());
+    try {
+      return getInstance(parserExt);
+    } catch (PluginRuntimeException e) {
+      if (LOG.isWarnEnabled()) {
+        LOG.warn("Canno initialize parser " +
+                 parserExt.getDescriptor().getPluginId() +
+                 " (cause: " + e.toString());
+      }
+      throw new ParserNotFound("Cannot init parser for id [" + id + "]");
+    }
+  }
 
-    // if not found in cache, instantiate the Parser    
-    } else {
-      try {
-        Parser p = (Parser) parserExt.getExtensionInstance();
-        objectCache.setObject(parserExt.getId(), p);
-        return p;
-      } catch (PluginRuntimeException e) {
-        if (LOG.isWarnEnabled()) {
-          LOG.warn("Canno initialize parser " +
-                   parserExt.getDescriptor().getPluginId() +
-                   " (cause: " + e.toString());
-        }
-        throw new ParserNotFound("Cannot init parser for id [" + id + "]");
+  /**
+   * Returns the cached instance of a parser, of the calling thread if
+   * parser.threads is above 1, and instantiates it if needed.
+   */
+  private Parser getInstance(Extension ext) throws PluginRuntimeException {
+    if (threadParsers != null) {
+      Map<String, Parser> instances = threadParsers.get().instances;
+      Parser p = instances.get(ext.getId());
+      if (p == null) {
+        p = (Parser) ext.getExtensionInstance();
+        instances.put(ext.getId(), p);
+      }
+      return p;
+    }
+    ObjectCache objectCache = ObjectCache.get(conf);
+    //check to see if we've cached this parser instance yet
+    synchronized (objectCache) {
+      Parser p = (Parser) objectCache.getObject(ext.getId());
+      if (p == null) {
+        // go ahead and instantiate it and then cache it
+        p = (Parser) ext.getExtensionInstance();
+        objectCache.setObject(ext.getId(), p);
       }
+      return p;
     }
   }
   
@@ -0,0 +1,449 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchThreadFactory;
+import org.apache.nutch.util.ObjectCache;
+
+/**
+ * Runs parsers in a pool of separate worker JVMs. A parser stuck in an
+ * endless loop cannot be stopped within its JVM, and a parser running out of
+ * memory can break the whole task. The sandbox sends the content to a worker
+ * over its standard input and reads the serialized {@link ParseResult} from
+ * its standard output. Workers which do not answer within
+ * <code>parser.timeout</code> seconds are killed, workers which die are
+ * replaced by new ones, and the content is reported as failed to parse.
+ *
+ * <p>A sandbox is shared by all {@link ParseUtil} instances created from the
+ * same configuration, i.e. usually by all parsing threads of a task. Its
+ * workers are started with that configuration.</p>
+ */
+public class ParserSandbox {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ParserSandbox.class);
+
+  public static final String SANDBOX = "parser.sandbox";
+  public static final String WORKERS = "parser.sandbox.workers";
+  public static final String HEAP = "parser.sandbox.heap";
+  public static final String JAVA_OPTS = "parser.sandbox.java.opts";
+  public static final String STARTUP_TIMEOUT = "parser.sandbox.startup.timeout";
+
+  public static final String COUNTER_GROUP = "ParserSandbox";
+
+  private static final byte OK = 0;
+  private static final byte PARSE_EXCEPTION = 1;
+  private static final byte ERROR = 2;
+
+  private final Configuration conf;
+  private final int timeout;
+  private final int startupTimeout;
+  private final Semaphore permits;
+  private final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+  private final Set<Worker> workers = new HashSet<Worker>();
+  private final ScheduledThreadPoolExecutor watchdog =
+    new ScheduledThreadPoolExecutor(1, new NutchThreadFactory("ParserSandbox-Watchdog", null, true));
+
+  // counted over all sandboxes of the JVM
+  private static final AtomicLong PARSED = new AtomicLong();
+  private static final AtomicLong KILLED = new AtomicLong();
+  private static final AtomicLong CRASHED = new AtomicLong();
+  private static final AtomicLong STARTED = new AtomicLong();
+
+  // sandboxes which are not shut down, their workers are killed on exit
+  private static final Set<ParserSandbox> LIVE = new HashSet<ParserSandbox>();
+  private static Thread shutdownHook = null;
+
+  /**
+   * A worker JVM.
+   */
+  private class Worker {
+
+    private Process process;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private volatile boolean killed = false;
+
+    Worker()
+      throws IOException {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java");
+      command.add("-Xmx" + conf.get(HEAP, "512m"));
+      for (String opt : conf.get(JAVA_OPTS, "").trim().split("\\s+")) {
+        if (opt.length() > 0) {
+          command.add(opt);
+        }
+      }
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(WorkerMain.class.getName());
+
+      ProcessBuilder builder = new ProcessBuilder(command);
+      process = builder.start();
+      out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+      synchronized (workers) {
+        workers.add(this);
+      }
+      STARTED.incrementAndGet();
+
+      // drain the logs of the worker into ours
+      Thread logger = new Thread(new Runnable() {
+        public void run() {
+          try {
+            BufferedReader err = new BufferedReader(
+              new InputStreamReader(process.getErrorStream()));
+            String line;
+            while ((line = err.readLine()) != null) {
+              LOG.info("worker: " + line);
+            }
+          }
+          catch (IOException e) {
+            // worker is gone
+          }
+        }
+      }, "ParserSandbox-Logger");
+      logger.setDaemon(true);
+      logger.start();
+
+      // send the configuration and wait until the parsers are loaded
+      ScheduledFuture<?> kill = scheduleKill(this, startupTimeout);
+      try {
+        Configuration workerConf = new Configuration(conf);
+        workerConf.setBoolean(SANDBOX, false);
+        workerConf.setInt("parser.timeout", -1);
+        workerConf.write(out);
+        out.flush();
+        if (in.readByte() != OK) {
+          throw new IOException("Parser sandbox worker failed to start");
+        }
+      }
+      catch (IOException e) {
+        destroy();
+        throw e;
+      }
+      finally {
+        kill.cancel(false);
+      }
+    }
+
+    void kill() {
+      killed = true;
+      process.destroy();
+    }
+
+    void destroy() {
+      process.destroy();
+      synchronized (workers) {
+        workers.remove(this);
+      }
+    }
+  }
+
+  private ParserSandbox(Configuration conf) {
+    this.conf = conf;
+    this.timeout = conf.getInt("parser.timeout", 30);
+    this.startupTimeout = conf.getInt(STARTUP_TIMEOUT, 120);
+    this.permits = new Semaphore(Math.max(1, conf.getInt(WORKERS, 2)));
+    synchronized (LIVE) {
+      if (shutdownHook == null) {
+        // a single hook for all sandboxes, so that it doesn't keep them alive
+        shutdownHook = new Thread("ParserSandbox-Shutdown") {
+          public void run() {
+            List<ParserSandbox> sandboxes;
+            synchronized (LIVE) {
+              sandboxes = new ArrayList<ParserSandbox>(LIVE);
+            }
+            for (ParserSandbox sandbox : sandboxes) {
+              sandbox.shutdown();
+            }
+          }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+      }
+      LIVE.add(this);
+    }
+  }
+
+  /**
+   * Returns the sandbox of a configuration, creating it if needed.
+   */
+  public static ParserSandbox get(Configuration conf) {
+    ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (objectCache) {
+      ParserSandbox sandbox = (ParserSandbox)objectCache.getObject(
+        ParserSandbox.class.getName());
+      if (sandbox == null) {
+        sandbox = new ParserSandbox(conf);
+        objectCache.setObject(ParserSandbox.class.getName(), sandbox);
+      }
+      return sandbox;
+    }
+  }
+
+  /**
+   * Add the number of parses, killed and crashed workers since the last call
+   * to the counters of a task.
+   */
+  public static void report(Reporter reporter) {
+    long n = PARSED.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "parsed", n);
+    n = KILLED.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "killed after timeout", n);
+    n = CRASHED.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "crashed", n);
+    n = STARTED.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "workers started", n);
+  }
+
+  private ScheduledFuture<?> scheduleKill(final Worker worker, int seconds) {
+    return watchdog.schedule(new Runnable() {
+      public void run() {
+        worker.kill();
+      }
+    }, seconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Parses content in a worker.
+   *
+   * @param content The content to parse.
+   * @param extId The extension id of the parser to use, or null to try the
+   * parsers for the content type as {@link ParseUtil#parse(Content)} does.
+   * @return the result, an empty failed result if the worker was killed or
+   * crashed
+   * @throws ParseException If there is no suitable parser.
+   */
+  public ParseResult parse(Content content, String extId)
+    throws ParseException {
+
+    permits.acquireUninterruptibly();
+    Worker worker = idle.poll();
+    try {
+      if (worker == null) {
+        worker = new Worker();
+      }
+    }
+    catch (IOException e) {
+      permits.release();
+      LOG.error("Cannot start parser sandbox worker: " + e);
+      CRASHED.incrementAndGet();
+      return new ParseStatus(e).getEmptyParseResult(content.getUrl(), null);
+    }
+
+    ScheduledFuture<?> kill = (timeout > 0) ? scheduleKill(worker, timeout)
+      : null;
+    boolean healthy = false;
+    try {
+      Text.writeString(worker.out, (extId == null) ? "" : extId);
+      content.write(worker.out);
+      worker.out.flush();
+
+      byte status = worker.in.readByte();
+      if (status == OK) {
+        ParseResult result = readResult(worker.in, content.getUrl());
+        healthy = true;
+        PARSED.incrementAndGet();
+        return result;
+      }
+      String message = Text.readString(worker.in);
+      if (status == PARSE_EXCEPTION) {
+        healthy = true;
+        throw new ParseException(message);
+      }
+      // the worker may be left broken, e.g. after an OutOfMemoryError
+      LOG.warn("Error parsing " + content.getUrl() + " in sandbox: " + message);
+      return new ParseStatus(new ParseException(message)).getEmptyParseResult(
+        content.getUrl(), null);
+    }
+    catch (IOException e) {
+      if (worker.killed) {
+        KILLED.incrementAndGet();
+        LOG.warn("Killed parser sandbox worker after " + timeout
+          + " seconds parsing " + content.getUrl());
+      }
+      else {
+        CRASHED.incrementAndGet();
+        LOG.warn("Parser sandbox worker died parsing " + content.getUrl()
+          + ": " + e);
+      }
+      return new ParseStatus(new ParseException("Parser killed or crashed"))
+        .getEmptyParseResult(content.getUrl(), null);
+    }
+    finally {
+      if (kill != null) {
+        kill.cancel(false);
+      }
+      if (healthy && !worker.killed) {
+        idle.offer(worker);
+      }
+      else {
+        worker.destroy();
+      }
+      permits.release();
+    }
+  }
+
+  /**
+   * Kills all workers. The sandbox cannot be used afterwards,
+   * {@link #get(Configuration)} creates a new one.
+   */
+  public void shutdown() {
+    synchronized (LIVE) {
+      LIVE.remove(this);
+    }
+    ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (objectCache) {
+      if (objectCache.getObject(ParserSandbox.class.getName()) == this) {
+        objectCache.setObject(ParserSandbox.class.getName(), null);
+      }
+    }
+    List<Worker> all;
+    synchronized (workers) {
+      all = new ArrayList<Worker>(workers);
+    }
+    for (Worker worker : all) {
+      worker.destroy();
+    }
+    watchdog.shutdownNow();
+  }
+
+  private static void writeResult(DataOutput out, ParseResult result)
+    throws IOException {
+    List<Map.Entry<Text, Parse>> entries = new ArrayList<Map.Entry<Text, Parse>>();
+    for (Map.Entry<Text, Parse> entry : result) {
+      entries.add(entry);
+    }
+    out.writeInt(entries.size());
+    for (Map.Entry<Text, Parse> entry : entries) {
+      entry.getKey().write(out);
+      new ParseImpl(entry.getValue()).write(out);
+    }
+  }
+
+  private static ParseResult readResult(DataInput in, String url)
+    throws IOException {
+    ParseResult result = new ParseResult(url);
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      Text key = new Text();
+      key.readFields(in);
+      ParseImpl parse = ParseImpl.read(in);
+      result.put(key, new ParseText(parse.getText()), parse.getData());
+    }
+    return result;
+  }
+
+  /**
+   * Entry point of a worker. Standard output is redirected to standard error
+   * before {@link ParserSandbox} and its logger are initialized, so that
+   * neither log messages nor parsers can write into the results.
+   */
+  public static class WorkerMain {
+    public static void main(String[] args)
+      throws Exception {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(FileDescriptor.out)));
+      System.setOut(System.err);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(FileDescriptor.in)));
+      runWorker(in, out);
+    }
+  }
+
+  /**
+   * Runs a worker, reading the configuration and then content from
+   * <code>in</code> and writing parse results to <code>out</code>.
+   */
+  private static void runWorker(DataInputStream in, DataOutputStream out)
+    throws Exception {
+
+    Configuration conf = NutchConfiguration.create();
+    conf.readFields(in);
+    ParseUtil parseUtil = new ParseUtil(conf);
+    out.writeByte(OK);
+    out.flush();
+
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    while (true) {
+      String extId;
+      try {
+        extId = Text.readString(in);
+      }
+      catch (EOFException e) {
+        break;
+      }
+      Content content = Content.read(in);
+      try {
+        ParseResult result = (extId.length() == 0) ? parseUtil.parse(content)
+          : parseUtil.parseByExtensionId(extId, content);
+        buffer.reset();
+        writeResult(buffer, result);
+        out.writeByte(OK);
+        out.write(buffer.getData(), 0, buffer.getLength());
+      }
+      catch (ParseException e) {
+        out.writeByte(PARSE_EXCEPTION);
+        Text.writeString(out, String.valueOf(e.getMessage()));
+      }
+      catch (Throwable t) {
+        out.writeByte(ERROR);
+        Text.writeString(out, t.toString());
+        if (t instanceof OutOfMemoryError) {
+          out.flush();
+          System.exit(1);
+        }
+      }
+      out.flush();
+    }
+  }
+}
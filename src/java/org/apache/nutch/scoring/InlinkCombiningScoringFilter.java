@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring;
+
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+
+/**
+ * A scoring filter which can combine the score contributions of several
+ * inlinks map-side. CrawlDb update only combines
+ * {@link CrawlDatum#STATUS_LINKED} records if all active scoring filters
+ * implement this interface; filters which implement only
+ * {@link ScoringFilter} get every inlink in
+ * {@link ScoringFilter#updateDbScore(Text, CrawlDatum, CrawlDatum, List)}.
+ */
+public interface InlinkCombiningScoringFilter extends ScoringFilter {
+
+  /**
+   * This method combines score contributions from several inlinked pages
+   * into a single CrawlDatum, so that CrawlDb update can merge
+   * {@link CrawlDatum#STATUS_LINKED} records map-side, before they are
+   * passed to {@link #updateDbScore(Text, CrawlDatum, CrawlDatum, List)}.
+   * @param url url of the page
+   * @param inlinked CrawlDatum-s (with their scores) from links pointing to
+   * this page, found in the current map output.
+   * @param merged the combined datum, initialized from the best scoring inlink.
+   * Filters should update this in-place, so that passing it alone to
+   * updateDbScore has the same effect as passing all of <code>inlinked</code>.
+   * @return true if the score contributions could be combined, false if the
+   * inlinked CrawlDatum-s must be kept separate.
+   * @throws ScoringFilterException
+   */
+  public boolean combineInlinkScores(Text url, List<CrawlDatum> inlinked, CrawlDatum merged) throws ScoringFilterException;
+}
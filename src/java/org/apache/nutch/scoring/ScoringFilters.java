@@ -17,11 +17,16 @@
 
 package org.apache.nutch.scoring;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.indexer.NutchDocument;
@@ -45,6 +50,8 @@ import org.apache.hadoop.io.Text;
  */
 public class ScoringFilters extends Configured implements ScoringFilter {
 
+  public static final Logger LOG = LoggerFactory.getLogger(ScoringFilters.class);
+
   private ScoringFilter[] filters;
 
   public ScoringFilters(Configuration conf) {
@@ -117,6 +124,25 @@ public class ScoringFilters extends Configured implements ScoringFilter {
     }
   }
 
+  /**
+   * Combine inlink score contributions during CrawlDb update. Returns true
+   * only if all filters are {@link InlinkCombiningScoringFilter}s and
+   * succeed in combining.
+   */
+  public boolean combineInlinkScores(Text url, List<CrawlDatum> inlinked, CrawlDatum merged) throws ScoringFilterException {
+    for (int i = 0; i < this.filters.length; i++) {
+      if (!(this.filters[i] instanceof InlinkCombiningScoringFilter)) {
+        return false;
+      }
+    }
+    for (int i = 0; i < this.filters.length; i++) {
+      if (!((InlinkCombiningScoringFilter) this.filters[i]).combineInlinkScores(url, inlinked, merged)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public void passScoreBeforeParsing(Text url, CrawlDatum datum, Content content) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
       this.filters[i].passScoreBeforeParsing(url, datum, content);
@@ -143,4 +169,22 @@ public class ScoringFilters extends Configured implements ScoringFilter {
     return initScore;
   }
 
+  /**
+   * Release resources held by filters which are {@link Closeable}, e.g. open
+   * files, at the end of a task. The filters are shared by all instances
+   * created from the same configuration, so they must reopen the resources
+   * if they are used again.
+   */
+  public void close() {
+    for (int i = 0; i < this.filters.length; i++) {
+      if (this.filters[i] instanceof Closeable) {
+        try {
+          ((Closeable) this.filters[i]).close();
+        } catch (IOException e) {
+          LOG.warn("Error closing scoring filter " + this.filters[i].getClass().getName() + ": " + e);
+        }
+      }
+    }
+  }
+
 }
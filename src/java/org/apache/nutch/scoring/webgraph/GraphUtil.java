@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.MapFile;
+
+/**
+ * Helpers for the tools which load a graph into memory, see
+ * {@link MemoryLinkRank}, {@link Loops} and {@link HostGraph}: reading job
+ * output, numbering the nodes, growing edge arrays and grouping edges by
+ * node into compressed sparse row (CSR) arrays.
+ */
+class GraphUtil {
+
+  private static final PathFilter PARTS = new PathFilter() {
+    public boolean accept(Path path) {
+      return path.getName().startsWith("part-");
+    }
+  };
+
+  private GraphUtil() {
+  }
+
+  /**
+   * Returns the part files of a MapFile or SequenceFile output directory, in
+   * the order of their names.
+   */
+  static Path[] getParts(FileSystem fs, Path dir)
+    throws IOException {
+    FileStatus[] stats = fs.listStatus(dir, PARTS);
+    Path[] parts = new Path[stats == null ? 0 : stats.length];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = stats[i].isDir()
+        ? new Path(stats[i].getPath(), MapFile.DATA_FILE_NAME)
+        : stats[i].getPath();
+    }
+    Arrays.sort(parts);
+    return parts;
+  }
+
+  /** Returns the id of a string, assigning the next free id to new strings. */
+  static int intern(Map<String, Integer> ids, String str) {
+    Integer id = ids.get(str);
+    if (id == null) {
+      id = ids.size();
+      ids.put(str, id);
+    }
+    return id;
+  }
+
+  /** Returns the strings numbered by {@link #intern(Map, String)} by id. */
+  static String[] byId(Map<String, Integer> ids) {
+    String[] strs = new String[ids.size()];
+    for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+      strs[entry.getValue()] = entry.getKey();
+    }
+    return strs;
+  }
+
+  /**
+   * Returns the array, or a copy of twice its length if all of it is used.
+   *
+   * @param size The number of elements used.
+   */
+  static int[] grow(int[] array, int size) {
+    return (size < array.length) ? array
+      : Arrays.copyOf(array, Math.max(1, size * 2));
+  }
+
+  /** See {@link #grow(int[], int)}. */
+  static float[] grow(float[] array, int size) {
+    return (size < array.length) ? array
+      : Arrays.copyOf(array, Math.max(1, size * 2));
+  }
+
+  /**
+   * Turns the number of edges of each node into the offsets of the edges of
+   * each node in a CSR array: <code>counts[i]</code> becomes the sum of the
+   * counts of the nodes before <code>i</code>, and
+   * <code>counts[numNodes]</code> the total.
+   *
+   * @param counts The counts, with one element more than nodes.
+   */
+  static void toOffsets(int[] counts, int numNodes) {
+    int offset = 0;
+    for (int i = 0; i <= numNodes; i++) {
+      int count = counts[i];
+      counts[i] = offset;
+      offset += count;
+    }
+  }
+
+  /**
+   * Groups edges by one of their ends, e.g. outlinks by source node. The
+   * edges of a node keep the order they are given in.
+   *
+   * @param numNodes The number of nodes.
+   * @param nodes The end to group by of each edge.
+   * @param others The other end of each edge.
+   * @param numEdges The number of edges.
+   * @param offsets Filled with the offsets of the edges of each node, it must
+   * have <code>numNodes + 1</code> elements.
+   *
+   * @return The other ends, grouped by node.
+   */
+  static int[] groupBy(int numNodes, int[] nodes, int[] others, int numEdges,
+    int[] offsets) {
+    Arrays.fill(offsets, 0);
+    for (int i = 0; i < numEdges; i++) {
+      offsets[nodes[i]]++;
+    }
+    toOffsets(offsets, numNodes);
+    int[] grouped = new int[numEdges];
+    int[] cursor = Arrays.copyOf(offsets, numNodes);
+    for (int i = 0; i < numEdges; i++) {
+      grouped[cursor[nodes[i]]++] = others[i];
+    }
+    return grouped;
+  }
+}
@@ -0,0 +1,464 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.util.FSUtils;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.TimingUtil;
+import org.apache.nutch.util.URLUtil;
+
+/**
+ * Aggregates the OutlinkDb of a WebGraph into a graph of hosts and computes
+ * a PageRank score per host. Each edge between two hosts is weighted by the
+ * number of distinct pages linking from one host to the other, or by the
+ * number of links. The host graph is orders of magnitude smaller than the
+ * url graph, so the scores are computed in memory and cheap enough to update
+ * daily.
+ *
+ * The edges are stored in {@link #EDGES_DIR}, the scores in
+ * {@link #SCORES_DIR} of the WebGraph, normalized to a mean of 1. They can be
+ * blended into CrawlDatum scores by the scoring-host plugin.
+ */
+public class HostGraph
+  extends Configured
+  implements Tool {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HostGraph.class);
+
+  public static final String EDGES_DIR = "hostgraph/edges";
+  public static final String SCORES_DIR = "hostgraph/scores";
+
+  public static final String ITERATIONS = "hostgraph.iterations";
+  public static final String DAMPING_FACTOR = "hostgraph.damping.factor";
+  public static final String CONVERGENCE_THRESHOLD = "hostgraph.convergence.threshold";
+  public static final String WEIGHT_BY_PAGES = "hostgraph.weight.pages";
+
+  /**
+   * The links from one host to another.
+   */
+  public static class HostLink
+    implements Writable {
+
+    private String host = "";
+    private long numLinks;
+    private long numPages;
+
+    public HostLink() {
+    }
+
+    public HostLink(String host, long numLinks, long numPages) {
+      this.host = host;
+      this.numLinks = numLinks;
+      this.numPages = numPages;
+    }
+
+    /** The host linked to. */
+    public String getHost() {
+      return host;
+    }
+
+    /** The number of links to the host. */
+    public long getNumLinks() {
+      return numLinks;
+    }
+
+    /** The number of distinct pages linking to the host. */
+    public long getNumPages() {
+      return numPages;
+    }
+
+    public void readFields(DataInput in)
+      throws IOException {
+      host = Text.readString(in);
+      numLinks = WritableUtils.readVLong(in);
+      numPages = WritableUtils.readVLong(in);
+    }
+
+    public void write(DataOutput out)
+      throws IOException {
+      Text.writeString(out, host);
+      WritableUtils.writeVLong(out, numLinks);
+      WritableUtils.writeVLong(out, numPages);
+    }
+
+    public String toString() {
+      return "host: " + host + ", links: " + numLinks + ", pages: " + numPages;
+    }
+  }
+
+  /**
+   * Sums the links between two hosts. The key holds both hosts, separated by
+   * a tab.
+   */
+  public static class Combiner
+    implements Reducer<Text, HostLink, Text, HostLink> {
+
+    public void configure(JobConf conf) {
+    }
+
+    public void close() {
+    }
+
+    public void reduce(Text key, Iterator<HostLink> values,
+      OutputCollector<Text, HostLink> output, Reporter reporter)
+      throws IOException {
+      output.collect(key, sum(values));
+    }
+  }
+
+  private static HostLink sum(Iterator<HostLink> values) {
+    HostLink sum = null;
+    while (values.hasNext()) {
+      HostLink next = values.next();
+      if (sum == null) {
+        sum = new HostLink(next.getHost(), 0, 0);
+      }
+      sum.numLinks += next.getNumLinks();
+      sum.numPages += next.getNumPages();
+    }
+    return sum;
+  }
+
+  /**
+   * Maps the outlinks of each url to the hosts they link to, and sums the
+   * links between two hosts, keyed by the linking host.
+   */
+  public static class Aggregator
+    implements Mapper<Text, LinkDatum, Text, HostLink>,
+    Reducer<Text, HostLink, Text, HostLink> {
+
+    private String url = null;
+    private String host = null;
+    private Map<String, Integer> targets = new HashMap<String, Integer>();
+    private OutputCollector<Text, HostLink> output = null;
+
+    public void configure(JobConf conf) {
+    }
+
+    /**
+     * Outputs the links of the current url, one per host linked to.
+     */
+    private void flush()
+      throws IOException {
+      for (Map.Entry<String, Integer> target : targets.entrySet()) {
+        output.collect(new Text(host + "\t" + target.getKey()),
+          new HostLink(target.getKey(), target.getValue(), 1));
+      }
+      targets.clear();
+    }
+
+    public void close()
+      throws IOException {
+      if (output != null) {
+        flush();
+      }
+    }
+
+    /**
+     * The outlinks of a url are stored next to each other in the OutlinkDb,
+     * so each linking page is counted once per host it links to. Links
+     * within a host are ignored.
+     */
+    public void map(Text key, LinkDatum datum,
+      OutputCollector<Text, HostLink> output, Reporter reporter)
+      throws IOException {
+
+      this.output = output;
+      String fromUrl = key.toString();
+      if (!fromUrl.equals(url)) {
+        flush();
+        url = fromUrl;
+        host = URLUtil.getHost(fromUrl);
+      }
+      String toHost = URLUtil.getHost(datum.getUrl());
+      if (host == null || host.length() == 0 || toHost == null
+        || toHost.length() == 0 || toHost.equals(host)) {
+        return;
+      }
+      Integer count = targets.get(toHost);
+      targets.put(toHost, (count == null) ? 1 : count + 1);
+    }
+
+    public void reduce(Text key, Iterator<HostLink> values,
+      OutputCollector<Text, HostLink> output, Reporter reporter)
+      throws IOException {
+      String fromHost = key.toString();
+      fromHost = fromHost.substring(0, fromHost.indexOf('\t'));
+      output.collect(new Text(fromHost), sum(values));
+    }
+  }
+
+  /**
+   * Computes the PageRank of a weighted graph. The rank of nodes without
+   * outlinks is distributed to all nodes.
+   *
+   * @param numNodes The number of nodes.
+   * @param sources The source node of each edge.
+   * @param targets The target node of each edge.
+   * @param weights The weight of each edge.
+   * @param numEdges The number of edges.
+   * @param damping The damping factor.
+   * @param iterations The maximum number of iterations.
+   * @param threshold Stop when the total change of all ranks is less.
+   *
+   * @return The ranks, summing up to 1.
+   */
+  static double[] pageRank(int numNodes, int[] sources, int[] targets,
+    float[] weights, int numEdges, float damping, int iterations,
+    double threshold) {
+
+    double[] outWeights = new double[numNodes];
+    for (int i = 0; i < numEdges; i++) {
+      outWeights[sources[i]] += weights[i];
+    }
+    double[] rank = new double[numNodes];
+    double[] next = new double[numNodes];
+    Arrays.fill(rank, 1.0d / numNodes);
+
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      double dangling = 0;
+      for (int i = 0; i < numNodes; i++) {
+        if (outWeights[i] == 0) {
+          dangling += rank[i];
+        }
+      }
+      Arrays.fill(next, ((1 - damping) + damping * dangling) / numNodes);
+      for (int i = 0; i < numEdges; i++) {
+        int source = sources[i];
+        next[targets[i]] += damping * rank[source] * weights[i]
+          / outWeights[source];
+      }
+      double change = 0;
+      for (int i = 0; i < numNodes; i++) {
+        change += Math.abs(next[i] - rank[i]);
+      }
+      double[] swap = rank;
+      rank = next;
+      next = swap;
+      LOG.info("HostGraph: iteration " + (iteration + 1) + ", change: "
+        + change);
+      if (change < threshold) {
+        break;
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Aggregates the OutlinkDb into the host graph.
+   */
+  private void aggregate(FileSystem fs, Path webGraphDb, Path edges)
+    throws IOException {
+
+    Path outlinkDb = new Path(webGraphDb, WebGraph.OUTLINK_DIR);
+    Path tempEdges = new Path(edges + "-"
+      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+    JobConf job = new NutchJob(getConf());
+    job.setJobName("HostGraph: " + webGraphDb);
+    FileInputFormat.addInputPath(job, outlinkDb);
+    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setMapperClass(Aggregator.class);
+    job.setCombinerClass(Combiner.class);
+    job.setReducerClass(Aggregator.class);
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(HostLink.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(HostLink.class);
+    FileOutputFormat.setOutputPath(job, tempEdges);
+    job.setOutputFormat(SequenceFileOutputFormat.class);
+    job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    try {
+      LOG.info("HostGraph: aggregating " + outlinkDb);
+      JobClient.runJob(job);
+      FSUtils.replace(fs, edges, tempEdges, true);
+    }
+    catch (IOException e) {
+      if (fs.exists(tempEdges)) {
+        fs.delete(tempEdges, true);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Loads the host graph, computes the scores of the hosts and writes them.
+   */
+  private void score(FileSystem fs, Path edges, Path scores)
+    throws IOException {
+
+    Configuration conf = getConf();
+    boolean byPages = conf.getBoolean(WEIGHT_BY_PAGES, true);
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    int[] sources = new int[1024];
+    int[] targets = new int[1024];
+    float[] weights = new float[1024];
+    int numEdges = 0;
+
+    for (Path part : GraphUtil.getParts(fs, edges)) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+      Text key = new Text();
+      HostLink link = new HostLink();
+      while (reader.next(key, link)) {
+        sources = GraphUtil.grow(sources, numEdges);
+        targets = GraphUtil.grow(targets, numEdges);
+        weights = GraphUtil.grow(weights, numEdges);
+        sources[numEdges] = GraphUtil.intern(ids, key.toString());
+        targets[numEdges] = GraphUtil.intern(ids, link.getHost());
+        weights[numEdges] = byPages ? link.getNumPages() : link.getNumLinks();
+        numEdges++;
+      }
+      reader.close();
+    }
+    int numHosts = ids.size();
+    LOG.info("HostGraph: " + numHosts + " hosts, " + numEdges + " edges");
+
+    double[] rank = new double[0];
+    if (numHosts > 0) {
+      rank = pageRank(numHosts, sources, targets, weights, numEdges,
+        conf.getFloat(DAMPING_FACTOR, 0.85f), conf.getInt(ITERATIONS, 20),
+        conf.getFloat(CONVERGENCE_THRESHOLD, 0.0001f));
+    }
+
+    // write the scores in host order, normalized to a mean of 1
+    String[] hosts = ids.keySet().toArray(new String[numHosts]);
+    Arrays.sort(hosts);
+    Path tempScores = new Path(scores + "-"
+      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+    MapFile.Writer writer = new MapFile.Writer(conf, fs,
+      new Path(tempScores, "part-00000").toString(), Text.class,
+      FloatWritable.class);
+    try {
+      for (String host : hosts) {
+        writer.append(new Text(host), new FloatWritable(
+          (float)(rank[ids.get(host)] * numHosts)));
+      }
+    }
+    finally {
+      writer.close();
+    }
+    FSUtils.replace(fs, scores, tempScores, true);
+  }
+
+  /**
+   * Creates the host graph of a WebGraph and scores its hosts.
+   *
+   * @param webGraphDb The WebGraph to aggregate.
+   *
+   * @throws IOException If an error occurs while creating the host graph.
+   */
+  public void createHostGraph(Path webGraphDb)
+    throws IOException {
+
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("HostGraph: starting at " + sdf.format(start));
+
+    FileSystem fs = FileSystem.get(getConf());
+    Path edges = new Path(webGraphDb, EDGES_DIR);
+    aggregate(fs, webGraphDb, edges);
+    score(fs, edges, new Path(webGraphDb, SCORES_DIR));
+
+    long end = System.currentTimeMillis();
+    LOG.info("HostGraph: finished at " + sdf.format(end) + ", elapsed: "
+      + TimingUtil.elapsedTime(start, end));
+  }
+
+  public static void main(String[] args)
+    throws Exception {
+    int res = ToolRunner.run(NutchConfiguration.create(), new HostGraph(),
+      args);
+    System.exit(res);
+  }
+
+  /**
+   * Runs the HostGraph tool.
+   */
+  public int run(String[] args)
+    throws Exception {
+
+    Options options = new Options();
+    Option helpOpts = OptionBuilder.withArgName("help").withDescription(
+      "show this help message").create("help");
+    Option webGraphDbOpts = OptionBuilder.withArgName("webgraphdb").hasArg().withDescription(
+      "the web graph database to use").create("webgraphdb");
+    options.addOption(helpOpts);
+    options.addOption(webGraphDbOpts);
+
+    CommandLineParser parser = new GnuParser();
+    try {
+
+      CommandLine line = parser.parse(options, args);
+      if (line.hasOption("help") || !line.hasOption("webgraphdb")) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("HostGraph", options);
+        return -1;
+      }
+
+      String webGraphDb = line.getOptionValue("webgraphdb");
+      createHostGraph(new Path(webGraphDb));
+      return 0;
+    }
+    catch (Exception e) {
+      LOG.error("HostGraph: " + StringUtils.stringifyException(e));
+      return -2;
+    }
+  }
+}
@@ -26,6 +26,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -41,6 +42,7 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.io.Text;
@@ -55,6 +57,7 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.mapred.TextOutputFormat;
@@ -75,6 +78,47 @@ public class LinkRank
   public static final Logger LOG = LoggerFactory.getLogger(LinkRank.class);
   private static final String NUM_NODES = "_num_nodes_";
 
+  /** Run the analysis with {@link MemoryLinkRank} instead of MapReduce jobs. */
+  public static final String IN_MEMORY = "link.analyze.in.memory";
+
+  /** Mean absolute score change per node below which the analysis stops. */
+  public static final String CONVERGENCE_THRESHOLD = "link.analyze.convergence.threshold";
+
+  /** Propagate only the score changes of nodes instead of their full scores. */
+  public static final String DELTA = "link.analyze.delta";
+
+  /** Minimum score change of a node to be propagated in delta mode. */
+  public static final String DELTA_EPSILON = "link.analyze.delta.epsilon";
+
+  /** Start from the scores of the previous analysis instead of the initial score. */
+  public static final String WARM_START = "link.analyze.warm.start";
+
+  /** Scores of the last analysis, kept in the WebGraph for warm starts. */
+  public static final String SCORES_DIR = "scores";
+
+  static final String COUNTER_GROUP = "LinkRank";
+  static final String SCORE_CHANGE = "score change (millionths)";
+
+  // the score a node propagated last in delta mode
+  private static final String PROPAGATED = "_lr_propagated_";
+
+  /**
+   * Returns the score a node propagated last in delta mode, zero if it never
+   * propagated its score.
+   */
+  private static float getPropagated(Node node) {
+    String propagated = node.getMetadata().get(PROPAGATED);
+    return (propagated != null) ? Float.parseFloat(propagated) : 0f;
+  }
+
+  /**
+   * Returns true if a node propagates the change of its score in the current
+   * iteration of a delta analysis.
+   */
+  private static boolean propagates(Node node, float epsilon) {
+    return Math.abs(node.getInlinkScore() - getPropagated(node)) > epsilon;
+  }
+
   /**
    * Runs the counter job. The counter job determines the number of links in the
    * webgraph. This is used during analysis.
@@ -144,11 +188,13 @@ public class LinkRank
    * default starting score for link analysis.
    * 
    * @param nodeDb The node database to use.
+   * @param scoresDb The scores of the previous analysis to start from, or null
+   * to start from the initial score.
    * @param output The job output directory.
    * 
    * @throws IOException If an error occurs while running the initializer job.
    */
-  private void runInitializer(Path nodeDb, Path output)
+  private void runInitializer(Path nodeDb, Path scoresDb, Path output)
     throws IOException {
 
     // configure the initializer
@@ -157,9 +203,18 @@ public class LinkRank
     FileInputFormat.addInputPath(initializer, nodeDb);
     FileOutputFormat.setOutputPath(initializer, output);
     initializer.setInputFormat(SequenceFileInputFormat.class);
-    initializer.setMapperClass(Initializer.class);
-    initializer.setMapOutputKeyClass(Text.class);
-    initializer.setMapOutputValueClass(Node.class);
+    if (scoresDb != null) {
+      FileInputFormat.addInputPath(initializer, scoresDb);
+      initializer.setMapperClass(WarmInitializer.class);
+      initializer.setReducerClass(WarmInitializer.class);
+      initializer.setMapOutputKeyClass(Text.class);
+      initializer.setMapOutputValueClass(ObjectWritable.class);
+    }
+    else {
+      initializer.setMapperClass(Initializer.class);
+      initializer.setMapOutputKeyClass(Text.class);
+      initializer.setMapOutputValueClass(Node.class);
+    }
     initializer.setOutputKeyClass(Text.class);
     initializer.setOutputValueClass(Node.class);
     initializer.setOutputFormat(MapFileOutputFormat.class);
@@ -177,6 +232,85 @@ public class LinkRank
     LOG.info("Finished initialization job.");
   }
 
+  /**
+   * Runs the pruner job of a delta analysis. The pruner job removes the
+   * outlinks contained in the loopset of their source, and the outlinks from
+   * a page or domain already linking to the same target, keeping the one
+   * from the first source url in sort order. The ignored inlinks are fixed
+   * this way for all iterations.
+   * 
+   * @param outlinkDb The outlink database to use.
+   * @param loopDb The loop database to use if it exists.
+   * @param output The output directory, outlinks keyed by source url.
+   * 
+   * @throws IOException If an error occurs while running the pruner job.
+   */
+  private void runPruner(Path outlinkDb, Path loopDb, Path output)
+    throws IOException {
+
+    JobConf pruner = new NutchJob(getConf());
+    pruner.setJobName("LinkAnalysis Pruner");
+    FileInputFormat.addInputPath(pruner, outlinkDb);
+    if (loopDb != null) {
+      FileInputFormat.addInputPath(pruner, loopDb);
+    }
+    FileOutputFormat.setOutputPath(pruner, output);
+    pruner.setInputFormat(SequenceFileInputFormat.class);
+    pruner.setMapperClass(Pruner.class);
+    pruner.setReducerClass(Pruner.class);
+    pruner.setMapOutputKeyClass(Text.class);
+    pruner.setMapOutputValueClass(ObjectWritable.class);
+    pruner.setOutputKeyClass(Text.class);
+    pruner.setOutputValueClass(LinkDatum.class);
+    pruner.setOutputFormat(SequenceFileOutputFormat.class);
+    pruner.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    LOG.info("Starting pruner job");
+    try {
+      JobClient.runJob(pruner);
+    }
+    catch (IOException e) {
+      LOG.error(StringUtils.stringifyException(e));
+      throw e;
+    }
+    LOG.info("Finished pruner job.");
+  }
+
+  /**
+   * Runs the score saver job. The score saver job copies the final score of
+   * every node, to warm start the next analysis from.
+   * 
+   * @param nodeDb The node database holding the final scores.
+   * @param output The output directory.
+   * 
+   * @throws IOException If an error occurs while running the score saver job.
+   */
+  private void runScoreSaver(Path nodeDb, Path output)
+    throws IOException {
+
+    JobConf saver = new NutchJob(getConf());
+    saver.setJobName("LinkAnalysis ScoreSaver");
+    FileInputFormat.addInputPath(saver, nodeDb);
+    FileOutputFormat.setOutputPath(saver, output);
+    saver.setInputFormat(SequenceFileInputFormat.class);
+    saver.setMapperClass(ScoreSaver.class);
+    saver.setNumReduceTasks(0);
+    saver.setOutputKeyClass(Text.class);
+    saver.setOutputValueClass(FloatWritable.class);
+    saver.setOutputFormat(SequenceFileOutputFormat.class);
+    saver.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    LOG.info("Starting score saver job");
+    try {
+      JobClient.runJob(saver);
+    }
+    catch (IOException e) {
+      LOG.error(StringUtils.stringifyException(e));
+      throw e;
+    }
+    LOG.info("Finished score saver job.");
+  }
+
   /**
    * Runs the inverter job. The inverter job flips outlinks to inlinks to be
    * passed into the analysis job.
@@ -243,9 +377,11 @@ public class LinkRank
    * @param iteration The current iteration number.
    * @param numIterations The total number of link analysis iterations
    * 
+   * @return The total absolute change of all scores, in millionths.
+   * 
    * @throws IOException If an error occurs during link analysis.
    */
-  private void runAnalysis(Path nodeDb, Path inverted, Path output,
+  private long runAnalysis(Path nodeDb, Path inverted, Path output,
     int iteration, int numIterations, float rankOne)
     throws IOException {
 
@@ -268,14 +404,16 @@ public class LinkRank
     analyzer.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
 
     LOG.info("Starting analysis job");
+    RunningJob job;
     try {
-      JobClient.runJob(analyzer);
+      job = JobClient.runJob(analyzer);
     }
     catch (IOException e) {
       LOG.error(StringUtils.stringifyException(e));
       throw e;
     }
     LOG.info("Finished analysis job.");
+    return job.getCounters().findCounter(COUNTER_GROUP, SCORE_CHANGE).getValue();
   }
 
   /**
@@ -340,6 +478,7 @@ public class LinkRank
       String url = key.toString();
       Node outNode = (Node)WritableUtils.clone(node, conf);
       outNode.setInlinkScore(initialScore);
+      outNode.getMetadata().remove(PROPAGATED);
 
       output.collect(new Text(url), outNode);
     }
@@ -348,6 +487,167 @@ public class LinkRank
     }
   }
 
+  /**
+   * Initializes the nodes with their scores from the previous analysis, new
+   * nodes with the initial score.
+   */
+  private static class WarmInitializer
+    implements Mapper<Text, Writable, Text, ObjectWritable>,
+    Reducer<Text, ObjectWritable, Text, Node> {
+
+    private JobConf conf;
+    private float initialScore = 1.0f;
+
+    public void configure(JobConf conf) {
+      this.conf = conf;
+      initialScore = conf.getFloat("link.analyze.initial.score", 1.0f);
+    }
+
+    /**
+     * Convert values to ObjectWritable
+     */
+    public void map(Text key, Writable value,
+      OutputCollector<Text, ObjectWritable> output, Reporter reporter)
+      throws IOException {
+
+      ObjectWritable objWrite = new ObjectWritable();
+      objWrite.set(WritableUtils.clone(value, conf));
+      output.collect(key, objWrite);
+    }
+
+    public void reduce(Text key, Iterator<ObjectWritable> values,
+      OutputCollector<Text, Node> output, Reporter reporter)
+      throws IOException {
+
+      Node node = null;
+      FloatWritable score = null;
+      while (values.hasNext()) {
+        Object value = values.next().get();
+        if (value instanceof Node) {
+          node = (Node)value;
+        }
+        else if (value instanceof FloatWritable) {
+          score = (FloatWritable)value;
+        }
+      }
+
+      // scores of nodes no longer in the webgraph are dropped
+      if (node == null) {
+        return;
+      }
+      node.setInlinkScore(score != null ? score.get() : initialScore);
+      node.getMetadata().remove(PROPAGATED);
+      reporter.incrCounter(COUNTER_GROUP, score != null ? "nodes warm started"
+        : "nodes cold started", 1);
+      output.collect(key, node);
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * Inverts outlinks to inlinks for a delta analysis and removes looping and
+   * ignored inlinks, see {@link LinkRank#runPruner(Path, Path, Path)}.
+   */
+  private static class Pruner
+    implements Mapper<Text, Writable, Text, ObjectWritable>,
+    Reducer<Text, ObjectWritable, Text, LinkDatum> {
+
+    private boolean limitPages = true;
+    private boolean limitDomains = true;
+
+    public void configure(JobConf conf) {
+      limitPages = conf.getBoolean("link.ignore.limit.page", true);
+      limitDomains = conf.getBoolean("link.ignore.limit.domain", true);
+    }
+
+    /**
+     * Outputs the source url of each outlink, as a LinkDatum, and the source
+     * url of each loop, as Text, keyed by the target url.
+     */
+    public void map(Text key, Writable value,
+      OutputCollector<Text, ObjectWritable> output, Reporter reporter)
+      throws IOException {
+
+      ObjectWritable objWrite = new ObjectWritable();
+      if (value instanceof LinkDatum) {
+        objWrite.set(new LinkDatum(key.toString()));
+        output.collect(new Text(((LinkDatum)value).getUrl()), objWrite);
+      }
+      else if (value instanceof LoopSet) {
+        objWrite.set(new Text(key));
+        for (String loop : ((LoopSet)value).getLoopSet()) {
+          output.collect(new Text(loop), objWrite);
+        }
+      }
+    }
+
+    /**
+     * Outputs the inlinks of a url which are counted in the analysis, as
+     * outlinks keyed by their source url.
+     */
+    public void reduce(Text key, Iterator<ObjectWritable> values,
+      OutputCollector<Text, LinkDatum> output, Reporter reporter)
+      throws IOException {
+
+      String url = key.toString();
+      Set<String> sources = new TreeSet<String>();
+      Set<String> loops = new HashSet<String>();
+      while (values.hasNext()) {
+        Object value = values.next().get();
+        if (value instanceof LinkDatum) {
+          sources.add(((LinkDatum)value).getUrl());
+        }
+        else if (value instanceof Text) {
+          loops.add(value.toString());
+        }
+      }
+      sources.removeAll(loops);
+
+      Set<String> domains = new HashSet<String>();
+      Set<String> pages = new HashSet<String>();
+      for (String inlinkUrl : sources) {
+        String inLinkDomain = URLUtil.getDomainName(inlinkUrl);
+        String inLinkPage = URLUtil.getPage(inlinkUrl);
+
+        // limit counting duplicate inlinks by pages or domains
+        if ((limitPages && pages.contains(inLinkPage))
+          || (limitDomains && domains.contains(inLinkDomain))) {
+          reporter.incrCounter(COUNTER_GROUP, "inlinks ignored", 1);
+          continue;
+        }
+        domains.add(inLinkDomain);
+        pages.add(inLinkPage);
+        LinkDatum outlink = new LinkDatum(url);
+        outlink.setLinkType(LinkDatum.OUTLINK);
+        output.collect(new Text(inlinkUrl), outlink);
+      }
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * Outputs the score of every node.
+   */
+  private static class ScoreSaver
+    implements Mapper<Text, Node, Text, FloatWritable> {
+
+    public void configure(JobConf conf) {
+    }
+
+    public void map(Text key, Node node,
+      OutputCollector<Text, FloatWritable> output, Reporter reporter)
+      throws IOException {
+      output.collect(key, new FloatWritable(node.getInlinkScore()));
+    }
+
+    public void close() {
+    }
+  }
+
   /**
    * Inverts outlinks and attaches current score from the NodeDb of the
    * WebGraph. The link analysis process consists of inverting, analyzing and
@@ -358,9 +658,13 @@ public class LinkRank
     Reducer<Text, ObjectWritable, Text, LinkDatum> {
 
     private JobConf conf;
+    private boolean delta = false;
+    private float epsilon = 0.0f;
 
     public void configure(JobConf conf) {
       this.conf = conf;
+      delta = conf.getBoolean(DELTA, false);
+      epsilon = conf.getFloat(DELTA_EPSILON, 0.0001f);
     }
 
     /**
@@ -424,6 +728,16 @@ public class LinkRank
       // can't invert if no outlinks
       if (numOutlinks > 0) {
 
+        // in delta mode only propagate the change since the score propagated
+        // last, and only if it is large enough
+        if (delta) {
+          if (!propagates(node, epsilon)) {
+            return;
+          }
+          outlinkScore = (inlinkScore - getPropagated(node)) / numOutlinks;
+          reporter.incrCounter(COUNTER_GROUP, "nodes propagated", 1);
+        }
+
         Set<String> loopSet = (loops != null) ? loops.getLoopSet() : null;
         for (int i = 0; i < outlinks.size(); i++) {
           LinkDatum outlink = outlinks.get(i);
@@ -464,6 +778,8 @@ public class LinkRank
     private int itNum = 0;
     private boolean limitPages = true;
     private boolean limitDomains = true;
+    private boolean delta = false;
+    private float epsilon = 0.0f;
 
     /**
      * Configures the job, sets the damping factor, rank one score, and other
@@ -478,6 +794,8 @@ public class LinkRank
         this.itNum = conf.getInt("link.analyze.iteration", 0);
         limitPages = conf.getBoolean("link.ignore.limit.page", true);
         limitDomains = conf.getBoolean("link.ignore.limit.domain", true);
+        delta = conf.getBoolean(DELTA, false);
+        epsilon = conf.getFloat(DELTA_EPSILON, 0.0001f);
       }
       catch (Exception e) {
         LOG.error(StringUtils.stringifyException(e));
@@ -510,9 +828,11 @@ public class LinkRank
       Set<String> pages = new HashSet<String>();
       Node node = null;
 
-      // a page with zero inlinks has a score of rankOne
+      // a page with zero inlinks has a score of rankOne, after the first
+      // iteration of a delta analysis the inlinks only carry score changes
+      boolean update = delta && itNum > 1;
       int numInlinks = 0;
-      float totalInlinkScore = rankOne;
+      float totalInlinkScore = update ? 0f : rankOne;
 
       while (values.hasNext()) {
 
@@ -526,37 +846,46 @@ public class LinkRank
           LinkDatum linkDatum = (LinkDatum)value;
           float scoreFromInlink = linkDatum.getScore();
           String inlinkUrl = linkDatum.getUrl();
-          String inLinkDomain = URLUtil.getDomainName(inlinkUrl);
-          String inLinkPage = URLUtil.getPage(inlinkUrl);
-
-          // limit counting duplicate inlinks by pages or domains
-          if ((limitPages && pages.contains(inLinkPage))
-            || (limitDomains && domains.contains(inLinkDomain))) {
-            LOG.debug(url + ": ignoring " + scoreFromInlink + " from "
-              + inlinkUrl + ", duplicate page or domain");
-            continue;
+
+          // limit counting duplicate inlinks by pages or domains, in a delta
+          // analysis they have been removed by the pruner
+          if (!delta) {
+            String inLinkDomain = URLUtil.getDomainName(inlinkUrl);
+            String inLinkPage = URLUtil.getPage(inlinkUrl);
+            if ((limitPages && pages.contains(inLinkPage))
+              || (limitDomains && domains.contains(inLinkDomain))) {
+              LOG.debug(url + ": ignoring " + scoreFromInlink + " from "
+                + inlinkUrl + ", duplicate page or domain");
+              continue;
+            }
+            domains.add(inLinkDomain);
+            pages.add(inLinkPage);
           }
 
           // aggregate total inlink score
           numInlinks++;
           totalInlinkScore += scoreFromInlink;
-          domains.add(inLinkDomain);
-          pages.add(inLinkPage);
           LOG.debug(url + ": adding " + scoreFromInlink + " from " + inlinkUrl
             + ", total: " + totalInlinkScore);
         }
       }
 
       // calculate linkRank score formula
-      float linkRankScore = (1 - this.dampingFactor)
-        + (this.dampingFactor * totalInlinkScore);
+      float linkRankScore = update
+        ? node.getInlinkScore() + (this.dampingFactor * totalInlinkScore)
+        : (1 - this.dampingFactor) + (this.dampingFactor * totalInlinkScore);
 
       LOG.debug(url + ": score: " + linkRankScore + " num inlinks: "
         + numInlinks + " iteration: " + itNum);
 
       // store the score in a temporary NodeDb
       Node outNode = (Node)WritableUtils.clone(node, conf);
+      if (delta && propagates(node, epsilon)) {
+        outNode.getMetadata().set(PROPAGATED, Float.toString(node.getInlinkScore()));
+      }
       outNode.setInlinkScore(linkRankScore);
+      reporter.incrCounter(COUNTER_GROUP, SCORE_CHANGE,
+        Math.round(Math.abs(linkRankScore - node.getInlinkScore()) * 1000000d));
       output.collect(key, outNode);
     }
 
@@ -586,7 +915,15 @@ public class LinkRank
    * Runs the complete link analysis job. The complete job determins rank one
    * score. Then runs through a given number of invert and analyze iterations,
    * by default 10. And finally replaces the NodeDb in the WebGraph with the
-   * link rank output.
+   * link rank output. If <code>link.analyze.in.memory</code> is set the
+   * analysis is run by {@link MemoryLinkRank} within this process.
+   * 
+   * Iterations stop early once the mean absolute score change per node drops
+   * below <code>link.analyze.convergence.threshold</code>. With
+   * <code>link.analyze.delta</code> only nodes whose score changed by more
+   * than <code>link.analyze.delta.epsilon</code> propagate the change to
+   * their outlinks. With <code>link.analyze.warm.start</code> the analysis
+   * starts from the scores of the previous one.
    * 
    * @param webGraphDb The WebGraph to run link analysis on.
    * 
@@ -595,6 +932,11 @@ public class LinkRank
   public void analyze(Path webGraphDb)
     throws IOException {
 
+    if (getConf().getBoolean(IN_MEMORY, false)) {
+      new MemoryLinkRank(getConf()).analyze(webGraphDb);
+      return;
+    }
+
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     long start = System.currentTimeMillis();
     LOG.info("Analysis: starting at " + sdf.format(start));
@@ -620,11 +962,25 @@ public class LinkRank
     }
 
     // get the number of total nodes in the webgraph, used for rank one, then
-    // initialze all urls with a default score
+    // initialze all urls with a default score or the previous one
     int numLinks = runCounter(fs, webGraphDb);
-    runInitializer(wgNodeDb, nodeDb);
+    Path scoresDb = new Path(webGraphDb, SCORES_DIR);
+    boolean warmStart = conf.getBoolean(WARM_START, false);
+    runInitializer(wgNodeDb, warmStart && fs.exists(scoresDb) ? scoresDb : null,
+      nodeDb);
     float rankOneScore = (1f / (float)numLinks);
 
+    // a delta analysis fixes the counted inlinks before the first iteration
+    boolean delta = conf.getBoolean(DELTA, false);
+    Path links = wgOutlinkDb;
+    Path prunedLinks = new Path(linkRank + "-links");
+    if (delta) {
+      runPruner(wgOutlinkDb, loopDb, prunedLinks);
+      links = prunedLinks;
+      loopDb = null;
+    }
+    float threshold = conf.getFloat(CONVERGENCE_THRESHOLD, 0.0f);
+
     if (LOG.isInfoEnabled()) {
       LOG.info("Analysis: Number of links: " + numLinks);
       LOG.info("Analysis: Rank One: " + rankOneScore);
@@ -644,23 +1000,37 @@ public class LinkRank
       Path tempNodeDb = new Path(tempRank, WebGraph.NODE_DIR);
 
       // run invert and analysis
-      runInverter(nodeDb, wgOutlinkDb, loopDb, tempInverted);
-      runAnalysis(nodeDb, tempInverted, tempNodeDb, i, numIterations,
-        rankOneScore);
+      runInverter(nodeDb, links, loopDb, tempInverted);
+      long change = runAnalysis(nodeDb, tempInverted, tempNodeDb, i,
+        numIterations, rankOneScore);
 
       // replace the temporary NodeDb with the output from analysis
       LOG.info("Analysis: Installing new link scores");
       FSUtils.replace(fs, linkRank, tempRank, true);
+      double meanChange = change / 1000000d / numLinks;
       LOG.info("Analysis: finished iteration " + (i + 1) + " of "
-        + numIterations);
+        + numIterations + ", mean score change: " + meanChange);
+      if (meanChange < threshold) {
+        LOG.info("Analysis: converged after " + (i + 1) + " iterations");
+        break;
+      }
     }
 
     // replace the NodeDb in the WebGraph with the final output of analysis
     LOG.info("Analysis: Installing web graph nodes");
     FSUtils.replace(fs, wgNodeDb, nodeDb, true);
 
-    // remove the temporary link rank folder
+    // keep the scores to start the next analysis from
+    if (warmStart) {
+      Path tempScores = new Path(scoresDb + "-"
+        + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+      runScoreSaver(wgNodeDb, tempScores);
+      FSUtils.replace(fs, scoresDb, tempScores, true);
+    }
+
+    // remove the temporary link rank folders
     fs.delete(linkRank, true);
+    fs.delete(prunedLinks, true);
     long end = System.currentTimeMillis();
     LOG.info("Analysis: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
   }
@@ -682,8 +1052,11 @@ public class LinkRank
       "show this help message").create("help");
     Option webgraphOpts = OptionBuilder.withArgName("webgraphdb").hasArg().withDescription(
       "the web graph db to use").create("webgraphdb");
+    Option inMemoryOpts = OptionBuilder.withArgName("inMemory").withDescription(
+      "run the analysis in memory within this process").create("inMemory");
     options.addOption(helpOpts);
     options.addOption(webgraphOpts);
+    options.addOption(inMemoryOpts);
 
     CommandLineParser parser = new GnuParser();
     try {
@@ -696,6 +1069,9 @@ public class LinkRank
       }
 
       String webGraphDb = line.getOptionValue("webgraphdb");
+      if (line.hasOption("inMemory")) {
+        getConf().setBoolean(IN_MEMORY, true);
+      }
 
       analyze(new Path(webGraphDb));
       return 0;
@@ -21,10 +21,13 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
@@ -41,7 +44,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
@@ -63,6 +68,7 @@ import org.apache.nutch.util.FSUtils;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
+import org.apache.nutch.util.URLUtil;
 
 /**
  * The Loops job identifies cycles of loops inside of the web graph. This is
@@ -75,6 +81,14 @@ import org.apache.nutch.util.TimingUtil;
  * its intermediate output can be extremly large even if the end output is
  * rather small. Because of this the Loops job is optional and if it doesn't
  * exist then it won't be factored into the LinkRank program.
+ * 
+ * To keep the routes bounded, every link of a cycle has to connect two hosts
+ * within the same strongly connected component of the host graph, or two
+ * urls of a host linking to itself. The host graph is much smaller than the
+ * web graph, its components are determined in memory, and routes are only
+ * followed along the links within these suspicious components. With
+ * link.loops.max.fanout routes are only followed along the first outlinks
+ * of each url, which may miss some loops of urls with many outlinks.
  */
 public class Loops
   extends Configured
@@ -84,6 +98,14 @@ public class Loops
   public static final String LOOPS_DIR = "loops";
   public static final String ROUTES_DIR = "routes";
 
+  /** Only follow routes within strongly connected components of hosts. */
+  public static final String HOST_PRUNING = "link.loops.host.pruning";
+
+  /** Maximum number of outlinks per url routes are followed along. */
+  public static final String MAX_FANOUT = "link.loops.max.fanout";
+
+  private static final String HOST_COMPONENTS = "link.loops.host.components";
+
   /**
    * A link path or route looking to identify a link cycle.
    */
@@ -462,6 +484,325 @@ public class Loops
     }
   }
 
+  /**
+   * Builds the host graph, the distinct links between hosts.
+   */
+  public static class HostLinks
+    implements Mapper<Text, LinkDatum, Text, Text>,
+    Reducer<Text, Text, Text, Text> {
+
+    public void configure(JobConf conf) {
+    }
+
+    /**
+     * Outputs the host of the target of each outlink keyed by the source host.
+     */
+    public void map(Text key, LinkDatum value,
+      OutputCollector<Text, Text> output, Reporter reporter)
+      throws IOException {
+
+      String fromHost = URLUtil.getHost(key.toString());
+      String toHost = URLUtil.getHost(value.getUrl());
+      if (fromHost != null && toHost != null) {
+        output.collect(new Text(fromHost), new Text(toHost));
+      }
+    }
+
+    /**
+     * Removes duplicate host links, used as combiner too.
+     */
+    public void reduce(Text key, Iterator<Text> values,
+      OutputCollector<Text, Text> output, Reporter reporter)
+      throws IOException {
+
+      Set<String> toHosts = new HashSet<String>();
+      while (values.hasNext()) {
+        String toHost = values.next().toString();
+        if (toHosts.add(toHost)) {
+          output.collect(key, new Text(toHost));
+        }
+      }
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * Keeps the outlinks routes are followed along: outlinks between urls of
+   * hosts within the same suspicious component, and at most a maximum number
+   * of outlinks per url.
+   */
+  public static class LinkFilter
+    implements Mapper<Text, LinkDatum, Text, LinkDatum> {
+
+    private Map<String, Integer> components = null;
+    private int maxFanout = -1;
+    private String lastUrl = null;
+    private int fanout = 0;
+
+    /**
+     * Reads the components of the suspicious hosts, if host pruning is used.
+     */
+    public void configure(JobConf conf) {
+      maxFanout = conf.getInt(MAX_FANOUT, 100);
+      String componentsFile = conf.get(HOST_COMPONENTS);
+      if (componentsFile == null) {
+        return;
+      }
+      components = new HashMap<String, Integer>();
+      try {
+        Path path = new Path(componentsFile);
+        SequenceFile.Reader reader = new SequenceFile.Reader(
+          path.getFileSystem(conf), path, conf);
+        Text host = new Text();
+        IntWritable component = new IntWritable();
+        while (reader.next(host, component)) {
+          components.put(host.toString(), component.get());
+        }
+        reader.close();
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void map(Text key, LinkDatum value,
+      OutputCollector<Text, LinkDatum> output, Reporter reporter)
+      throws IOException {
+
+      String url = key.toString();
+      if (components != null) {
+        Integer fromComponent = components.get(URLUtil.getHost(url));
+        Integer toComponent = (fromComponent != null)
+          ? components.get(URLUtil.getHost(value.getUrl())) : null;
+        if (toComponent == null || !toComponent.equals(fromComponent)) {
+          reporter.incrCounter("Loops", "outlinks pruned by host", 1);
+          return;
+        }
+      }
+
+      // outlinks of a url are read one after another from the OutlinkDb
+      if (!url.equals(lastUrl)) {
+        lastUrl = url;
+        fanout = 0;
+      }
+      if (maxFanout >= 0 && fanout >= maxFanout) {
+        reporter.incrCounter("Loops", "outlinks pruned by fanout", 1);
+        return;
+      }
+      fanout++;
+      reporter.incrCounter("Loops", "outlinks followed", 1);
+      output.collect(key, value);
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * Determines the strongly connected components of a graph with Tarjan's
+   * algorithm, without recursion.
+   * 
+   * @param numNodes The number of nodes.
+   * @param offsets The outlinks of node i are at
+   * <code>targets[offsets[i]]</code> to <code>targets[offsets[i + 1] - 1]</code>.
+   * @param targets The targets of all outlinks.
+   * 
+   * @return The component of each node.
+   */
+  static int[] findComponents(int numNodes, int[] offsets, int[] targets) {
+
+    int[] index = new int[numNodes];
+    int[] low = new int[numNodes];
+    int[] component = new int[numNodes];
+    int[] nextEdge = new int[numNodes];
+    int[] stack = new int[numNodes];
+    int[] callStack = new int[numNodes];
+    boolean[] onStack = new boolean[numNodes];
+    Arrays.fill(index, -1);
+    int counter = 0;
+    int numComponents = 0;
+    int sp = 0;
+
+    for (int root = 0; root < numNodes; root++) {
+      if (index[root] != -1) {
+        continue;
+      }
+      int csp = 0;
+      callStack[csp++] = root;
+      index[root] = low[root] = counter++;
+      nextEdge[root] = offsets[root];
+      stack[sp++] = root;
+      onStack[root] = true;
+
+      while (csp > 0) {
+        int node = callStack[csp - 1];
+        if (nextEdge[node] < offsets[node + 1]) {
+          int target = targets[nextEdge[node]++];
+          if (index[target] == -1) {
+            index[target] = low[target] = counter++;
+            nextEdge[target] = offsets[target];
+            stack[sp++] = target;
+            onStack[target] = true;
+            callStack[csp++] = target;
+          }
+          else if (onStack[target]) {
+            low[node] = Math.min(low[node], index[target]);
+          }
+        }
+        else {
+          csp--;
+          if (csp > 0) {
+            int parent = callStack[csp - 1];
+            low[parent] = Math.min(low[parent], low[node]);
+          }
+          if (low[node] == index[node]) {
+            int member;
+            do {
+              member = stack[--sp];
+              onStack[member] = false;
+              component[member] = numComponents;
+            }
+            while (member != node);
+            numComponents++;
+          }
+        }
+      }
+    }
+    return component;
+  }
+
+  /**
+   * Reads the host graph, determines its strongly connected components and
+   * writes the component of every host which can be part of a loop: hosts in
+   * components of more than one host, and hosts linking to themselves.
+   * 
+   * @return The number of suspicious hosts.
+   */
+  private int writeHostComponents(FileSystem fs, Path hostGraph, Path output)
+    throws IOException {
+
+    Configuration conf = getConf();
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    int[] from = new int[1024];
+    int[] to = new int[1024];
+    int numLinks = 0;
+    Text fromHost = new Text();
+    Text toHost = new Text();
+    for (Path part : GraphUtil.getParts(fs, hostGraph)) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+      try {
+        while (reader.next(fromHost, toHost)) {
+          from = GraphUtil.grow(from, numLinks);
+          to = GraphUtil.grow(to, numLinks);
+          from[numLinks] = GraphUtil.intern(ids, fromHost.toString());
+          to[numLinks] = GraphUtil.intern(ids, toHost.toString());
+          numLinks++;
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+    String[] hosts = GraphUtil.byId(ids);
+    ids = null;
+
+    // sort the links by source host
+    int numHosts = hosts.length;
+    int[] offsets = new int[numHosts + 1];
+    int[] targets = GraphUtil.groupBy(numHosts, from, to, numLinks, offsets);
+    boolean[] selfLinked = new boolean[numHosts];
+    for (int i = 0; i < numLinks; i++) {
+      if (from[i] == to[i]) {
+        selfLinked[from[i]] = true;
+      }
+    }
+    from = null;
+    to = null;
+
+    int[] component = findComponents(numHosts, offsets, targets);
+    int[] size = new int[numHosts];
+    for (int i = 0; i < numHosts; i++) {
+      size[component[i]]++;
+    }
+
+    int numSuspicious = 0;
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, output,
+      Text.class, IntWritable.class);
+    try {
+      Text host = new Text();
+      IntWritable id = new IntWritable();
+      for (int i = 0; i < numHosts; i++) {
+        if (size[component[i]] > 1 || selfLinked[i]) {
+          host.set(hosts[i]);
+          id.set(component[i]);
+          writer.append(host, id);
+          numSuspicious++;
+        }
+      }
+    }
+    finally {
+      writer.close();
+    }
+    LOG.info("Loops: hosts: " + numHosts + ", host links: " + numLinks
+      + ", hosts in suspicious components: " + numSuspicious);
+    return numSuspicious;
+  }
+
+  /**
+   * Selects the outlinks routes are followed along, see {@link LinkFilter}.
+   * 
+   * @return The path of the selected outlinks.
+   */
+  private Path runLinkFilter(FileSystem fs, Path webGraphDb, Path outlinkDb,
+    Path tempDir)
+    throws IOException {
+
+    Configuration conf = getConf();
+    JobConf filter = new NutchJob(conf);
+    filter.setJobName("LinkFilter: " + webGraphDb);
+
+    if (conf.getBoolean(HOST_PRUNING, true)) {
+      Path hostGraph = new Path(tempDir, "hostgraph");
+      JobConf hosts = new NutchJob(conf);
+      hosts.setJobName("HostLinks: " + webGraphDb);
+      FileInputFormat.addInputPath(hosts, outlinkDb);
+      hosts.setInputFormat(SequenceFileInputFormat.class);
+      hosts.setMapperClass(HostLinks.class);
+      hosts.setCombinerClass(HostLinks.class);
+      hosts.setReducerClass(HostLinks.class);
+      hosts.setOutputKeyClass(Text.class);
+      hosts.setOutputValueClass(Text.class);
+      FileOutputFormat.setOutputPath(hosts, hostGraph);
+      hosts.setOutputFormat(SequenceFileOutputFormat.class);
+      hosts.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+      LOG.info("Loops: starting host graph");
+      JobClient.runJob(hosts);
+      Path components = new Path(tempDir, "components");
+      writeHostComponents(fs, hostGraph, components);
+      filter.set(HOST_COMPONENTS, fs.makeQualified(components).toString());
+      LOG.info("Loops: finished host graph");
+    }
+
+    Path links = new Path(tempDir, "links");
+    FileInputFormat.addInputPath(filter, outlinkDb);
+    filter.setInputFormat(SequenceFileInputFormat.class);
+    filter.setMapperClass(LinkFilter.class);
+    filter.setNumReduceTasks(0);
+    filter.setOutputKeyClass(Text.class);
+    filter.setOutputValueClass(LinkDatum.class);
+    FileOutputFormat.setOutputPath(filter, links);
+    filter.setOutputFormat(SequenceFileOutputFormat.class);
+    filter.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    LOG.info("Loops: starting link filter");
+    JobClient.runJob(filter);
+    LOG.info("Loops: finished link filter");
+    return links;
+  }
+
   /**
    * Runs the various loop jobs.
    */
@@ -483,10 +824,26 @@ public class Loops
     Path tempRoute = new Path(webGraphDb, ROUTES_DIR + "-"
       + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
 
+    // select the outlinks routes are followed along
+    Path tempLinks = null;
+    Path links = outlinkDb;
+    if (conf.getBoolean(HOST_PRUNING, true) || conf.getInt(MAX_FANOUT, 100) >= 0) {
+      tempLinks = new Path(webGraphDb, "loops-"
+        + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+      try {
+        links = runLinkFilter(fs, webGraphDb, outlinkDb, tempLinks);
+      }
+      catch (IOException e) {
+        LOG.error(StringUtils.stringifyException(e));
+        fs.delete(tempLinks, true);
+        throw e;
+      }
+    }
+
     // run the initializer
     JobConf init = new NutchJob(conf);
     init.setJobName("Initializer: " + webGraphDb);
-    FileInputFormat.addInputPath(init, outlinkDb);
+    FileInputFormat.addInputPath(init, links);
     FileInputFormat.addInputPath(init, nodeDb);
     init.setInputFormat(SequenceFileInputFormat.class);
     init.setMapperClass(Initializer.class);
@@ -517,7 +874,7 @@ public class Loops
 
       JobConf looper = new NutchJob(conf);
       looper.setJobName("Looper: " + (i + 1) + " of " + depth);
-      FileInputFormat.addInputPath(looper, outlinkDb);
+      FileInputFormat.addInputPath(looper, links);
       FileInputFormat.addInputPath(looper, routes);
       looper.setInputFormat(SequenceFileInputFormat.class);
       looper.setMapperClass(Looper.class);
@@ -566,6 +923,11 @@ public class Loops
       LOG.error(StringUtils.stringifyException(e));
       throw e;
     }
+    finally {
+      if (tempLinks != null) {
+        fs.delete(tempLinks, true);
+      }
+    }
     long end = System.currentTimeMillis();
     LOG.info("Loops: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
   }
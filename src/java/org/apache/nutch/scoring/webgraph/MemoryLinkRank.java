@@ -0,0 +1,553 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.scoring.webgraph.Loops.LoopSet;
+import org.apache.nutch.util.FSUtils;
+import org.apache.nutch.util.TimingUtil;
+import org.apache.nutch.util.URLUtil;
+
+/**
+ * Runs the LinkRank analysis of {@link LinkRank} within a single process.
+ * The NodeDb and OutlinkDb of the WebGraph are loaded into compressed sparse
+ * row arrays of the inlinks of every node, held off-heap in direct buffers,
+ * and the iterations run multi-threaded over these arrays instead of as two
+ * MapReduce jobs each. The final scores are written back to the NodeDb.
+ * <code>link.analyze.convergence.threshold</code> and
+ * <code>link.analyze.warm.start</code> apply as for {@link LinkRank}, a
+ * delta analysis is not needed as nothing is shuffled.
+ *
+ * <p>Inlinks ignored because of <code>link.ignore.limit.page</code> or
+ * <code>link.ignore.limit.domain</code> are dropped once while loading, the
+ * first inlink read from a page or domain is kept. The MapReduce analysis
+ * keeps the first one in reduce order, which is not defined, so the scores of
+ * both engines can differ slightly on graphs with such duplicates.</p>
+ *
+ * <p>The whole graph must fit into the memory of a single machine: about 12
+ * bytes per node on the heap plus 12 bytes per node and 4 bytes per inlink
+ * off-heap while iterating, and a map of all URLs while loading.</p>
+ */
+public class MemoryLinkRank
+  extends Configured {
+
+  public static final Logger LOG = LoggerFactory.getLogger(MemoryLinkRank.class);
+
+  /** Number of threads to iterate with, all available processors if not positive. */
+  public static final String THREADS = "link.analyze.memory.threads";
+
+  private int numNodes;
+  private int[] numOutlinks;
+  private IntBuffer inlinkOffsets;
+  private IntBuffer inlinkSources;
+  private FloatBuffer startScores;
+
+  public MemoryLinkRank(Configuration conf) {
+    super(conf);
+  }
+
+  /**
+   * Runs the complete link analysis in memory and replaces the NodeDb in the
+   * WebGraph with a NodeDb holding the new scores.
+   *
+   * @param webGraphDb The WebGraph to run link analysis on.
+   *
+   * @throws IOException If an error occurs during link analysis.
+   */
+  public void analyze(Path webGraphDb)
+    throws IOException {
+
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("Analysis (in memory): starting at " + sdf.format(start));
+
+    Configuration conf = getConf();
+    FileSystem fs = FileSystem.get(conf);
+    Path wgOutlinkDb = new Path(webGraphDb, WebGraph.OUTLINK_DIR);
+    Path wgNodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
+    Path loopDb = new Path(webGraphDb, Loops.LOOPS_DIR);
+    if (!fs.exists(loopDb)) {
+      loopDb = null;
+    }
+    Path scoresDb = new Path(webGraphDb, LinkRank.SCORES_DIR);
+    boolean warmStart = conf.getBoolean(LinkRank.WARM_START, false);
+
+    load(fs, wgNodeDb, wgOutlinkDb, loopDb,
+      warmStart && fs.exists(scoresDb) ? scoresDb : null);
+    float[] scores = iterate();
+
+    // write the scores into a temporary NodeDb and install it
+    LOG.info("Analysis (in memory): Installing web graph nodes");
+    Path tempRank = new Path(webGraphDb, "linkrank-"
+      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+    Path tempNodeDb = new Path(tempRank, WebGraph.NODE_DIR);
+    Path tempScores = warmStart ? new Path(tempRank, LinkRank.SCORES_DIR) : null;
+    try {
+      store(fs, wgNodeDb, tempNodeDb, tempScores, scores);
+    }
+    catch (IOException e) {
+      fs.delete(tempRank, true);
+      throw e;
+    }
+    FSUtils.replace(fs, wgNodeDb, tempNodeDb, true);
+    if (warmStart) {
+      FSUtils.replace(fs, scoresDb, tempScores, true);
+    }
+    fs.delete(tempRank, true);
+
+    long end = System.currentTimeMillis();
+    LOG.info("Analysis (in memory): finished at " + sdf.format(end)
+      + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+  }
+
+  private static IntBuffer allocateInts(long size)
+    throws IOException {
+    if (size * 4 > Integer.MAX_VALUE) {
+      throw new IOException("Graph too large for in memory analysis: " + size
+        + " entries");
+    }
+    return ByteBuffer.allocateDirect((int)size * 4).order(
+      ByteOrder.nativeOrder()).asIntBuffer();
+  }
+
+  private static FloatBuffer allocateFloats(int size) {
+    return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+  }
+
+  /**
+   * Loads the graph. Nodes get ids in the order they are read from the
+   * NodeDb, inlinks are stored per target node in the order they are read
+   * from the OutlinkDb, outlinks found in the LoopDb are skipped. Nodes
+   * start from their score in the scores db, if given, or the initial score.
+   */
+  private void load(FileSystem fs, Path nodeDb, Path outlinkDb, Path loopDb,
+    Path scoresDb)
+    throws IOException {
+
+    Configuration conf = getConf();
+    boolean limitPages = conf.getBoolean("link.ignore.limit.page", true);
+    boolean limitDomains = conf.getBoolean("link.ignore.limit.domain", true);
+
+    // assign ids to all nodes
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    Map<String, Integer> pageIds = new HashMap<String, Integer>();
+    Map<String, Integer> domainIds = new HashMap<String, Integer>();
+    int[] pages = new int[1024];
+    int[] domains = new int[1024];
+    numOutlinks = new int[1024];
+    Text key = new Text();
+    Node node = new Node();
+    for (Path part : GraphUtil.getParts(fs, nodeDb)) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+      try {
+        while (reader.next(key, node)) {
+          String url = key.toString();
+          int id = ids.size();
+          ids.put(url, id);
+          numOutlinks = GraphUtil.grow(numOutlinks, id);
+          pages = GraphUtil.grow(pages, id);
+          domains = GraphUtil.grow(domains, id);
+          numOutlinks[id] = node.getNumOutlinks();
+          if (limitPages) {
+            String page = URLUtil.getPage(url);
+            pages[id] = GraphUtil.intern(pageIds, page != null ? page : url);
+          }
+          if (limitDomains) {
+            String domain;
+            try {
+              domain = URLUtil.getDomainName(url);
+            }
+            catch (MalformedURLException e) {
+              domain = url;
+            }
+            domains[id] = GraphUtil.intern(domainIds, domain);
+          }
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+    numNodes = ids.size();
+    pageIds = null;
+    domainIds = null;
+    LOG.info("Analysis (in memory): Number of nodes: " + numNodes);
+
+    // the scores to start from
+    startScores = allocateFloats(numNodes);
+    float initialScore = conf.getFloat("link.analyze.initial.score", 1.0f);
+    for (int i = 0; i < numNodes; i++) {
+      startScores.put(i, initialScore);
+    }
+    if (scoresDb != null) {
+      FloatWritable score = new FloatWritable();
+      int warm = 0;
+      for (Path part : GraphUtil.getParts(fs, scoresDb)) {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+        try {
+          while (reader.next(key, score)) {
+            Integer id = ids.get(key.toString());
+            if (id != null) {
+              startScores.put(id, score.get());
+              warm++;
+            }
+          }
+        }
+        finally {
+          reader.close();
+        }
+      }
+      LOG.info("Analysis (in memory): Nodes warm started: " + warm);
+    }
+
+    // the loops of each node, if any
+    Map<Integer, Set<String>> loops = new HashMap<Integer, Set<String>>();
+    if (loopDb != null) {
+      LoopSet loopSet = new LoopSet();
+      for (Path part : GraphUtil.getParts(fs, loopDb)) {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+        try {
+          while (reader.next(key, loopSet)) {
+            Integer id = ids.get(key.toString());
+            if (id != null) {
+              loops.put(id, loopSet.getLoopSet());
+            }
+          }
+        }
+        finally {
+          reader.close();
+        }
+      }
+    }
+
+    // count the inlinks per node, then fill them in
+    int[] cursor = new int[numNodes + 1];
+    long numLinks = readLinks(fs, outlinkDb, ids, loops, cursor, null);
+    inlinkOffsets = allocateInts(numNodes + 1);
+    inlinkSources = allocateInts(numLinks);
+    GraphUtil.toOffsets(cursor, numNodes);
+    for (int i = 0; i <= numNodes; i++) {
+      inlinkOffsets.put(i, cursor[i]);
+    }
+    readLinks(fs, outlinkDb, ids, loops, cursor, inlinkSources);
+    cursor = null;
+    ids = null;
+    loops = null;
+
+    // drop inlinks from pages and domains already counted for a node
+    if (limitPages || limitDomains) {
+      Set<Integer> seenPages = new HashSet<Integer>();
+      Set<Integer> seenDomains = new HashSet<Integer>();
+      int kept = 0;
+      int begin = inlinkOffsets.get(0);
+      for (int i = 0; i < numNodes; i++) {
+        int end = inlinkOffsets.get(i + 1);
+        inlinkOffsets.put(i, kept);
+        seenPages.clear();
+        seenDomains.clear();
+        for (int j = begin; j < end; j++) {
+          int source = inlinkSources.get(j);
+          if ((limitPages && seenPages.contains(pages[source]))
+            || (limitDomains && seenDomains.contains(domains[source]))) {
+            continue;
+          }
+          seenPages.add(pages[source]);
+          seenDomains.add(domains[source]);
+          inlinkSources.put(kept++, source);
+        }
+        begin = end;
+      }
+      inlinkOffsets.put(numNodes, kept);
+      LOG.info("Analysis (in memory): Number of links: " + numLinks
+        + ", counted: " + kept);
+    }
+    else {
+      LOG.info("Analysis (in memory): Number of links: " + numLinks);
+    }
+  }
+
+  /**
+   * Reads the OutlinkDb. Without <code>sources</code>, counts the inlinks of
+   * each target node in <code>cursor</code>, otherwise stores the source of
+   * each inlink at the position of its target in <code>cursor</code>.
+   *
+   * @return the number of links read
+   */
+  private long readLinks(FileSystem fs, Path outlinkDb, Map<String, Integer> ids,
+    Map<Integer, Set<String>> loops, int[] cursor, IntBuffer sources)
+    throws IOException {
+
+    Text key = new Text();
+    LinkDatum link = new LinkDatum();
+    long numLinks = 0;
+    String fromUrl = null;
+    Integer source = null;
+    Set<String> loopSet = null;
+    for (Path part : GraphUtil.getParts(fs, outlinkDb)) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, getConf());
+      try {
+        while (reader.next(key, link)) {
+          if (fromUrl == null || !fromUrl.equals(key.toString())) {
+            fromUrl = key.toString();
+            source = ids.get(fromUrl);
+            loopSet = (source != null) ? loops.get(source) : null;
+          }
+
+          // can't invert if no outlinks
+          if (source == null || numOutlinks[source] <= 0) {
+            continue;
+          }
+          String toUrl = link.getUrl();
+          if (loopSet != null && loopSet.contains(toUrl)) {
+            continue;
+          }
+          Integer target = ids.get(toUrl);
+          if (target == null) {
+            continue;
+          }
+          if (sources == null) {
+            cursor[target]++;
+          }
+          else {
+            sources.put(cursor[target]++, source);
+          }
+          numLinks++;
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+    return numLinks;
+  }
+
+  /**
+   * A range of node ids to process in one iteration step.
+   */
+  private abstract static class Range
+    implements Callable<Object> {
+
+    int from, to;
+    double change;
+
+    abstract void process(int from, int to);
+
+    public Object call() {
+      process(from, to);
+      return null;
+    }
+  }
+
+  /**
+   * Splits the node ids into ranges and processes them on the pool.
+   *
+   * @return the sum of the score changes of all ranges
+   */
+  private double runParallel(ExecutorService pool, int numRanges,
+    RangeFactory factory)
+    throws IOException {
+    List<Range> ranges = new ArrayList<Range>();
+    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    int size = (numNodes + numRanges - 1) / numRanges;
+    for (int from = 0; from < numNodes; from += size) {
+      Range range = factory.create();
+      range.from = from;
+      range.to = Math.min(numNodes, from + size);
+      ranges.add(range);
+      futures.add(pool.submit(range));
+    }
+    double change = 0;
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        futures.get(i).get();
+        change += ranges.get(i).change;
+      }
+      return change;
+    }
+    catch (InterruptedException e) {
+      throw new IOException("Analysis interrupted");
+    }
+    catch (ExecutionException e) {
+      throw new IOException("Analysis failed: " + e.getCause());
+    }
+  }
+
+  private interface RangeFactory {
+    Range create();
+  }
+
+  /**
+   * Runs the configured number of iterations.
+   *
+   * @return the final score of each node
+   */
+  private float[] iterate()
+    throws IOException {
+
+    Configuration conf = getConf();
+    final float dampingFactor = conf.getFloat("link.analyze.damping.factor", 0.85f);
+    final float rankOne = 1f / (float)numNodes;
+    float threshold = conf.getFloat(LinkRank.CONVERGENCE_THRESHOLD, 0.0f);
+    int numIterations = conf.getInt("link.analyze.num.iterations", 10);
+    int numThreads = conf.getInt(THREADS, 0);
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    LOG.info("Analysis (in memory): Rank One: " + rankOne + ", threads: "
+      + numThreads);
+
+    final FloatBuffer[] scores = { startScores, allocateFloats(numNodes) };
+    final FloatBuffer outlinkScores = allocateFloats(numNodes);
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    int it = 0;
+    try {
+      while (it < numIterations) {
+        final FloatBuffer current = scores[it % 2];
+        final FloatBuffer next = scores[(it + 1) % 2];
+
+        // the score each node passes along every outlink
+        runParallel(pool, numThreads * 4, new RangeFactory() {
+          public Range create() {
+            return new Range() {
+              void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                  outlinkScores.put(i, numOutlinks[i] > 0
+                    ? current.get(i) / numOutlinks[i] : 0f);
+                }
+              }
+            };
+          }
+        });
+
+        // sum up the inlink scores of each node, a page with zero inlinks has
+        // a score of rankOne
+        double totalChange = runParallel(pool, numThreads * 4, new RangeFactory() {
+          public Range create() {
+            return new Range() {
+              void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                  float totalInlinkScore = rankOne;
+                  int end = inlinkOffsets.get(i + 1);
+                  for (int j = inlinkOffsets.get(i); j < end; j++) {
+                    totalInlinkScore += outlinkScores.get(inlinkSources.get(j));
+                  }
+                  float score = (1 - dampingFactor)
+                    + (dampingFactor * totalInlinkScore);
+                  next.put(i, score);
+                  change += Math.abs(score - current.get(i));
+                }
+              }
+            };
+          }
+        });
+        it++;
+        double meanChange = totalChange / numNodes;
+        LOG.info("Analysis (in memory): finished iteration " + it + " of "
+          + numIterations + ", mean score change: " + meanChange);
+        if (meanChange < threshold) {
+          LOG.info("Analysis (in memory): converged after " + it + " iterations");
+          break;
+        }
+      }
+    }
+    finally {
+      pool.shutdownNow();
+    }
+
+    FloatBuffer result = scores[it % 2];
+    float[] out = new float[numNodes];
+    result.get(out);
+    return out;
+  }
+
+  /**
+   * Copies the NodeDb, reading it in the same order as when loading, and
+   * sets the new score of each node. The scores are also written to
+   * <code>scoresOutput</code>, if given.
+   */
+  private void store(FileSystem fs, Path nodeDb, Path output,
+    Path scoresOutput, float[] scores)
+    throws IOException {
+    Configuration conf = getConf();
+    Text key = new Text();
+    Node node = new Node();
+    int id = 0;
+    for (Path part : GraphUtil.getParts(fs, nodeDb)) {
+      String name = part.getName().equals(MapFile.DATA_FILE_NAME)
+        ? part.getParent().getName() : part.getName();
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+      MapFile.Writer writer = new MapFile.Writer(conf, fs,
+        new Path(output, name).toString(), Text.class, Node.class);
+      SequenceFile.Writer scoresWriter = null;
+      if (scoresOutput != null) {
+        scoresWriter = SequenceFile.createWriter(fs, conf,
+          new Path(scoresOutput, name), Text.class, FloatWritable.class);
+      }
+      try {
+        FloatWritable score = new FloatWritable();
+        while (reader.next(key, node)) {
+          node.setInlinkScore(scores[id++]);
+          writer.append(key, node);
+          if (scoresWriter != null) {
+            score.set(node.getInlinkScore());
+            scoresWriter.append(key, score);
+          }
+        }
+      }
+      finally {
+        reader.close();
+        writer.close();
+        if (scoresWriter != null) {
+          scoresWriter.close();
+        }
+      }
+    }
+    if (id != numNodes) {
+      throw new IOException("NodeDb changed during analysis");
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbDeltas;
+import org.apache.nutch.util.FSUtils;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.TimingUtil;
+
+/**
+ * Rewrites the NodeDb of a WebGraph into a given number of parts, usually the
+ * number of parts of a CrawlDb. Both are hash partitioned by url, so with the
+ * same number of parts they can be joined map-side by the
+ * {@link ScoreUpdater}.
+ */
+public class NodeDbRepartitioner
+  extends Configured
+  implements Tool {
+
+  public static final Logger LOG = LoggerFactory.getLogger(NodeDbRepartitioner.class);
+
+  /**
+   * Repartitions the NodeDb.
+   *
+   * @param webGraphDb The WebGraph whose NodeDb to repartition.
+   * @param numParts The number of parts to write.
+   *
+   * @throws IOException If an error occurs while repartitioning.
+   */
+  public void repartition(Path webGraphDb, int numParts)
+    throws IOException {
+
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("NodeDbRepartitioner: starting at " + sdf.format(start));
+
+    Configuration conf = getConf();
+    FileSystem fs = FileSystem.get(conf);
+    Path nodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
+    int current = CrawlDbDeltas.getParts(fs, nodeDb).length;
+    if (current == numParts) {
+      LOG.info("NodeDbRepartitioner: " + nodeDb + " already has " + numParts
+        + " parts");
+      return;
+    }
+
+    Path tempNodeDb = new Path(nodeDb + "-"
+      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+    JobConf job = new NutchJob(conf);
+    job.setJobName("NodeDbRepartitioner: " + nodeDb);
+    FileInputFormat.addInputPath(job, nodeDb);
+    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(Node.class);
+    FileOutputFormat.setOutputPath(job, tempNodeDb);
+    job.setOutputFormat(MapFileOutputFormat.class);
+    job.setNumReduceTasks(numParts);
+    job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    try {
+      LOG.info("NodeDbRepartitioner: writing " + numParts + " parts, was "
+        + current);
+      JobClient.runJob(job);
+      FSUtils.replace(fs, nodeDb, tempNodeDb, true);
+    }
+    catch (IOException e) {
+      LOG.error(StringUtils.stringifyException(e));
+      if (fs.exists(tempNodeDb)) {
+        fs.delete(tempNodeDb, true);
+      }
+      throw e;
+    }
+
+    long end = System.currentTimeMillis();
+    LOG.info("NodeDbRepartitioner: finished at " + sdf.format(end)
+      + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+  }
+
+  public static void main(String[] args)
+    throws Exception {
+    int res = ToolRunner.run(NutchConfiguration.create(),
+      new NodeDbRepartitioner(), args);
+    System.exit(res);
+  }
+
+  /**
+   * Runs the NodeDbRepartitioner tool.
+   */
+  public int run(String[] args)
+    throws Exception {
+
+    Options options = new Options();
+    Option helpOpts = OptionBuilder.withArgName("help").withDescription(
+      "show this help message").create("help");
+    Option webGraphOpts = OptionBuilder.withArgName("webgraphdb").hasArg().withDescription(
+      "the webgraphdb to use").create("webgraphdb");
+    Option crawlDbOpts = OptionBuilder.withArgName("crawldb").hasArg().withDescription(
+      "the crawldb whose number of parts to use").create("crawldb");
+    Option numPartsOpts = OptionBuilder.withArgName("numParts").hasArg().withDescription(
+      "the number of parts to use").create("numParts");
+    options.addOption(helpOpts);
+    options.addOption(webGraphOpts);
+    options.addOption(crawlDbOpts);
+    options.addOption(numPartsOpts);
+
+    CommandLineParser parser = new GnuParser();
+    try {
+
+      CommandLine line = parser.parse(options, args);
+      if (line.hasOption("help") || !line.hasOption("webgraphdb")
+        || (!line.hasOption("crawldb") && !line.hasOption("numParts"))) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("NodeDbRepartitioner", options);
+        return -1;
+      }
+
+      String webGraphDb = line.getOptionValue("webgraphdb");
+      int numParts;
+      if (line.hasOption("crawldb")) {
+        Path current = new Path(line.getOptionValue("crawldb"),
+          CrawlDb.CURRENT_NAME);
+        numParts = CrawlDbDeltas.getParts(FileSystem.get(getConf()),
+          current).length;
+      }
+      else {
+        numParts = Integer.parseInt(line.getOptionValue("numParts"));
+      }
+      if (numParts <= 0) {
+        LOG.error("NodeDbRepartitioner: invalid number of parts " + numParts);
+        return -1;
+      }
+      repartition(new Path(webGraphDb), numParts);
+      return 0;
+    }
+    catch (Exception e) {
+      LOG.error("NodeDbRepartitioner: " + StringUtils.stringifyException(e));
+      return -2;
+    }
+  }
+}
@@ -19,6 +19,7 @@ package org.apache.nutch.scoring.webgraph;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Iterator;
+import java.util.PriorityQueue;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -69,6 +70,9 @@ public class NodeDumper
 
   public static final Logger LOG = LoggerFactory.getLogger(NodeDumper.class);
 
+  /** Largest topN which is selected with a heap in each map task. */
+  public static final String MAX_HEAP_SIZE = "link.dump.topn.heap.max";
+
   private static enum DumpType {
     INLINKS,
     OUTLINKS,
@@ -89,6 +93,10 @@ public class NodeDumper
    * Outputs the top urls sorted in descending order. Depending on the flag set
    * on the command line, the top urls could be for number of inlinks, for
    * number of outlinks, or for link analysis score.
+   *
+   * If a topN is given each map task only keeps its own topN urls in a bounded
+   * min-heap and outputs them when closed, so the single reducer only has to
+   * merge the topN urls of each map task instead of sorting all nodes.
    */
   public static class Sorter
     extends Configured
@@ -100,6 +108,31 @@ public class NodeDumper
     private boolean outlinks = false;
     private boolean scores = false;
     private long topn = Long.MAX_VALUE;
+    /** Urls output by the reduce task, the job has a single reducer. */
+    private long numCollected = 0;
+    private PriorityQueue<TopEntry> heap = null;
+    private OutputCollector<FloatWritable, Text> heapOutput = null;
+
+    /**
+     * A url with its sort value, ordered by ascending value and, for equal
+     * values, by descending url.
+     */
+    private static class TopEntry
+      implements Comparable<TopEntry> {
+
+      private float number;
+      private Text url;
+
+      public TopEntry(float number, Text url) {
+        this.number = number;
+        this.url = url;
+      }
+
+      public int compareTo(TopEntry other) {
+        int cmp = Float.compare(number, other.number);
+        return (cmp != 0) ? cmp : other.url.compareTo(url);
+      }
+    }
 
     /**
      * Configures the job, sets the flag for type of content and the topN number
@@ -111,9 +144,22 @@ public class NodeDumper
       this.outlinks = conf.getBoolean("outlinks", false);
       this.scores = conf.getBoolean("scores", true);
       this.topn = conf.getLong("topn", Long.MAX_VALUE);
+      if (topn <= conf.getInt(MAX_HEAP_SIZE, 10000000)) {
+        heap = new PriorityQueue<TopEntry>((int)Math.max(1, Math.min(topn + 1, 1024)));
+      }
     }
 
-    public void close() {
+    /**
+     * Outputs the topN urls of a map task.
+     */
+    public void close()
+      throws IOException {
+      if (heap != null && heapOutput != null) {
+        while (!heap.isEmpty()) {
+          TopEntry entry = heap.poll();
+          heapOutput.collect(new FloatWritable(-entry.number), entry.url);
+        }
+      }
     }
 
     /**
@@ -135,6 +181,24 @@ public class NodeDumper
         number = node.getInlinkScore();
       }
 
+      if (heap != null) {
+
+        // only keep the url if it is better than the worst of the topN
+        heapOutput = output;
+        if (heap.size() < topn) {
+          heap.add(new TopEntry(number, new Text(key)));
+        }
+        else if (topn > 0 && number >= heap.peek().number) {
+          // of urls with equal values the smallest are kept
+          TopEntry entry = new TopEntry(number, new Text(key));
+          if (entry.compareTo(heap.peek()) > 0) {
+            heap.poll();
+            heap.add(entry);
+          }
+        }
+        return;
+      }
+
       // number collected with negative to be descending
       output.collect(new FloatWritable(-number), key);
     }
@@ -150,9 +214,9 @@ public class NodeDumper
       // value are a little weird
       float val = key.get();
       FloatWritable number = new FloatWritable(val == 0 ? 0 : -val);
-      long numCollected = 0;
 
-      // collect all values, this time with the url as key
+      // collect all values, this time with the url as key, the topN counts
+      // over all keys
       while (values.hasNext() && (numCollected < topn)) {
         Text url = WritableUtils.clone(values.next(), conf);
         output.collect(url, number);
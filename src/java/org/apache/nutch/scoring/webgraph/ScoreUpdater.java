@@ -17,6 +17,7 @@
 package org.apache.nutch.scoring.webgraph;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Iterator;
 import java.util.Random;
@@ -34,9 +35,12 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
@@ -46,12 +50,16 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.lib.NLineInputFormat;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbDeltas;
+import org.apache.nutch.crawl.CrawlDbInputFormat;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
@@ -60,6 +68,10 @@ import org.apache.nutch.util.TimingUtil;
  * Updates the score from the WebGraph node database into the crawl database.
  * Any score that is not in the node database is set to the clear score in the 
  * crawl database.
+ *
+ * By default the two databases are joined in the reducers. If both are
+ * partitioned the same way, see {@link NodeDbRepartitioner}, they can be
+ * joined map-side instead without shuffling the crawl database.
  */
 public class ScoreUpdater
   extends Configured
@@ -68,9 +80,110 @@ public class ScoreUpdater
 
   public static final Logger LOG = LoggerFactory.getLogger(ScoreUpdater.class);
 
+  /** Whether to join the NodeDb into the CrawlDb map-side. */
+  public static final String MERGE_JOIN = "link.score.updater.merge.join";
+
+  public static final String COUNTER_GROUP = "ScoreUpdater";
+
+  private static final String JOIN_LAYERS = "link.score.updater.join.layers";
+  private static final String JOIN_NODEDB = "link.score.updater.join.nodedb";
+
   private JobConf conf;
   private float clearScore = 0.0f;
 
+  /**
+   * Joins one partition of the CrawlDb, merged with its deltas, with the same
+   * partition of the NodeDb. Both are sorted by url, so the join is a merge
+   * of the two streams. The input is the number of the partition, the joined
+   * partition is written as a side file of the task, named like the CrawlDb
+   * part.
+   */
+  public static class MergeJoiner
+    implements Mapper<LongWritable, Text, Text, CrawlDatum> {
+
+    private JobConf conf;
+    private Path[] layers;
+    private Path nodeDb;
+    private float clearScore = 0.0f;
+
+    public void configure(JobConf conf) {
+      this.conf = conf;
+      String[] names = conf.getStrings(JOIN_LAYERS);
+      layers = new Path[names.length];
+      for (int i = 0; i < names.length; i++) {
+        layers[i] = new Path(names[i]);
+      }
+      nodeDb = new Path(conf.get(JOIN_NODEDB));
+      clearScore = conf.getFloat("link.score.updater.clear.score", 0.0f);
+    }
+
+    public void close() {
+    }
+
+    public void map(LongWritable key, Text value,
+      OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+      throws IOException {
+
+      int part = Integer.parseInt(value.toString().trim());
+      FileSystem fs = FileSystem.get(conf);
+      Path[] parts = CrawlDbDeltas.getLayerParts(fs, layers, part);
+      Path nodePart = CrawlDbDeltas.getParts(fs, nodeDb)[part];
+      Path out = new Path(FileOutputFormat.getWorkOutputPath(conf),
+        parts[0].getName());
+      LOG.info("ScoreUpdater: joining " + parts[0] + " with " + nodePart);
+
+      CrawlDbDeltas.MergingReader datums = new CrawlDbDeltas.MergingReader(fs,
+        parts, conf);
+      MapFile.Reader nodes = new MapFile.Reader(fs, nodePart.toString(), conf);
+      MapFile.Writer writer = new MapFile.Writer(conf, fs, out.toString(),
+        Text.class, CrawlDatum.class);
+      long matched = 0;
+      long crawlDbOnly = 0;
+      long nodeOnly = 0;
+      try {
+        Text url = new Text();
+        CrawlDatum datum = new CrawlDatum();
+        Text nodeUrl = new Text();
+        Node node = new Node();
+        boolean hasNode = nodes.next(nodeUrl, node);
+        while (datums.next(url, datum)) {
+
+          // skip nodes without a crawl datum
+          int cmp = 1;
+          while (hasNode && (cmp = url.compareTo(nodeUrl)) > 0) {
+            nodeOnly++;
+            hasNode = nodes.next(nodeUrl, node);
+          }
+          if (hasNode && cmp == 0) {
+            datum.setScore(node.getInlinkScore());
+            matched++;
+            hasNode = nodes.next(nodeUrl, node);
+          }
+          else {
+            datum.setScore(clearScore);
+            crawlDbOnly++;
+          }
+          writer.append(url, datum);
+          if ((matched + crawlDbOnly) % 10000 == 0) {
+            reporter.progress();
+          }
+        }
+        while (hasNode) {
+          nodeOnly++;
+          hasNode = nodes.next(nodeUrl, node);
+        }
+      }
+      finally {
+        datums.close();
+        nodes.close();
+        writer.close();
+      }
+      reporter.incrCounter(COUNTER_GROUP, "matched", matched);
+      reporter.incrCounter(COUNTER_GROUP, "crawldb only", crawlDbOnly);
+      reporter.incrCounter(COUNTER_GROUP, "node only", nodeOnly);
+    }
+  }
+
   public void configure(JobConf conf) {
     this.conf = conf;
     clearScore = conf.getFloat("link.score.updater.clear.score", 0.0f);
@@ -122,18 +235,21 @@ public class ScoreUpdater
         // set the inlink score in the nodedb
         float inlinkScore = node.getInlinkScore();
         datum.setScore(inlinkScore);
+        reporter.incrCounter(COUNTER_GROUP, "matched", 1);
         LOG.debug(url + ": setting to score " + inlinkScore);
       }
       else {
         
         // clear out the score in the crawldb
         datum.setScore(clearScore);
+        reporter.incrCounter(COUNTER_GROUP, "crawldb only", 1);
         LOG.debug(url + ": setting to clear score of " + clearScore);
       }
 
       output.collect(key, datum);
     }
     else {
+      reporter.incrCounter(COUNTER_GROUP, "node only", 1);
       LOG.debug(url + ": no datum");
     }
   }
@@ -148,9 +264,11 @@ public class ScoreUpdater
    * @param crawlDb The crawl database to update
    * @param webGraphDb The webgraph database to use.
    * 
+   * @return The counters of the join: matched, crawldb only and node only.
+   * 
    * @throws IOException If an error occurs while updating the scores.
    */
-  public void update(Path crawlDb, Path webGraphDb)
+  public Counters.Group update(Path crawlDb, Path webGraphDb)
     throws IOException {
 
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -163,27 +281,68 @@ public class ScoreUpdater
     // create a temporary crawldb with the new scores
     LOG.info("Running crawldb update " + crawlDb);
     Path nodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
-    Path crawlDbCurrent = new Path(crawlDb, CrawlDb.CURRENT_NAME);
     Path newCrawlDb = new Path(crawlDb,
       Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
 
     // run the updater job outputting to the temp crawl database
     JobConf updater = new NutchJob(conf);
     updater.setJobName("Update CrawlDb from WebGraph");
-    FileInputFormat.addInputPath(updater, crawlDbCurrent);
-    FileInputFormat.addInputPath(updater, nodeDb);
+    // the new crawldb will contain all current deltas
+    Path[] deltas = CrawlDbInputFormat.addCrawlDb(updater, crawlDb);
+    Path current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    int numParts = CrawlDbDeltas.getParts(fs, current).length;
+    boolean mergeJoin = conf.getBoolean(MERGE_JOIN, false);
+    if (mergeJoin && (numParts == 0
+      || numParts != CrawlDbDeltas.getParts(fs, nodeDb).length)) {
+      LOG.warn("ScoreUpdater: " + nodeDb + " is not partitioned like "
+        + current + ", falling back to a reduce-side join, run "
+        + NodeDbRepartitioner.class.getSimpleName() + " to fix");
+      mergeJoin = false;
+    }
+
+    Path partList = new Path(newCrawlDb + "-parts");
+    if (mergeJoin) {
+
+      // one map task per partition, each joining its parts
+      LOG.info("ScoreUpdater: joining " + numParts + " partitions map-side");
+      OutputStream out = fs.create(partList);
+      for (int i = 0; i < numParts; i++) {
+        out.write((i + "\n").getBytes("UTF-8"));
+      }
+      out.close();
+      String[] layers = new String[deltas.length + 1];
+      layers[0] = current.toString();
+      for (int i = 0; i < deltas.length; i++) {
+        layers[i + 1] = deltas[i].toString();
+      }
+      updater.setStrings(JOIN_LAYERS, layers);
+      updater.set(JOIN_NODEDB, nodeDb.toString());
+      FileInputFormat.setInputPaths(updater, partList);
+      updater.setInputFormat(NLineInputFormat.class);
+      updater.setMapperClass(MergeJoiner.class);
+      updater.setNumReduceTasks(0);
+      updater.setOutputFormat(NullOutputFormat.class);
+    }
+    else {
+      FileInputFormat.addInputPath(updater, nodeDb);
+      updater.setMapperClass(ScoreUpdater.class);
+      updater.setReducerClass(ScoreUpdater.class);
+      updater.setMapOutputKeyClass(Text.class);
+      updater.setMapOutputValueClass(ObjectWritable.class);
+      updater.setOutputFormat(MapFileOutputFormat.class);
+    }
     FileOutputFormat.setOutputPath(updater, newCrawlDb);
-    updater.setInputFormat(SequenceFileInputFormat.class);
-    updater.setMapperClass(ScoreUpdater.class);
-    updater.setReducerClass(ScoreUpdater.class);
-    updater.setMapOutputKeyClass(Text.class);
-    updater.setMapOutputValueClass(ObjectWritable.class);
     updater.setOutputKeyClass(Text.class);
     updater.setOutputValueClass(CrawlDatum.class);
-    updater.setOutputFormat(MapFileOutputFormat.class);
 
+    Counters.Group counters;
     try {
-      JobClient.runJob(updater);
+      RunningJob running = JobClient.runJob(updater);
+      counters = running.getCounters().getGroup(COUNTER_GROUP);
+      LOG.info("ScoreUpdater: " + counters.getCounter("matched")
+        + " urls matched, " + counters.getCounter("crawldb only")
+        + " only in crawldb, " + counters.getCounter("node only")
+        + " only in nodedb");
     }
     catch (IOException e) {
       LOG.error(StringUtils.stringifyException(e));
@@ -194,6 +353,11 @@ public class ScoreUpdater
       }
       throw e;
     }
+    finally {
+      if (fs.exists(partList)) {
+        fs.delete(partList, false);
+      }
+    }
 
     // install the temp crawl database
     LOG.info("ScoreUpdater: installing new crawldb " + crawlDb);
@@ -201,6 +365,7 @@ public class ScoreUpdater
 
     long end = System.currentTimeMillis();
     LOG.info("ScoreUpdater: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+    return counters;
   }
 
   public static void main(String[] args)
@@ -223,9 +388,12 @@ public class ScoreUpdater
       "the crawldb to use").create("crawldb");
     Option webGraphOpts = OptionBuilder.withArgName("webgraphdb").hasArg().withDescription(
       "the webgraphdb to use").create("webgraphdb");
+    Option mergeJoinOpts = OptionBuilder.withArgName("mergeJoin").withDescription(
+      "join map-side, requires equally partitioned crawldb and nodedb").create("mergeJoin");
     options.addOption(helpOpts);
     options.addOption(crawlDbOpts);
     options.addOption(webGraphOpts);
+    options.addOption(mergeJoinOpts);
 
     CommandLineParser parser = new GnuParser();
     try {
@@ -240,6 +408,9 @@ public class ScoreUpdater
 
       String crawlDb = line.getOptionValue("crawldb");
       String webGraphDb = line.getOptionValue("webgraphdb");
+      if (line.hasOption("mergeJoin")) {
+        getConf().setBoolean(MERGE_JOIN, true);
+      }
       update(new Path(crawlDb), new Path(webGraphDb));
       return 0;
     }
@@ -103,6 +103,7 @@ public class WebGraph
   public static final String OUTLINK_DIR = "outlinks/current";
   public static final String OLD_OUTLINK_DIR = "outlinks/old";
   public static final String NODE_DIR = "nodes";
+  public static final String INCREMENTAL = "webgraph.incremental";
 
   /**
    * The OutlinkDb creates a database of all outlinks. Outlinks to internal urls
@@ -313,6 +314,8 @@ public class WebGraph
           LinkDatum datum = new LinkDatum(outlinkUrl, anchor, fetchTime);
           output.collect(key, new NutchWritable(datum));
         }
+        if (urlNormalizers != null) urlNormalizers.reportCache(reporter);
+        if (filters != null) filters.reportCache(reporter);
       }
       else if (value instanceof LinkDatum) {
         LinkDatum datum = (LinkDatum)value;
@@ -517,6 +520,95 @@ public class WebGraph
     }
   }
 
+  /**
+   * Creates the Inlink and Node databases from all links of the Outlink
+   * database.
+   */
+  private void createInlinkAndNodeDb(FileSystem fs, Path lock, Path outlinkDb,
+    Path inlinkDb, Path nodeDb)
+    throws IOException {
+
+    Configuration conf = getConf();
+
+    // temp link database path
+    Path tempInlinkDb = new Path(inlinkDb + "-"
+      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+
+    JobConf inlinkJob = new NutchJob(conf);
+    inlinkJob.setJobName("Inlinkdb " + inlinkDb);
+    LOG.info("InlinkDb: adding input: " + outlinkDb);
+    FileInputFormat.addInputPath(inlinkJob, outlinkDb);
+    inlinkJob.setInputFormat(SequenceFileInputFormat.class);
+    inlinkJob.setMapperClass(InlinkDb.class);
+    inlinkJob.setMapOutputKeyClass(Text.class);
+    inlinkJob.setMapOutputValueClass(LinkDatum.class);
+    inlinkJob.setOutputKeyClass(Text.class);
+    inlinkJob.setOutputValueClass(LinkDatum.class);
+    FileOutputFormat.setOutputPath(inlinkJob, tempInlinkDb);
+    inlinkJob.setOutputFormat(MapFileOutputFormat.class);
+    inlinkJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    try {
+      
+      // run the inlink and replace any old with new
+      LOG.info("InlinkDb: running");
+      JobClient.runJob(inlinkJob);
+      LOG.info("InlinkDb: installing " + inlinkDb);
+      FSUtils.replace(fs, inlinkDb, tempInlinkDb, true);
+      LOG.info("InlinkDb: finished");
+    }
+    catch (IOException e) {
+      
+      // remove lock file and and temporary directory if an error occurs
+      LockUtil.removeLockFile(fs, lock);
+      if (fs.exists(tempInlinkDb)) {
+        fs.delete(tempInlinkDb, true);
+      }      
+      LOG.error(StringUtils.stringifyException(e));
+      throw e;
+    }
+
+    // temp node database path
+    Path tempNodeDb = new Path(nodeDb + "-"
+      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+
+    JobConf nodeJob = new NutchJob(conf);
+    nodeJob.setJobName("NodeDb " + nodeDb);
+    LOG.info("NodeDb: adding input: " + outlinkDb);
+    LOG.info("NodeDb: adding input: " + inlinkDb);
+    FileInputFormat.addInputPath(nodeJob, outlinkDb);
+    FileInputFormat.addInputPath(nodeJob, inlinkDb);
+    nodeJob.setInputFormat(SequenceFileInputFormat.class);
+    nodeJob.setReducerClass(NodeDb.class);
+    nodeJob.setMapOutputKeyClass(Text.class);
+    nodeJob.setMapOutputValueClass(LinkDatum.class);
+    nodeJob.setOutputKeyClass(Text.class);
+    nodeJob.setOutputValueClass(Node.class);
+    FileOutputFormat.setOutputPath(nodeJob, tempNodeDb);
+    nodeJob.setOutputFormat(MapFileOutputFormat.class);
+    nodeJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    try {
+      
+      // run the node job and replace old nodedb with new
+      LOG.info("NodeDb: running");
+      JobClient.runJob(nodeJob);
+      LOG.info("NodeDb: installing " + nodeDb);
+      FSUtils.replace(fs, nodeDb, tempNodeDb, true);
+      LOG.info("NodeDb: finished");
+    }
+    catch (IOException e) {
+      
+      // remove lock file and and temporary directory if an error occurs
+      LockUtil.removeLockFile(fs, lock);
+      if (fs.exists(tempNodeDb)) {
+        fs.delete(tempNodeDb, true);
+      }      
+      LOG.error(StringUtils.stringifyException(e));
+      throw e;
+    }
+  }
+
   /**
    * Creates the three different WebGraph databases, Outlinks, Inlinks, and
    * Node. If a current WebGraph exists then it is updated, if it doesn't exist
@@ -617,7 +709,6 @@ public class WebGraph
       LOG.info("OutlinkDb: installing " + outlinkDb);
       FSUtils.replace(fs, oldOutlinkDb, outlinkDb, true);
       FSUtils.replace(fs, outlinkDb, tempOutlinkDb, true);
-      if (!preserveBackup && fs.exists(oldOutlinkDb)) fs.delete(oldOutlinkDb, true);
       LOG.info("OutlinkDb: finished");
     }
     catch (IOException e) {
@@ -631,85 +722,32 @@ public class WebGraph
       throw e;
     }
 
-    // inlink and temp link database paths
+    // inlink and node database paths
     Path inlinkDb = new Path(webGraphDb, INLINK_DIR);
-    Path tempInlinkDb = new Path(inlinkDb + "-"
-      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
-
-    JobConf inlinkJob = new NutchJob(conf);
-    inlinkJob.setJobName("Inlinkdb " + inlinkDb);
-    LOG.info("InlinkDb: adding input: " + outlinkDb);
-    FileInputFormat.addInputPath(inlinkJob, outlinkDb);
-    inlinkJob.setInputFormat(SequenceFileInputFormat.class);
-    inlinkJob.setMapperClass(InlinkDb.class);
-    inlinkJob.setMapOutputKeyClass(Text.class);
-    inlinkJob.setMapOutputValueClass(LinkDatum.class);
-    inlinkJob.setOutputKeyClass(Text.class);
-    inlinkJob.setOutputValueClass(LinkDatum.class);
-    FileOutputFormat.setOutputPath(inlinkJob, tempInlinkDb);
-    inlinkJob.setOutputFormat(MapFileOutputFormat.class);
-    inlinkJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
-
-    try {
-      
-      // run the inlink and replace any old with new
-      LOG.info("InlinkDb: running");
-      JobClient.runJob(inlinkJob);
-      LOG.info("InlinkDb: installing " + inlinkDb);
-      FSUtils.replace(fs, inlinkDb, tempInlinkDb, true);
-      LOG.info("InlinkDb: finished");
-    }
-    catch (IOException e) {
-      
-      // remove lock file and and temporary directory if an error occurs
-      LockUtil.removeLockFile(fs, lock);
-      if (fs.exists(tempInlinkDb)) {
-        fs.delete(tempInlinkDb, true);
-      }      
-      LOG.error(StringUtils.stringifyException(e));
-      throw e;
-    }
-
-    // node and temp node database paths
     Path nodeDb = new Path(webGraphDb, NODE_DIR);
-    Path tempNodeDb = new Path(nodeDb + "-"
-      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
-
-    JobConf nodeJob = new NutchJob(conf);
-    nodeJob.setJobName("NodeDb " + nodeDb);
-    LOG.info("NodeDb: adding input: " + outlinkDb);
-    LOG.info("NodeDb: adding input: " + inlinkDb);
-    FileInputFormat.addInputPath(nodeJob, outlinkDb);
-    FileInputFormat.addInputPath(nodeJob, inlinkDb);
-    nodeJob.setInputFormat(SequenceFileInputFormat.class);
-    nodeJob.setReducerClass(NodeDb.class);
-    nodeJob.setMapOutputKeyClass(Text.class);
-    nodeJob.setMapOutputValueClass(LinkDatum.class);
-    nodeJob.setOutputKeyClass(Text.class);
-    nodeJob.setOutputValueClass(Node.class);
-    FileOutputFormat.setOutputPath(nodeJob, tempNodeDb);
-    nodeJob.setOutputFormat(MapFileOutputFormat.class);
-    nodeJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
 
-    try {
-      
-      // run the node job and replace old nodedb with new
-      LOG.info("NodeDb: running");
-      JobClient.runJob(nodeJob);
-      LOG.info("NodeDb: installing " + nodeDb);
-      FSUtils.replace(fs, nodeDb, tempNodeDb, true);
-      LOG.info("NodeDb: finished");
+    // apply only the changed outlinks if both databases can be updated
+    boolean incremental = conf.getBoolean(INCREMENTAL, false);
+    if (incremental && fs.exists(oldOutlinkDb)
+      && WebGraphDelta.canUpdate(fs, inlinkDb, nodeDb)) {
+      try {
+        LOG.info("WebGraphDb: updating inlinks and nodes incrementally");
+        new WebGraphDelta(conf).update(oldOutlinkDb, outlinkDb, inlinkDb,
+          nodeDb, segments, normalize, filter, deleteGone);
+      }
+      catch (IOException e) {
+        LockUtil.removeLockFile(fs, lock);
+        LOG.error(StringUtils.stringifyException(e));
+        throw e;
+      }
     }
-    catch (IOException e) {
-      
-      // remove lock file and and temporary directory if an error occurs
-      LockUtil.removeLockFile(fs, lock);
-      if (fs.exists(tempNodeDb)) {
-        fs.delete(tempNodeDb, true);
-      }      
-      LOG.error(StringUtils.stringifyException(e));
-      throw e;
+    else {
+      if (incremental) {
+        LOG.info("WebGraphDb: no inlinks and nodes to update, rebuilding");
+      }
+      createInlinkAndNodeDb(fs, lock, outlinkDb, inlinkDb, nodeDb);
     }
+    if (!preserveBackup && fs.exists(oldOutlinkDb)) fs.delete(oldOutlinkDb, true);
 
     // remove the lock file for the webgraph
     LockUtil.removeLockFile(fs, lock);
@@ -743,12 +781,15 @@ public class WebGraph
       "whether to use URLNormalizers on the URL's in the segment").create("normalize");
     Option filterOpts = OptionBuilder.withArgName("filter").withDescription(
       "whether to use URLFilters on the URL's in the segment").create("filter");
+    Option incrementalOpts = OptionBuilder.withArgName("incremental").withDescription(
+      "update inlinks and nodes with the changed links of the segment only").create("incremental");
     options.addOption(helpOpts);
     options.addOption(webGraphDbOpts);
     options.addOption(segOpts);
     options.addOption(segDirOpts);
     options.addOption(normalizeOpts);
     options.addOption(filterOpts);
+    options.addOption(incrementalOpts);
 
     CommandLineParser parser = new GnuParser();
     try {
@@ -794,6 +835,10 @@ public class WebGraph
         filter = true;
       }
 
+      if (line.hasOption("incremental")) {
+        getConf().setBoolean(INCREMENTAL, true);
+      }
+
       createWebGraph(new Path(webGraphDb), segPaths, normalize, filter);
       return 0;
     }
@@ -0,0 +1,615 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+import org.apache.hadoop.mapred.lib.NLineInputFormat;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.util.FSUtils;
+import org.apache.nutch.util.NutchJob;
+
+/**
+ * Updates the InlinkDb and NodeDb of a WebGraph incrementally. Only the urls
+ * of the new segments can have changed outlinks: their outlinks before and
+ * after the OutlinkDb update are looked up and compared, and the resulting
+ * delta of added and removed links is written partitioned like the existing
+ * InlinkDb and NodeDb. Each part of these is then merged with its part of
+ * the delta by a single map task, so no part of the existing databases is
+ * shuffled or inverted again.
+ *
+ * <p>Nodes keep their score. The delta assumes that the outlinks of urls not
+ * in the new segments did not change, i.e. that the URL normalizers and
+ * filters used on the OutlinkDb did not change since the last update.</p>
+ */
+public class WebGraphDelta
+  extends Configured {
+
+  public static final Logger LOG = LoggerFactory.getLogger(WebGraphDelta.class);
+
+  private static final String OLD_OUTLINKS = "webgraph.delta.old.outlinks";
+  private static final String NEW_OUTLINKS = "webgraph.delta.new.outlinks";
+  private static final String MERGE_BASE = "webgraph.delta.merge.base";
+  private static final String MERGE_DELTA = "webgraph.delta.merge.delta";
+
+  /**
+   * A change of the links of a url.
+   */
+  public static class LinkDelta
+    implements Writable {
+
+    /** An inlink from {@link #getUrl()} was added. */
+    public static final byte ADD_INLINK = 1;
+
+    /** The inlink from {@link #getUrl()} was removed. */
+    public static final byte REMOVE_INLINK = 2;
+
+    /** The url now has {@link #getNumOutlinks()} outlinks. */
+    public static final byte SET_OUTLINKS = 3;
+
+    private byte type;
+    private String url = "";
+    private String anchor = "";
+    private int numOutlinks;
+
+    public LinkDelta() {
+    }
+
+    public LinkDelta(byte type, String url, String anchor, int numOutlinks) {
+      this.type = type;
+      this.url = url;
+      this.anchor = (anchor != null) ? anchor : "";
+      this.numOutlinks = numOutlinks;
+    }
+
+    public byte getType() {
+      return type;
+    }
+
+    public String getUrl() {
+      return url;
+    }
+
+    public String getAnchor() {
+      return anchor;
+    }
+
+    public int getNumOutlinks() {
+      return numOutlinks;
+    }
+
+    public void readFields(DataInput in)
+      throws IOException {
+      type = in.readByte();
+      url = Text.readString(in);
+      anchor = Text.readString(in);
+      numOutlinks = WritableUtils.readVInt(in);
+    }
+
+    public void write(DataOutput out)
+      throws IOException {
+      out.writeByte(type);
+      Text.writeString(out, url);
+      Text.writeString(out, anchor);
+      WritableUtils.writeVInt(out, numOutlinks);
+    }
+
+    public String toString() {
+      return "type: " + type + ", url: " + url + ", anchor: " + anchor
+        + ", num outlinks: " + numOutlinks;
+    }
+  }
+
+  /**
+   * Compares the outlinks of each url of the new segments before and after
+   * the OutlinkDb update, and outputs the changes of the inlinks of their
+   * targets and of their own number of outlinks.
+   */
+  public static class Differ
+    implements Reducer<Text, NutchWritable, Text, LinkDelta> {
+
+    private MapFile.Reader[] oldReaders;
+    private MapFile.Reader[] newReaders;
+    private HashPartitioner<Text, Writable> partitioner = new HashPartitioner<Text, Writable>();
+
+    public void configure(JobConf conf) {
+      try {
+        FileSystem fs = FileSystem.get(conf);
+        oldReaders = MapFileOutputFormat.getReaders(fs, new Path(conf.get(OLD_OUTLINKS)), conf);
+        newReaders = MapFileOutputFormat.getReaders(fs, new Path(conf.get(NEW_OUTLINKS)), conf);
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void close()
+      throws IOException {
+      for (MapFile.Reader reader : oldReaders) {
+        reader.close();
+      }
+      for (MapFile.Reader reader : newReaders) {
+        reader.close();
+      }
+    }
+
+    /**
+     * Returns the outlinks of a url, mapped to their anchors.
+     */
+    private Map<String, String> getOutlinks(MapFile.Reader[] readers, Text url)
+      throws IOException {
+      Map<String, String> outlinks = new LinkedHashMap<String, String>();
+      if (readers.length == 0) {
+        return outlinks;
+      }
+      MapFile.Reader reader = readers[partitioner.getPartition(url, null, readers.length)];
+      // get() reads the first record of the url, seek() would leave the
+      // reader after it
+      LinkDatum datum = new LinkDatum();
+      if (reader.get(url, datum) != null) {
+        Text key = new Text();
+        do {
+          outlinks.put(datum.getUrl(), datum.getAnchor());
+        } while (reader.next(key, datum) && key.equals(url));
+      }
+      return outlinks;
+    }
+
+    public void reduce(Text key, Iterator<NutchWritable> values,
+      OutputCollector<Text, LinkDelta> output, Reporter reporter)
+      throws IOException {
+
+      String url = key.toString();
+      Map<String, String> oldOutlinks = getOutlinks(oldReaders, key);
+      Map<String, String> newOutlinks = getOutlinks(newReaders, key);
+
+      // an inlink with a changed anchor is removed and added again
+      for (Map.Entry<String, String> outlink : oldOutlinks.entrySet()) {
+        String anchor = newOutlinks.get(outlink.getKey());
+        if (anchor == null || !anchor.equals(outlink.getValue())) {
+          output.collect(new Text(outlink.getKey()), new LinkDelta(
+            LinkDelta.REMOVE_INLINK, url, null, 0));
+          reporter.incrCounter("WebGraph.delta", "removed links", 1);
+        }
+      }
+      for (Map.Entry<String, String> outlink : newOutlinks.entrySet()) {
+        String anchor = oldOutlinks.get(outlink.getKey());
+        if (anchor == null || !anchor.equals(outlink.getValue())) {
+          output.collect(new Text(outlink.getKey()), new LinkDelta(
+            LinkDelta.ADD_INLINK, url, outlink.getValue(), 0));
+          reporter.incrCounter("WebGraph.delta", "added links", 1);
+        }
+      }
+      if (oldOutlinks.size() != newOutlinks.size()) {
+        output.collect(key, new LinkDelta(LinkDelta.SET_OUTLINKS, url, null,
+          newOutlinks.size()));
+      }
+    }
+  }
+
+  /**
+   * Reads the records of a MapFile grouped by key.
+   */
+  private static class GroupReader {
+
+    private MapFile.Reader reader;
+    private Text nextKey;
+    private Writable nextValue;
+    private Class<? extends Writable> valueClass;
+
+    GroupReader(FileSystem fs, Path part, Configuration conf)
+      throws IOException {
+      if (fs.exists(part)) {
+        reader = new MapFile.Reader(fs, part.toString(), conf);
+        valueClass = reader.getValueClass().asSubclass(Writable.class);
+        advance();
+      }
+    }
+
+    private void advance()
+      throws IOException {
+      Text key = new Text();
+      Writable value = newValue();
+      if (reader.next(key, value)) {
+        nextKey = key;
+        nextValue = value;
+      }
+      else {
+        nextKey = null;
+        nextValue = null;
+      }
+    }
+
+    private Writable newValue() {
+      try {
+        return valueClass.newInstance();
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /** Returns the next key, or null at the end. */
+    Text peek() {
+      return nextKey;
+    }
+
+    /** Reads all values of the next key. */
+    List<Writable> next()
+      throws IOException {
+      List<Writable> values = new ArrayList<Writable>();
+      Text key = nextKey;
+      while (nextKey != null && nextKey.equals(key)) {
+        values.add(nextValue);
+        advance();
+      }
+      return values;
+    }
+
+    void close()
+      throws IOException {
+      if (reader != null) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Merges one part of the InlinkDb or NodeDb with the same part of the delta.
+   * The input is the name of the part, the merged part is written as a side
+   * file of the task, as map task and part numbers can differ.
+   */
+  public abstract static class Merger
+    implements Mapper<LongWritable, Text, Text, Writable> {
+
+    protected JobConf conf;
+    private Path base;
+    private Path delta;
+    protected long timestamp;
+
+    public void configure(JobConf conf) {
+      this.conf = conf;
+      base = new Path(conf.get(MERGE_BASE));
+      delta = new Path(conf.get(MERGE_DELTA));
+      timestamp = System.currentTimeMillis();
+    }
+
+    public void close() {
+    }
+
+    protected abstract Class<? extends Writable> getValueClass();
+
+    /**
+     * Writes the merged records of a url.
+     * @param base the existing records, may be empty
+     * @param deltas the changes, may be empty
+     */
+    protected abstract void merge(Text url, List<Writable> base,
+      List<Writable> deltas, MapFile.Writer writer, Reporter reporter)
+      throws IOException;
+
+    public void map(LongWritable key, Text value,
+      OutputCollector<Text, Writable> output, Reporter reporter)
+      throws IOException {
+
+      String part = value.toString().trim();
+      FileSystem fs = FileSystem.get(conf);
+      GroupReader baseReader = new GroupReader(fs, new Path(base, part), conf);
+      GroupReader deltaReader = new GroupReader(fs, new Path(delta, part), conf);
+      Path out = new Path(FileOutputFormat.getWorkOutputPath(conf), part);
+      MapFile.Writer writer = new MapFile.Writer(conf, fs, out.toString(),
+        Text.class, getValueClass());
+      List<Writable> none = new ArrayList<Writable>();
+      try {
+        while (baseReader.peek() != null || deltaReader.peek() != null) {
+          Text baseKey = baseReader.peek();
+          Text deltaKey = deltaReader.peek();
+          int cmp = (baseKey == null) ? 1 : (deltaKey == null) ? -1
+            : baseKey.compareTo(deltaKey);
+          Text url = (cmp <= 0) ? baseKey : deltaKey;
+          List<Writable> baseValues = (cmp <= 0) ? baseReader.next() : none;
+          List<Writable> deltaValues = (cmp >= 0) ? deltaReader.next() : none;
+          merge(url, baseValues, deltaValues, writer, reporter);
+          reporter.progress();
+        }
+      }
+      finally {
+        baseReader.close();
+        deltaReader.close();
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Applies added and removed inlinks to the InlinkDb.
+   */
+  public static class InlinkMerger
+    extends Merger {
+
+    protected Class<? extends Writable> getValueClass() {
+      return LinkDatum.class;
+    }
+
+    protected void merge(Text url, List<Writable> base, List<Writable> deltas,
+      MapFile.Writer writer, Reporter reporter)
+      throws IOException {
+
+      // inlinks from urls with changed outlinks are replaced
+      Set<String> changed = new HashSet<String>();
+      for (Writable value : deltas) {
+        LinkDelta delta = (LinkDelta)value;
+        if (delta.getType() == LinkDelta.REMOVE_INLINK
+          || delta.getType() == LinkDelta.ADD_INLINK) {
+          changed.add(delta.getUrl());
+        }
+      }
+      for (Writable value : base) {
+        if (!changed.contains(((LinkDatum)value).getUrl())) {
+          writer.append(url, value);
+        }
+      }
+      for (Writable value : deltas) {
+        LinkDelta delta = (LinkDelta)value;
+        if (delta.getType() == LinkDelta.ADD_INLINK) {
+          LinkDatum inlink = new LinkDatum(delta.getUrl(), delta.getAnchor(),
+            timestamp);
+          inlink.setLinkType(LinkDatum.INLINK);
+          writer.append(url, inlink);
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies changed numbers of inlinks and outlinks to the NodeDb. Nodes
+   * without any links left are removed, new nodes get a score of 0.
+   */
+  public static class NodeMerger
+    extends Merger {
+
+    protected Class<? extends Writable> getValueClass() {
+      return Node.class;
+    }
+
+    protected void merge(Text url, List<Writable> base, List<Writable> deltas,
+      MapFile.Writer writer, Reporter reporter)
+      throws IOException {
+
+      Node node = base.isEmpty() ? new Node() : (Node)base.get(0);
+      if (deltas.isEmpty()) {
+        writer.append(url, node);
+        return;
+      }
+      int numInlinks = node.getNumInlinks();
+      for (Writable value : deltas) {
+        LinkDelta delta = (LinkDelta)value;
+        if (delta.getType() == LinkDelta.ADD_INLINK) {
+          numInlinks++;
+        }
+        else if (delta.getType() == LinkDelta.REMOVE_INLINK) {
+          numInlinks--;
+        }
+        else if (delta.getType() == LinkDelta.SET_OUTLINKS) {
+          node.setNumOutlinks(delta.getNumOutlinks());
+        }
+      }
+      node.setNumInlinks(Math.max(0, numInlinks));
+      if (node.getNumInlinks() == 0 && node.getNumOutlinks() == 0) {
+        reporter.incrCounter("WebGraph.delta", "removed nodes", 1);
+        return;
+      }
+      if (base.isEmpty()) {
+        reporter.incrCounter("WebGraph.delta", "added nodes", 1);
+      }
+      writer.append(url, node);
+    }
+  }
+
+  public WebGraphDelta(Configuration conf) {
+    super(conf);
+  }
+
+  /**
+   * Returns the names of the parts of a MapFile output directory.
+   */
+  private static List<String> getPartNames(FileSystem fs, Path dir)
+    throws IOException {
+    List<String> names = new ArrayList<String>();
+    FileStatus[] stats = fs.listStatus(dir);
+    if (stats != null) {
+      for (FileStatus stat : stats) {
+        if (stat.getPath().getName().startsWith("part-")) {
+          names.add(stat.getPath().getName());
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Returns true if the InlinkDb and NodeDb of a WebGraph can be updated
+   * incrementally, which requires both to exist with the same number of
+   * parts.
+   */
+  public static boolean canUpdate(FileSystem fs, Path inlinkDb, Path nodeDb)
+    throws IOException {
+    if (!fs.exists(inlinkDb) || !fs.exists(nodeDb)) {
+      return false;
+    }
+    int numParts = getPartNames(fs, inlinkDb).size();
+    return numParts > 0 && numParts == getPartNames(fs, nodeDb).size();
+  }
+
+  /**
+   * Updates the InlinkDb and NodeDb with the changes of the OutlinkDb caused
+   * by the given segments.
+   *
+   * @param oldOutlinkDb The OutlinkDb before the update.
+   * @param outlinkDb The updated OutlinkDb.
+   * @param inlinkDb The InlinkDb to update.
+   * @param nodeDb The NodeDb to update.
+   * @param segments The segments the OutlinkDb was updated with.
+   * @param normalize Whether the urls of the segments were normalized.
+   * @param filter Whether the urls of the segments were filtered.
+   * @param deleteGone Whether outlinks of gone pages were removed.
+   */
+  public void update(Path oldOutlinkDb, Path outlinkDb, Path inlinkDb,
+    Path nodeDb, Path[] segments, boolean normalize, boolean filter,
+    boolean deleteGone)
+    throws IOException {
+
+    Configuration conf = getConf();
+    FileSystem fs = FileSystem.get(conf);
+    Path temp = new Path(inlinkDb.getParent(), "delta-"
+      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+    Path diff = new Path(temp, "diff");
+    Path delta = new Path(temp, "delta");
+    List<String> parts = getPartNames(fs, inlinkDb);
+
+    // the urls of the segments, normalized and filtered like for the OutlinkDb
+    JobConf diffJob = new NutchJob(conf);
+    diffJob.setJobName("WebGraph delta: " + outlinkDb);
+    if (segments != null) {
+      for (Path segment : segments) {
+        Path parseData = new Path(segment, ParseData.DIR_NAME);
+        if (fs.exists(parseData)) {
+          FileInputFormat.addInputPath(diffJob, parseData);
+        }
+        Path crawlFetch = new Path(segment, CrawlDatum.FETCH_DIR_NAME);
+        if (deleteGone && fs.exists(crawlFetch)) {
+          FileInputFormat.addInputPath(diffJob, crawlFetch);
+        }
+      }
+    }
+    diffJob.setBoolean(WebGraph.OutlinkDb.URL_NORMALIZING, normalize);
+    diffJob.setBoolean(WebGraph.OutlinkDb.URL_FILTERING, filter);
+    diffJob.set(OLD_OUTLINKS, oldOutlinkDb.toString());
+    diffJob.set(NEW_OUTLINKS, outlinkDb.toString());
+    diffJob.setInputFormat(SequenceFileInputFormat.class);
+    diffJob.setMapperClass(WebGraph.OutlinkDb.class);
+    diffJob.setReducerClass(Differ.class);
+    diffJob.setMapOutputKeyClass(Text.class);
+    diffJob.setMapOutputValueClass(NutchWritable.class);
+    diffJob.setOutputKeyClass(Text.class);
+    diffJob.setOutputValueClass(LinkDelta.class);
+    FileOutputFormat.setOutputPath(diffJob, diff);
+    diffJob.setOutputFormat(SequenceFileOutputFormat.class);
+    diffJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    // the changes are keyed by the urls they apply to, not by the urls of the
+    // segments, so sort them and partition them like the InlinkDb and NodeDb
+    JobConf sortJob = new NutchJob(conf);
+    sortJob.setJobName("WebGraph delta sort: " + outlinkDb);
+    FileInputFormat.addInputPath(sortJob, diff);
+    sortJob.setInputFormat(SequenceFileInputFormat.class);
+    sortJob.setMapperClass(IdentityMapper.class);
+    sortJob.setReducerClass(IdentityReducer.class);
+    sortJob.setOutputKeyClass(Text.class);
+    sortJob.setOutputValueClass(LinkDelta.class);
+    sortJob.setNumReduceTasks(parts.size());
+    FileOutputFormat.setOutputPath(sortJob, delta);
+    sortJob.setOutputFormat(MapFileOutputFormat.class);
+    sortJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    try {
+      LOG.info("WebGraph delta: running");
+      JobClient.runJob(diffJob);
+      JobClient.runJob(sortJob);
+
+      Path partList = new Path(temp, "parts");
+      OutputStream out = fs.create(partList);
+      for (String part : parts) {
+        out.write((part + "\n").getBytes("UTF-8"));
+      }
+      out.close();
+
+      Path tempInlinkDb = new Path(temp, WebGraph.INLINK_DIR);
+      runMerger(InlinkMerger.class, partList, inlinkDb, delta, tempInlinkDb);
+      Path tempNodeDb = new Path(temp, WebGraph.NODE_DIR);
+      runMerger(NodeMerger.class, partList, nodeDb, delta, tempNodeDb);
+
+      LOG.info("WebGraph delta: installing " + inlinkDb + " and " + nodeDb);
+      FSUtils.replace(fs, inlinkDb, tempInlinkDb, true);
+      FSUtils.replace(fs, nodeDb, tempNodeDb, true);
+      LOG.info("WebGraph delta: finished");
+    }
+    finally {
+      fs.delete(temp, true);
+    }
+  }
+
+  private void runMerger(Class<? extends Merger> merger, Path partList,
+    Path base, Path delta, Path output)
+    throws IOException {
+    JobConf mergeJob = new NutchJob(getConf());
+    mergeJob.setJobName("WebGraph merge: " + base);
+    mergeJob.set(MERGE_BASE, base.toString());
+    mergeJob.set(MERGE_DELTA, delta.toString());
+    FileInputFormat.addInputPath(mergeJob, partList);
+    mergeJob.setInputFormat(NLineInputFormat.class);
+    mergeJob.setMapperClass(merger);
+    mergeJob.setNumReduceTasks(0);
+    mergeJob.setOutputKeyClass(Text.class);
+    mergeJob.setOutputValueClass(Text.class);
+    FileOutputFormat.setOutputPath(mergeJob, output);
+    mergeJob.setOutputFormat(NullOutputFormat.class);
+    mergeJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+    LOG.info("WebGraph merge: running " + base);
+    JobClient.runJob(mergeJob);
+  }
+}
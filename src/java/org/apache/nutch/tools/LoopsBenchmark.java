@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.scoring.webgraph.LinkDatum;
+import org.apache.nutch.scoring.webgraph.Loops;
+import org.apache.nutch.scoring.webgraph.Node;
+import org.apache.nutch.scoring.webgraph.WebGraph;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Measures the runtime of {@link Loops} on a synthetic web graph for a range
+ * of depths. Regular hosts only link to hosts with a higher number, so their
+ * host graph has no cycles, while groups of link farm hosts densely link to
+ * each other. With host pruning routes are only followed within the farms,
+ * without it through the whole graph.
+ */
+public class LoopsBenchmark extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory.getLogger(LoopsBenchmark.class);
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new LoopsBenchmark(), args);
+    System.exit(res);
+  }
+
+  private static String url(int host, int page) {
+    return "http://www.host-" + host + ".com/" + page;
+  }
+
+  /**
+   * Writes the OutlinkDb and NodeDb of a synthetic web graph.
+   */
+  private void createWebGraph(FileSystem fs, Path webGraphDb, int hosts,
+      int pages, int outlinks, int farms, int farmSize) throws Exception {
+    Random random = new Random(0);
+    Map<String, TreeSet<String>> graph = new TreeMap<String, TreeSet<String>>();
+    Map<String, Integer> inlinks = new TreeMap<String, Integer>();
+    int farmHosts = farms * farmSize;
+    for (int host = 0; host < hosts; host++) {
+      for (int page = 0; page < pages; page++) {
+        TreeSet<String> targets = new TreeSet<String>();
+        for (int i = 0; i < outlinks; i++) {
+          int toHost;
+          if (host < farmHosts) {
+            // link to a host of the same farm
+            toHost = (host / farmSize) * farmSize + random.nextInt(farmSize);
+          } else if (host + 1 < hosts) {
+            toHost = host + 1 + random.nextInt(hosts - host - 1);
+          } else {
+            continue;
+          }
+          targets.add(url(toHost, random.nextInt(pages)));
+        }
+        graph.put(url(host, page), targets);
+        for (String target : targets) {
+          Integer count = inlinks.get(target);
+          inlinks.put(target, count == null ? 1 : count + 1);
+        }
+      }
+    }
+
+    MapFile.Writer outlinkWriter = new MapFile.Writer(getConf(), fs,
+        new Path(new Path(webGraphDb, WebGraph.OUTLINK_DIR), "part-00000").toString(),
+        Text.class, LinkDatum.class);
+    MapFile.Writer nodeWriter = new MapFile.Writer(getConf(), fs,
+        new Path(new Path(webGraphDb, WebGraph.NODE_DIR), "part-00000").toString(),
+        Text.class, Node.class);
+    for (Map.Entry<String, TreeSet<String>> entry : graph.entrySet()) {
+      Text key = new Text(entry.getKey());
+      for (String target : entry.getValue()) {
+        outlinkWriter.append(key, new LinkDatum(target));
+      }
+      Node node = new Node();
+      Integer numInlinks = inlinks.get(entry.getKey());
+      node.setNumInlinks(numInlinks == null ? 0 : numInlinks);
+      node.setNumOutlinks(entry.getValue().size());
+      nodeWriter.append(key, node);
+    }
+    outlinkWriter.close();
+    nodeWriter.close();
+  }
+
+  public int run(String[] args) throws Exception {
+    int hosts = 200;
+    int pages = 20;
+    int outlinks = 10;
+    int farms = 5;
+    int farmSize = 4;
+    int maxDepth = 4;
+    boolean compare = false;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-hosts")) {
+        hosts = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-pages")) {
+        pages = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-outlinks")) {
+        outlinks = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-farms")) {
+        farms = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-farmSize")) {
+        farmSize = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-maxDepth")) {
+        maxDepth = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-compare")) {
+        compare = true;
+      } else {
+        System.err.println("Usage: LoopsBenchmark [-hosts n] [-pages n] [-outlinks n]"
+            + " [-farms n] [-farmSize n] [-maxDepth n] [-compare]");
+        System.err.println("\t-hosts\tnumber of hosts (default 200)");
+        System.err.println("\t-pages\tnumber of pages per host (default 20)");
+        System.err.println("\t-outlinks\tnumber of outlinks per page (default 10)");
+        System.err.println("\t-farms\tnumber of link farms (default 5)");
+        System.err.println("\t-farmSize\tnumber of hosts per link farm (default 4)");
+        System.err.println("\t-maxDepth\tmaximum loops depth to run (default 4)");
+        System.err.println("\t-compare\talso run without host pruning and fanout limit");
+        return -1;
+      }
+    }
+    if (farms * farmSize > hosts) {
+      System.err.println("More link farm hosts than hosts");
+      return -1;
+    }
+
+    FileSystem fs = FileSystem.get(getConf());
+    Path dir = new Path(getConf().get("hadoop.tmp.dir"), "loops-benchmark-"
+        + System.currentTimeMillis());
+    Path webGraphDb = new Path(dir, "webgraphdb");
+    Path loops = new Path(webGraphDb, Loops.LOOPS_DIR);
+    try {
+      createWebGraph(fs, webGraphDb, hosts, pages, outlinks, farms, farmSize);
+      List<String> results = new ArrayList<String>();
+      for (int depth = 1; depth <= maxDepth; depth++) {
+        StringBuilder result = new StringBuilder();
+        result.append(depth);
+        for (int pruned = 1; pruned >= (compare ? 0 : 1); pruned--) {
+          Configuration conf = new Configuration(getConf());
+          conf.setInt("link.loops.depth", depth);
+          conf.setBoolean(Loops.HOST_PRUNING, pruned == 1);
+          if (pruned == 0) {
+            conf.setInt(Loops.MAX_FANOUT, -1);
+          }
+          fs.delete(loops, true);
+          long start = System.currentTimeMillis();
+          Loops loopsTool = new Loops();
+          loopsTool.setConf(conf);
+          loopsTool.findLoops(webGraphDb);
+          long elapsed = System.currentTimeMillis() - start;
+          LOG.info("depth " + depth + (pruned == 1 ? ", pruned: " : ", full: ")
+              + elapsed + " ms");
+          result.append('\t').append(elapsed);
+        }
+        results.add(result.toString());
+      }
+
+      System.out.println("* Loops benchmark: " + hosts + " hosts, " + pages
+          + " pages per host, " + outlinks + " outlinks per page, " + farms
+          + " link farms of " + farmSize + " hosts");
+      System.out.println("depth\tpruned ms" + (compare ? "\tfull ms" : ""));
+      for (String result : results) {
+        System.out.println(result);
+      }
+      return 0;
+    } finally {
+      fs.delete(dir, true);
+    }
+  }
+}
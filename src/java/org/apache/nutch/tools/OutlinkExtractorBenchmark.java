@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.tools;
+
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.parse.OutlinkExtractor;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.oro.text.regex.Pattern;
+import org.apache.oro.text.regex.PatternMatcher;
+import org.apache.oro.text.regex.PatternMatcherInput;
+import org.apache.oro.text.regex.Perl5Compiler;
+import org.apache.oro.text.regex.Perl5Matcher;
+
+/**
+ * Measures the time {@link OutlinkExtractor} takes on large synthetic text
+ * documents, compared to matching {@link OutlinkExtractor#URL_PATTERN} with
+ * the ORO regular expressions it replaces. Besides prose with urls the
+ * documents contain long runs of url characters without a url, like the
+ * encoded data of postscript files, which are expensive for the regular
+ * expression.
+ */
+public class OutlinkExtractorBenchmark extends Configured implements Tool {
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new OutlinkExtractorBenchmark(), args);
+    System.exit(res);
+  }
+
+  private static String createText(Random random, int size, int urlEvery) {
+    StringBuilder text = new StringBuilder(size + 1000);
+    String data = "0123456789abcdefABCDEF/+=.-";
+    while (text.length() < size) {
+      int kind = random.nextInt(urlEvery);
+      if (kind == 0) {
+        text.append("see http://www.host-").append(random.nextInt(1000))
+            .append(".com/path/").append(random.nextInt(100000))
+            .append(".html#top ");
+      } else if (kind == 1) {
+        // encoded binary data
+        for (int i = 0; i < 2000; i++) {
+          text.append(data.charAt(random.nextInt(data.length())));
+        }
+        text.append(":\n");
+      } else {
+        text.append("Lorem ipsum dolor sit amet: consectetur adipiscing elit. ");
+      }
+    }
+    return text.toString();
+  }
+
+  private static int countRegex(String text) throws Exception {
+    Pattern pattern = new Perl5Compiler().compile(OutlinkExtractor.URL_PATTERN,
+        Perl5Compiler.CASE_INSENSITIVE_MASK | Perl5Compiler.READ_ONLY_MASK
+            | Perl5Compiler.MULTILINE_MASK);
+    PatternMatcher matcher = new Perl5Matcher();
+    PatternMatcherInput input = new PatternMatcherInput(text);
+    int count = 0;
+    while (matcher.contains(input, pattern)) {
+      count++;
+    }
+    return count;
+  }
+
+  public int run(String[] args) throws Exception {
+    int size = 1 << 20;
+    int docs = 10;
+    int urlEvery = 20;
+    boolean compare = false;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-size")) {
+        size = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-docs")) {
+        docs = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-urlEvery")) {
+        urlEvery = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-compare")) {
+        compare = true;
+      } else {
+        System.err.println("Usage: OutlinkExtractorBenchmark [-size n] [-docs n]"
+            + " [-urlEvery n] [-compare]");
+        System.err.println("\t-size\tnumber of characters per document (default 1048576)");
+        System.err.println("\t-docs\tnumber of documents (default 10)");
+        System.err.println("\t-urlEvery\tone url, one data run per n sentences (default 20)");
+        System.err.println("\t-compare\talso match with the ORO regular expression");
+        return -1;
+      }
+    }
+
+    Random random = new Random(0);
+    String[] texts = new String[docs];
+    for (int i = 0; i < docs; i++) {
+      texts[i] = createText(random, size, Math.max(2, urlEvery));
+    }
+
+    // warm up
+    OutlinkExtractor.getOutlinks(texts[0], getConf());
+
+    System.out.println("* OutlinkExtractor benchmark: " + docs
+        + " documents of " + size + " characters");
+    System.out.println("doc\turls\tscanner ms" + (compare ? "\tregex ms" : ""));
+    long scannerTotal = 0;
+    long regexTotal = 0;
+    for (int i = 0; i < docs; i++) {
+      long start = System.nanoTime();
+      int urls = OutlinkExtractor.getOutlinks(texts[i], getConf()).length;
+      long scanner = (System.nanoTime() - start) / 1000000;
+      scannerTotal += scanner;
+      StringBuilder result = new StringBuilder();
+      result.append(i).append('\t').append(urls).append('\t').append(scanner);
+      if (compare) {
+        start = System.nanoTime();
+        int regexUrls = countRegex(texts[i]);
+        long regex = (System.nanoTime() - start) / 1000000;
+        regexTotal += regex;
+        result.append('\t').append(regex);
+        if (regexUrls != urls) {
+          result.append("\t(regex found ").append(regexUrls).append(" urls)");
+        }
+      }
+      System.out.println(result);
+    }
+    System.out.println("total\t\t" + scannerTotal
+        + (compare ? "\t" + regexTotal : ""));
+    return 0;
+  }
+}
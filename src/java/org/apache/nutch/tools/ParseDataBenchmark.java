@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.tools;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.parse.ParseText;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Compares the size and read speed of parse_text and parse_data written in
+ * the previous format (outlinks one by one, record compressed text) and in
+ * the current one (front coded outlinks with an anchor dictionary, block
+ * compressed text), on synthetic pages.
+ */
+public class ParseDataBenchmark extends Configured implements Tool {
+  private static final Logger LOG = LoggerFactory.getLogger(ParseDataBenchmark.class);
+
+  /** Writes a ParseData in the legacy format. */
+  public static class LegacyParseData implements Writable {
+    private ParseData data = new ParseData();
+
+    public LegacyParseData() {}
+
+    public LegacyParseData(ParseData data) {
+      this.data = data;
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      data.readFields(in);
+    }
+
+    public void write(DataOutput out) throws IOException {
+      data.write(out, ParseData.LEGACY_VERSION);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new ParseDataBenchmark(), args);
+    System.exit(res);
+  }
+
+  private static final String[] ANCHORS = { "Home", "About us", "Contact",
+      "more", "Next", "Previous", "Login", "Privacy policy", "Terms of use",
+      "Help" };
+
+  private static String url(int host, int page) {
+    return "http://www.host-" + host + ".com/section/" + (page % 20)
+        + "/page-" + page + ".html";
+  }
+
+  private ParseData createParseData(Random random, int hosts, int page,
+      int outlinks) throws Exception {
+    int host = random.nextInt(hosts);
+    Outlink[] links = new Outlink[outlinks];
+    for (int i = 0; i < outlinks; i++) {
+      // mostly links within the site
+      int toHost = random.nextInt(10) < 8 ? host : random.nextInt(hosts);
+      String anchor = random.nextInt(3) == 0 ? "Article " + random.nextInt(100000)
+          : ANCHORS[random.nextInt(ANCHORS.length)];
+      links[i] = new Outlink(url(toHost, random.nextInt(10000)), anchor);
+    }
+    Metadata contentMeta = new Metadata();
+    contentMeta.add("Content-Type", "text/html; charset=utf-8");
+    contentMeta.add("Server", "Apache");
+    contentMeta.add("nutch.segment.name", "20121019000000");
+    return new ParseData(ParseStatus.STATUS_SUCCESS, "Page " + page, links,
+        contentMeta);
+  }
+
+  private String createText(Random random, String[] words, int numWords) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < numWords; i++) {
+      // skewed word frequencies like natural language
+      int word = (int)(words.length * Math.pow(random.nextDouble(), 3));
+      text.append(words[word]).append(' ');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Writes the synthetic pages, returns the elapsed milliseconds.
+   */
+  private long write(FileSystem fs, Path dir, boolean legacy, int pages,
+      int hosts, int outlinks, int textWords) throws Exception {
+    Random random = new Random(0);
+    String[] words = new String[5000];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = Integer.toString(random.nextInt(Integer.MAX_VALUE), 36);
+    }
+    long start = System.currentTimeMillis();
+    MapFile.Writer textOut = new MapFile.Writer(getConf(), fs,
+        new Path(dir, ParseText.DIR_NAME).toString(), Text.class, ParseText.class,
+        legacy ? CompressionType.RECORD : CompressionType.BLOCK);
+    MapFile.Writer dataOut = new MapFile.Writer(getConf(), fs,
+        new Path(dir, ParseData.DIR_NAME).toString(), Text.class,
+        legacy ? LegacyParseData.class : ParseData.class, CompressionType.NONE);
+    for (int page = 0; page < pages; page++) {
+      Text key = new Text(String.format("http://page-%09d.com/", page));
+      ParseData data = createParseData(random, hosts, page, outlinks);
+      textOut.append(key, new ParseText(createText(random, words, textWords)));
+      dataOut.append(key, legacy ? new LegacyParseData(data) : data);
+    }
+    textOut.close();
+    dataOut.close();
+    return System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Reads all records of a MapFile, returns the elapsed milliseconds.
+   */
+  private long read(FileSystem fs, Path file, Writable value)
+      throws Exception {
+    long start = System.currentTimeMillis();
+    MapFile.Reader reader = new MapFile.Reader(fs, file.toString(), getConf());
+    Text key = new Text();
+    while (reader.next(key, value)) {
+    }
+    reader.close();
+    return System.currentTimeMillis() - start;
+  }
+
+  public int run(String[] args) throws Exception {
+    int pages = 20000;
+    int hosts = 500;
+    int outlinks = 100;
+    int textWords = 500;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-pages")) {
+        pages = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-hosts")) {
+        hosts = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-outlinks")) {
+        outlinks = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-words")) {
+        textWords = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: ParseDataBenchmark [-pages n] [-hosts n]"
+            + " [-outlinks n] [-words n]");
+        System.err.println("\t-pages\tnumber of pages (default 20000)");
+        System.err.println("\t-hosts\tnumber of hosts (default 500)");
+        System.err.println("\t-outlinks\tnumber of outlinks per page (default 100)");
+        System.err.println("\t-words\tnumber of words of text per page (default 500)");
+        return -1;
+      }
+    }
+
+    FileSystem fs = FileSystem.get(getConf());
+    Path dir = new Path(getConf().get("hadoop.tmp.dir"), "parsedata-benchmark-"
+        + System.currentTimeMillis());
+    try {
+      System.out.println("* ParseData benchmark: " + pages + " pages, "
+          + outlinks + " outlinks and " + textWords + " words per page");
+      System.out.println("format\twrite ms\tparse_text bytes\tread ms"
+          + "\tparse_data bytes\tread ms");
+      for (int legacy = 1; legacy >= 0; legacy--) {
+        Path out = new Path(dir, legacy == 1 ? "legacy" : "current");
+        long writeTime = write(fs, out, legacy == 1, pages, hosts, outlinks,
+            textWords);
+        Path text = new Path(out, ParseText.DIR_NAME);
+        Path data = new Path(out, ParseData.DIR_NAME);
+        long textRead = read(fs, text, new ParseText());
+        long dataRead = read(fs, data, legacy == 1 ? new LegacyParseData()
+            : new ParseData());
+        LOG.info((legacy == 1 ? "legacy" : "current") + " format written in "
+            + writeTime + " ms");
+        System.out.println((legacy == 1 ? "legacy" : "current") + "\t"
+            + writeTime + "\t" + fs.getContentSummary(text).getLength() + "\t"
+            + textRead + "\t" + fs.getContentSummary(data).getLength() + "\t"
+            + dataRead);
+      }
+      return 0;
+    } finally {
+      fs.delete(dir, true);
+    }
+  }
+}
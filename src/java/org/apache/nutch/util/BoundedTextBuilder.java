@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+/**
+ * Builds the plain text of a document from pieces of text, such as the text
+ * nodes of a DOM. Whitespace in each piece is collapsed as by
+ * <code>text.replaceAll("\\s+", " ").trim()</code>, without creating
+ * intermediate strings, and non-empty pieces are separated by a space. The
+ * text can be limited to a maximum number of characters, once it is reached
+ * further pieces are ignored, so callers can stop collecting text.
+ *
+ * <p>An instance can be reused for several documents with
+ * {@link #reset(int)}. It is not thread safe.</p>
+ */
+public class BoundedTextBuilder implements CharSequence {
+
+  /** Configuration property for the maximum characters of parsed text. */
+  public static final String MAX_CHARS = "parser.text.max.chars";
+
+  /** Capacity above which the buffer is not kept by {@link #reset(int)}. */
+  private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+  private StringBuilder sb = new StringBuilder();
+  private int maxChars;
+  private boolean truncated;
+
+  /**
+   * @param maxChars the maximum length of the text, -1 for no limit
+   */
+  public BoundedTextBuilder(int maxChars) {
+    this.maxChars = maxChars;
+  }
+
+  /**
+   * Clears the text for reuse.
+   * @param maxChars the maximum length of the text, -1 for no limit
+   */
+  public void reset(int maxChars) {
+    if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+      sb = new StringBuilder();
+    } else {
+      sb.setLength(0);
+    }
+    this.maxChars = maxChars;
+    truncated = false;
+  }
+
+  /**
+   * Appends a piece of text with collapsed whitespace, preceded by a space
+   * unless it is the first non-empty piece.
+   * @return false if the maximum length has been reached, so that further
+   *   text is ignored
+   */
+  public boolean append(CharSequence text) {
+    if (truncated) {
+      return false;
+    }
+    truncated = !appendCollapsed(sb, text, maxChars);
+    return !truncated;
+  }
+
+  /** Returns true once the text reached the maximum length. */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  public int length() {
+    return sb.length();
+  }
+
+  public char charAt(int index) {
+    return sb.charAt(index);
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    return sb.subSequence(start, end);
+  }
+
+  public String toString() {
+    return sb.toString();
+  }
+
+  private static boolean isSpace(char c) {
+    // the characters of \s in java.util.regex
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f'
+      || c == '\r';
+  }
+
+  /**
+   * Appends <code>text.replaceAll("\\s+", " ").trim()</code> to
+   * <code>sb</code> if it is not empty, preceded by a space unless
+   * <code>sb</code> is empty, as much of it as fits.
+   * @param maxChars the maximum length of <code>sb</code>, -1 for no limit
+   * @return false once <code>sb</code> has the maximum length
+   */
+  public static boolean appendCollapsed(StringBuilder sb, CharSequence text,
+    int maxChars) {
+    int limit = maxChars < 0 ? Integer.MAX_VALUE : maxChars;
+    int start = 0;
+    int end = text.length();
+    // trim() removes all characters up to the space, which includes \s
+    while (start < end && text.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (start == end) {
+      return sb.length() < limit;
+    }
+    boolean space = sb.length() > 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (isSpace(c)) {
+        space = true;
+        continue;
+      }
+      if (sb.length() + (space ? 2 : 1) > limit) {
+        // do not split a surrogate pair
+        int length = sb.length();
+        if (length > 0 && Character.isHighSurrogate(sb.charAt(length - 1))) {
+          length--;
+          if (length > 0 && sb.charAt(length - 1) == ' ') {
+            length--;
+          }
+          sb.setLength(length);
+        }
+        return false;
+      }
+      if (space) {
+        sb.append(' ');
+        space = false;
+      }
+      sb.append(c);
+    }
+    return sb.length() < limit;
+  }
+}
@@ -25,10 +25,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.Content;
@@ -61,6 +64,14 @@ import com.ibm.icu.text.CharsetMatch;
  *        available;</li>
  *    <li>Run step (2) to guess what the most probable answer is.</li>
  * </p>
+ *
+ * <p>
+ * {@link #detectEncoding(Content, boolean, String)} does all of this for a
+ * document, cheaply for the common case: a byte order mark or a charset
+ * declared in the HTTP header and meta tags is found by scanning the bytes,
+ * and auto-detection only runs if there is none or they disagree. The
+ * result of auto-detection is remembered for the host of the document.
+ * </p>
  */
 public class EncodingDetector {
 
@@ -110,6 +121,11 @@ public class EncodingDetector {
   public static final String MIN_CONFIDENCE_KEY =
     "encodingdetector.charset.min.confidence";
 
+  public static final String HOST_CACHE_SIZE_KEY =
+    "encodingdetector.host.cache.size";
+
+  public static final String COUNTER_GROUP = "EncodingDetector";
+
   private static final HashMap<String, String> ALIASES =
     new HashMap<String, String>();
 
@@ -118,6 +134,33 @@ public class EncodingDetector {
   // CharsetDetector will die without a minimum amount of data.
   private static final int MIN_LENGTH=4;
 
+  // I used 1000 bytes at first, but  found that some documents have
+  // meta tag well past the first 1000 bytes.
+  // (e.g. http://cn.promo.yahoo.com/customcare/music.html)
+  private static final int CHUNK_SIZE = 2000;
+
+  private static final byte[] META = ascii("<meta");
+  private static final byte[] HTTP_EQUIV = ascii("http-equiv=");
+  private static final byte[] CONTENT_TYPE = ascii("content-type");
+  private static final byte[] CHARSET = ascii("charset");
+
+  private static final byte[] EMPTY = new byte[0];
+
+  // not cheap to create, reused per thread
+  private static final ThreadLocal<CharsetDetector> icuDetectors =
+    new ThreadLocal<CharsetDetector>() {
+      protected CharsetDetector initialValue() {
+        return new CharsetDetector();
+      }
+    };
+
+  // how the encoding was found by detectEncoding
+  private static final AtomicLong bomCount = new AtomicLong();
+  private static final AtomicLong declaredCount = new AtomicLong();
+  private static final AtomicLong hostCacheCount = new AtomicLong();
+  private static final AtomicLong icuCount = new AtomicLong();
+  private static final AtomicLong defaultCount = new AtomicLong();
+
   static {
     DETECTABLES.add("text/html");
     DETECTABLES.add("text/plain");
@@ -151,31 +194,69 @@ public class EncodingDetector {
 
   private int minConfidence;
 
-  private CharsetDetector detector;
+  private Map<String, String> hostCache;
 
   private List<EncodingClue> clues;
 
   public EncodingDetector(Configuration conf) {
     minConfidence = conf.getInt(MIN_CONFIDENCE_KEY, -1);
-    detector = new CharsetDetector();
+    if (minConfidence >= 0) {
+      hostCache = getHostCache(conf);
+    }
     clues = new ArrayList<EncodingClue>();
   }
 
+  /**
+   * Returns the cache of detected encodings by host shared by all detectors
+   * created from the same configuration, or null if it is disabled.
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String, String> getHostCache(Configuration conf) {
+    int maxEntries = conf.getInt(HOST_CACHE_SIZE_KEY, 1000);
+    if (maxEntries <= 0) {
+      return null;
+    }
+    ObjectCache objectCache = ObjectCache.get(conf);
+    String key = EncodingDetector.class.getName() + ".hosts";
+    synchronized (objectCache) {
+      Map<String, String> cache = (Map<String, String>) objectCache.getObject(key);
+      if (cache == null) {
+        cache = new LRUCache<String, String>(maxEntries);
+        objectCache.setObject(key, cache);
+      }
+      return cache;
+    }
+  }
+
   public void autoDetectClues(Content content, boolean filter) {
+    detectClues(content, filter);
+
+    // add character encoding coming from HTTP response header
+    addClue(parseCharacterEncoding(
+        content.getMetadata().get(Response.CONTENT_TYPE)), "header");
+  }
+
+  private boolean isDetectable(Content content) {
+    return minConfidence >= 0 && DETECTABLES.contains(content.getContentType())
+        && content.getContent().length > MIN_LENGTH;
+  }
+
+  // adds the clues of ICU4J, if auto-detection is enabled
+  private void detectClues(Content content, boolean filter) {
     byte[] data = content.getContent();
 
-    if (minConfidence >= 0 && DETECTABLES.contains(content.getContentType())
-        && data.length > MIN_LENGTH) {
+    if (isDetectable(content)) {
       CharsetMatch[] matches = null;
+      CharsetDetector detector = icuDetectors.get();
 
       // do all these in a try/catch; setText and detect/detectAll
       // will sometimes throw exceptions
       try {
         detector.enableInputFilter(filter);
-        if (data.length > MIN_LENGTH) {
-          detector.setText(data);
-          matches = detector.detectAll();
-        }
+        detector.setText(data);
+        matches = detector.detectAll();
+        // do not keep the content of the last document
+        detector.setText(EMPTY);
       } catch (Exception e) {
         LOG.debug("Exception from ICU4J (ignoring): ", e);
       }
@@ -186,10 +267,96 @@ public class EncodingDetector {
         }
       }
     }
+  }
 
-    // add character encoding coming from HTTP response header
-    addClue(parseCharacterEncoding(
-        content.getMetadata().get(Response.CONTENT_TYPE)), "header");
+  /**
+   * Guess the encoding of a document, replacing all previous clues. A byte
+   * order mark decides the encoding. Otherwise the charset declared in the
+   * HTTP header and, for HTML, in a meta tag is used, if auto-detection is
+   * disabled or the declarations agree. Only if they disagree or there is
+   * none, the encoding previously detected for the host of the document is
+   * used, or auto-detection runs as with
+   * {@link #autoDetectClues(Content, boolean)} and
+   * {@link #guessEncoding(Content, String)}.
+   *
+   * @param content Content instance
+   * @param html whether the content is HTML, so that meta tags are sniffed
+   * and markup is ignored by auto-detection
+   * @param defaultValue Default encoding to return if no encoding can be
+   * detected with enough confidence
+   *
+   * @return Guessed encoding or defaultValue
+   */
+  public String detectEncoding(Content content, boolean html,
+      String defaultValue) {
+    clearClues();
+    byte[] data = content.getContent();
+
+    String bom = detectByteOrderMark(data);
+    if (bom != null) {
+      bomCount.incrementAndGet();
+      return bom;
+    }
+
+    String header = resolveEncodingAlias(parseCharacterEncoding(
+        content.getMetadata().get(Response.CONTENT_TYPE)));
+    String sniffed = html ? resolveEncodingAlias(
+        sniffCharacterEncoding(data, CHUNK_SIZE)) : null;
+    String declared = header != null ? header : sniffed;
+    boolean agree = declared != null
+        && (sniffed == null || declared.equals(sniffed));
+
+    if (agree || !isDetectable(content)) {
+      if (declared == null) {
+        defaultCount.incrementAndGet();
+        return defaultValue.toLowerCase();
+      }
+      declaredCount.incrementAndGet();
+      return declared.toLowerCase();
+    }
+
+    String host = hostCache != null ? URLUtil.getHost(content.getUrl()) : null;
+    if (host != null) {
+      String cached;
+      synchronized (hostCache) {
+        cached = hostCache.get(host);
+      }
+      if (cached != null) {
+        hostCacheCount.incrementAndGet();
+        return cached;
+      }
+    }
+
+    icuCount.incrementAndGet();
+    detectClues(content, html);
+    addClue(header, "header");
+    addClue(sniffed, "sniffed");
+    String encoding = guessEncoding(content, defaultValue);
+    if (host != null && !clues.isEmpty() && clues.get(0).confidence >= minConfidence) {
+      // the best match of ICU4J, clues from declarations have no confidence
+      synchronized (hostCache) {
+        hostCache.put(host, encoding);
+      }
+    }
+    return encoding;
+  }
+
+  /**
+   * Add the number of documents whose encoding was found by each step of
+   * {@link #detectEncoding(Content, boolean, String)} since the last call
+   * to the counters of a task.
+   */
+  public static void report(Reporter reporter) {
+    long n = bomCount.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "byte order mark", n);
+    n = declaredCount.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "declared", n);
+    n = hostCacheCount.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "host cache", n);
+    n = icuCount.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "auto-detected", n);
+    n = defaultCount.getAndSet(0);
+    if (n > 0) reporter.incrCounter(COUNTER_GROUP, "default", n);
   }
 
   public void addClue(String value, String source, int confidence) {
@@ -345,6 +512,179 @@ public class EncodingDetector {
 
   }
 
+  private static byte[] ascii(String s) {
+    byte[] bytes = new byte[s.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) s.charAt(i);
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the encoding indicated by a byte order mark at the start of
+   * <code>content</code>, or <code>null</code> if there is none.
+   */
+  public static String detectByteOrderMark(byte[] content) {
+    if (content.length >= 3 && (content[0] & 0xff) == 0xef
+        && (content[1] & 0xff) == 0xbb && (content[2] & 0xff) == 0xbf) {
+      return "utf-8";
+    }
+    if (content.length >= 2
+        && (((content[0] & 0xff) == 0xfe && (content[1] & 0xff) == 0xff)
+            || ((content[0] & 0xff) == 0xff && (content[1] & 0xff) == 0xfe))) {
+      // the decoder reads the byte order from the mark
+      return "utf-16";
+    }
+    return null;
+  }
+
+  // the characters of \s in java.util.regex
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == 0x0b || b == '\f'
+      || b == '\r';
+  }
+
+  private static boolean isLetter(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+  }
+
+  private static boolean isCharsetChar(byte b) {
+    return isLetter(b) || (b >= '0' && b <= '9') || b == '_' || b == '-';
+  }
+
+  // whether the lower case ASCII string s is at content[i], ignoring case
+  private static boolean matches(byte[] content, int i, int end, byte[] s) {
+    if (i + s.length > end) {
+      return false;
+    }
+    for (int j = 0; j < s.length; j++) {
+      byte b = content[i + j];
+      if (b != s[j] && !(isLetter(b) && (b | 0x20) == s[j])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(byte[] content, int from, int end, byte[] s) {
+    for (int i = from; i <= end - s.length; i++) {
+      if (matches(content, i, end, s)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // the charset name at content[i], as [a-z][_\-0-9a-z]* ignoring case
+  private static String charsetAt(byte[] content, int i, int end) {
+    if (i >= end || !isLetter(content[i])) {
+      return null;
+    }
+    int j = i + 1;
+    while (j < end && isCharsetChar(content[j])) {
+      j++;
+    }
+    char[] name = new char[j - i];
+    for (int k = 0; k < name.length; k++) {
+      name[k] = (char) content[i + k];
+    }
+    return new String(name);
+  }
+
+  /**
+   * Given a <code>byte[]</code> representing an html file of an
+   * <em>unknown</em> encoding, read out 'charset' parameter in the meta tag
+   * from the first <code>length</code> bytes, without decoding them.
+   * The first meta tag with <code>http-equiv="content-type"</code> is used,
+   * as if matched by
+   * <code>&lt;meta\s+([^&gt;]*http-equiv=("|')?content-type("|')?[^&gt;]*)&gt;</code>
+   * and <code>charset=\s*([a-z][_\-0-9a-z]*)</code>. If there is none,
+   * the <code>charset</code> attribute of the first HTML5
+   * <code>&lt;meta charset="..."&gt;</code> is used.
+   * If there's no such meta tag or no charset is specified,
+   * <code>null</code> is returned.  <br />
+   * FIXME: non-byte oriented character encodings (UTF-16, UTF-32)
+   * can't be handled with this.
+   * See also http://www.w3.org/TR/REC-xml/#sec-guessing
+   *
+   * @param content <code>byte[]</code> representation of an html file
+   * @param length the maximum number of bytes to scan
+   */
+  public static String sniffCharacterEncoding(byte[] content, int length) {
+    int end = Math.min(content.length, length);
+    String html5 = null;
+    for (int i = indexOf(content, 0, end, META); i >= 0;
+         i = indexOf(content, i + 1, end, META)) {
+      int start = i + META.length;
+      if (start >= end || !isSpace(content[start])) {
+        continue;
+      }
+      while (start < end && isSpace(content[start])) {
+        start++;
+      }
+      int close = start;
+      while (close < end && content[close] != '>') {
+        close++;
+      }
+      if (close == end) {
+        // no later tag is closed either
+        break;
+      }
+
+      // the attributes are content[start..close)
+      boolean contentType = false;
+      for (int p = indexOf(content, start, close, HTTP_EQUIV); p >= 0
+           && !contentType; p = indexOf(content, p + 1, close, HTTP_EQUIV)) {
+        int q = p + HTTP_EQUIV.length;
+        if (q < close && (content[q] == '"' || content[q] == '\'')) {
+          q++;
+        }
+        contentType = matches(content, q, close, CONTENT_TYPE);
+      }
+      if (contentType) {
+        for (int p = indexOf(content, start, close, CHARSET); p >= 0;
+             p = indexOf(content, p + 1, close, CHARSET)) {
+          int q = p + CHARSET.length;
+          if (q < close && content[q] == '=') {
+            q++;
+            while (q < close && isSpace(content[q])) {
+              q++;
+            }
+            String charset = charsetAt(content, q, close);
+            if (charset != null) {
+              return charset;
+            }
+          }
+        }
+        return null;
+      }
+
+      if (html5 == null) {
+        for (int p = indexOf(content, start, close, CHARSET); p >= 0
+             && html5 == null; p = indexOf(content, p + 1, close, CHARSET)) {
+          if (p > start && !isSpace(content[p - 1])) {
+            continue;
+          }
+          int q = p + CHARSET.length;
+          while (q < close && isSpace(content[q])) {
+            q++;
+          }
+          if (q < close && content[q] == '=') {
+            q++;
+            while (q < close && isSpace(content[q])) {
+              q++;
+            }
+            if (q < close && (content[q] == '"' || content[q] == '\'')) {
+              q++;
+            }
+            html5 = charsetAt(content, q, close);
+          }
+        }
+      }
+    }
+    return html5;
+  }
+
   public static void main(String[] args) throws IOException {
     if (args.length != 1) {
       System.err.println("Usage: EncodingDetector <file>");
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map holding at most a fixed number of entries, the least recently
+ * accessed entry is removed when a new one is added to a full map. Like
+ * {@link LinkedHashMap} it is not thread safe, note that in access order
+ * {@link #get(Object)} modifies the map as well.
+ */
+public class LRUCache<K, V> extends LinkedHashMap<K, V> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int maxEntries;
+
+  /**
+   * @param maxEntries the maximum number of entries
+   */
+  public LRUCache(int maxEntries) {
+    super(Math.min(maxEntries, 1024), 0.75f, true);
+    this.maxEntries = maxEntries;
+  }
+
+  protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+    return size() > maxEntries;
+  }
+}
@@ -16,13 +16,18 @@
  */
 package org.apache.nutch.util;
 
-import java.util.HashMap;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
 
+/**
+ * Caches objects per {@link Configuration}, e.g. plugin instances. Instances
+ * are thread-safe. Objects which are created on a miss may be created by more
+ * than one thread, synchronize on the ObjectCache to avoid this.
+ */
 public class ObjectCache {
   
   private static final Logger LOG = LoggerFactory.getLogger(ObjectCache.class);
@@ -30,29 +35,36 @@ public class ObjectCache {
   private static final WeakHashMap<Configuration, ObjectCache> CACHE = 
     new WeakHashMap<Configuration, ObjectCache>();
 
-  private final HashMap<String, Object> objectMap;
+  private final ConcurrentHashMap<String, Object> objectMap;
   
   private ObjectCache() {
-    objectMap = new HashMap<String, Object>();
+    objectMap = new ConcurrentHashMap<String, Object>();
   }
   
   public static ObjectCache get(Configuration conf) {
-    ObjectCache objectCache = CACHE.get(conf);
-    if (objectCache == null) {
-      LOG.debug("No object cache found for conf=" + conf 
-                  + ", instantiating a new object cache");
-      objectCache = new ObjectCache();
-      CACHE.put(conf, objectCache);
+    synchronized (CACHE) {
+      ObjectCache objectCache = CACHE.get(conf);
+      if (objectCache == null) {
+        LOG.debug("No object cache found for conf=" + conf 
+                    + ", instantiating a new object cache");
+        objectCache = new ObjectCache();
+        CACHE.put(conf, objectCache);
+      }
+      return objectCache;
     }
-    return objectCache;
   }
   
   public Object getObject(String key) {
     return objectMap.get(key);
   }
   
+  /** Caches an object, a null value removes the key. */
   public void setObject(String key, Object value) {
-    objectMap.put(key, value);
+    if (value == null) {
+      objectMap.remove(key);
+    } else {
+      objectMap.put(key, value);
+    }
   }
 }
 
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A mergeable quantile sketch with relative accuracy guarantees. Values are
+ * counted in logarithmically sized buckets, so that any quantile estimate
+ * is within <code>relativeAccuracy</code> of the true value. Two sketches
+ * (with the same accuracy) are merged by summing the counts of their
+ * buckets, which makes it possible to compute them in mappers and combiners
+ * using plain counters keyed by {@link #getBuckets() bucket names}.
+ */
+public class QuantileSketch {
+
+  private static final String ZERO = "z";
+  private static final char POSITIVE = 'p';
+  private static final char NEGATIVE = 'n';
+
+  private final double gamma;
+  private final double logGamma;
+
+  private final HashMap<Integer, long[]> positive = new HashMap<Integer, long[]>();
+  private final HashMap<Integer, long[]> negative = new HashMap<Integer, long[]>();
+  private long zeros = 0;
+  private long count = 0;
+
+  /**
+   * @param relativeAccuracy maximum relative error of quantile estimates,
+   * e.g. 0.01 for 1%.
+   */
+  public QuantileSketch(double relativeAccuracy) {
+    if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+      throw new IllegalArgumentException("relativeAccuracy must be in (0, 1)");
+    }
+    gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    logGamma = Math.log(gamma);
+  }
+
+  /** Add a single value. */
+  public void add(double value) {
+    add(value, 1);
+  }
+
+  /** Add a value <code>n</code> times. */
+  public void add(double value, long n) {
+    if (Double.isNaN(value)) return;
+    if (value > 0) {
+      increment(positive, index(value), n);
+    } else if (value < 0) {
+      increment(negative, index(-value), n);
+    } else {
+      zeros += n;
+    }
+    count += n;
+  }
+
+  /**
+   * Add the count of a bucket, as returned by {@link #getBuckets()} of
+   * another sketch with the same accuracy.
+   */
+  public void add(String bucket, long n) {
+    if (ZERO.equals(bucket)) {
+      zeros += n;
+    } else if (bucket.charAt(0) == POSITIVE) {
+      increment(positive, Integer.parseInt(bucket.substring(1)), n);
+    } else if (bucket.charAt(0) == NEGATIVE) {
+      increment(negative, Integer.parseInt(bucket.substring(1)), n);
+    } else {
+      throw new IllegalArgumentException("Invalid bucket: " + bucket);
+    }
+    count += n;
+  }
+
+  /** Merge another sketch with the same accuracy into this one. */
+  public void merge(QuantileSketch other) {
+    for (Map.Entry<String, Long> e : other.getBuckets().entrySet()) {
+      add(e.getKey(), e.getValue());
+    }
+  }
+
+  /** Returns the non-empty buckets of this sketch and their counts. */
+  public Map<String, Long> getBuckets() {
+    HashMap<String, Long> res = new HashMap<String, Long>();
+    for (Map.Entry<Integer, long[]> e : positive.entrySet()) {
+      res.put(POSITIVE + e.getKey().toString(), e.getValue()[0]);
+    }
+    for (Map.Entry<Integer, long[]> e : negative.entrySet()) {
+      res.put(NEGATIVE + e.getKey().toString(), e.getValue()[0]);
+    }
+    if (zeros > 0) res.put(ZERO, zeros);
+    return res;
+  }
+
+  /** Total number of values added. */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Estimate the value at quantile <code>q</code>.
+   * @param q quantile, between 0 and 1
+   * @return estimated value, or NaN if the sketch is empty
+   */
+  public double getQuantile(double q) {
+    if (count == 0) return Double.NaN;
+    long rank = (long) Math.floor(q * (count - 1));
+    long seen = 0;
+    // negative values, from the largest magnitude down
+    TreeMap<Integer, long[]> neg = new TreeMap<Integer, long[]>(negative);
+    for (Map.Entry<Integer, long[]> e : neg.descendingMap().entrySet()) {
+      seen += e.getValue()[0];
+      if (seen > rank) return -value(e.getKey());
+    }
+    seen += zeros;
+    if (seen > rank) return 0;
+    TreeMap<Integer, long[]> pos = new TreeMap<Integer, long[]>(positive);
+    for (Map.Entry<Integer, long[]> e : pos.entrySet()) {
+      seen += e.getValue()[0];
+      if (seen > rank) return value(e.getKey());
+    }
+    return value(pos.lastKey());
+  }
+
+  private int index(double value) {
+    return (int) Math.ceil(Math.log(value) / logGamma);
+  }
+
+  private double value(int index) {
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  private static void increment(HashMap<Integer, long[]> buckets, int index, long n) {
+    long[] cnt = buckets.get(index);
+    if (cnt == null) {
+      cnt = new long[1];
+      buckets.put(index, cnt);
+    }
+    cnt[0] += n;
+  }
+}
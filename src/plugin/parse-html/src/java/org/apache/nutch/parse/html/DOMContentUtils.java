@@ -48,6 +48,7 @@ import org.apache.nutch.protocol.Protocol;
 import org.apache.nutch.protocol.ProtocolFactory;
 import org.apache.nutch.protocol.ProtocolNotFound;
 import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.util.BoundedTextBuilder;
 import org.apache.nutch.util.NodeWalker;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.StringUtil;
@@ -98,6 +99,15 @@ public class DOMContentUtils {
   }
   
   private HashMap<String,LinkParams> linkParams = new HashMap<String,LinkParams>();
+
+  // reused by getText(Node), per thread as parsers are shared
+  private static final ThreadLocal<BoundedTextBuilder> textBuilder =
+    new ThreadLocal<BoundedTextBuilder>() {
+      protected BoundedTextBuilder initialValue() {
+        return new BoundedTextBuilder(-1);
+      }
+    };
+  private int maxTextChars;
   private static Configuration conf = NutchConfiguration.create();
   private static ProtocolFactory protocolFactory = new ProtocolFactory(conf);
   
@@ -120,6 +130,7 @@ public class DOMContentUtils {
     Collection<String> forceTags = new ArrayList<String>(1);
 
     this.conf = conf;
+    this.maxTextChars = conf.getInt(BoundedTextBuilder.MAX_CHARS, -1);
     linkParams.clear();
     linkParams.put("a", new LinkParams("a", "href", 1));
     linkParams.put("area", new LinkParams("area", "href", 0));
@@ -142,6 +153,16 @@ public class DOMContentUtils {
     }
   }
   
+  /** Returns the maximum length of the text, -1 if unlimited. */
+  int getMaxTextChars() {
+    return maxTextChars;
+  }
+
+  /** Returns the link elements and attributes, by lower case element name. */
+  Map<String,LinkParams> getLinkParams() {
+    return linkParams;
+  }
+
   /**
    * This method takes a {@link StringBuffer} and a DOM {@link Node},
    * and will append all the content text found beneath the DOM node to 
@@ -159,10 +180,13 @@ public class DOMContentUtils {
    */
   public static boolean getText(StringBuffer sb, Node node, 
                                       boolean abortOnNestedAnchors) {
-    if (getTextHelper(sb, node, abortOnNestedAnchors, 0)) {
-      return true;
-    } 
-    return false;
+    BoundedTextBuilder text = new BoundedTextBuilder(-1);
+    boolean abort = getTextHelper(text, node, abortOnNestedAnchors, 0);
+    if (text.length() > 0) {
+      if (sb.length() > 0) sb.append(' ');
+      sb.append(text);
+    }
+    return abort;
   }
 
 
@@ -175,9 +199,22 @@ public class DOMContentUtils {
     getText(sb, node, false);
   }
 
+  /**
+   * Returns the content text found beneath the DOM node, as {@link
+   * #getText(StringBuffer,Node) getText(sb, node)} does, but at most
+   * <code>parser.text.max.chars</code> characters. The DOM traversal stops
+   * once the limit is reached.
+   */
+  public String getText(Node node) {
+    BoundedTextBuilder text = textBuilder.get();
+    text.reset(maxTextChars);
+    getTextHelper(text, node, false, 0);
+    return text.toString();
+  }
+
   // returns true if abortOnNestedAnchors is true and we find nested 
   // anchors
-  private static boolean getTextHelper(StringBuffer sb, Node node, 
+  private static boolean getTextHelper(BoundedTextBuilder text, Node node, 
                                              boolean abortOnNestedAnchors,
                                              int anchorDepth) {
     boolean abort = false;
@@ -207,12 +244,8 @@ public class DOMContentUtils {
       }
       if (nodeType == Node.TEXT_NODE) {
         // cleanup and trim the value
-        String text = currentNode.getNodeValue();
-        text = text.replaceAll("\\s+", " ");
-        text = text.trim();
-        if (text.length() > 0) {
-          if (sb.length() > 0) sb.append(' ');
-        	sb.append(text);
+        if (!text.append(currentNode.getNodeValue())) {
+          break;                      // no more text wanted
         }
       }
     }
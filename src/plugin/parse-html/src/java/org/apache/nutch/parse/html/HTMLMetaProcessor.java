@@ -75,128 +75,16 @@ public class HTMLMetaProcessor {
           }
         }
         
-        if (nameNode != null) {
-          if (contentNode != null) {
-            String name = nameNode.getNodeValue().toLowerCase();
-            metaTags.getGeneralTags().setProperty(name, contentNode.getNodeValue());
-            if ("robots".equals(name)) {
-  
-              if (contentNode != null) {
-                String directives = 
-                  contentNode.getNodeValue().toLowerCase();
-                int index = directives.indexOf("none");
-  
-                if (index >= 0) {
-                  metaTags.setNoIndex();
-                  metaTags.setNoFollow();
-                }
-  
-                index = directives.indexOf("all");
-                if (index >= 0) {
-                  // do nothing...
-                }
-  
-                index = directives.indexOf("noindex");
-                if (index >= 0) {
-                  metaTags.setNoIndex();
-                }
-  
-                index = directives.indexOf("nofollow");
-                if (index >= 0) {
-                  metaTags.setNoFollow();
-                }
-                
-                index = directives.indexOf("noarchive");
-                if (index >= 0) {
-                  metaTags.setNoCache();
-                }
-              } 
-  
-            } // end if (name == robots)
-          }
-        }
-
-        if (equivNode != null) {
-          if (contentNode != null) {
-            String name = equivNode.getNodeValue().toLowerCase();
-            String content = contentNode.getNodeValue();
-            metaTags.getHttpEquivTags().setProperty(name, content);
-            if ("pragma".equals(name)) {
-              content = content.toLowerCase();
-              int index = content.indexOf("no-cache");
-              if (index >= 0) 
-                metaTags.setNoCache();
-            } else if ("refresh".equals(name)) {
-              int idx = content.indexOf(';');
-              String time = null;
-              if (idx == -1) { // just the refresh time
-                time = content;
-              } else time = content.substring(0, idx);
-              try {
-                metaTags.setRefreshTime(Integer.parseInt(time));
-                // skip this if we couldn't parse the time
-                metaTags.setRefresh(true);
-              } catch (Exception e) {
-                ;
-              }
-              URL refreshUrl = null;
-              if (metaTags.getRefresh() && idx != -1) { // set the URL
-                idx = content.toLowerCase().indexOf("url=");
-                if (idx == -1) { // assume a mis-formatted entry with just the url
-                  idx = content.indexOf(';') + 1;
-                } else idx += 4;
-                if (idx != -1) {
-                  String url = content.substring(idx);
-                  try {
-                    refreshUrl = new URL(url);
-                  } catch (Exception e) {
-                    // XXX according to the spec, this has to be an absolute
-                    // XXX url. However, many websites use relative URLs and
-                    // XXX expect browsers to handle that.
-                    // XXX Unfortunately, in some cases this may create a
-                    // XXX infinitely recursive paths (a crawler trap)...
-                    // if (!url.startsWith("/")) url = "/" + url;
-                    try {
-                      refreshUrl = new URL(currURL, url);
-                    } catch (Exception e1) {
-                      refreshUrl = null;
-                    }
-                  }
-                }
-              }
-              if (metaTags.getRefresh()) {
-                if (refreshUrl == null) {
-                  // apparently only refresh time was present. set the URL
-                  // to the same URL.
-                  refreshUrl = currURL;
-                }
-                metaTags.setRefreshHref(refreshUrl);
-              }
-            }
-          }
-        }
+        processMeta(metaTags,
+            nameNode == null ? null : nameNode.getNodeValue(),
+            equivNode == null ? null : equivNode.getNodeValue(),
+            contentNode == null ? null : contentNode.getNodeValue(), currURL);
 
       } else if ("base".equalsIgnoreCase(node.getNodeName())) {
-        NamedNodeMap attrs = node.getAttributes();
-        Node hrefNode = attrs.getNamedItem("href");
-
+        Node hrefNode = node.getAttributes().getNamedItem("href");
         if (hrefNode != null) {
-          String urlString = hrefNode.getNodeValue();
-
-          URL url = null;
-          try {
-            if (currURL == null)
-              url = new URL(urlString);
-            else 
-              url = new URL(currURL, urlString);
-          } catch (Exception e) {
-            ;
-          }
-
-          if (url != null) 
-            metaTags.setBaseHref(url);
+          processBase(metaTags, hrefNode.getNodeValue(), currURL);
         }
-
       }
 
     }
@@ -210,4 +98,127 @@ public class HTMLMetaProcessor {
     }
   }
 
+  /**
+   * Sets the indicators in <code>metaTags</code> for a META tag with the
+   * given name, http-equiv and content attributes, each of which may be null.
+   */
+  static final void processMeta(HTMLMetaTags metaTags, String nameValue,
+    String equivValue, String contentValue, URL currURL) {
+
+    if (nameValue != null) {
+      if (contentValue != null) {
+        String name = nameValue.toLowerCase();
+        metaTags.getGeneralTags().setProperty(name, contentValue);
+        if ("robots".equals(name)) {
+          String directives = contentValue.toLowerCase();
+          int index = directives.indexOf("none");
+
+          if (index >= 0) {
+            metaTags.setNoIndex();
+            metaTags.setNoFollow();
+          }
+
+          index = directives.indexOf("all");
+          if (index >= 0) {
+            // do nothing...
+          }
+
+          index = directives.indexOf("noindex");
+          if (index >= 0) {
+            metaTags.setNoIndex();
+          }
+
+          index = directives.indexOf("nofollow");
+          if (index >= 0) {
+            metaTags.setNoFollow();
+          }
+
+          index = directives.indexOf("noarchive");
+          if (index >= 0) {
+            metaTags.setNoCache();
+          }
+        } // end if (name == robots)
+      }
+    }
+
+    if (equivValue != null) {
+      if (contentValue != null) {
+        String name = equivValue.toLowerCase();
+        String content = contentValue;
+        metaTags.getHttpEquivTags().setProperty(name, content);
+        if ("pragma".equals(name)) {
+          content = content.toLowerCase();
+          int index = content.indexOf("no-cache");
+          if (index >= 0) 
+            metaTags.setNoCache();
+        } else if ("refresh".equals(name)) {
+          int idx = content.indexOf(';');
+          String time = null;
+          if (idx == -1) { // just the refresh time
+            time = content;
+          } else time = content.substring(0, idx);
+          try {
+            metaTags.setRefreshTime(Integer.parseInt(time));
+            // skip this if we couldn't parse the time
+            metaTags.setRefresh(true);
+          } catch (Exception e) {
+            ;
+          }
+          URL refreshUrl = null;
+          if (metaTags.getRefresh() && idx != -1) { // set the URL
+            idx = content.toLowerCase().indexOf("url=");
+            if (idx == -1) { // assume a mis-formatted entry with just the url
+              idx = content.indexOf(';') + 1;
+            } else idx += 4;
+            if (idx != -1) {
+              String url = content.substring(idx);
+              try {
+                refreshUrl = new URL(url);
+              } catch (Exception e) {
+                // XXX according to the spec, this has to be an absolute
+                // XXX url. However, many websites use relative URLs and
+                // XXX expect browsers to handle that.
+                // XXX Unfortunately, in some cases this may create a
+                // XXX infinitely recursive paths (a crawler trap)...
+                // if (!url.startsWith("/")) url = "/" + url;
+                try {
+                  refreshUrl = new URL(currURL, url);
+                } catch (Exception e1) {
+                  refreshUrl = null;
+                }
+              }
+            }
+          }
+          if (metaTags.getRefresh()) {
+            if (refreshUrl == null) {
+              // apparently only refresh time was present. set the URL
+              // to the same URL.
+              refreshUrl = currURL;
+            }
+            metaTags.setRefreshHref(refreshUrl);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the base href in <code>metaTags</code> for a BASE tag.
+   */
+  static final void processBase(HTMLMetaTags metaTags, String urlString,
+    URL currURL) {
+    URL url = null;
+    try {
+      if (currURL == null)
+        url = new URL(urlString);
+      else 
+        url = new URL(currURL, urlString);
+    } catch (Exception e) {
+      ;
+    }
+
+    if (url != null) 
+      metaTags.setBaseHref(url);
+  }
+
 }
@@ -0,0 +1,419 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.html.DOMContentUtils.LinkParams;
+import org.apache.nutch.util.BoundedTextBuilder;
+import org.apache.nutch.util.URLUtil;
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Extracts the text, title, base, meta directives and outlinks of a page
+ * from the SAX events of an HTML parser, without building a DOM. The results
+ * are the same as those of {@link DOMContentUtils} and
+ * {@link HTMLMetaProcessor} on the DOM the parser would build, but the
+ * memory used is proportional to the extracted content instead of the page.
+ */
+public class HtmlContentHandler extends DefaultHandler
+  implements LexicalHandler {
+
+  /** Kinds of the first children of a link, see {@link #shouldThrowAway}. */
+  private static final int ELEMENT = 1;
+  private static final int TEXT = 2;
+  private static final int OTHER = 3;
+
+  /** An element with a link, from its start until its end tag. */
+  private static class Link {
+    LinkParams params;
+    int depth;
+    String target;
+    boolean noFollow;
+    boolean post;
+
+    StringBuilder text = new StringBuilder();
+    // open script and style elements outside of the link
+    int skipDepth;
+    int anchorDepth;
+    boolean aborted;
+    // img alt and raw text, used as anchor if there is no text
+    StringBuilder fallback = new StringBuilder();
+
+    int childLen;
+    int[] childKinds = new int[3];
+    String[] childNames = new String[3];
+    boolean[] childBlank = new boolean[3];
+
+    void addChild(int kind, String name, boolean blank) {
+      if (childLen < 3) {
+        childKinds[childLen] = kind;
+        childNames[childLen] = name;
+        childBlank[childLen] = blank;
+      }
+      childLen++;
+    }
+
+    boolean isLink(int i) {
+      return childKinds[i] == ELEMENT
+        && params.elName.equalsIgnoreCase(childNames[i]);
+    }
+
+    boolean isBlankText(int i) {
+      return childKinds[i] == TEXT && childBlank[i];
+    }
+  }
+
+  private Map<String, LinkParams> linkParams;
+  private HTMLMetaTags metaTags;
+  private URL currURL;
+
+  private StringBuilder pending = new StringBuilder();
+  private BoundedTextBuilder text = new BoundedTextBuilder(-1);
+  private StringBuilder title = new StringBuilder();
+  private URL base;
+
+  private int depth;
+  private int skipDepth;
+  private int bodyDepth;
+  private boolean bodySeen;
+  private boolean titleSeen;
+  private int titleDepth;
+  private int titleSkipDepth;
+  private boolean inCDATA;
+
+  private List<Link> links = new ArrayList<Link>();
+  private List<Link> openLinks = new ArrayList<Link>();
+
+  /**
+   * @param linkParams the link elements and attributes, by lower case
+   *   element name
+   * @param metaTags receives the meta directives of the page
+   * @param currURL the url of the page, to resolve relative meta urls
+   */
+  public HtmlContentHandler(Map<String, LinkParams> linkParams,
+    HTMLMetaTags metaTags, URL currURL) {
+    this.linkParams = linkParams;
+    this.metaTags = metaTags;
+    this.currURL = currURL;
+    metaTags.reset();
+  }
+
+  /**
+   * Limits the text returned by {@link #getText()}.
+   * @param maxChars the maximum length of the text, -1 for no limit
+   */
+  public void setMaxTextChars(int maxChars) {
+    text.reset(maxChars);
+  }
+
+  /** Returns the text of the page, as {@link DOMContentUtils#getText}. */
+  public String getText() {
+    return text.toString();
+  }
+
+  /** Returns the title of the page, as {@link DOMContentUtils#getTitle}. */
+  public String getTitle() {
+    return title.toString();
+  }
+
+  /** Returns the base url of the page, as {@link DOMContentUtils#getBase}. */
+  public URL getBase() {
+    return base;
+  }
+
+  /**
+   * Adds the outlinks of the page to <code>outlinks</code>, as
+   * {@link DOMContentUtils#getOutlinks}.
+   */
+  public void getOutlinks(URL base, ArrayList<Outlink> outlinks) {
+    for (Link link : links) {
+      if (shouldThrowAway(link) || link.target == null || link.noFollow
+          || link.post) {
+        continue;
+      }
+      String anchor = link.text.toString();
+      if (anchor.trim().length() == 0 && link.fallback != null) {
+        anchor = link.fallback.toString();
+      }
+      try {
+        URL url = URLUtil.resolveURL(base, link.target);
+        outlinks.add(new Outlink(url.toString(), anchor.trim()));
+      } catch (MalformedURLException e) {
+        // don't care
+      }
+    }
+  }
+
+  // the cases of DOMContentUtils.shouldThrowAwayLink
+  private boolean shouldThrowAway(Link link) {
+    switch (link.childLen) {
+    case 0:
+      return link.params.childLen != 0;
+    case 1:
+      return link.isLink(0);
+    case 2:
+      return (link.isLink(0) && link.isBlankText(1))
+        || (link.isLink(1) && link.isBlankText(0));
+    case 3:
+      return link.isLink(1) && link.isBlankText(0) && link.isBlankText(2);
+    default:
+      return false;
+    }
+  }
+
+  private Link parentLink() {
+    if (openLinks.isEmpty()) {
+      return null;
+    }
+    Link link = openLinks.get(openLinks.size() - 1);
+    return link.depth == depth ? link : null;
+  }
+
+  private static boolean isWhitespace(CharSequence s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (!Character.isWhitespace(s.charAt(i)))
+        return false;
+    }
+    return true;
+  }
+
+  /** Handles the text node ending here, the DOM merges adjacent text. */
+  private void flushText() {
+    if (pending.length() == 0) {
+      return;
+    }
+    Link parent = parentLink();
+    if (parent != null) {
+      parent.addChild(TEXT, null, isWhitespace(pending));
+    }
+
+    if (skipDepth == 0) {
+      text.append(pending);
+    }
+    if (titleDepth > 0 && skipDepth == titleSkipDepth) {
+      BoundedTextBuilder.appendCollapsed(title, pending, -1);
+    }
+    for (Link link : openLinks) {
+      if (skipDepth == link.skipDepth && !link.aborted) {
+        BoundedTextBuilder.appendCollapsed(link.text, pending, -1);
+      }
+      if (link.fallback != null) {
+        if (link.text.length() > 0) {
+          // only used for links without text
+          link.fallback = null;
+        } else {
+          if (link.fallback.length() > 0) link.fallback.append(' ');
+          link.fallback.append(pending);
+        }
+      }
+    }
+    pending.setLength(0);
+  }
+
+  public void startDocument() {
+    pending.setLength(0);
+  }
+
+  public void endDocument() {
+    flushText();
+  }
+
+  public void startElement(String uri, String localName, String qName,
+    Attributes attributes) {
+    flushText();
+    String name = (qName == null || qName.length() == 0) ? localName : qName;
+    name = name.toLowerCase();
+
+    Link parent = parentLink();
+    if (parent != null) {
+      parent.addChild(ELEMENT, name, false);
+    }
+    depth++;
+
+    // like DOMContentUtils.getText, any further anchor aborts the text,
+    // unless it is in a skipped script or style
+    boolean anchor = "a".equals(name);
+    if (anchor) {
+      for (Link link : openLinks) {
+        if (skipDepth == link.skipDepth && ++link.anchorDepth > 1) {
+          link.aborted = true;
+        }
+      }
+    }
+
+    if ("body".equals(name)) {
+      bodySeen = true;
+      bodyDepth++;
+    } else if (!bodySeen && !titleSeen && "title".equals(name)) {
+      titleSeen = true;
+      titleDepth = depth;
+      titleSkipDepth = skipDepth;
+    } else if (!bodySeen && base == null && "base".equals(name)) {
+      for (int i = 0; i < attributes.getLength() && base == null; i++) {
+        if ("href".equalsIgnoreCase(attributes.getQName(i))) {
+          try {
+            base = new URL(attributes.getValue(i));
+          } catch (MalformedURLException e) {}
+        }
+      }
+    }
+
+    // meta directives, which should not be under body
+    if (bodyDepth == 0) {
+      if ("meta".equals(name)) {
+        String nameValue = null;
+        String equivValue = null;
+        String contentValue = null;
+        for (int i = 0; i < attributes.getLength(); i++) {
+          String attrName = attributes.getQName(i).toLowerCase();
+          if (attrName.equals("name")) {
+            nameValue = attributes.getValue(i);
+          } else if (attrName.equals("http-equiv")) {
+            equivValue = attributes.getValue(i);
+          } else if (attrName.equals("content")) {
+            contentValue = attributes.getValue(i);
+          }
+        }
+        HTMLMetaProcessor.processMeta(metaTags, nameValue, equivValue,
+          contentValue, currURL);
+      } else if ("base".equals(name)) {
+        String href = attributes.getValue("href");
+        if (href != null) {
+          HTMLMetaProcessor.processBase(metaTags, href, currURL);
+        }
+      }
+    }
+
+    LinkParams params = linkParams.get(name);
+    if (params != null) {
+      Link link = new Link();
+      link.params = params;
+      link.depth = depth;
+      link.skipDepth = skipDepth;
+      link.anchorDepth = anchor ? 1 : 0;
+      for (int i = 0; i < attributes.getLength(); i++) {
+        String attrName = attributes.getQName(i);
+        String value = attributes.getValue(i);
+        if (params.attrName.equalsIgnoreCase(attrName)) {
+          link.target = value;
+        } else if ("rel".equalsIgnoreCase(attrName) &&
+                   "nofollow".equalsIgnoreCase(value)) {
+          link.noFollow = true;
+        } else if ("method".equalsIgnoreCase(attrName) &&
+                   "post".equalsIgnoreCase(value)) {
+          link.post = true;
+        }
+      }
+      links.add(link);
+      openLinks.add(link);
+    }
+
+    if ("script".equals(name) || "style".equals(name)) {
+      skipDepth++;
+    }
+
+    if ("img".equals(name) && !openLinks.isEmpty()) {
+      String alt = attributes.getValue("alt");
+      if (alt != null && alt.trim().length() > 0) {
+        for (Link open : openLinks) {
+          if (open.fallback != null) {
+            if (open.fallback.length() > 0) open.fallback.append(' ');
+            open.fallback.append(alt);
+          }
+        }
+      }
+    }
+  }
+
+  public void endElement(String uri, String localName, String qName) {
+    flushText();
+    String name = (qName == null || qName.length() == 0) ? localName : qName;
+    name = name.toLowerCase();
+
+    if (!openLinks.isEmpty()
+        && openLinks.get(openLinks.size() - 1).depth == depth) {
+      openLinks.remove(openLinks.size() - 1);
+    }
+    if (("script".equals(name) || "style".equals(name)) && skipDepth > 0) {
+      skipDepth--;
+    }
+    if ("body".equals(name) && bodyDepth > 0) {
+      bodyDepth--;
+    }
+    if (titleDepth == depth) {
+      titleDepth = 0;
+    }
+    depth--;
+  }
+
+  public void characters(char[] ch, int start, int length) {
+    if (!inCDATA) {
+      pending.append(ch, start, length);
+    }
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    characters(ch, start, length);
+  }
+
+  public void processingInstruction(String target, String data) {
+    flushText();
+    Link parent = parentLink();
+    if (parent != null) {
+      parent.addChild(OTHER, null, false);
+    }
+  }
+
+  public void comment(char[] ch, int start, int length) {
+    flushText();
+    Link parent = parentLink();
+    if (parent != null) {
+      parent.addChild(OTHER, null, false);
+    }
+  }
+
+  public void startCDATA() {
+    flushText();
+    inCDATA = true;
+    Link parent = parentLink();
+    if (parent != null) {
+      parent.addChild(OTHER, null, false);
+    }
+  }
+
+  public void endCDATA() {
+    inCDATA = false;
+  }
+
+  public void startDTD(String name, String publicId, String systemId) {}
+
+  public void endDTD() {}
+
+  public void startEntity(String name) {}
+
+  public void endEntity(String name) {}
+}
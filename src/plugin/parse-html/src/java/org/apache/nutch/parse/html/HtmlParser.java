@@ -22,14 +22,10 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.html.dom.HTMLDocumentImpl;
@@ -49,6 +45,7 @@ import org.apache.nutch.protocol.Content;
 import org.apache.nutch.util.EncodingDetector;
 import org.apache.nutch.util.NutchConfiguration;
 import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.cyberneko.html.parsers.SAXParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.DOMException;
@@ -59,67 +56,10 @@ import org.xml.sax.SAXException;
 public class HtmlParser implements Parser {
   public static final Logger LOG = LoggerFactory.getLogger("org.apache.nutch.parse.html");
 
-  // I used 1000 bytes at first, but  found that some documents have 
-  // meta tag well past the first 1000 bytes. 
-  // (e.g. http://cn.promo.yahoo.com/customcare/music.html)
-  private static final int CHUNK_SIZE = 2000;
-
-  // NUTCH-1006 Meta equiv with single quotes not accepted
-  private static Pattern metaPattern =
-    Pattern.compile("<meta\\s+([^>]*http-equiv=(\"|')?content-type(\"|')?[^>]*)>",
-                    Pattern.CASE_INSENSITIVE);
-  private static Pattern charsetPattern =
-    Pattern.compile("charset=\\s*([a-z][_\\-0-9a-z]*)",
-                    Pattern.CASE_INSENSITIVE);
-  
   private String parserImpl;
   
   private ItemParserHelper itemParserHelper;
 
-  /**
-   * Given a <code>byte[]</code> representing an html file of an 
-   * <em>unknown</em> encoding,  read out 'charset' parameter in the meta tag   
-   * from the first <code>CHUNK_SIZE</code> bytes.
-   * If there's no meta tag for Content-Type or no charset is specified,
-   * <code>null</code> is returned.  <br />
-   * FIXME: non-byte oriented character encodings (UTF-16, UTF-32)
-   * can't be handled with this. 
-   * We need to do something similar to what's done by mozilla
-   * (http://lxr.mozilla.org/seamonkey/source/parser/htmlparser/src/nsParser.cpp#1993).
-   * See also http://www.w3.org/TR/REC-xml/#sec-guessing
-   * <br />
-   *
-   * @param content <code>byte[]</code> representation of an html file
-   */
-
-  private static String sniffCharacterEncoding(byte[] content) {
-    int length = content.length < CHUNK_SIZE ? 
-                 content.length : CHUNK_SIZE;
-
-    // We don't care about non-ASCII parts so that it's sufficient
-    // to just inflate each byte to a 16-bit value by padding. 
-    // For instance, the sequence {0x41, 0x82, 0xb7} will be turned into 
-    // {U+0041, U+0082, U+00B7}. 
-    String str = "";
-    try {
-      str = new String(content, 0, length,
-                       Charset.forName("ASCII").toString());
-    } catch (UnsupportedEncodingException e) {
-      // code should never come here, but just in case... 
-      return null;
-    }
-
-    Matcher metaMatcher = metaPattern.matcher(str);
-    String encoding = null;
-    if (metaMatcher.find()) {
-      Matcher charsetMatcher = charsetPattern.matcher(metaMatcher.group(1));
-      if (charsetMatcher.find()) 
-        encoding = new String(charsetMatcher.group(1));
-    }
-
-    return encoding;
-  }
-
   private String defaultCharEncoding;
 
   private Configuration conf;
@@ -129,6 +69,11 @@ public class HtmlParser implements Parser {
   private HtmlParseFilters htmlParseFilters;
   
   private String cachingPolicy;
+
+  private boolean streaming;
+
+  // reused per thread, parsers are shared by the threads of a task
+  private ThreadLocal<EncodingDetector> detectors;
   
   public ParseResult getParse(Content content) {
     HTMLMetaTags metaTags = new HTMLMetaTags();
@@ -146,22 +91,28 @@ public class HtmlParser implements Parser {
     Metadata metadata = new Metadata();
 
     // parse the content
-    DocumentFragment root;
+    DocumentFragment root = null;
+    HtmlContentHandler handler = null;
     try {
       byte[] contentInOctets = content.getContent();
       InputSource input = new InputSource(new ByteArrayInputStream(contentInOctets));
 
-      EncodingDetector detector = new EncodingDetector(conf);
-      detector.autoDetectClues(content, true);
-      detector.addClue(sniffCharacterEncoding(contentInOctets), "sniffed");
-      String encoding = detector.guessEncoding(content, defaultCharEncoding);
+      String encoding = detectors.get().detectEncoding(content, true,
+          defaultCharEncoding);
 
       metadata.set(Metadata.ORIGINAL_CHAR_ENCODING, encoding);
       metadata.set(Metadata.CHAR_ENCODING_FOR_CONVERSION, encoding);
 
       input.setEncoding(encoding);
       if (LOG.isTraceEnabled()) { LOG.trace("Parsing..."); }
-      root = parse(input);
+      if (streaming && !htmlParseFilters.needsDocument()) {
+        // no DOM needed, extract the content while parsing
+        handler = new HtmlContentHandler(utils.getLinkParams(), metaTags, base);
+        handler.setMaxTextChars(utils.getMaxTextChars());
+        parseSAX(input, handler);
+      } else {
+        root = parse(input);
+      }
       
       // parse page
       parseItem(content);
@@ -178,17 +129,20 @@ public class HtmlParser implements Parser {
     }
       
     // get meta directives
-    HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    if (root != null) {
+      HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    }
     if (LOG.isTraceEnabled()) {
       LOG.trace("Meta tags for " + base + ": " + metaTags.toString());
     }
     // check meta directives
-    if (!metaTags.getNoIndex()) {               // okay to index
-      StringBuffer sb = new StringBuffer();
+    if (!metaTags.getNoIndex() && handler != null) {  // okay to index
+      text = handler.getText();
+      title = handler.getTitle().trim();
+    } else if (!metaTags.getNoIndex()) {
       if (LOG.isTraceEnabled()) { LOG.trace("Getting text..."); }
-      utils.getText(sb, root);          // extract text
-      text = sb.toString();
-      sb.setLength(0);
+      text = utils.getText(root);       // extract text
+      StringBuffer sb = new StringBuffer();
       if (LOG.isTraceEnabled()) { LOG.trace("Getting title..."); }
       utils.getTitle(sb, root);         // extract title
       title = sb.toString().trim();
@@ -196,9 +150,13 @@ public class HtmlParser implements Parser {
       
     if (!metaTags.getNoFollow()) {              // okay to follow links
       ArrayList<Outlink> l = new ArrayList<Outlink>();   // extract outlinks
-      URL baseTag = utils.getBase(root);
+      URL baseTag = handler != null ? handler.getBase() : utils.getBase(root);
       if (LOG.isTraceEnabled()) { LOG.trace("Getting links..."); }
-      utils.getOutlinks(baseTag!=null?baseTag:base, l, root);
+      if (handler != null) {
+        handler.getOutlinks(baseTag!=null?baseTag:base, l);
+      } else {
+        utils.getOutlinks(baseTag!=null?baseTag:base, l, root);
+      }
       outlinks = l.toArray(new Outlink[l.size()]);
       if (LOG.isTraceEnabled()) {
         LOG.trace("found "+outlinks.length+" outlinks in "+content.getUrl());
@@ -233,6 +191,41 @@ public class HtmlParser implements Parser {
     else return parseNeko(input);
   }
   
+  /**
+   * Parses without building a DOM, passing the SAX events of the parser to
+   * the handler.
+   */
+  private void parseSAX(InputSource input, HtmlContentHandler handler)
+    throws Exception {
+    if (parserImpl.equalsIgnoreCase("tagsoup")) {
+      org.ccil.cowan.tagsoup.Parser reader = new org.ccil.cowan.tagsoup.Parser();
+      reader.setContentHandler(handler);
+      reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+      reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+      reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+      reader.parse(input);
+      return;
+    }
+    SAXParser parser = new SAXParser();
+    try {
+      parser.setFeature("http://cyberneko.org/html/features/augmentations",
+              true);
+      parser.setProperty("http://cyberneko.org/html/properties/default-encoding",
+              defaultCharEncoding);
+      parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset",
+              true);
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content",
+              false);
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment",
+              true);
+      parser.setFeature("http://cyberneko.org/html/features/report-errors",
+              LOG.isTraceEnabled());
+    } catch (SAXException e) {}
+    parser.setContentHandler(handler);
+    parser.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+    parser.parse(input);
+  }
+
   private DocumentFragment parseTagSoup(InputSource input) throws Exception {
     HTMLDocumentImpl doc = new HTMLDocumentImpl();
     DocumentFragment frag = doc.createDocumentFragment();
@@ -321,6 +314,12 @@ public class HtmlParser implements Parser {
     this.defaultCharEncoding = getConf().get(
         "parser.character.encoding.default", "windows-1252");
     this.utils = new DOMContentUtils(conf);
+    this.streaming = getConf().getBoolean("parser.html.streaming", false);
+    this.detectors = new ThreadLocal<EncodingDetector>() {
+      protected EncodingDetector initialValue() {
+        return new EncodingDetector(getConf());
+      }
+    };
     this.cachingPolicy = getConf().get("parser.caching.forbidden.policy",
         Nutch.CACHING_FORBIDDEN_CONTENT);
     
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Compares the speed and peak heap usage of {@link HtmlParser} building a
+ * DOM and streaming (<code>parser.html.streaming</code>), on a directory of
+ * saved HTML pages. It is compiled with the tests of the plugin into
+ * <code>build/parse-html/test</code>, run it with the test classpath of the
+ * plugin (see <code>test.classpath</code> in
+ * <code>src/plugin/build-plugin.xml</code>). Streaming only takes effect if
+ * no active HtmlParseFilter needs the DOM.
+ */
+public class HtmlParserBenchmark extends Configured implements Tool {
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new HtmlParserBenchmark(), args);
+    System.exit(res);
+  }
+
+  private static byte[] readFile(File file) throws Exception {
+    byte[] bytes = new byte[(int)file.length()];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+    return bytes;
+  }
+
+  private static long getPeakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  private static void resetPeakHeap() {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  public int run(String[] args) throws Exception {
+    File dir = null;
+    int rounds = 3;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-rounds")) {
+        rounds = Integer.parseInt(args[++i]);
+      } else if (dir == null && !args[i].startsWith("-")) {
+        dir = new File(args[i]);
+      } else {
+        dir = null;
+        break;
+      }
+    }
+    if (dir == null || !dir.isDirectory()) {
+      System.err.println("Usage: HtmlParserBenchmark <dir> [-rounds n]");
+      System.err.println("\t<dir>\tdirectory of saved HTML pages");
+      System.err.println("\t-rounds\tnumber of times to parse all pages (default 3)");
+      return -1;
+    }
+
+    List<Content> pages = new ArrayList<Content>();
+    long bytes = 0;
+    for (File file : dir.listFiles()) {
+      if (!file.isFile()) {
+        continue;
+      }
+      byte[] content = readFile(file);
+      String url = file.toURI().toString();
+      pages.add(new Content(url, url, content, "text/html", new Metadata(),
+          getConf()));
+      bytes += content.length;
+    }
+
+    System.out.println("* HtmlParser benchmark: " + pages.size()
+        + " pages, " + bytes + " bytes, " + rounds + " rounds");
+    System.out.println("mode\tpages/s\tpeak heap MB\toutlinks");
+    for (int streaming = 0; streaming <= 1; streaming++) {
+      Configuration conf = new Configuration(getConf());
+      conf.setBoolean("parser.html.streaming", streaming == 1);
+      HtmlParser parser = new HtmlParser();
+      parser.setConf(conf);
+      // warm up
+      for (Content page : pages) {
+        parser.getParse(page);
+      }
+      resetPeakHeap();
+      long outlinks = 0;
+      long start = System.currentTimeMillis();
+      for (int round = 0; round < rounds; round++) {
+        for (Content page : pages) {
+          outlinks += parser.getParse(page).get(page.getUrl()).getData()
+              .getOutlinks().length;
+        }
+      }
+      long time = Math.max(1, System.currentTimeMillis() - start);
+      System.out.println((streaming == 1 ? "streaming" : "dom") + "\t"
+          + (pages.size() * rounds * 1000L / time) + "\t"
+          + (getPeakHeap() >> 20) + "\t" + outlinks / rounds);
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.NutchConfiguration;
+import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.cyberneko.html.parsers.SAXParser;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks that {@link HtmlContentHandler} extracts the same content from the
+ * SAX events of neko as {@link DOMContentUtils} from its DOM.
+ */
+public class TestHtmlContentHandler extends TestCase {
+
+  private static final String[] testPages = {
+    "<html><head><title> title </title><script> script </script>"
+      + "</head><body> body <a href=\"http://www.nutch.org\">"
+      + " anchor </a><!--comment-->"
+      + "</body></html>",
+    "<html><head><title> title </title><script> script </script>"
+      + "</head><body> body <a href=\"/\">"
+      + " home </a><!--comment-->"
+      + "<style> style </style>"
+      + " <a href=\"bot.html\">"
+      + " bots </a>"
+      + "</body></html>",
+    // nested anchors
+    "<html><head><title> </title>"
+      + "</head><body> "
+      + "<a href=\"/\"> separate this "
+      + "<a href=\"ok\"> from this"
+      + "</a></a>"
+      + "</body></html>",
+    "<html><head><title> my title </title>"
+      + "</head><body> body "
+      + "<ul>"
+      + "<li> <a href=\"/\"> home"
+      + "<li> <a href=\"1\"> 1"
+      + "<li> <a href=\"2\"> 2"
+      + "</ul>"
+      + "</body></html>",
+    "<html><head><title> my title </title>"
+      + "</head><frameset rows=\"20,*\"> "
+      + "<frame src=\"top.html\"></frame>"
+      + "<frameset cols=\"20,*\">"
+      + "<frame src=\"left.html\">"
+      + "<frame src=\"invalid.html\"/>"
+      + "</frame>"
+      + "<frame src=\"right.html\"></frame>"
+      + "</frameset>"
+      + "</frameset>"
+      + "</body></html>",
+    // base, meta tags, image links and anchors with images
+    "<html><head><base href=\"http://www.nutch.org/base/\">"
+      + "<meta name=\"Keywords\" content=\"a, b\">"
+      + "<meta http-equiv=\"refresh\" content=\"5; url=next.html\">"
+      + "<title> my <b>title</b> </title></head><body>"
+      + "<img src=\"logo.gif\" alt=\"logo\">"
+      + "<a href=\"g\"><img src=\"g.gif\" alt=\" bla bla \"></a>"
+      + "<a href=\"h\"> <img src=\"h.gif\"> </a>"
+      + "<map name=\"m\"><area href=\"../index.html\"></map>"
+      + "<a href=\"i\"><script>var s = 'script';</script></a>"
+      + "<meta name=\"robots\" content=\"noindex\">"
+      + "</body></html>",
+    // whitespace
+    "<html><head>\n <title> my\t\n  title\r\n </title>\n"
+      + " </head>\n <body>\n"
+      + "    <h1> Whitespace\ttest  </h1> \n"
+      + "\t<a href=\"../index.html\">\n  \twhitespace  test\r\n\t</a>  \t\n"
+      + "    <p> This is<span> a whitespace<span></span> test</span>. Newlines\n"
+      + "should appear as space too.</p><p>Tabs\tare spaces too.\n</p>"
+      + "put some text here<Br>and there."
+      + "</body>  </html>",
+    // nofollow links and forms
+    "<html><head></head><body>"
+      + "<a href=\"http://www.nutch.org\" rel=\"nofollow\"> ignore </a>"
+      + "<form method='POST' action='/search.jsp'><input type=text>"
+      + "<input type=submit><p>test1</p></form>"
+      + "<form method='GET' action='/dummy.jsp'><input type=text>"
+      + "<input type=submit><p>test2</p></form></body></html>",
+  };
+
+  private Configuration conf;
+  private DOMContentUtils utils;
+  private URL base;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setBoolean("parser.html.form.use_action", true);
+    utils = new DOMContentUtils(conf);
+    base = new URL("http://www.nutch.org/docs/index.html");
+  }
+
+  private static InputSource getInput(String page) {
+    return new InputSource(new ByteArrayInputStream(page.getBytes()));
+  }
+
+  public void testSameAsDOM() throws Exception {
+    for (int i = 0; i < testPages.length; i++) {
+      DOMFragmentParser domParser = new DOMFragmentParser();
+      DocumentFragment root =
+        new HTMLDocumentImpl().createDocumentFragment();
+      domParser.parse(getInput(testPages[i]), root);
+      HTMLMetaTags domTags = new HTMLMetaTags();
+      HTMLMetaProcessor.getMetaTags(domTags, root, base);
+      StringBuffer domText = new StringBuffer();
+      utils.getText(domText, root);
+      StringBuffer domTitle = new StringBuffer();
+      utils.getTitle(domTitle, root);
+      URL domBase = utils.getBase(root);
+      ArrayList<Outlink> domOutlinks = new ArrayList<Outlink>();
+      utils.getOutlinks(domBase != null ? domBase : base, domOutlinks, root);
+
+      HTMLMetaTags saxTags = new HTMLMetaTags();
+      HtmlContentHandler handler =
+        new HtmlContentHandler(utils.getLinkParams(), saxTags, base);
+      SAXParser saxParser = new SAXParser();
+      // as the DOMFragmentParser
+      saxParser.setFeature(
+        "http://cyberneko.org/html/features/balance-tags/document-fragment",
+        true);
+      saxParser.setContentHandler(handler);
+      saxParser.setProperty("http://xml.org/sax/properties/lexical-handler",
+        handler);
+      saxParser.parse(getInput(testPages[i]));
+      ArrayList<Outlink> saxOutlinks = new ArrayList<Outlink>();
+      handler.getOutlinks(handler.getBase() != null ? handler.getBase()
+        : base, saxOutlinks);
+
+      assertEquals("text of page " + i, domText.toString(), handler.getText());
+      assertEquals("title of page " + i, domTitle.toString(),
+        handler.getTitle());
+      assertEquals("base of page " + i, domBase, handler.getBase());
+      assertEquals("meta tags of page " + i, domTags.toString(),
+        saxTags.toString());
+      assertEquals("outlinks of page " + i, domOutlinks, saxOutlinks);
+    }
+  }
+}
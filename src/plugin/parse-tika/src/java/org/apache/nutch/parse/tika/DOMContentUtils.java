@@ -25,6 +25,7 @@ import java.util.HashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.BoundedTextBuilder;
 import org.apache.nutch.util.NodeWalker;
 import org.apache.nutch.util.URLUtil;
 import org.w3c.dom.NamedNodeMap;
@@ -57,6 +58,15 @@ class DOMContentUtils {
   }
   
   private HashMap<String,LinkParams> linkParams = new HashMap<String,LinkParams>();
+
+  // reused by getText(Node), per thread as parsers are shared
+  private static final ThreadLocal<BoundedTextBuilder> textBuilder =
+    new ThreadLocal<BoundedTextBuilder>() {
+      protected BoundedTextBuilder initialValue() {
+        return new BoundedTextBuilder(-1);
+      }
+    };
+  private int maxTextChars;
   private Configuration conf;
   
   DOMContentUtils(Configuration conf) {
@@ -68,6 +78,7 @@ class DOMContentUtils {
     Collection<String> forceTags = new ArrayList<String>(1);
 
     this.conf = conf;
+    this.maxTextChars = conf.getInt(BoundedTextBuilder.MAX_CHARS, -1);
     linkParams.clear();
     linkParams.put("a", new LinkParams("a", "href", 1));
     linkParams.put("area", new LinkParams("area", "href", 0));
@@ -107,10 +118,13 @@ class DOMContentUtils {
    */
   private boolean getText(StringBuffer sb, Node node, 
                                       boolean abortOnNestedAnchors) {
-    if (getTextHelper(sb, node, abortOnNestedAnchors, 0)) {
-      return true;
-    } 
-    return false;
+    BoundedTextBuilder text = new BoundedTextBuilder(-1);
+    boolean abort = getTextHelper(text, node, abortOnNestedAnchors, 0);
+    if (text.length() > 0) {
+      if (sb.length() > 0) sb.append(' ');
+      sb.append(text);
+    }
+    return abort;
   }
 
 
@@ -123,9 +137,22 @@ class DOMContentUtils {
     getText(sb, node, false);
   }
 
+  /**
+   * Returns the content text found beneath the DOM node, as {@link
+   * #getText(StringBuffer,Node) getText(sb, node)} does, but at most
+   * <code>parser.text.max.chars</code> characters. The DOM traversal stops
+   * once the limit is reached.
+   */
+  String getText(Node node) {
+    BoundedTextBuilder text = textBuilder.get();
+    text.reset(maxTextChars);
+    getTextHelper(text, node, false, 0);
+    return text.toString();
+  }
+
   // returns true if abortOnNestedAnchors is true and we find nested 
   // anchors
-  private boolean getTextHelper(StringBuffer sb, Node node, 
+  private boolean getTextHelper(BoundedTextBuilder text, Node node, 
                                              boolean abortOnNestedAnchors,
                                              int anchorDepth) {
     boolean abort = false;
@@ -155,12 +182,8 @@ class DOMContentUtils {
       }
       if (nodeType == Node.TEXT_NODE) {
         // cleanup and trim the value
-        String text = currentNode.getNodeValue();
-        text = text.replaceAll("\\s+", " ");
-        text = text.trim();
-        if (text.length() > 0) {
-          if (sb.length() > 0) sb.append(' ');
-        	sb.append(text);
+        if (!text.append(currentNode.getNodeValue())) {
+          break;                      // no more text wanted
         }
       }
     }
@@ -116,13 +116,11 @@ public class TikaParser implements org.apache.nutch.parse.Parser {
 
 		// check meta directives
 		if (!metaTags.getNoIndex()) { // okay to index
-			StringBuffer sb = new StringBuffer();
 			if (LOG.isTraceEnabled()) {
 				LOG.trace("Getting text...");
 			}
-			utils.getText(sb, root); // extract text
-			text = sb.toString();
-			sb.setLength(0);
+			text = utils.getText(root); // extract text
+			StringBuffer sb = new StringBuffer();
 			if (LOG.isTraceEnabled()) {
 				LOG.trace("Getting title...");
 			}
@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.host;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.Inlinks;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.parse.Parse;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.scoring.InlinkCombiningScoringFilter;
+import org.apache.nutch.scoring.ScoringFilterException;
+import org.apache.nutch.util.LRUCache;
+import org.apache.nutch.util.URLUtil;
+
+/**
+ * Blends the host scores computed by the HostGraph tool into the scores of
+ * urls. During updatedb the score of a url is blended with the score of its
+ * host: <code>score = (1 - w) * score + w * hostScore</code>. The change is
+ * kept in the metadata of the url and taken back before the next blend, so
+ * that the blend is applied to the score computed without it and does not
+ * move the score further towards the host score in every cycle. During generate
+ * the sort value is scaled by the host score:
+ * <code>sort = sort * ((1 - w) + w * hostScore)</code>. Host scores have a
+ * mean of 1, urls of hosts which are not in the host graph are left as they
+ * are.
+ */
+public class HostScoringFilter
+  implements InlinkCombiningScoringFilter, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HostScoringFilter.class);
+
+  private Configuration conf;
+  private float updateWeight;
+  private float generateWeight;
+  private Path scoresDir;
+  private MapFile.Reader[] readers = null;
+  private HashPartitioner<Text, FloatWritable> partitioner = new HashPartitioner<Text, FloatWritable>();
+  private Map<String, Float> cache;
+
+  /** Metadata key of the change of the score by the last blend. */
+  private static final Text HOST_DELTA_KEY = new Text("_hsd_");
+
+  public Configuration getConf() {
+    return conf;
+  }
+
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    updateWeight = conf.getFloat("scoring.host.update.weight", 0.2f);
+    generateWeight = conf.getFloat("scoring.host.generate.weight", 0.5f);
+    String scores = conf.get("scoring.host.scores");
+    scoresDir = (scores == null || scores.trim().length() == 0) ? null
+      : new Path(scores.trim());
+    cache = new LRUCache<String, Float>(conf.getInt("scoring.host.cache.size", 10000));
+  }
+
+  /**
+   * Returns the score of the host of a url, or null if unknown.
+   */
+  private synchronized Float getHostScore(Text url)
+    throws ScoringFilterException {
+    if (scoresDir == null) {
+      return null;
+    }
+    String host = URLUtil.getHost(url.toString());
+    if (host == null || host.length() == 0) {
+      return null;
+    }
+    Float score = cache.get(host);
+    if (score == null) {
+      try {
+        if (readers == null) {
+          FileSystem fs = scoresDir.getFileSystem(conf);
+          LOG.info("Reading host scores from " + scoresDir);
+          readers = MapFileOutputFormat.getReaders(fs, scoresDir, conf);
+        }
+        FloatWritable value = new FloatWritable();
+        if (MapFileOutputFormat.getEntry(readers, partitioner, new Text(host),
+          value) != null) {
+          score = value.get();
+        }
+        else {
+          // NaN is cached for hosts without a score
+          score = Float.NaN;
+        }
+      }
+      catch (IOException e) {
+        throw new ScoringFilterException(e);
+      }
+      cache.put(host, score);
+    }
+    return score.isNaN() ? null : score;
+  }
+
+  /** Close the readers of the host scores, they are reopened when needed. */
+  public synchronized void close() throws IOException {
+    if (readers == null) {
+      return;
+    }
+    try {
+      for (MapFile.Reader reader : readers) {
+        reader.close();
+      }
+    }
+    finally {
+      readers = null;
+    }
+  }
+
+  public CrawlDatum distributeScoreToOutlinks(Text fromUrl,
+    ParseData parseData, Collection<Entry<Text, CrawlDatum>> targets,
+    CrawlDatum adjust, int allCount)
+    throws ScoringFilterException {
+    return adjust;
+  }
+
+  public float generatorSortValue(Text url, CrawlDatum datum, float initSort)
+    throws ScoringFilterException {
+    Float hostScore = getHostScore(url);
+    if (hostScore == null) {
+      return initSort;
+    }
+    return initSort * ((1 - generateWeight) + generateWeight * hostScore);
+  }
+
+  public float indexerScore(Text url, NutchDocument doc, CrawlDatum dbDatum,
+    CrawlDatum fetchDatum, Parse parse, Inlinks inlinks, float initScore)
+    throws ScoringFilterException {
+    return initScore;
+  }
+
+  public void initialScore(Text url, CrawlDatum datum)
+    throws ScoringFilterException {
+  }
+
+  public void injectedScore(Text url, CrawlDatum datum)
+    throws ScoringFilterException {
+  }
+
+  public void passScoreAfterParsing(Text url, Content content, Parse parse)
+    throws ScoringFilterException {
+  }
+
+  public void passScoreBeforeParsing(Text url, CrawlDatum datum, Content content)
+    throws ScoringFilterException {
+  }
+
+  public void updateDbScore(Text url, CrawlDatum old, CrawlDatum datum,
+    List<CrawlDatum> inlinked)
+    throws ScoringFilterException {
+    // take back the previous blend
+    float score = datum.getScore();
+    FloatWritable delta = (FloatWritable)datum.getMetaData().get(HOST_DELTA_KEY);
+    if (delta != null) {
+      score -= delta.get();
+      datum.getMetaData().remove(HOST_DELTA_KEY);
+    }
+    Float hostScore = getHostScore(url);
+    if (hostScore != null) {
+      float blended = (1 - updateWeight) * score + updateWeight * hostScore;
+      datum.getMetaData().put(HOST_DELTA_KEY, new FloatWritable(blended - score));
+      score = blended;
+    }
+    datum.setScore(score);
+  }
+
+  public boolean combineInlinkScores(Text url, List<CrawlDatum> inlinked,
+    CrawlDatum merged)
+    throws ScoringFilterException {
+    // inlinks are not used, nothing to do
+    return true;
+  }
+
+}
@@ -29,11 +29,11 @@ import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
-import org.apache.nutch.scoring.ScoringFilter;
+import org.apache.nutch.scoring.InlinkCombiningScoringFilter;
 import org.apache.nutch.scoring.ScoringFilterException;
 
 public class LinkAnalysisScoringFilter
-  implements ScoringFilter {
+  implements InlinkCombiningScoringFilter {
 
   private Configuration conf;
   private float normalizedScore = 1.00f;
@@ -95,4 +95,11 @@ public class LinkAnalysisScoringFilter
     // nothing to do
   }
 
+  public boolean combineInlinkScores(Text url, List<CrawlDatum> inlinked,
+    CrawlDatum merged)
+    throws ScoringFilterException {
+    // inlinks are not used, nothing to do
+    return true;
+  }
+
 }
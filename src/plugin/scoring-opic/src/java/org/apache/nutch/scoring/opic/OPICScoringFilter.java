@@ -36,7 +36,7 @@ import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
-import org.apache.nutch.scoring.ScoringFilter;
+import org.apache.nutch.scoring.InlinkCombiningScoringFilter;
 import org.apache.nutch.scoring.ScoringFilterException;
 
 /**
@@ -49,7 +49,7 @@ import org.apache.nutch.scoring.ScoringFilterException;
  * 
  * @author Andrzej Bialecki
  */
-public class OPICScoringFilter implements ScoringFilter {
+public class OPICScoringFilter implements InlinkCombiningScoringFilter {
 
   private final static Logger LOG = LoggerFactory.getLogger(OPICScoringFilter.class);
 
@@ -97,6 +97,16 @@ public class OPICScoringFilter implements ScoringFilter {
     datum.setScore(old.getScore() + adjust);
   }
 
+  /** Inlinked scores are summed, so they can be summed map-side as well. */
+  public boolean combineInlinkScores(Text url, List<CrawlDatum> inlinked, CrawlDatum merged) throws ScoringFilterException {
+    float score = 0.0f;
+    for (int i = 0; i < inlinked.size(); i++) {
+      score += inlinked.get(i).getScore();
+    }
+    merged.setScore(score);
+    return true;
+  }
+
   /** Store a float value of CrawlDatum.getScore() under Fetcher.SCORE_KEY. */
   public void passScoreBeforeParsing(Text url, CrawlDatum datum, Content content) {
     content.getMetadata().set(Nutch.SCORE_KEY, "" + datum.getScore());
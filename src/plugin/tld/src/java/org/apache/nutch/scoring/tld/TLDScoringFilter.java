@@ -30,7 +30,7 @@ import org.apache.nutch.indexer.NutchField;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
-import org.apache.nutch.scoring.ScoringFilter;
+import org.apache.nutch.scoring.InlinkCombiningScoringFilter;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.util.domain.DomainSuffix;
 import org.apache.nutch.util.domain.DomainSuffixes;
@@ -40,7 +40,7 @@ import org.apache.nutch.util.domain.DomainSuffixes;
  * Scoring filter to boost tlds.
  * @author Enis Soztutar &lt;enis.soz.nutch@gmail.com&gt;
  */
-public class TLDScoringFilter implements ScoringFilter {
+public class TLDScoringFilter implements InlinkCombiningScoringFilter {
 
   private Configuration conf;
   private DomainSuffixes tldEntries;
@@ -98,6 +98,11 @@ public class TLDScoringFilter implements ScoringFilter {
   throws ScoringFilterException {
   }
 
+  public boolean combineInlinkScores(Text url, List<CrawlDatum> inlinked,
+      CrawlDatum merged) throws ScoringFilterException {
+    return true;
+  }
+
   public Configuration getConf() {
     return conf;
   }
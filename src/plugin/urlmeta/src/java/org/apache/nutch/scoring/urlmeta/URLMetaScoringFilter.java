@@ -33,6 +33,7 @@ import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
+import org.apache.nutch.scoring.InlinkCombiningScoringFilter;
 import org.apache.nutch.scoring.ScoringFilter;
 import org.apache.nutch.scoring.ScoringFilterException;
 
@@ -41,7 +42,7 @@ import org.apache.nutch.scoring.ScoringFilterException;
  * 
  * @see URLMetaIndexingFilter
  */
-public class URLMetaScoringFilter extends Configured implements ScoringFilter {
+public class URLMetaScoringFilter extends Configured implements InlinkCombiningScoringFilter {
 
   private static final Logger LOG = LoggerFactory.getLogger(URLMetaScoringFilter.class);
   private static final String CONF_PROPERTY = "urlmeta.tags";
@@ -154,6 +155,16 @@ public class URLMetaScoringFilter extends Configured implements ScoringFilter {
     return;
   }
 
+  /**
+   * The url meta tags are carried by the metadata of the inlinked datums.
+   * CrawlDb update only takes the metadata of the best scoring inlink, which
+   * the merged datum is initialized from, so inlinks can be merged.
+   */
+  public boolean combineInlinkScores(Text url, List<CrawlDatum> inlinked,
+      CrawlDatum merged) throws ScoringFilterException {
+    return true;
+  }
+
   /**
    * handles conf assignment and pulls the value assignment from the
    * "urlmeta.tags" property
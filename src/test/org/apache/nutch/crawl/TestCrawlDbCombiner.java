@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.nutch.util.CountingReporter;
+
+/**
+ * Tests {@link CrawlDbCombiner} by calling it and {@link CrawlDbReducer}
+ * directly, as the framework would.
+ */
+public class TestCrawlDbCombiner extends TestCase {
+
+  private static final int MAX_INLINKS = 3;
+
+  private JobConf job;
+  private Text url = new Text("http://www.example.com/");
+
+  protected void setUp() throws Exception {
+    job = new JobConf(CrawlDBTestUtil.createConfiguration());
+    job.setInt("db.update.max.inlinks", MAX_INLINKS);
+  }
+
+  private static class Collector
+    implements OutputCollector<Text, CrawlDatum> {
+    List<CrawlDatum> values = new ArrayList<CrawlDatum>();
+
+    public void collect(Text key, CrawlDatum value) {
+      // copy, values may be reused
+      CrawlDatum datum = new CrawlDatum();
+      datum.set(value);
+      values.add(datum);
+    }
+  }
+
+  /** Does not combine inlinks, like a filter which needs all of them. */
+  private static class KeepingCombiner extends CrawlDbCombiner {
+    boolean combineInlinkScores(Text key, List<CrawlDatum> inlinked,
+        CrawlDatum merged) {
+      return false;
+    }
+  }
+
+  private static CrawlDatum linked(float score) {
+    CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_LINKED, 30 * 24 * 3600,
+        score);
+    datum.setFetchTime(1000);
+    return datum;
+  }
+
+  // inlinks with exactly representable scores, so that sums do not depend
+  // on the order
+  private static List<CrawlDatum> inlinks(int n) {
+    List<CrawlDatum> links = new ArrayList<CrawlDatum>();
+    for (int i = 0; i < n; i++) {
+      links.add(linked(0.25f * (i + 1)));
+    }
+    return links;
+  }
+
+  /** Returns the inlinks {@link CrawlDbReducer} would use. */
+  private static List<CrawlDatum> topInlinks(List<CrawlDatum> links) {
+    CrawlDbReducer.InlinkPriorityQueue queue =
+      new CrawlDbReducer.InlinkPriorityQueue(MAX_INLINKS);
+    for (CrawlDatum link : links) {
+      queue.insert(link);
+    }
+    List<CrawlDatum> top = new ArrayList<CrawlDatum>();
+    while (queue.size() > 0) {
+      top.add(queue.pop());
+    }
+    return top;
+  }
+
+  private List<CrawlDatum> combine(CrawlDbCombiner combiner,
+      List<CrawlDatum> values, CountingReporter reporter) throws IOException {
+    combiner.configure(job);
+    Collector output = new Collector();
+    combiner.reduce(url, values.iterator(), output, reporter);
+    return output.values;
+  }
+
+  private CrawlDatum reduce(List<CrawlDatum> values) throws IOException {
+    CrawlDbReducer reducer = new CrawlDbReducer();
+    reducer.configure(job);
+    Collector output = new Collector();
+    reducer.reduce(url, values.iterator(), output, new CountingReporter());
+    assertEquals(1, output.values.size());
+    return output.values.get(0);
+  }
+
+  // new urls are scheduled for the current time
+  private static void assertSameDatum(String message, CrawlDatum expected,
+      CrawlDatum actual) {
+    if (Math.abs(expected.getFetchTime() - actual.getFetchTime()) < 60000) {
+      actual.setFetchTime(expected.getFetchTime());
+    }
+    assertEquals(message, expected, actual);
+  }
+
+  public void testPassThrough() throws Exception {
+    List<CrawlDatum> values = new ArrayList<CrawlDatum>();
+    CrawlDatum fetched = new CrawlDatum(CrawlDatum.STATUS_FETCH_SUCCESS,
+        30 * 24 * 3600, 1.0f);
+    values.add(fetched);
+    CrawlDatum signature = new CrawlDatum();
+    signature.setStatus(CrawlDatum.STATUS_SIGNATURE);
+    signature.setSignature(new byte[] { 1, 2, 3 });
+    values.add(signature);
+    CrawlDatum link = linked(0.5f);
+    values.add(link);
+
+    CountingReporter reporter = new CountingReporter();
+    List<CrawlDatum> output = combine(new CrawlDbCombiner(), values, reporter);
+    assertEquals(3, output.size());
+    assertEquals(fetched, output.get(0));
+    assertEquals(signature, output.get(1));
+    assertEquals(link, output.get(2));
+    assertEquals(0, reporter.getValue("CrawlDB combiner",
+        "linked records combined"));
+  }
+
+  public void testMerged() throws Exception {
+    List<CrawlDatum> links = inlinks(5);
+    CountingReporter reporter = new CountingReporter();
+    List<CrawlDatum> output = combine(new CrawlDbCombiner(), links, reporter);
+    // OPIC sums the scores of the inlinks the reducer would use
+    assertEquals(1, output.size());
+    float sum = 0.0f;
+    for (CrawlDatum link : topInlinks(links)) {
+      sum += link.getScore();
+    }
+    assertEquals(CrawlDatum.STATUS_LINKED, output.get(0).getStatus());
+    assertEquals(sum, output.get(0).getScore());
+    assertEquals(4, reporter.getValue("CrawlDB combiner",
+        "linked records combined"));
+  }
+
+  public void testTopN() throws Exception {
+    List<CrawlDatum> links = inlinks(5);
+    CountingReporter reporter = new CountingReporter();
+    List<CrawlDatum> output = combine(new KeepingCombiner(), links, reporter);
+    assertEquals(topInlinks(links), output);
+    assertEquals(5 - MAX_INLINKS, reporter.getValue("CrawlDB combiner",
+        "linked records combined"));
+
+    // nothing to drop
+    output = combine(new KeepingCombiner(), inlinks(2), reporter);
+    assertEquals(inlinks(2).size(), output.size());
+  }
+
+  public void testSameAsWithoutCombiner() throws Exception {
+    CrawlDatum old = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED,
+        30 * 24 * 3600, 1.0f);
+    old.setFetchTime(500);
+    for (int n = 1; n <= 5; n++) {
+      for (boolean oldSet : new boolean[] { false, true }) {
+        List<CrawlDatum> values = new ArrayList<CrawlDatum>();
+        if (oldSet) {
+          values.add(old);
+        }
+        values.addAll(inlinks(n));
+        CrawlDatum expected = reduce(values);
+        String message = "inlinks: " + n + ", old: " + oldSet;
+
+        List<CrawlDatum> combined = combine(new CrawlDbCombiner(), values,
+            new CountingReporter());
+        assertSameDatum(message, expected, reduce(combined));
+        combined = combine(new KeepingCombiner(), values,
+            new CountingReporter());
+        assertSameDatum(message, expected, reduce(combined));
+      }
+    }
+  }
+}
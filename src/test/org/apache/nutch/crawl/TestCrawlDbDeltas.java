@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Tests reading a CrawlDb with deltas, and compacting it.
+ */
+public class TestCrawlDbDeltas extends TestCase {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+  private Path crawlDb;
+
+  protected void setUp() throws Exception {
+    conf = CrawlDBTestUtil.createConfiguration();
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/crawldb-deltas-test");
+    fs.delete(testDir, true);
+    crawlDb = new Path(testDir, "crawldb");
+
+    List<CrawlDBTestUtil.URLCrawlDatum> base = new ArrayList<CrawlDBTestUtil.URLCrawlDatum>();
+    base.add(datum("http://a.example.com/", CrawlDatum.STATUS_DB_UNFETCHED));
+    base.add(datum("http://b.example.com/", CrawlDatum.STATUS_DB_UNFETCHED));
+    base.add(datum("http://c.example.com/", CrawlDatum.STATUS_DB_UNFETCHED));
+    CrawlDBTestUtil.createCrawlDb(conf, fs, crawlDb, base);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private CrawlDBTestUtil.URLCrawlDatum datum(String url, byte status) {
+    CrawlDatum datum = new CrawlDatum(status, 30 * 24 * 3600, 1.0f);
+    return new CrawlDBTestUtil.URLCrawlDatum(new Text(url), datum);
+  }
+
+  private void writeDelta(CrawlDBTestUtil.URLCrawlDatum... rows) throws Exception {
+    Path delta = CrawlDbDeltas.newDeltaPath(fs, crawlDb);
+    MapFile.Writer writer = new MapFile.Writer(conf, fs,
+        new Path(delta, "part-00000").toString(), Text.class, CrawlDatum.class);
+    for (CrawlDBTestUtil.URLCrawlDatum row : rows) {
+      writer.append(row.url, row.datum);
+    }
+    writer.close();
+  }
+
+  private void addDeltas() throws Exception {
+    writeDelta(datum("http://b.example.com/", CrawlDatum.STATUS_DB_FETCHED),
+        datum("http://d.example.com/", CrawlDatum.STATUS_DB_UNFETCHED));
+    writeDelta(datum("http://b.example.com/", CrawlDatum.STATUS_DB_GONE),
+        datum("http://c.example.com/", CrawlDatum.STATUS_DB_FETCHED));
+  }
+
+  public void testMergingReader() throws Exception {
+    addDeltas();
+    Path[] layers = CrawlDbDeltas.getLayers(crawlDb, CrawlDbDeltas.getDeltas(fs, crawlDb));
+    assertEquals(3, layers.length);
+    CrawlDbDeltas.MergingReader reader = new CrawlDbDeltas.MergingReader(fs,
+        CrawlDbDeltas.getLayerParts(fs, layers, 0), conf);
+    String[] urls = { "http://a.example.com/", "http://b.example.com/",
+        "http://c.example.com/", "http://d.example.com/" };
+    byte[] status = { CrawlDatum.STATUS_DB_UNFETCHED, CrawlDatum.STATUS_DB_GONE,
+        CrawlDatum.STATUS_DB_FETCHED, CrawlDatum.STATUS_DB_UNFETCHED };
+    Text key = new Text();
+    CrawlDatum value = new CrawlDatum();
+    for (int i = 0; i < urls.length; i++) {
+      assertTrue(reader.next(key, value));
+      assertEquals(urls[i], key.toString());
+      assertEquals(status[i], value.getStatus());
+    }
+    assertFalse(reader.next(key, value));
+    reader.close();
+  }
+
+  public void testSplits() throws Exception {
+    addDeltas();
+    JobConf job = new JobConf(conf);
+    CrawlDbInputFormat.addCrawlDb(job, crawlDb);
+    InputSplit[] splits = new CrawlDbInputFormat().getSplits(job, 1);
+    assertEquals(1, splits.length);
+    CrawlDbInputFormat.CrawlDbSplit split = (CrawlDbInputFormat.CrawlDbSplit) splits[0];
+    assertEquals(3, split.getParts().length);
+    // the split is read where the base part is stored
+    Path data = new Path(split.getParts()[0], MapFile.DATA_FILE_NAME);
+    FileStatus stat = fs.getFileStatus(data);
+    List<String> hosts = Arrays.asList(
+        fs.getFileBlockLocations(stat, 0, stat.getLen())[0].getHosts());
+    assertTrue(split.getLocations().length > 0);
+    assertEquals(hosts, Arrays.asList(split.getLocations()));
+  }
+
+  public void testReadAndCompact() throws Exception {
+    addDeltas();
+    CrawlDbReader reader = new CrawlDbReader();
+    CrawlDatum res = reader.get(crawlDb.toString(), "http://b.example.com/", conf);
+    assertEquals(CrawlDatum.STATUS_DB_GONE, res.getStatus());
+    res = reader.get(crawlDb.toString(), "http://d.example.com/", conf);
+    assertNotNull(res);
+    reader.close();
+
+    CrawlDbCompactor compactor = new CrawlDbCompactor(conf);
+    assertTrue(compactor.compact(crawlDb, true, false));
+    assertEquals(0, CrawlDbDeltas.getDeltas(fs, crawlDb).length);
+    // nothing left to compact
+    assertFalse(compactor.compact(crawlDb, true, false));
+
+    reader = new CrawlDbReader();
+    res = reader.get(crawlDb.toString(), "http://b.example.com/", conf);
+    assertEquals(CrawlDatum.STATUS_DB_GONE, res.getStatus());
+    res = reader.get(crawlDb.toString(), "http://c.example.com/", conf);
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, res.getStatus());
+    res = reader.get(crawlDb.toString(), "http://a.example.com/", conf);
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, res.getStatus());
+    reader.close();
+  }
+
+  public void testNeedsCompaction() throws Exception {
+    conf.setInt(CrawlDbCompactor.COMPACT_MAX_DELTAS, 1);
+    conf.setFloat(CrawlDbCompactor.COMPACT_MAX_DELTA_RATIO, -1);
+    CrawlDbCompactor compactor = new CrawlDbCompactor(conf);
+    assertFalse(compactor.needsCompaction(crawlDb));
+    writeDelta(datum("http://d.example.com/", CrawlDatum.STATUS_DB_UNFETCHED));
+    assertFalse(compactor.needsCompaction(crawlDb));
+    writeDelta(datum("http://e.example.com/", CrawlDatum.STATUS_DB_UNFETCHED));
+    assertTrue(compactor.needsCompaction(crawlDb));
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+
+/**
+ * Tests lookups in a CrawlDb with several parts and deltas.
+ */
+public class TestCrawlDbLookup extends TestCase {
+
+  private static final int NUM_PARTS = 3;
+
+  private static final String[] URLS = { "http://a.example.com/",
+      "http://b.example.com/", "http://c.example.com/",
+      "http://d.example.com/", "http://e.example.com/",
+      "http://f.example.com/" };
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+  private Path crawlDb;
+  private CrawlDbLookup lookup;
+
+  protected void setUp() throws Exception {
+    conf = CrawlDBTestUtil.createConfiguration();
+    // only reopen when asked to
+    conf.setLong(CrawlDbLookup.REFRESH_INTERVAL, 0);
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/crawldb-lookup-test");
+    fs.delete(testDir, true);
+    crawlDb = new Path(testDir, "crawldb");
+    writeParts(new Path(crawlDb, CrawlDb.CURRENT_NAME),
+        CrawlDatum.STATUS_DB_UNFETCHED, URLS);
+  }
+
+  protected void tearDown() throws Exception {
+    if (lookup != null) lookup.close();
+    fs.delete(testDir, true);
+  }
+
+  /** Writes the urls into parts, as partitioned by a CrawlDb job. */
+  private void writeParts(Path dir, byte status, String... urls)
+    throws Exception {
+    HashPartitioner<Text, CrawlDatum> partitioner =
+      new HashPartitioner<Text, CrawlDatum>();
+    List<TreeMap<Text, CrawlDatum>> parts = new ArrayList<TreeMap<Text, CrawlDatum>>();
+    for (int i = 0; i < NUM_PARTS; i++) {
+      parts.add(new TreeMap<Text, CrawlDatum>());
+    }
+    for (String url : urls) {
+      Text key = new Text(url);
+      parts.get(partitioner.getPartition(key, null, NUM_PARTS)).put(key,
+          new CrawlDatum(status, 30 * 24 * 3600, 1.0f));
+    }
+    for (int i = 0; i < NUM_PARTS; i++) {
+      MapFile.Writer writer = new MapFile.Writer(conf, fs,
+          new Path(dir, "part-0000" + i).toString(), Text.class, CrawlDatum.class);
+      for (Map.Entry<Text, CrawlDatum> e : parts.get(i).entrySet()) {
+        writer.append(e.getKey(), e.getValue());
+      }
+      writer.close();
+    }
+  }
+
+  private String stat(String name) {
+    String stats = lookup.getStats();
+    int start = stats.indexOf(name + "=") + name.length() + 1;
+    int end = stats.indexOf(',', start);
+    return stats.substring(start, end < 0 ? stats.length() : end);
+  }
+
+  public void testBatchGet() throws Exception {
+    lookup = new CrawlDbLookup(crawlDb, conf);
+    List<String> request = new ArrayList<String>();
+    // unsorted and across all parts
+    for (int i = URLS.length - 1; i >= 0; i--) {
+      request.add(URLS[i]);
+    }
+    request.add("http://missing.example.com/");
+    Map<String, CrawlDatum> res = lookup.get(request);
+    // in the order of the request
+    assertEquals(request, new ArrayList<String>(res.keySet()));
+    for (String url : URLS) {
+      assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, res.get(url).getStatus());
+    }
+    assertNull(res.get("http://missing.example.com/"));
+    assertEquals("7", stat("lookups"));
+    assertEquals("0", stat("cache hits"));
+    assertEquals("6", stat("found in db"));
+    assertEquals("7", stat("cached records"));
+
+    // hits, including the missing url, and one miss
+    res = lookup.get(Arrays.asList(URLS[0], "http://missing.example.com/",
+        "http://g.example.com/"));
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, res.get(URLS[0]).getStatus());
+    assertNull(res.get("http://missing.example.com/"));
+    assertNull(res.get("http://g.example.com/"));
+    assertEquals("10", stat("lookups"));
+    assertEquals("2", stat("cache hits"));
+    assertEquals("8", stat("cached records"));
+
+    // cached records are copies
+    lookup.get(URLS[1]).setStatus(CrawlDatum.STATUS_DB_GONE);
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, lookup.get(URLS[1]).getStatus());
+  }
+
+  public void testCacheLimit() throws Exception {
+    conf.setLong(CrawlDbLookup.CACHE_SIZE, 0);
+    lookup = new CrawlDbLookup(crawlDb, conf);
+    lookup.get(Arrays.asList(URLS));
+    lookup.get(Arrays.asList(URLS));
+    assertEquals("0", stat("cache hits"));
+    assertEquals("0", stat("cached records"));
+  }
+
+  public void testNewestDeltaWins() throws Exception {
+    writeParts(CrawlDbDeltas.newDeltaPath(fs, crawlDb),
+        CrawlDatum.STATUS_DB_FETCHED, URLS[1], URLS[2], "http://g.example.com/");
+    writeParts(CrawlDbDeltas.newDeltaPath(fs, crawlDb),
+        CrawlDatum.STATUS_DB_GONE, URLS[2]);
+    lookup = new CrawlDbLookup(crawlDb, conf);
+    Map<String, CrawlDatum> res = lookup.get(Arrays.asList(URLS[0], URLS[1],
+        URLS[2], "http://g.example.com/"));
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, res.get(URLS[0]).getStatus());
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, res.get(URLS[1]).getStatus());
+    assertEquals(CrawlDatum.STATUS_DB_GONE, res.get(URLS[2]).getStatus());
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED,
+        res.get("http://g.example.com/").getStatus());
+  }
+
+  public void testReopen() throws Exception {
+    lookup = new CrawlDbLookup(crawlDb, conf);
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, lookup.get(URLS[0]).getStatus());
+    assertNull(lookup.get("http://g.example.com/"));
+
+    // replace the db, as updatedb does
+    Path current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    fs.delete(current, true);
+    writeParts(current, CrawlDatum.STATUS_DB_FETCHED, URLS[0],
+        "http://g.example.com/");
+    // still served from the cache
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, lookup.get(URLS[0]).getStatus());
+
+    lookup.reopen();
+    assertEquals("0", stat("cached records"));
+    Map<String, CrawlDatum> res = lookup.get(Arrays.asList(URLS[0], URLS[1],
+        "http://g.example.com/"));
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, res.get(URLS[0]).getStatus());
+    assertNull(res.get(URLS[1]));
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED,
+        res.get("http://g.example.com/").getStatus());
+
+    lookup.close();
+    try {
+      lookup.get(URLS[0]);
+      fail("lookup after close");
+    } catch (IOException e) {
+      // expected
+    }
+    lookup = null;
+  }
+}
@@ -130,6 +130,54 @@ public class TestInjector extends TestCase {
     }
   }
   
+  public void testIncrementalInject() throws IOException {
+    ArrayList<String> urls=new ArrayList<String>();
+    for(int i=0;i<100;i++) {
+      urls.add("http://zzz.com/" + i + ".html");
+    }
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls);
+    Injector injector=new Injector(conf);
+    injector.inject(crawldbPath, urlPath);
+
+    // inject new and already known urls as a delta
+    ArrayList<String> urls2=new ArrayList<String>();
+    for(int i=0;i<100;i++) {
+      urls2.add("http://xxx.com/" + i + ".html");
+      urls2.add("http://zzz.com/" + i + ".html");
+    }
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls2);
+    injector.inject(crawldbPath, urlPath, true);
+
+    // the base is unchanged, the delta contains only the new urls
+    assertEquals(100, readCrawldb().size());
+    Path[] deltas = CrawlDbDeltas.getDeltas(fs, crawldbPath);
+    assertEquals(1, deltas.length);
+    Path[] layers = CrawlDbDeltas.getLayers(crawldbPath, deltas);
+    CrawlDbDeltas.MergingReader reader = new CrawlDbDeltas.MergingReader(fs,
+        CrawlDbDeltas.getLayerParts(fs, new Path[] { deltas[0] }, 0), conf);
+    Text key = new Text();
+    CrawlDatum value = new CrawlDatum();
+    int count = 0;
+    while (reader.next(key, value)) {
+      assertTrue(key.toString().startsWith("http://xxx.com/"));
+      count++;
+    }
+    reader.close();
+    assertEquals(100, count);
+
+    // the merged view contains each url once
+    reader = new CrawlDbDeltas.MergingReader(fs,
+        CrawlDbDeltas.getLayerParts(fs, layers, 0), conf);
+    ArrayList<String> read=new ArrayList<String>();
+    while (reader.next(key, value)) {
+      read.add(key.toString());
+    }
+    reader.close();
+    urls.addAll(urls2);
+    assertEquals(urls.size() - 100, read.size());
+    assertTrue(read.containsAll(urls));
+  }
+
   private List<String> readCrawldb() throws IOException{
     Path dbfile=new Path(crawldbPath,CrawlDb.CURRENT_NAME + "/part-00000/data");
     System.out.println("reading:" + dbfile);
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+public class TestInlinks extends TestCase {
+
+  private static Inlinks copy(Inlinks inlinks) throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    inlinks.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Inlinks res = new Inlinks();
+    res.readFields(in);
+    return res;
+  }
+
+  private static Set<Inlink> toSet(Inlinks inlinks) {
+    Set<Inlink> res = new HashSet<Inlink>();
+    Iterator<Inlink> it = inlinks.iterator();
+    while (it.hasNext()) {
+      res.add(it.next());
+    }
+    return res;
+  }
+
+  public void testCompactForm() throws Exception {
+    Inlinks inlinks = new Inlinks();
+    for (int i = 0; i < 100; i++) {
+      inlinks.add(new Inlink("http://www.example.com/page/" + i, i % 2 == 0 ? "home" : "page " + i));
+    }
+    inlinks.add(new Inlink("http://www.example.com/page/1", "another anchor"));
+
+    Inlinks plain = copy(inlinks);
+    inlinks.setCompact(true);
+    Inlinks compact = copy(inlinks);
+    assertTrue(compact.isCompact());
+    assertEquals(101, compact.size());
+    assertEquals(toSet(plain), toSet(compact));
+    assertEquals(plain.getAnchors().length, compact.getAnchors().length);
+
+    // modifying unpacks the inlinks
+    compact.add(new Inlink("http://www.example.org/", "home"));
+    assertEquals(102, compact.size());
+    compact.add(new Inlink("http://www.example.org/", "home"));
+    assertEquals(102, compact.size());
+    assertEquals(102, copy(compact).size());
+  }
+
+  public void testReuse() throws Exception {
+    Inlinks inlinks = new Inlinks();
+    inlinks.add(new Inlink("http://www.example.com/", "home"));
+    DataOutputBuffer out = new DataOutputBuffer();
+    inlinks.setCompact(true);
+    inlinks.write(out);
+    inlinks.setCompact(false);
+    inlinks.write(out);
+
+    // the same instance reads both forms, as when reused by a reader
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Inlinks res = new Inlinks();
+    res.readFields(in);
+    assertTrue(res.isCompact());
+    res.readFields(in);
+    assertFalse(res.isCompact());
+    assertEquals(toSet(inlinks), toSet(res));
+  }
+}
@@ -103,7 +103,16 @@ public class TestLinkDbMerger extends TestCase {
   }
 
   public void testMerge() throws Exception {
+    merge(NutchConfiguration.create());
+  }
+
+  public void testMergeCompact() throws Exception {
     Configuration conf = NutchConfiguration.create();
+    conf.setBoolean(LinkDbMerger.INLINKS_COMPACT, true);
+    merge(conf);
+  }
+
+  private void merge(Configuration conf) throws Exception {
     FileSystem fs = FileSystem.get(conf);
     fs.mkdirs(testDir);
     Path linkdb1 = new Path(testDir, "linkdb1");
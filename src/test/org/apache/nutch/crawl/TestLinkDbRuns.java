@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests reading a LinkDb with runs, and merging the runs.
+ */
+public class TestLinkDbRuns extends TestCase {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+  private Path linkDb;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/linkdb-runs-test");
+    fs.delete(testDir, true);
+    linkDb = new Path(testDir, "linkdb");
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private void write(Path dir, String url, String... fromUrls) throws Exception {
+    MapFile.Writer writer = new MapFile.Writer(conf, fs,
+        new Path(dir, "part-00000").toString(), Text.class, Inlinks.class);
+    Inlinks inlinks = new Inlinks();
+    for (String fromUrl : fromUrls) {
+      inlinks.add(new Inlink(fromUrl, "anchor"));
+    }
+    writer.append(new Text(url), inlinks);
+    writer.close();
+  }
+
+  public void testRuns() throws Exception {
+    String url = "http://example.com/";
+    write(new Path(linkDb, LinkDb.CURRENT_NAME), url, "http://a.com/1", "http://a.com/2");
+    write(new Path(new Path(linkDb, LinkDb.RUNS_NAME), "run-000000000000001"), url, "http://b.com/1");
+    write(new Path(new Path(linkDb, LinkDb.RUNS_NAME), "run-000000000000002"), url, "http://c.com/1");
+    assertEquals(2, LinkDb.getRuns(fs, linkDb).length);
+    assertEquals(3, LinkDb.getLayers(fs, linkDb).length);
+
+    LinkDbReader reader = new LinkDbReader(conf, linkDb);
+    assertEquals(4, reader.getInlinks(new Text(url)).size());
+    assertNull(reader.getInlinks(new Text("http://example.com/missing")));
+    reader.close();
+
+    // the union of the runs is limited as when merging
+    Configuration limited = new Configuration(conf);
+    limited.setInt("db.max.inlinks", 3);
+    reader = new LinkDbReader(limited, linkDb);
+    assertEquals(3, reader.getInlinks(new Text(url)).size());
+    reader.close();
+    limited.setInt("db.max.inlinks", 10);
+    limited.setInt(LinkDbMerger.MAX_INLINKS_PER_HOST, 1);
+    reader = new LinkDbReader(limited, linkDb);
+    assertEquals(3, reader.getInlinks(new Text(url)).size());
+    reader.close();
+
+    LinkDb linkDbTool = new LinkDb(conf);
+    assertTrue(linkDbTool.compact(linkDb, false));
+    assertEquals(0, LinkDb.getRuns(fs, linkDb).length);
+    assertFalse(linkDbTool.compact(linkDb, false));
+
+    reader = new LinkDbReader(conf, linkDb);
+    assertEquals(4, reader.getInlinks(new Text(url)).size());
+    reader.close();
+  }
+}
@@ -17,15 +17,28 @@
 package org.apache.nutch.fetcher;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.nutch.crawl.CrawlDBTestUtil;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.FetchScheduleFactory;
 import org.apache.nutch.crawl.Generator;
 import org.apache.nutch.crawl.Injector;
 import org.apache.nutch.metadata.Metadata;
@@ -167,6 +180,138 @@ public class TestFetcher extends TestCase {
     assertTrue(urls.containsAll(handledurls));
   }
 
+  private static String page(String text) {
+    return "<html><body>Nutch fetcher test page " + text + "</body></html>";
+  }
+
+  private void writePage(Path site, String name, String text)
+    throws IOException {
+    OutputStream out = fs.create(new Path(site, name), true);
+    out.write(page(text).getBytes("UTF-8"));
+    out.close();
+  }
+
+  private Path generateAndFetch() throws IOException {
+    Generator g = new Generator(conf);
+    Path[] generatedSegment = g.generate(crawldbPath, segmentsPath, 1,
+        Long.MAX_VALUE, Long.MAX_VALUE, false, false);
+    assertNotNull(generatedSegment);
+    new Fetcher(conf).fetch(generatedSegment[0], 1);
+    return generatedSegment[0];
+  }
+
+  /** Reads the keys and values of the first part of a segment directory. */
+  private <V extends Writable> Map<String, V> read(
+      Path segment, String dir, Class<V> valueClass) throws Exception {
+    Map<String, V> res = new TreeMap<String, V>();
+    Path data = new Path(new Path(segment, dir), "part-00000/data");
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, data, conf);
+    Text key = new Text();
+    V value = valueClass.newInstance();
+    while (reader.next(key, value)) {
+      res.put(key.toString(), value);
+      value = valueClass.newInstance();
+    }
+    reader.close();
+    return res;
+  }
+
+  private static void assertRawSignature(String text, CrawlDatum datum)
+    throws IOException {
+    BytesWritable rawSignature = (BytesWritable) datum.getMetaData().get(
+        Nutch.WRITABLE_RAW_SIGNATURE_KEY);
+    assertNotNull(rawSignature);
+    assertTrue(Arrays.equals(MD5Hash.digest(page(text).getBytes("UTF-8"))
+        .getDigest(), Arrays.copyOf(rawSignature.getBytes(),
+        rawSignature.getLength())));
+  }
+
+  /** Clears the signature of a url in the CrawlDb, as a forced refetch does. */
+  private void forceRefetch(String url) throws Exception {
+    Path part = new Path(new Path(crawldbPath, CrawlDb.CURRENT_NAME),
+        "part-00000");
+    Map<Text, CrawlDatum> records = new TreeMap<Text, CrawlDatum>();
+    MapFile.Reader reader = new MapFile.Reader(fs, part.toString(), conf);
+    Text key = new Text();
+    CrawlDatum value = new CrawlDatum();
+    while (reader.next(key, value)) {
+      records.put(key, value);
+      key = new Text();
+      value = new CrawlDatum();
+    }
+    reader.close();
+    Text forced = new Text(url);
+    FetchScheduleFactory.getFetchSchedule(conf).forceRefetch(forced,
+        records.get(forced), false);
+    assertNull(records.get(forced).getSignature());
+    fs.delete(part, true);
+    MapFile.Writer writer = new MapFile.Writer(conf, fs, part.toString(),
+        Text.class, CrawlDatum.class);
+    for (Map.Entry<Text, CrawlDatum> e : records.entrySet()) {
+      writer.append(e.getKey(), e.getValue());
+    }
+    writer.close();
+  }
+
+  public void testSkipUnmodified() throws Exception {
+    // serve pages which can be changed between the fetches
+    Path site = new Path(testdir, "site");
+    writePage(site, "unchanged.html", "unchanged");
+    writePage(site, "changed.html", "before");
+    writePage(site, "forced.html", "forced");
+    server.stop();
+    server = CrawlDBTestUtil.getServer(conf.getInt("content.server.port",50000),
+        site.toString());
+    server.start();
+
+    conf.setBoolean("fetcher.parse", true);
+    conf.setBoolean(Fetcher.SKIP_UNMODIFIED, true);
+
+    ArrayList<String> urls = new ArrayList<String>();
+    addUrl(urls, "changed.html");
+    addUrl(urls, "forced.html");
+    addUrl(urls, "unchanged.html");
+    String changed = urls.get(0), forced = urls.get(1), unchanged = urls.get(2);
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls);
+    new Injector(conf).inject(crawldbPath, urlPath);
+
+    // first fetch, nothing to compare with
+    Path segment = generateAndFetch();
+    Map<String, CrawlDatum> fetched = read(segment, CrawlDatum.FETCH_DIR_NAME,
+        CrawlDatum.class);
+    assertEquals(new HashSet<String>(urls), fetched.keySet());
+    for (CrawlDatum datum : fetched.values()) {
+      assertEquals(CrawlDatum.STATUS_FETCH_SUCCESS, datum.getStatus());
+    }
+    assertRawSignature("before", fetched.get(changed));
+    assertRawSignature("unchanged", fetched.get(unchanged));
+    assertEquals(new HashSet<String>(urls),
+        read(segment, ParseData.DIR_NAME, ParseData.class).keySet());
+    new CrawlDb(conf).update(crawldbPath, new Path[] { segment }, false, false);
+
+    writePage(site, "changed.html", "after");
+    forceRefetch(forced);
+
+    // second fetch
+    segment = generateAndFetch();
+    fetched = read(segment, CrawlDatum.FETCH_DIR_NAME, CrawlDatum.class);
+    assertEquals(new HashSet<String>(urls), fetched.keySet());
+    assertEquals(CrawlDatum.STATUS_FETCH_SUCCESS,
+        fetched.get(changed).getStatus());
+    assertRawSignature("after", fetched.get(changed));
+    assertEquals(CrawlDatum.STATUS_FETCH_SUCCESS,
+        fetched.get(forced).getStatus());
+    assertRawSignature("forced", fetched.get(forced));
+    assertEquals(CrawlDatum.STATUS_FETCH_NOTMODIFIED,
+        fetched.get(unchanged).getStatus());
+
+    // the content of the unchanged page is dropped and not parsed again
+    Set<String> parsed = new HashSet<String>(Arrays.asList(changed, forced));
+    assertEquals(parsed, read(segment, Content.DIR_NAME, Content.class).keySet());
+    assertEquals(parsed,
+        read(segment, ParseData.DIR_NAME, ParseData.class).keySet());
+  }
+
   private void addUrl(ArrayList<String> urls, String page) {
     urls.add("http://127.0.0.1:" + server.getConnectors()[0].getPort() + "/" + page);
   }
@@ -67,4 +67,21 @@ public class TestURLNormalizers extends TestCase {
       assertTrue("RegexURLNormalizer before BasicURLNormalizer", pos1 < pos2);
     }
   }
+
+  public void testURLMemo() {
+    URLMemo memo = new URLMemo(2);
+    assertNull(memo.get("a"));
+    memo.put("a", "A");
+    memo.put("b", null);
+    assertEquals("A", URLMemo.unwrap(memo.get("a")));
+    // rejected URLs are memoized as well
+    assertNotNull(memo.get("b"));
+    assertNull(URLMemo.unwrap(memo.get("b")));
+    // "a" is the least recently used entry
+    memo.get("b");
+    memo.put("c", "C");
+    assertEquals(2, memo.size());
+    assertNull(memo.get("a"));
+    assertEquals("C", URLMemo.unwrap(memo.get("c")));
+  }
 }
@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.CountingReporter;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests {@link MultithreadedParseRunner} with a parser which takes longer for
+ * some records, by calling it directly as the framework would.
+ */
+public class TestMultithreadedParseRunner extends TestCase {
+
+  private static final int NUM_RECORDS = 12;
+  private static final int THREADS = 3;
+  private static final int WINDOW = 4;
+
+  /** Parser instances used by more than one thread at a time. */
+  private static final Set<Parser> SHARED = Collections.synchronizedSet(new HashSet<Parser>());
+
+  /** Sleeps for the number of milliseconds given by the content. */
+  public static class SlowParser implements Parser {
+    private Configuration conf;
+    private AtomicInteger active = new AtomicInteger();
+
+    public ParseResult getParse(Content content) {
+      if (active.incrementAndGet() > 1) {
+        SHARED.add(this);
+      }
+      String text = new String(content.getContent());
+      try {
+        Thread.sleep(Long.parseLong(text.substring(text.indexOf(' ') + 1)));
+      } catch (InterruptedException e) {
+        return new ParseStatus(e).getEmptyParseResult(content.getUrl(), conf);
+      } finally {
+        active.decrementAndGet();
+      }
+      ParseData data = new ParseData(ParseStatus.STATUS_SUCCESS, "title",
+          new Outlink[0], new Metadata());
+      return ParseResult.createParseResult(content.getUrl(),
+          new ParseImpl(text, data));
+    }
+
+    public void setConf(Configuration conf) { this.conf = conf; }
+
+    public Configuration getConf() { return conf; }
+  }
+
+  private static final String PLUGIN_XML =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+    + "<plugin id=\"runner-test\" name=\"Runner test parser\" version=\"1.0.0\""
+    + " provider-name=\"nutch.org\">\n"
+    + "  <runtime></runtime>\n"
+    + "  <requires><import plugin=\"nutch-extensionpoints\"/></requires>\n"
+    + "  <extension id=\"org.apache.nutch.parse.runnertest\""
+    + " name=\"Runner test parser\" point=\"org.apache.nutch.parse.Parser\">\n"
+    + "    <implementation id=\"runner-slow\" class=\""
+    + SlowParser.class.getName() + "\">\n"
+    + "      <parameter name=\"contentType\" value=\"text/plain\"/>\n"
+    + "    </implementation>\n"
+    + "  </extension>\n"
+    + "</plugin>\n";
+
+  /** Reads the records and checks how many are not yet collected. */
+  private class Reader implements RecordReader<WritableComparable<?>, Content> {
+    private int read = 0;
+    private DataOutputBuffer out = new DataOutputBuffer();
+    private DataInputBuffer in = new DataInputBuffer();
+
+    public boolean next(WritableComparable<?> key, Content value)
+      throws IOException {
+      if (read == NUM_RECORDS) {
+        return false;
+      }
+      // the slow records are parsed last if the output is unordered
+      long delay = (read % THREADS == 0) ? 300 : 10;
+      Content content = new Content(url(read), url(read),
+          (read + " " + delay).getBytes(), "text/plain", new Metadata(), conf);
+      content.getMetadata().set(Nutch.FETCH_STATUS_KEY,
+          Integer.toString(CrawlDatum.STATUS_FETCH_SUCCESS));
+      ((Text) key).set(url(read));
+      out.reset();
+      content.write(out);
+      in.reset(out.getData(), out.getLength());
+      value.readFields(in);
+      read++;
+      synchronized (output) {
+        maxInFlight = Math.max(maxInFlight, read - output.urls.size());
+      }
+      return true;
+    }
+
+    public WritableComparable<?> createKey() { return new Text(); }
+
+    public Content createValue() { return new Content(); }
+
+    public long getPos() { return read; }
+
+    public float getProgress() { return (float) read / NUM_RECORDS; }
+
+    public void close() {}
+  }
+
+  private static class Collector implements OutputCollector<Text, ParseImpl> {
+    List<String> urls = new ArrayList<String>();
+    List<String> texts = new ArrayList<String>();
+
+    public synchronized void collect(Text key, ParseImpl value) {
+      urls.add(key.toString());
+      texts.add(value.getText());
+    }
+  }
+
+  private JobConf conf;
+  private Collector output;
+  private int maxInFlight;
+
+  protected void setUp() throws Exception {
+    File plugins = new File(System.getProperty("test.build.data", "."),
+        "runner-plugins");
+    File plugin = new File(plugins, "runner-test");
+    plugin.mkdirs();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(new File(
+        plugin, "plugin.xml")), "UTF-8");
+    writer.write(PLUGIN_XML);
+    writer.close();
+
+    conf = new JobConf(NutchConfiguration.create());
+    conf.set("plugin.folders", conf.get("plugin.folders") + ","
+        + plugins.getAbsolutePath());
+    conf.set("plugin.includes", "nutch-extensionpoints|runner-test");
+    conf.set(Nutch.SEGMENT_NAME_KEY, "20121001000000");
+    conf.setInt(MultithreadedParseRunner.THREADS, THREADS);
+    conf.setInt(MultithreadedParseRunner.WINDOW, WINDOW);
+    output = new Collector();
+    maxInFlight = 0;
+    SHARED.clear();
+  }
+
+  private static String url(int i) {
+    return "http://www.example.com/" + i;
+  }
+
+  private CountingReporter run(boolean ordered) throws Exception {
+    conf.setBoolean(MultithreadedParseRunner.ORDERED, ordered);
+    MultithreadedParseRunner runner = new MultithreadedParseRunner();
+    runner.configure(conf);
+    CountingReporter reporter = new CountingReporter();
+    runner.run(new Reader(), output, reporter);
+
+    assertEquals(NUM_RECORDS, output.urls.size());
+    for (int i = 0; i < NUM_RECORDS; i++) {
+      String url = output.urls.get(i);
+      int n = Integer.parseInt(url.substring(url.lastIndexOf('/') + 1));
+      assertEquals(n + " " + ((n % THREADS == 0) ? 300 : 10),
+          output.texts.get(i));
+    }
+    assertTrue("in flight: " + maxInFlight, maxInFlight <= WINDOW);
+    assertTrue("parsers shared between threads", SHARED.isEmpty());
+
+    long parsed = 0;
+    for (Counters.Counter counter : reporter.getCounters().getGroup(
+        MultithreadedParseRunner.TIME_COUNTER_GROUP)) {
+      assertTrue(counter.getName(), counter.getName().startsWith("text/plain "));
+      parsed += counter.getValue();
+    }
+    assertEquals(NUM_RECORDS, parsed);
+    return reporter;
+  }
+
+  public void testOrdered() throws Exception {
+    run(true);
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < NUM_RECORDS; i++) {
+      expected.add(url(i));
+    }
+    assertEquals(expected, output.urls);
+  }
+
+  public void testUnordered() throws Exception {
+    run(false);
+    Set<String> expected = new HashSet<String>();
+    for (int i = 0; i < NUM_RECORDS; i++) {
+      expected.add(url(i));
+    }
+    assertEquals(expected, new HashSet<String>(output.urls));
+    // a slow record does not hold back the ones read after it
+    assertFalse(url(0).equals(output.urls.get(0)));
+  }
+}
@@ -19,8 +19,17 @@ package org.apache.nutch.parse;
 
 import org.apache.nutch.parse.Outlink;
 import org.apache.nutch.parse.OutlinkExtractor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.util.NutchConfiguration;
+import org.apache.oro.text.regex.Pattern;
+import org.apache.oro.text.regex.PatternMatcher;
+import org.apache.oro.text.regex.PatternMatcherInput;
+import org.apache.oro.text.regex.Perl5Compiler;
+import org.apache.oro.text.regex.Perl5Matcher;
 
 import junit.framework.TestCase;
 
@@ -78,4 +87,34 @@ public class TestOutlinkExtractor extends TestCase {
     assertEquals("Wrong URL", "ftp://www.nutch.org", outlinks[0].getToUrl());
     assertEquals("Wrong URL", "ftp://www.google.de", outlinks[1].getToUrl());
   }
+
+  public void testSameAsRegex() throws Exception {
+    Pattern pattern = new Perl5Compiler().compile(OutlinkExtractor.URL_PATTERN,
+        Perl5Compiler.CASE_INSENSITIVE_MASK | Perl5Compiler.READ_ONLY_MASK
+            | Perl5Compiler.MULTILINE_MASK);
+    PatternMatcher matcher = new Perl5Matcher();
+    String chars = "ab:/%#9Fz.-+ h:tp1@?x";
+    Random random = new Random(0);
+    for (int t = 0; t < 10000; t++) {
+      StringBuilder text = new StringBuilder();
+      int length = random.nextInt(60);
+      for (int i = 0; i < length; i++) {
+        if (random.nextInt(20) == 0) {
+          text.append("http://");
+        } else {
+          text.append(chars.charAt(random.nextInt(chars.length())));
+        }
+      }
+      List<String> expected = new ArrayList<String>();
+      PatternMatcherInput input = new PatternMatcherInput(text.toString());
+      while (matcher.contains(input, pattern)) {
+        expected.add(matcher.getMatch().group(0));
+      }
+      List<String> found = new ArrayList<String>();
+      for (Outlink outlink : OutlinkExtractor.getOutlinks(text.toString(), conf)) {
+        found.add(outlink.getToUrl());
+      }
+      assertEquals(text.toString(), expected, found);
+    }
+  }
 }
@@ -18,6 +18,8 @@
 package org.apache.nutch.parse;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.nutch.util.NutchConfiguration;
 
 import org.apache.nutch.util.WritableTestUtils;
@@ -63,4 +65,34 @@ public class TestParseData extends TestCase {
     ParseData data = (ParseData) WritableTestUtils.writeRead(original, null);
     assertEquals(outlinks.length, data.getOutlinks().length);
   }
+
+  public void testFrontCodedOutlinks() throws Exception {
+    Outlink[] outlinks = new Outlink[] {
+      new Outlink("http://foo.com/a/b", "more"),
+      new Outlink("http://foo.com/a/c", "more"),
+      new Outlink("http://foo.com/a", ""),
+      new Outlink("http://foo.com/a/\ud83d\ude00", "more"),
+      new Outlink("http://foo.com/a/\ud83d\ude01", "Smile"),
+      new Outlink("http://bar.com/", "more")
+    };
+    ParseData r = new ParseData(ParseStatus.STATUS_SUCCESS, "Title",
+                                outlinks, new Metadata());
+    WritableTestUtils.testWritable(r, null);
+  }
+
+  public void testReadLegacyVersion() throws Exception {
+    Outlink[] outlinks = new Outlink[] {
+      new Outlink("http://foo.com/", "Foo"),
+      new Outlink("http://foo.com/bar", "Bar")
+    };
+    ParseData original = new ParseData(ParseStatus.STATUS_SUCCESS, "Title",
+                                       outlinks, new Metadata());
+    DataOutputBuffer out = new DataOutputBuffer();
+    original.write(out, ParseData.LEGACY_VERSION);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    ParseData data = ParseData.read(in);
+    assertEquals(ParseData.LEGACY_VERSION, data.getVersion());
+    assertEquals(original, data);
+  }
 }
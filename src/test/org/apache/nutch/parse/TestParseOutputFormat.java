@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests which outlinks of a page {@link ParseOutputFormat} keeps and passes
+ * score to.
+ */
+public class TestParseOutputFormat extends TestCase {
+
+  private static final String FROM_URL = "http://a.example.com/";
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+  private Path segment;
+
+  /** Outlinks kept in the ParseData. */
+  private List<String> outlinks;
+  /** Scores of the STATUS_LINKED records, by url. */
+  private Map<String, Float> linked;
+  private int numLinked;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.set("plugin.includes", "scoring-opic");
+    conf.setInt("db.max.outlinks.per.page", 100);
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/parse-output-test");
+    fs.delete(testDir, true);
+    segment = new Path(testDir, "segment");
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  /** Writes a parse of {@link #FROM_URL} and reads the output back. */
+  private void write(String... toUrls) throws Exception {
+    fs.delete(segment, true);
+    JobConf job = new JobConf(conf);
+    FileOutputFormat.setOutputPath(job, segment);
+    Outlink[] links = new Outlink[toUrls.length];
+    for (int i = 0; i < toUrls.length; i++) {
+      links[i] = new Outlink(toUrls[i], "anchor " + i);
+    }
+    Metadata contentMeta = new Metadata();
+    contentMeta.set(Nutch.SCORE_KEY, "1.0");
+    ParseData parseData = new ParseData(ParseStatus.STATUS_SUCCESS, "title",
+        links, contentMeta, new Metadata());
+    RecordWriter<Text, Parse> writer = new ParseOutputFormat().getRecordWriter(
+        fs, job, "part-00000", Reporter.NULL);
+    writer.write(new Text(FROM_URL), new ParseImpl("text", parseData));
+    writer.close(Reporter.NULL);
+
+    MapFile.Reader dataReader = new MapFile.Reader(fs,
+        new Path(new Path(segment, ParseData.DIR_NAME), "part-00000").toString(),
+        conf);
+    ParseData written = new ParseData();
+    assertNotNull(dataReader.get(new Text(FROM_URL), written));
+    dataReader.close();
+    outlinks = new ArrayList<String>();
+    for (Outlink outlink : written.getOutlinks()) {
+      outlinks.add(outlink.getToUrl());
+    }
+
+    linked = new TreeMap<String, Float>();
+    numLinked = 0;
+    SequenceFile.Reader crawlReader = new SequenceFile.Reader(fs,
+        new Path(new Path(segment, CrawlDatum.PARSE_DIR_NAME), "part-00000"),
+        conf);
+    Text key = new Text();
+    CrawlDatum datum = new CrawlDatum();
+    while (crawlReader.next(key, datum)) {
+      if (datum.getStatus() == CrawlDatum.STATUS_LINKED) {
+        linked.put(key.toString(), datum.getScore());
+        numLinked++;
+      }
+    }
+    crawlReader.close();
+  }
+
+  public void testPerHostCap() throws Exception {
+    conf.setInt("db.max.outlinks.per.host", 2);
+    write("http://b.example.com/1", "http://b.example.com/2",
+        "http://b.example.com/3", "http://c.example.com/1",
+        "http://b.example.com/4", "http://c.example.com/2");
+    List<String> kept = Arrays.asList("http://b.example.com/1",
+        "http://b.example.com/2", "http://c.example.com/1",
+        "http://c.example.com/2");
+    assertEquals(kept, outlinks);
+    assertEquals(4, numLinked);
+    assertEquals(kept, new ArrayList<String>(linked.keySet()));
+  }
+
+  public void testCapBeforeFilter() throws Exception {
+    // filter the outlinks to other hosts
+    conf.setBoolean("fetcher.parse", false);
+    conf.setBoolean("db.ignore.external.links", true);
+    conf.setInt("db.max.outlinks.per.page", 3);
+    String[] toUrls = { "http://x.example.com/", FROM_URL + "1", FROM_URL + "2",
+        FROM_URL + "3" };
+
+    // the cap applies to the outlinks left after filtering
+    write(toUrls);
+    assertEquals(Arrays.asList(FROM_URL + "1", FROM_URL + "2", FROM_URL + "3"),
+        outlinks);
+    assertEquals(3, numLinked);
+
+    // the cap applies to the outlinks of the page
+    conf.setBoolean("db.max.outlinks.per.page.before.filter", true);
+    write(toUrls);
+    assertEquals(Arrays.asList(FROM_URL + "1", FROM_URL + "2"), outlinks);
+    assertEquals(2, numLinked);
+  }
+
+  public void testDuplicates() throws Exception {
+    write(FROM_URL + "1", FROM_URL + "2", FROM_URL + "1", FROM_URL + "1");
+    // all outlinks are kept, with their anchors
+    assertEquals(Arrays.asList(FROM_URL + "1", FROM_URL + "2", FROM_URL + "1",
+        FROM_URL + "1"), outlinks);
+    // but the score is passed once to each url, and split between them
+    assertEquals(2, numLinked);
+    assertEquals(0.5f, linked.get(FROM_URL + "1"));
+    assertEquals(0.5f, linked.get(FROM_URL + "2"));
+  }
+}
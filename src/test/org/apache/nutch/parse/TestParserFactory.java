@@ -98,5 +98,13 @@ public class TestParserFactory extends TestCase {
     assertEquals("org.apache.nutch.parse.tika.TikaParser",
                  parsers[0].getClass().getName());
   }
+
+  /** Resolved parsers are cached per content type */
+  public void testResolvedCache() throws Exception {
+    Parser[] parsers1 = parserFactory.getParsers("text/html", "http://foo.com");
+    Parser[] parsers2 = new ParserFactory(conf).getParsers("text/html",
+                                                           "http://bar.com");
+    assertSame(parsers1, parsers2);
+  }
  
 }
@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.CountingReporter;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests parsing in worker JVMs with parsers which answer, loop and crash.
+ * The parsers are registered by a plugin written by the test, their classes
+ * are found on the class path of the workers.
+ */
+public class TestParserSandbox extends TestCase {
+
+  private static final int TIMEOUT = 2;
+
+  public static class OkParser implements Parser {
+    private Configuration conf;
+
+    public ParseResult getParse(Content content) {
+      String text = new String(content.getContent());
+      ParseData data = new ParseData(ParseStatus.STATUS_SUCCESS, "title",
+          new Outlink[0], new Metadata());
+      return ParseResult.createParseResult(content.getUrl(),
+          new ParseImpl(text, data));
+    }
+
+    public void setConf(Configuration conf) { this.conf = conf; }
+
+    public Configuration getConf() { return conf; }
+  }
+
+  public static class LoopParser extends OkParser {
+    public ParseResult getParse(Content content) {
+      while (true) {
+        // a parser which never returns
+      }
+    }
+  }
+
+  public static class CrashParser extends OkParser {
+    public ParseResult getParse(Content content) {
+      Runtime.getRuntime().halt(1);
+      return null;
+    }
+  }
+
+  private static final String PLUGIN_XML =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+    + "<plugin id=\"sandbox-test\" name=\"Sandbox test parsers\" version=\"1.0.0\""
+    + " provider-name=\"nutch.org\">\n"
+    + "  <runtime></runtime>\n"
+    + "  <requires><import plugin=\"nutch-extensionpoints\"/></requires>\n"
+    + "  <extension id=\"org.apache.nutch.parse.sandboxtest\""
+    + " name=\"Sandbox test parsers\" point=\"org.apache.nutch.parse.Parser\">\n"
+    + implementation("sandbox-ok", OkParser.class)
+    + implementation("sandbox-loop", LoopParser.class)
+    + implementation("sandbox-crash", CrashParser.class)
+    + "  </extension>\n"
+    + "</plugin>\n";
+
+  private static String implementation(String id, Class<?> parser) {
+    return "    <implementation id=\"" + id + "\" class=\"" + parser.getName()
+      + "\">\n      <parameter name=\"contentType\" value=\"text/plain\"/>\n"
+      + "    </implementation>\n";
+  }
+
+  private Configuration conf;
+  private ParserSandbox sandbox;
+
+  protected void setUp() throws Exception {
+    File plugins = new File(System.getProperty("test.build.data", "."),
+        "sandbox-plugins");
+    File plugin = new File(plugins, "sandbox-test");
+    plugin.mkdirs();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(new File(
+        plugin, "plugin.xml")), "UTF-8");
+    writer.write(PLUGIN_XML);
+    writer.close();
+
+    conf = NutchConfiguration.create();
+    conf.set("plugin.folders", conf.get("plugin.folders") + ","
+        + plugins.getAbsolutePath());
+    conf.set("plugin.includes", "nutch-extensionpoints|sandbox-test");
+    conf.setBoolean(ParserSandbox.SANDBOX, true);
+    conf.setInt(ParserSandbox.WORKERS, 1);
+    conf.set(ParserSandbox.HEAP, "64m");
+    conf.setInt("parser.timeout", TIMEOUT);
+    sandbox = ParserSandbox.get(conf);
+    // reset the counters
+    ParserSandbox.report(new CountingReporter());
+  }
+
+  protected void tearDown() throws Exception {
+    sandbox.shutdown();
+  }
+
+  private Content content(String text) {
+    return new Content("http://www.example.com/", "http://www.example.com/",
+        text.getBytes(), "text/plain", new Metadata(), conf);
+  }
+
+  private static long counter(CountingReporter reporter, String name) {
+    return reporter.getValue(ParserSandbox.COUNTER_GROUP, name);
+  }
+
+  private void assertParsed(String text) throws Exception {
+    ParseResult result = sandbox.parse(content(text), "sandbox-ok");
+    Parse parse = result.get("http://www.example.com/");
+    assertTrue(parse.getData().getStatus().isSuccess());
+    assertEquals(text, parse.getText());
+    assertEquals("title", parse.getData().getTitle());
+  }
+
+  public void testParse() throws Exception {
+    assertParsed("some text");
+    assertParsed("more text");
+    CountingReporter reporter = new CountingReporter();
+    ParserSandbox.report(reporter);
+    assertEquals(2, counter(reporter, "parsed"));
+    // the worker is reused
+    assertEquals(1, counter(reporter, "workers started"));
+    assertEquals(0, counter(reporter, "killed after timeout"));
+    assertEquals(0, counter(reporter, "crashed"));
+
+    try {
+      // no parser for this type
+      sandbox.parse(new Content("http://www.example.com/",
+          "http://www.example.com/", new byte[] { 0, 1, 2 },
+          "application/x-unknown", new Metadata(), conf), null);
+      fail("parsed without parser");
+    } catch (ParseException e) {
+      // expected, the worker is kept
+    }
+    assertParsed("text");
+    reporter = new CountingReporter();
+    ParserSandbox.report(reporter);
+    assertEquals(0, counter(reporter, "workers started"));
+  }
+
+  public void testTimeout() throws Exception {
+    long start = System.currentTimeMillis();
+    ParseResult result = sandbox.parse(content("text"), "sandbox-loop");
+    long elapsed = System.currentTimeMillis() - start;
+    assertFalse(result.get("http://www.example.com/").getData().getStatus()
+        .isSuccess());
+    assertTrue("killed after " + elapsed, elapsed >= TIMEOUT * 1000
+        && elapsed < TIMEOUT * 1000 + 5000);
+
+    // a new worker is started
+    assertParsed("text");
+    CountingReporter reporter = new CountingReporter();
+    ParserSandbox.report(reporter);
+    assertEquals(1, counter(reporter, "killed after timeout"));
+    assertEquals(0, counter(reporter, "crashed"));
+    assertEquals(2, counter(reporter, "workers started"));
+    assertEquals(1, counter(reporter, "parsed"));
+  }
+
+  public void testCrash() throws Exception {
+    ParseResult result = sandbox.parse(content("text"), "sandbox-crash");
+    assertFalse(result.get("http://www.example.com/").getData().getStatus()
+        .isSuccess());
+
+    // a new worker is started
+    assertParsed("text");
+    CountingReporter reporter = new CountingReporter();
+    ParserSandbox.report(reporter);
+    assertEquals(1, counter(reporter, "crashed"));
+    assertEquals(0, counter(reporter, "killed after timeout"));
+    assertEquals(2, counter(reporter, "workers started"));
+  }
+
+  public void testPerConfiguration() throws Exception {
+    assertSame(sandbox, ParserSandbox.get(conf));
+    Configuration other = new Configuration(conf);
+    ParserSandbox otherSandbox = ParserSandbox.get(other);
+    assertNotSame(sandbox, otherSandbox);
+    otherSandbox.shutdown();
+    // a sandbox which is shut down is replaced
+    ParserSandbox newSandbox = ParserSandbox.get(other);
+    assertNotSame(otherSandbox, newSandbox);
+    assertSame(sandbox, ParserSandbox.get(conf));
+    newSandbox.shutdown();
+  }
+}
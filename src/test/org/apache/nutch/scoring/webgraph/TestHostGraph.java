@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.scoring.webgraph;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the PageRank computation of the host graph.
+ */
+public class TestHostGraph extends TestCase {
+
+  private static double sum(double[] rank) {
+    double sum = 0;
+    for (double r : rank) {
+      sum += r;
+    }
+    return sum;
+  }
+
+  public void testRing() {
+    int[] sources = { 0, 1, 2 };
+    int[] targets = { 1, 2, 0 };
+    float[] weights = { 1, 1, 1 };
+    double[] rank = HostGraph.pageRank(3, sources, targets, weights, 3,
+        0.85f, 20, 0);
+    for (double r : rank) {
+      assertEquals(1.0d / 3, r, 1e-9);
+    }
+  }
+
+  public void testStar() {
+    // hosts 1 to 3 link to host 0, which links nowhere
+    int[] sources = { 1, 2, 3 };
+    int[] targets = { 0, 0, 0 };
+    float[] weights = { 1, 1, 1 };
+    double[] rank = HostGraph.pageRank(4, sources, targets, weights, 3,
+        0.85f, 50, 1e-9);
+    assertEquals(1.0d, sum(rank), 1e-6);
+    assertTrue(rank[0] > rank[1]);
+    assertEquals(rank[1], rank[2], 1e-9);
+  }
+
+  public void testWeights() {
+    // host 0 links to host 1 from more pages than to host 2
+    int[] sources = { 0, 0, 1, 2 };
+    int[] targets = { 1, 2, 0, 0 };
+    float[] weights = { 3, 1, 1, 1 };
+    double[] rank = HostGraph.pageRank(3, sources, targets, weights, 4,
+        0.85f, 50, 1e-9);
+    assertEquals(1.0d, sum(rank), 1e-6);
+    assertTrue(rank[1] > rank[2]);
+  }
+}
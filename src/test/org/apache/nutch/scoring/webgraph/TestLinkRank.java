@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests that the in memory and the delta LinkRank analysis give the same
+ * scores as the full MapReduce analysis.
+ */
+public class TestLinkRank extends TestCase {
+
+  private static final String[][] LINKS = {
+    { "http://a.com/", "http://b.com/", "http://c.com/" },
+    { "http://b.com/", "http://c.com/" },
+    { "http://c.com/", "http://a.com/", "http://d.com/" },
+    { "http://d.com/", "http://a.com/", "http://b.com/", "http://c.com/" },
+    { "http://e.com/", "http://a.com/" },
+  };
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setInt("link.analyze.num.iterations", 5);
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/linkrank-test");
+    fs.delete(testDir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private void createWebGraph(Path webGraphDb) throws Exception {
+    Map<String, Node> nodes = new TreeMap<String, Node>();
+    MapFile.Writer outlinks = new MapFile.Writer(conf, fs,
+        new Path(new Path(webGraphDb, WebGraph.OUTLINK_DIR), "part-00000").toString(),
+        Text.class, LinkDatum.class);
+    for (String[] links : LINKS) {
+      Node node = new Node();
+      node.setNumOutlinks(links.length - 1);
+      nodes.put(links[0], node);
+      for (int i = 1; i < links.length; i++) {
+        outlinks.append(new Text(links[0]), new LinkDatum(links[i]));
+      }
+    }
+    outlinks.close();
+    MapFile.Writer writer = new MapFile.Writer(conf, fs,
+        new Path(new Path(webGraphDb, WebGraph.NODE_DIR), "part-00000").toString(),
+        Text.class, Node.class);
+    for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+      writer.append(new Text(entry.getKey()), entry.getValue());
+    }
+    writer.close();
+  }
+
+  private Map<String, Float> readScores(Path webGraphDb) throws Exception {
+    Map<String, Float> scores = new HashMap<String, Float>();
+    MapFile.Reader reader = new MapFile.Reader(fs,
+        new Path(new Path(webGraphDb, WebGraph.NODE_DIR), "part-00000").toString(), conf);
+    Text key = new Text();
+    Node node = new Node();
+    while (reader.next(key, node)) {
+      scores.put(key.toString(), node.getInlinkScore());
+    }
+    reader.close();
+    return scores;
+  }
+
+  private void assertSameScores(Path expectedDb, Path actualDb) throws Exception {
+    Map<String, Float> expected = readScores(expectedDb);
+    Map<String, Float> actual = readScores(actualDb);
+    assertEquals(LINKS.length, actual.size());
+    for (Map.Entry<String, Float> entry : expected.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()), 1e-4f);
+    }
+  }
+
+  public void testInMemory() throws Exception {
+    Path mrDb = new Path(testDir, "mapreduce");
+    Path memoryDb = new Path(testDir, "memory");
+    createWebGraph(mrDb);
+    createWebGraph(memoryDb);
+
+    new LinkRank(conf).analyze(mrDb);
+    Configuration memoryConf = new Configuration(conf);
+    memoryConf.setBoolean(LinkRank.IN_MEMORY, true);
+    memoryConf.setInt(MemoryLinkRank.THREADS, 2);
+    new LinkRank(memoryConf).analyze(memoryDb);
+
+    assertSameScores(mrDb, memoryDb);
+    // the node without inlinks
+    assertEquals((1 - 0.85f) + 0.85f / LINKS.length,
+        readScores(memoryDb).get("http://e.com/"), 1e-4f);
+  }
+
+  public void testDelta() throws Exception {
+    Path mrDb = new Path(testDir, "mapreduce");
+    Path deltaDb = new Path(testDir, "delta");
+    createWebGraph(mrDb);
+    createWebGraph(deltaDb);
+
+    new LinkRank(conf).analyze(mrDb);
+    Configuration deltaConf = new Configuration(conf);
+    deltaConf.setBoolean(LinkRank.DELTA, true);
+    deltaConf.setFloat(LinkRank.DELTA_EPSILON, 0f);
+    new LinkRank(deltaConf).analyze(deltaDb);
+    assertSameScores(mrDb, deltaDb);
+  }
+
+  public void testWarmStart() throws Exception {
+    Path memoryDb = new Path(testDir, "memory");
+    createWebGraph(memoryDb);
+    conf.setBoolean(LinkRank.IN_MEMORY, true);
+    conf.setBoolean(LinkRank.WARM_START, true);
+    conf.setInt("link.analyze.num.iterations", 50);
+    conf.setFloat(LinkRank.CONVERGENCE_THRESHOLD, 1e-5f);
+    new LinkRank(conf).analyze(memoryDb);
+    Map<String, Float> converged = readScores(memoryDb);
+    assertTrue(fs.exists(new Path(memoryDb, LinkRank.SCORES_DIR)));
+
+    // starting from converged scores, a single iteration changes nothing
+    conf.setInt("link.analyze.num.iterations", 1);
+    new LinkRank(conf).analyze(memoryDb);
+    Map<String, Float> rerun = readScores(memoryDb);
+    for (Map.Entry<String, Float> entry : converged.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue(), rerun.get(entry.getKey()), 1e-4f);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests finding loops with and without host pruning.
+ */
+public class TestLoops extends TestCase {
+
+  // a.com and b.com link to each other, c.com only links to them
+  private static final String[][] LINKS = {
+    { "http://a.com/1", "http://b.com/1" },
+    { "http://a.com/2", "http://a.com/1" },
+    { "http://b.com/1", "http://a.com/2" },
+    { "http://c.com/1", "http://a.com/1", "http://b.com/1" },
+  };
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setInt("link.loops.depth", 2);
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/loops-test");
+    fs.delete(testDir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private void createWebGraph(Path webGraphDb) throws Exception {
+    Map<String, Node> nodes = new TreeMap<String, Node>();
+    for (String[] links : LINKS) {
+      Node node = new Node();
+      node.setNumOutlinks(links.length - 1);
+      node.setNumInlinks(1);
+      nodes.put(links[0], node);
+    }
+    MapFile.Writer outlinks = new MapFile.Writer(conf, fs,
+        new Path(new Path(webGraphDb, WebGraph.OUTLINK_DIR), "part-00000").toString(),
+        Text.class, LinkDatum.class);
+    for (String[] links : LINKS) {
+      for (int i = 1; i < links.length; i++) {
+        outlinks.append(new Text(links[0]), new LinkDatum(links[i]));
+      }
+    }
+    outlinks.close();
+    MapFile.Writer writer = new MapFile.Writer(conf, fs,
+        new Path(new Path(webGraphDb, WebGraph.NODE_DIR), "part-00000").toString(),
+        Text.class, Node.class);
+    for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+      writer.append(new Text(entry.getKey()), entry.getValue());
+    }
+    writer.close();
+  }
+
+  private Map<String, Set<String>> findLoops(String name, boolean pruning)
+      throws Exception {
+    Path webGraphDb = new Path(testDir, name);
+    createWebGraph(webGraphDb);
+    Configuration loopsConf = new Configuration(conf);
+    loopsConf.setBoolean(Loops.HOST_PRUNING, pruning);
+    Loops loops = new Loops();
+    loops.setConf(loopsConf);
+    loops.findLoops(webGraphDb);
+
+    Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+    MapFile.Reader reader = new MapFile.Reader(fs,
+        new Path(new Path(webGraphDb, Loops.LOOPS_DIR), "part-00000").toString(), conf);
+    Text key = new Text();
+    Loops.LoopSet loopSet = new Loops.LoopSet();
+    while (reader.next(key, loopSet)) {
+      result.put(key.toString(), loopSet.getLoopSet());
+    }
+    reader.close();
+    return result;
+  }
+
+  public void testHostPruning() throws Exception {
+    Map<String, Set<String>> full = findLoops("full", false);
+    Map<String, Set<String>> pruned = findLoops("pruned", true);
+    assertEquals(full, pruned);
+    // a.com/1 -> b.com/1 -> a.com/2 -> a.com/1
+    assertTrue(pruned.get("http://a.com/1").contains("http://b.com/1"));
+    assertNull(pruned.get("http://c.com/1"));
+  }
+
+  public void testFindComponents() {
+    // 0 <-> 1 -> 2 -> 3 -> 2, 4 alone
+    int[] offsets = { 0, 1, 3, 4, 5, 5 };
+    int[] targets = { 1, 0, 2, 3, 2 };
+    int[] component = Loops.findComponents(5, offsets, targets);
+    assertEquals(component[0], component[1]);
+    assertEquals(component[2], component[3]);
+    assertFalse(component[0] == component[2]);
+    assertFalse(component[4] == component[0]);
+    assertFalse(component[4] == component[2]);
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests that the top N urls dumped with the heaps of the map tasks are the
+ * same as with a full sort.
+ */
+public class TestNodeDumper extends TestCase {
+
+  private static final int NUM_PARTS = 3;
+  private static final int NUM_NODES = 40;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+  private Path webGraphDb;
+  private Map<String, Float> scores = new HashMap<String, Float>();
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/nodedumper-test");
+    fs.delete(testDir, true);
+    webGraphDb = new Path(testDir, "webgraphdb");
+
+    // several parts, i.e. map tasks, with many equal scores
+    List<Map<String, Node>> parts = new ArrayList<Map<String, Node>>();
+    for (int i = 0; i < NUM_PARTS; i++) {
+      parts.add(new TreeMap<String, Node>());
+    }
+    for (int i = 0; i < NUM_NODES; i++) {
+      String url = "http://www.example.com/" + i;
+      Node node = new Node();
+      node.setInlinkScore((i * 7) % 5);
+      scores.put(url, node.getInlinkScore());
+      parts.get(i % NUM_PARTS).put(url, node);
+    }
+    for (int i = 0; i < NUM_PARTS; i++) {
+      MapFile.Writer writer = new MapFile.Writer(conf, fs,
+          new Path(new Path(webGraphDb, WebGraph.NODE_DIR), "part-0000" + i).toString(),
+          Text.class, Node.class);
+      for (Map.Entry<String, Node> entry : parts.get(i).entrySet()) {
+        writer.append(new Text(entry.getKey()), entry.getValue());
+      }
+      writer.close();
+    }
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private List<String> dump(Configuration dumpConf, int topN, String name)
+    throws Exception {
+    Path output = new Path(testDir, name);
+    NodeDumper dumper = new NodeDumper();
+    dumper.setConf(dumpConf);
+    assertEquals(0, dumper.run(new String[] { "-webgraphdb",
+        webGraphDb.toString(), "-scores", "-topn", Integer.toString(topN),
+        "-output", output.toString(), "-asSequenceFile" }));
+    List<String> urls = new ArrayList<String>();
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+        new Path(output, "part-00000"), conf);
+    Text url = new Text();
+    FloatWritable score = new FloatWritable();
+    while (reader.next(url, score)) {
+      assertEquals(url.toString(), scores.get(url.toString()), score.get());
+      urls.add(url.toString());
+    }
+    reader.close();
+    return urls;
+  }
+
+  /** Urls with equal scores may be output in any order. */
+  private void assertTopN(int topN, List<String> urls) {
+    List<Float> sorted = new ArrayList<Float>(scores.values());
+    Collections.sort(sorted, Collections.reverseOrder());
+    sorted = sorted.subList(0, Math.min(topN, sorted.size()));
+    List<Float> actual = new ArrayList<Float>();
+    for (String url : urls) {
+      actual.add(scores.get(url));
+    }
+    assertEquals(sorted, actual);
+    assertEquals(urls.size(), new HashSet<String>(urls).size());
+
+    // all urls better than the last one are included
+    float last = sorted.get(sorted.size() - 1);
+    Set<String> better = new HashSet<String>();
+    for (Map.Entry<String, Float> entry : scores.entrySet()) {
+      if (entry.getValue() > last) better.add(entry.getKey());
+    }
+    assertTrue(urls.containsAll(better));
+  }
+
+  public void testTopN() throws Exception {
+    Configuration sortConf = new Configuration(conf);
+    // always do a full sort
+    sortConf.setInt(NodeDumper.MAX_HEAP_SIZE, 0);
+
+    // less and more than a part, more than all nodes
+    for (int topN : new int[] { 5, 20, NUM_NODES + 10 }) {
+      List<String> heap = dump(conf, topN, "heap-" + topN);
+      List<String> sort = dump(sortConf, topN, "sort-" + topN);
+      assertTopN(topN, heap);
+      assertTopN(topN, sort);
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbDeltas;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests that the map-side and the reduce-side join of the ScoreUpdater give
+ * the same CrawlDb.
+ */
+public class TestScoreUpdater extends TestCase {
+
+  private static final int NUM_PARTS = 2;
+
+  private static final float CLEAR_SCORE = -1.0f;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setFloat("link.score.updater.clear.score", CLEAR_SCORE);
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/scoreupdater-test");
+    fs.delete(testDir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  /** Writes the records into parts, as partitioned by a job. */
+  private void writeParts(Path dir, int numParts, Map<String, ? extends Writable> records)
+    throws Exception {
+    HashPartitioner<Text, Writable> partitioner =
+      new HashPartitioner<Text, Writable>();
+    List<MapFile.Writer> writers = new ArrayList<MapFile.Writer>();
+    Class<?> valueClass = records.values().iterator().next().getClass();
+    for (int i = 0; i < numParts; i++) {
+      writers.add(new MapFile.Writer(conf, fs,
+          new Path(dir, "part-0000" + i).toString(), Text.class,
+          valueClass.asSubclass(Writable.class)));
+    }
+    // sorted, as records are appended in order
+    for (Map.Entry<String, ? extends Writable> e : new TreeMap<String, Writable>(records).entrySet()) {
+      Text key = new Text(e.getKey());
+      writers.get(partitioner.getPartition(key, null, numParts)).append(key,
+          e.getValue());
+    }
+    for (MapFile.Writer writer : writers) {
+      writer.close();
+    }
+  }
+
+  private static CrawlDatum datum(byte status) {
+    CrawlDatum datum = new CrawlDatum(status, 30 * 24 * 3600, 1.0f);
+    datum.setFetchTime(1000);
+    return datum;
+  }
+
+  private static Node node(float score) {
+    Node node = new Node();
+    node.setInlinkScore(score);
+    return node;
+  }
+
+  /**
+   * Creates a CrawlDb with a delta and a WebGraph: a.com to e.com are in the
+   * CrawlDb, e.com only in the delta, a.com to c.com and x.com and y.com in
+   * the NodeDb.
+   */
+  private void create(Path crawlDb, Path webGraphDb, int crawlDbParts,
+    int nodeDbParts) throws Exception {
+    Map<String, CrawlDatum> base = new TreeMap<String, CrawlDatum>();
+    for (String url : new String[] { "http://a.com/", "http://b.com/",
+        "http://c.com/", "http://d.com/" }) {
+      base.put(url, datum(CrawlDatum.STATUS_DB_UNFETCHED));
+    }
+    writeParts(new Path(crawlDb, CrawlDb.CURRENT_NAME), crawlDbParts, base);
+    Map<String, CrawlDatum> delta = new TreeMap<String, CrawlDatum>();
+    delta.put("http://b.com/", datum(CrawlDatum.STATUS_DB_FETCHED));
+    delta.put("http://e.com/", datum(CrawlDatum.STATUS_DB_UNFETCHED));
+    writeParts(CrawlDbDeltas.newDeltaPath(fs, crawlDb), crawlDbParts, delta);
+
+    Map<String, Node> nodes = new TreeMap<String, Node>();
+    nodes.put("http://a.com/", node(1.0f));
+    nodes.put("http://b.com/", node(2.0f));
+    nodes.put("http://c.com/", node(3.0f));
+    nodes.put("http://x.com/", node(4.0f));
+    nodes.put("http://y.com/", node(5.0f));
+    writeParts(new Path(webGraphDb, WebGraph.NODE_DIR), nodeDbParts, nodes);
+  }
+
+  private Map<String, CrawlDatum> read(Path crawlDb) throws Exception {
+    Map<String, CrawlDatum> res = new TreeMap<String, CrawlDatum>();
+    Path current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    for (Path part : CrawlDbDeltas.getParts(fs, current)) {
+      MapFile.Reader reader = new MapFile.Reader(fs, part.toString(), conf);
+      Text key = new Text();
+      CrawlDatum value = new CrawlDatum();
+      while (reader.next(key, value)) {
+        res.put(key.toString(), value);
+        value = new CrawlDatum();
+      }
+      reader.close();
+    }
+    return res;
+  }
+
+  private Counters.Group update(String name, int nodeDbParts,
+    boolean mergeJoin) throws Exception {
+    Path crawlDb = new Path(testDir, name + "/crawldb");
+    Path webGraphDb = new Path(testDir, name + "/webgraphdb");
+    create(crawlDb, webGraphDb, NUM_PARTS, nodeDbParts);
+    Configuration updateConf = new Configuration(conf);
+    updateConf.setBoolean(ScoreUpdater.MERGE_JOIN, mergeJoin);
+    ScoreUpdater updater = new ScoreUpdater();
+    updater.setConf(updateConf);
+    return updater.update(crawlDb, webGraphDb);
+  }
+
+  private void assertCounters(Counters.Group counters) {
+    assertEquals(3, counters.getCounter("matched"));
+    assertEquals(2, counters.getCounter("crawldb only"));
+    assertEquals(2, counters.getCounter("node only"));
+  }
+
+  private void assertScores(Map<String, CrawlDatum> crawlDb) {
+    assertEquals(5, crawlDb.size());
+    assertEquals(1.0f, crawlDb.get("http://a.com/").getScore());
+    assertEquals(2.0f, crawlDb.get("http://b.com/").getScore());
+    assertEquals(3.0f, crawlDb.get("http://c.com/").getScore());
+    assertEquals(CLEAR_SCORE, crawlDb.get("http://d.com/").getScore());
+    assertEquals(CLEAR_SCORE, crawlDb.get("http://e.com/").getScore());
+    // the delta wins
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED,
+        crawlDb.get("http://b.com/").getStatus());
+  }
+
+  public void testJoins() throws Exception {
+    Counters.Group reduceSide = update("reduce", NUM_PARTS, false);
+    Counters.Group mapSide = update("merge", NUM_PARTS, true);
+    assertCounters(reduceSide);
+    assertCounters(mapSide);
+
+    Map<String, CrawlDatum> expected = read(new Path(testDir, "reduce/crawldb"));
+    assertScores(expected);
+    assertEquals(expected, read(new Path(testDir, "merge/crawldb")));
+    // the deltas are merged into the new crawldb
+    assertEquals(0, CrawlDbDeltas.getDeltas(fs,
+        new Path(testDir, "merge/crawldb")).length);
+    // the partitioning is kept
+    assertEquals(NUM_PARTS, CrawlDbDeltas.getParts(fs,
+        new Path(testDir, "merge/crawldb/" + CrawlDb.CURRENT_NAME)).length);
+  }
+
+  public void testFallback() throws Exception {
+    // the map-side join needs the same number of parts, the reduce-side join
+    // is used instead
+    Counters.Group counters = update("fallback", 1, true);
+    assertCounters(counters);
+    assertScores(read(new Path(testDir, "fallback/crawldb")));
+  }
+
+  public void testRepartition() throws Exception {
+    // the local job runner only runs a single reducer
+    Path crawlDb = new Path(testDir, "repartition/crawldb");
+    Path webGraphDb = new Path(testDir, "repartition/webgraphdb");
+    create(crawlDb, webGraphDb, 1, NUM_PARTS);
+    NodeDbRepartitioner repartitioner = new NodeDbRepartitioner();
+    repartitioner.setConf(conf);
+    repartitioner.repartition(webGraphDb, 1);
+    assertEquals(1, CrawlDbDeltas.getParts(fs,
+        new Path(webGraphDb, WebGraph.NODE_DIR)).length);
+
+    Configuration updateConf = new Configuration(conf);
+    updateConf.setBoolean(ScoreUpdater.MERGE_JOIN, true);
+    ScoreUpdater updater = new ScoreUpdater();
+    updater.setConf(updateConf);
+    assertCounters(updater.update(crawlDb, webGraphDb));
+    assertScores(read(crawlDb));
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests that incremental WebGraph updates give the same inlinks and nodes as
+ * a full rebuild.
+ */
+public class TestWebGraph extends TestCase {
+
+  private static final String[][] SEGMENT1 = {
+    { "http://a.com/1", "http://b.com/1", "http://c.com/1" },
+    { "http://b.com/1", "http://a.com/1" },
+    { "http://c.com/1", "http://b.com/1" },
+  };
+
+  // a.com/1 drops b.com/1 and links d.com/1, c.com/1 changes its anchor
+  private static final String[][] SEGMENT2 = {
+    { "http://a.com/1", "http://c.com/1", "http://d.com/1" },
+    { "http://c.com/1", "http://b.com/1 changed" },
+    { "http://d.com/1", "http://a.com/1" },
+  };
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    testDir = new Path("build/test/webgraph-test");
+    fs.delete(testDir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private Path createSegment(String name, String[][] pages, long fetchTime)
+      throws Exception {
+    Path segment = new Path(testDir, name);
+    MapFile.Writer writer = new MapFile.Writer(conf, fs,
+        new Path(new Path(segment, ParseData.DIR_NAME), "part-00000").toString(),
+        Text.class, ParseData.class);
+    for (String[] page : pages) {
+      Outlink[] outlinks = new Outlink[page.length - 1];
+      for (int i = 1; i < page.length; i++) {
+        String[] link = page[i].split(" ");
+        outlinks[i - 1] = new Outlink(link[0], link.length > 1 ? link[1] : "");
+      }
+      Metadata contentMeta = new Metadata();
+      contentMeta.set(Nutch.FETCH_TIME_KEY, Long.toString(fetchTime));
+      writer.append(new Text(page[0]), new ParseData(ParseStatus.STATUS_SUCCESS,
+          "", outlinks, contentMeta));
+    }
+    writer.close();
+    return segment;
+  }
+
+  private void update(Path webGraphDb, Path segment, boolean incremental)
+      throws Exception {
+    Configuration graphConf = new Configuration(conf);
+    graphConf.setBoolean(WebGraph.INCREMENTAL, incremental);
+    WebGraph webGraph = new WebGraph();
+    webGraph.setConf(graphConf);
+    webGraph.createWebGraph(webGraphDb, new Path[] { segment }, false, false);
+  }
+
+  private Map<String, String> readDb(Path webGraphDb) throws Exception {
+    Map<String, TreeSet<String>> inlinks = new TreeMap<String, TreeSet<String>>();
+    for (MapFile.Reader reader : MapFileOutputFormat.getReaders(fs,
+        new Path(webGraphDb, WebGraph.INLINK_DIR), conf)) {
+      Text key = new Text();
+      LinkDatum inlink = new LinkDatum();
+      while (reader.next(key, inlink)) {
+        if (!inlinks.containsKey(key.toString())) {
+          inlinks.put(key.toString(), new TreeSet<String>());
+        }
+        inlinks.get(key.toString()).add(inlink.getUrl() + " " + inlink.getAnchor());
+      }
+      reader.close();
+    }
+    Map<String, String> result = new TreeMap<String, String>();
+    for (Map.Entry<String, TreeSet<String>> entry : inlinks.entrySet()) {
+      result.put("inlinks " + entry.getKey(), entry.getValue().toString());
+    }
+    for (MapFile.Reader reader : MapFileOutputFormat.getReaders(fs,
+        new Path(webGraphDb, WebGraph.NODE_DIR), conf)) {
+      Text key = new Text();
+      Node node = new Node();
+      while (reader.next(key, node)) {
+        result.put("node " + key, node.getNumInlinks() + " "
+            + node.getNumOutlinks());
+      }
+      reader.close();
+    }
+    return result;
+  }
+
+  public void testIncremental() throws Exception {
+    Path segment1 = createSegment("segment1", SEGMENT1, 1000L);
+    Path segment2 = createSegment("segment2", SEGMENT2, 2000L);
+
+    Path full = new Path(testDir, "full");
+    update(full, segment1, false);
+    update(full, segment2, false);
+
+    Path incremental = new Path(testDir, "incremental");
+    update(incremental, segment1, true);
+    update(incremental, segment2, true);
+
+    Map<String, String> expected = readDb(full);
+    assertEquals(expected, readDb(incremental));
+    assertEquals("2 2", expected.get("node http://a.com/1"));
+    assertEquals("[http://c.com/1 changed]", expected.get("inlinks http://b.com/1"));
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * A {@link Reporter} for calling mappers and reducers directly in tests,
+ * which keeps the counters.
+ */
+public class CountingReporter implements Reporter {
+
+  private Counters counters = new Counters();
+
+  /** Returns the value of a counter, 0 if it was never incremented. */
+  public long getValue(String group, String name) {
+    return counters.findCounter(group, name).getValue();
+  }
+
+  public Counters getCounters() {
+    return counters;
+  }
+
+  public void setStatus(String status) {}
+
+  public void progress() {}
+
+  public Counters.Counter getCounter(Enum<?> name) {
+    return counters.findCounter(name);
+  }
+
+  public Counters.Counter getCounter(String group, String name) {
+    return counters.findCounter(group, name);
+  }
+
+  public void incrCounter(Enum<?> key, long amount) {
+    counters.incrCounter(key, amount);
+  }
+
+  public void incrCounter(String group, String counter, long amount) {
+    counters.incrCounter(group, counter, amount);
+  }
+
+  public InputSplit getInputSplit() {
+    throw new UnsupportedOperationException();
+  }
+
+  public float getProgress() {
+    return 0;
+  }
+}
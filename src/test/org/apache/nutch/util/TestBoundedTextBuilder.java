@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/** Unit tests for BoundedTextBuilder. */
+public class TestBoundedTextBuilder extends TestCase {
+  public TestBoundedTextBuilder(String name) {
+    super(name);
+  }
+
+  public void testCollapse() {
+    BoundedTextBuilder text = new BoundedTextBuilder(-1);
+    assertTrue(text.append("  \n "));
+    assertEquals("", text.toString());
+    assertTrue(text.append(" Whitespace\ttest  "));
+    assertTrue(text.append("\r\n"));
+    assertTrue(text.append("\n  \twhitespace  test\r\n\t"));
+    assertEquals("Whitespace test whitespace test", text.toString());
+    assertFalse(text.isTruncated());
+  }
+
+  public void testSameAsRegex() {
+    Random random = new Random(0);
+    String chars = " \t\n\u000B\f\r\u0001\u00A0ab";
+    for (int i = 0; i < 10000; i++) {
+      BoundedTextBuilder text = new BoundedTextBuilder(-1);
+      StringBuilder expected = new StringBuilder();
+      for (int piece = random.nextInt(5); piece > 0; piece--) {
+        StringBuilder s = new StringBuilder();
+        for (int j = random.nextInt(10); j > 0; j--) {
+          s.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        text.append(s);
+        String collapsed = s.toString().replaceAll("\\s+", " ").trim();
+        if (collapsed.length() > 0) {
+          if (expected.length() > 0) expected.append(' ');
+          expected.append(collapsed);
+        }
+      }
+      assertEquals(expected.toString(), text.toString());
+    }
+  }
+
+  public void testMaxChars() {
+    BoundedTextBuilder text = new BoundedTextBuilder(12);
+    assertTrue(text.append(" one  two "));
+    assertFalse(text.append("three four"));
+    assertEquals("one two thre", text.toString());
+    assertTrue(text.isTruncated());
+    assertFalse(text.append("five"));
+    assertEquals("one two thre", text.toString());
+
+    // no separator without text after it
+    text.reset(8);
+    assertTrue(text.append("one two"));
+    assertFalse(text.append("three"));
+    assertEquals("one two", text.toString());
+
+    // no half surrogate pair
+    text.reset(5);
+    assertFalse(text.append("abcd\uD83D\uDE00"));
+    assertEquals("abcd", text.toString());
+
+    text.reset(-1);
+    assertTrue(text.append("three four"));
+    assertEquals("three four", text.toString());
+    assertFalse(text.isTruncated());
+  }
+}
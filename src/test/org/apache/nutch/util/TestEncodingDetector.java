@@ -90,4 +90,93 @@ public class TestEncodingDetector extends TestCase {
     assertEquals("utf-8", encoding.toLowerCase());
   }
 
+  private static byte[] ascii(String s) throws UnsupportedEncodingException {
+    return s.getBytes("ASCII");
+  }
+
+  public void testSniffing() throws Exception {
+    assertEquals("utf-8", EncodingDetector.sniffCharacterEncoding(ascii(
+        "<html><head><meta http-equiv=\"Content-Type\""
+        + " content=\"text/html; charset=utf-8\"></head>"), 2000));
+    // NUTCH-1006 Meta equiv with single quotes not accepted
+    assertEquals("ISO-8859-1", EncodingDetector.sniffCharacterEncoding(ascii(
+        "<META\tcontent='text/html; charset= ISO-8859-1'"
+        + " HTTP-EQUIV='content-type'>"), 2000));
+    // the first http-equiv meta tag is used
+    assertNull(EncodingDetector.sniffCharacterEncoding(ascii(
+        "<meta http-equiv=content-type content=text/html>"
+        + "<meta http-equiv=content-type content=\"charset=utf-8\">"), 2000));
+    // HTML5
+    assertEquals("Shift_JIS", EncodingDetector.sniffCharacterEncoding(ascii(
+        "<meta charset = \"Shift_JIS\" />"), 2000));
+    assertEquals("koi8-r", EncodingDetector.sniffCharacterEncoding(ascii(
+        "<meta charset=utf-8><meta http-equiv=\"content-type\""
+        + " content=\"text/html; charset=koi8-r\">"), 2000));
+    assertNull(EncodingDetector.sniffCharacterEncoding(ascii(
+        "<meta name=\"description\" content=\"charset=utf-8\">"), 2000));
+    // only the given length is scanned
+    assertNull(EncodingDetector.sniffCharacterEncoding(ascii(
+        "<meta charset=utf-8>"), 10));
+  }
+
+  public void testDetectEncoding() throws Exception {
+    conf.setInt(EncodingDetector.MIN_CONFIDENCE_KEY, -1);
+    Metadata metadata = new Metadata();
+    EncodingDetector detector = new EncodingDetector(conf);
+    byte[] html = ascii("<html><head><meta http-equiv=\"content-type\""
+        + " content=\"text/html; charset=koi8-r\"></head></html>");
+    Content content = new Content("http://www.example.com/",
+        "http://www.example.com/", html, "text/html", metadata, conf);
+    assertEquals("koi8-r", detector.detectEncoding(content, true,
+        "windows-1252"));
+    // meta tags are only sniffed in HTML
+    assertEquals("windows-1252", detector.detectEncoding(content, false,
+        "windows-1252"));
+    // the header comes first
+    metadata.set(Response.CONTENT_TYPE, "text/html; charset=ISO-8859-2");
+    assertEquals("iso-8859-2", detector.detectEncoding(content, true,
+        "windows-1252"));
+
+    // a byte order mark decides
+    byte[] bom = new byte[html.length + 3];
+    bom[0] = (byte) 0xef;
+    bom[1] = (byte) 0xbb;
+    bom[2] = (byte) 0xbf;
+    System.arraycopy(html, 0, bom, 3, html.length);
+    content = new Content("http://www.example.com/",
+        "http://www.example.com/", bom, "text/html", metadata, conf);
+    assertEquals("utf-8", detector.detectEncoding(content, true,
+        "windows-1252"));
+    assertEquals("utf-16", EncodingDetector.detectByteOrderMark(
+        new byte[] { (byte) 0xff, (byte) 0xfe, 'a', 0 }));
+
+    // enable autodetection, which only runs if the declarations disagree
+    conf.setInt(EncodingDetector.MIN_CONFIDENCE_KEY, 50);
+    detector = new EncodingDetector(conf);
+    metadata.clear();
+    metadata.set(Response.CONTENT_TYPE, "text/html; charset=UTF-16");
+    content = new Content("http://www.example.com/",
+        "http://www.example.com/", contentInOctets, "text/html", metadata,
+        conf);
+    assertEquals("utf-16", detector.detectEncoding(content, true,
+        "windows-1252"));
+    byte[] utf8 = new byte[html.length + contentInOctets.length];
+    System.arraycopy(html, 0, utf8, 0, html.length);
+    System.arraycopy(contentInOctets, 0, utf8, html.length,
+        contentInOctets.length);
+    content = new Content("http://www.example.com/",
+        "http://www.example.com/", utf8, "text/html", metadata, conf);
+    assertEquals("utf-8", detector.detectEncoding(content, true,
+        "windows-1252"));
+    // the result is cached for the host
+    metadata.clear();
+    content = new Content("http://www.example.com/a.html",
+        "http://www.example.com/a.html",
+        ascii("<html><body>plain text</body></html>"), "text/html", metadata,
+        conf);
+    assertEquals("utf-8", detector.detectEncoding(content, true,
+        "windows-1252"));
+    conf.setInt(EncodingDetector.MIN_CONFIDENCE_KEY, -1);
+  }
+
 }
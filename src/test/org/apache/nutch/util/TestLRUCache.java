@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import junit.framework.TestCase;
+
+public class TestLRUCache extends TestCase {
+
+  public TestLRUCache(String name) {
+    super(name);
+  }
+
+  public void testEviction() {
+    LRUCache<String, Integer> cache = new LRUCache<String, Integer>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    // access "a", so that "b" is the least recently used entry
+    assertEquals(Integer.valueOf(1), cache.get("a"));
+    cache.put("c", 3);
+    assertEquals(2, cache.size());
+    assertTrue(cache.containsKey("a"));
+    assertFalse(cache.containsKey("b"));
+    assertTrue(cache.containsKey("c"));
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/** Unit tests for QuantileSketch and HyperLogLog. */
+public class TestQuantileSketch extends TestCase {
+
+  public void testQuantiles() {
+    QuantileSketch sketch = new QuantileSketch(0.01);
+    for (int i = 1; i <= 10000; i++) {
+      sketch.add(i);
+    }
+    assertEquals(10000, sketch.getCount());
+    assertEquals(5000, sketch.getQuantile(0.5), 5000 * 0.01);
+    assertEquals(9900, sketch.getQuantile(0.99), 9900 * 0.01);
+    assertEquals(1, sketch.getQuantile(0), 0.01);
+  }
+
+  public void testMerge() {
+    QuantileSketch all = new QuantileSketch(0.01);
+    QuantileSketch odd = new QuantileSketch(0.01);
+    QuantileSketch even = new QuantileSketch(0.01);
+    for (int i = -100; i <= 1000; i++) {
+      all.add(i);
+      if (i % 2 == 0) even.add(i); else odd.add(i);
+    }
+    // merge through the bucket names, as the CrawlDb statistics do
+    for (Map.Entry<String, Long> e : odd.getBuckets().entrySet()) {
+      even.add(e.getKey(), e.getValue());
+    }
+    assertEquals(all.getCount(), even.getCount());
+    assertEquals(all.getQuantile(0.1), even.getQuantile(0.1), 0.0001);
+    assertEquals(all.getQuantile(0.5), even.getQuantile(0.5), 0.0001);
+    assertEquals(all.getQuantile(0.9), even.getQuantile(0.9), 0.0001);
+  }
+
+  public void testHyperLogLog() {
+    HyperLogLog a = new HyperLogLog();
+    HyperLogLog b = new HyperLogLog();
+    for (int i = 0; i < 100000; i++) {
+      a.add("host" + i + ".example.com");
+      // duplicates must not be counted
+      b.add("host" + (i % 50000) + ".example.com");
+    }
+    assertEquals(100000, a.cardinality(), 100000 * 0.05);
+    assertEquals(50000, b.cardinality(), 50000 * 0.05);
+    b.merge(a);
+    assertEquals(100000, b.cardinality(), 100000 * 0.05);
+  }
+}